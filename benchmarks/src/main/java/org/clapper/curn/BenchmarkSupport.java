@@ -0,0 +1,327 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+
+import org.clapper.util.config.ConfigurationException;
+
+/**
+ * Shared set-up code for the <i>curn</i> benchmarks: building a
+ * configuration with a given number of feeds, generating feed and item
+ * URLs, and reading the bundled feed corpus. Everything it generates is
+ * deterministic, so runs on different commits measure the same work.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public final class BenchmarkSupport
+{
+    /*----------------------------------------------------------------------*\
+                             Public Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The feeds in the bundled corpus, which is the parser test data.
+     */
+    public static final String[] CORPUS =
+    {
+        "atom.xml",
+        "rss091.rdf",
+        "rss1.xml",
+        "rss2.rdf"
+    };
+
+    /**
+     * The host used in generated URLs. It has to be one that resolves
+     * without going to the network, since the configuration puts feed URLs
+     * in a hash map, and <tt>URL.hashCode()</tt> resolves the host.
+     */
+    public static final String HOST = "localhost";
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private BenchmarkSupport()
+    {
+        // Cannot be instantiated.
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the URL of a generated feed.
+     *
+     * @param feed  the feed number
+     *
+     * @return the URL
+     */
+    public static URL feedURL(int feed)
+    {
+        return makeURL("http://" + HOST + "/feeds/" + feed + ".xml");
+    }
+
+    /**
+     * Get the URL of an item in a generated feed.
+     *
+     * @param feed  the feed number
+     * @param item  the item number
+     *
+     * @return the URL
+     */
+    public static URL itemURL(int feed, int item)
+    {
+        return makeURL("http://" + HOST + "/feeds/" + feed + "/items/" +
+                       item + ".html");
+    }
+
+    /**
+     * Load a configuration with a given number of feeds. The main section
+     * gets any extra parameters supplied; the feeds are named after
+     * {@link #feedURL}.
+     *
+     * @param totalFeeds  how many feeds to configure
+     * @param mainParams  extra parameters for the main section, or null
+     *
+     * @return the configuration
+     *
+     * @throws CurnException on error
+     */
+    public static CurnConfig loadConfig(int                totalFeeds,
+                                        Map<String,String> mainParams)
+        throws CurnException
+    {
+        getMetaPlugIn();
+
+        StringBuilder buf = new StringBuilder();
+        buf.append("[" + CurnConfig.MAIN_SECTION + "]\n");
+        buf.append(CurnConfig.VAR_DAYS_TO_CACHE + ": 365\n");
+        if (mainParams != null)
+        {
+            for (Map.Entry<String,String> param : mainParams.entrySet())
+                buf.append(param.getKey() + ": " + param.getValue() + "\n");
+        }
+
+        for (int i = 0; i < totalFeeds; i++)
+        {
+            buf.append("\n[Feed" + i + "]\n");
+            buf.append(CurnConfig.VAR_FEED_URL + ": " + feedURL(i) + "\n");
+        }
+
+        // The configuration is loaded from a file, because the
+        // configuration parser needs a URL to resolve includes against.
+
+        CurnConfig config = new CurnConfig(new PrintWriter(new StringWriter()));
+        try
+        {
+            File file = File.createTempFile("curn-bench", ".cfg");
+            try
+            {
+                FileOutputStream out = new FileOutputStream(file);
+                try
+                {
+                    out.write(buf.toString().getBytes("UTF-8"));
+                }
+
+                finally
+                {
+                    out.close();
+                }
+
+                config.load(file, "UTF-8");
+            }
+
+            finally
+            {
+                file.delete();
+            }
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException(ex);
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+
+        return config;
+    }
+
+    /**
+     * Get the <tt>MetaPlugIn</tt>, creating it (with no plug-ins) if this
+     * is the first call. The configuration code can't run without it.
+     *
+     * @return the <tt>MetaPlugIn</tt>
+     *
+     * @throws CurnException on error
+     */
+    public static synchronized MetaPlugIn getMetaPlugIn()
+        throws CurnException
+    {
+        MetaPlugIn metaPlugIn = null;
+        try
+        {
+            metaPlugIn = MetaPlugIn.getMetaPlugIn();
+        }
+
+        catch (AssertionError ex)
+        {
+            // Assertions are enabled, and it doesn't exist yet.
+        }
+
+        if (metaPlugIn == null)
+            metaPlugIn = MetaPlugIn.createMetaPlugIn();
+
+        return metaPlugIn;
+    }
+
+    /**
+     * Create an empty feed cache.
+     *
+     * @param config  the configuration
+     *
+     * @return the cache
+     */
+    public static FeedCache newFeedCache(CurnConfig config)
+    {
+        return new FeedCache(config);
+    }
+
+    /**
+     * Read one of the corpus feeds from the class path.
+     *
+     * @param name  the name, from {@link #CORPUS}
+     *
+     * @return the contents
+     *
+     * @throws IOException on error
+     */
+    public static byte[] readCorpusFeed(String name)
+        throws IOException
+    {
+        InputStream in = BenchmarkSupport.class.getResourceAsStream("/" +
+                                                                    name);
+        if (in == null)
+            throw new IOException("Can't find \"" + name + "\" in corpus");
+
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+
+            return out.toByteArray();
+        }
+
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Create an empty temporary directory, deleted when the JVM exits.
+     *
+     * @return the directory
+     *
+     * @throws IOException on error
+     */
+    public static File createTempDirectory()
+        throws IOException
+    {
+        File dir = File.createTempFile("curn-bench", "");
+        if ((! dir.delete()) || (! dir.mkdir()))
+            throw new IOException("Can't create directory \"" + dir + "\"");
+
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /**
+     * Delete a directory and everything in it.
+     *
+     * @param dir  the directory
+     */
+    public static void deleteDirectory(File dir)
+    {
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                if (f.isDirectory())
+                    deleteDirectory(f);
+                else
+                    f.delete();
+            }
+        }
+
+        dir.delete();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static URL makeURL(String s)
+    {
+        try
+        {
+            return new URL(s);
+        }
+
+        catch (MalformedURLException ex)
+        {
+            throw new IllegalArgumentException(s, ex);
+        }
+    }
+}
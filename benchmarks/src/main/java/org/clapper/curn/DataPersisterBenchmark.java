@@ -0,0 +1,197 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks saving and loading the cache with the {@link XMLDataPersister},
+ * in each of its layouts. Each save and load is a single shot, since a
+ * million-entry cache takes seconds.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(2)
+public class DataPersisterBenchmark
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int TOTAL_FEEDS = 1000;
+
+    /*----------------------------------------------------------------------*\
+                                Parameters
+    \*----------------------------------------------------------------------*/
+
+    @Param({"10000", "1000000"})
+    public int entries;
+
+    /**
+     * <tt>plain</tt> for a single XML file, <tt>gzip</tt> for a single
+     * compressed file, <tt>sharded</tt> for 16 shards. Repeated saves of
+     * a sharded cache only write the shards that changed, which, here, is
+     * none of them.
+     */
+    @Param({"plain", "gzip", "sharded"})
+    public String layout;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private File dir;
+    private CurnConfig config;
+    private FeedCache cache;
+
+    /*----------------------------------------------------------------------*\
+                                 Set-up
+    \*----------------------------------------------------------------------*/
+
+    @Setup
+    public void setUp()
+        throws CurnException, IOException
+    {
+        dir = BenchmarkSupport.createTempDirectory();
+
+        Map<String,String> params = new HashMap<String,String>();
+        params.put("CacheFile", new File(dir, "cache.xml").getPath());
+        if (layout.equals("gzip"))
+            params.put("CompressCache", "true");
+        else if (layout.equals("sharded"))
+            params.put("TotalCacheShards", "16");
+
+        config = BenchmarkSupport.loadConfig(TOTAL_FEEDS, params);
+
+        // Fill a cache, and save it, so there's something to load. Each
+        // feed needs its own (channel) entry, as it would after a real
+        // run; the persister doesn't save the items of a feed without one.
+
+        cache = BenchmarkSupport.newFeedCache(config);
+        Date now = new Date();
+        for (int feed = 0; feed < TOTAL_FEEDS; feed++)
+        {
+            URL url = BenchmarkSupport.feedURL(feed);
+            cache.addToCache(url, now, config.getFeedInfoMap().get(url));
+        }
+
+        for (int i = 0; i < entries; i++)
+        {
+            int feed = i % TOTAL_FEEDS;
+            cache.addToCache(BenchmarkSupport.itemURL(feed, i),
+                             now,
+                             config.getFeedInfoMap()
+                                   .get(BenchmarkSupport.feedURL(feed)));
+        }
+
+        newPersister().saveData(cache);
+
+        // Make sure the benchmark measures what it claims to.
+
+        int loaded = load().getAllEntries().size();
+        if (loaded != (entries + TOTAL_FEEDS))
+        {
+            throw new IllegalStateException("Saved " +
+                                            (entries + TOTAL_FEEDS) +
+                                            " entries, but loaded " +
+                                            loaded);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        BenchmarkSupport.deleteDirectory(dir);
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Benchmarks
+    \*----------------------------------------------------------------------*/
+
+    @Benchmark
+    public FeedCache load()
+        throws CurnException
+    {
+        FeedCache loaded = BenchmarkSupport.newFeedCache(config);
+        newPersister().loadData(loaded);
+        return loaded;
+    }
+
+    @Benchmark
+    public void save()
+        throws CurnException
+    {
+        // The cache was never loaded, so it always counts as modified.
+
+        newPersister().saveData(cache);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private DataPersister newPersister()
+        throws CurnException
+    {
+        DataPersister persister = new XMLDataPersister();
+        persister.init(config);
+        return persister;
+    }
+}
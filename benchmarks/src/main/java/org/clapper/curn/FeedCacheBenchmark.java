@@ -0,0 +1,180 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.net.URL;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link FeedCache} lookups and additions, alone and mixed,
+ * with several threads contending for the cache the way the download
+ * threads do.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FeedCacheBenchmark
+{
+    /*----------------------------------------------------------------------*\
+                              Public Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The shared cache, filled with <tt>entries</tt> items spread over
+     * 100 feeds.
+     */
+    @State(Scope.Benchmark)
+    public static class SharedCache
+    {
+        private static final int TOTAL_FEEDS = 100;
+
+        @Param({"10000", "1000000"})
+        public int entries;
+
+        FeedCache cache;
+        FeedInfo[] feeds;
+        URL[] itemURLs;
+
+        @Setup
+        public void setUp()
+            throws CurnException
+        {
+            CurnConfig config = BenchmarkSupport.loadConfig(TOTAL_FEEDS, null);
+            cache = BenchmarkSupport.newFeedCache(config);
+            feeds = new FeedInfo[TOTAL_FEEDS];
+            for (int i = 0; i < TOTAL_FEEDS; i++)
+            {
+                feeds[i] = config.getFeedInfoMap()
+                                 .get(BenchmarkSupport.feedURL(i));
+            }
+
+            itemURLs = new URL[entries];
+            Date now = new Date();
+            for (int i = 0; i < entries; i++)
+            {
+                itemURLs[i] = BenchmarkSupport.itemURL(i % TOTAL_FEEDS, i);
+                cache.addToCache(itemURLs[i], now, feeds[i % TOTAL_FEEDS]);
+            }
+        }
+    }
+
+    /**
+     * Each thread's position in a fixed, pseudo-random sequence of
+     * entries. Each thread gets a different sequence, but the same set of
+     * sequences is used on every run.
+     */
+    @State(Scope.Thread)
+    public static class Cursor
+    {
+        private static final AtomicInteger nextSeed = new AtomicInteger(42);
+
+        private Random random;
+
+        @Setup
+        public void setUp()
+        {
+            random = new Random(nextSeed.getAndIncrement());
+        }
+
+        int next(int bound)
+        {
+            return random.nextInt(bound);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Benchmarks
+    \*----------------------------------------------------------------------*/
+
+    @Benchmark
+    @Threads(4)
+    public FeedCacheEntry lookup(SharedCache shared, Cursor cursor)
+    {
+        return shared.cache.getEntryByURL
+            (shared.itemURLs[cursor.next(shared.itemURLs.length)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void addToCache(SharedCache shared, Cursor cursor)
+    {
+        // Re-adding an existing entry updates it in place, so the cache
+        // doesn't grow during the run.
+
+        int i = cursor.next(shared.itemURLs.length);
+        shared.cache.addToCache(shared.itemURLs[i],
+                                null,
+                                shared.feeds[i % shared.feeds.length]);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public FeedCacheEntry mixedLookup(SharedCache shared, Cursor cursor)
+    {
+        return lookup(shared, cursor);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedAddToCache(SharedCache shared, Cursor cursor)
+    {
+        addToCache(shared, cursor);
+    }
+}
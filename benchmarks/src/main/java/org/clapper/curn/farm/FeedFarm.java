@@ -0,0 +1,808 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.farm;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.GZIPOutputStream;
+
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>An embeddable HTTP server that serves any number of synthetic RSS and
+ * Atom feeds, for measuring <i>curn</i>'s throughput without going near a
+ * real server. It listens on the loopback interface only, and serves
+ * feed <i>n</i> at <tt>http://localhost:<i>port</i>/feeds/<i>n</i>.xml</tt>
+ * (see {@link #getFeedURL}).</p>
+ *
+ * <p>The feeds change in <i>generations</i>. Each call to
+ * {@link #nextGeneration} gives every feed a chance, set by
+ * {@link #setChangeProbability}, of gaining new items; a feed that doesn't
+ * change keeps its <tt>Last-Modified</tt> and <tt>ETag</tt> headers, and
+ * answers conditional requests with 304. Everything random (which feeds
+ * change, response latency, injected errors) comes from a seeded generator
+ * keyed by feed, generation and request, so two runs with the same
+ * settings see the same responses.</p>
+ *
+ * <p>The settings must be made before {@link #start} is called.</p>
+ *
+ * @see FeedFarmHarness
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class FeedFarm
+{
+    /*----------------------------------------------------------------------*\
+                             Public Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * How response latency is distributed around the mean.
+     */
+    public enum LatencyDistribution
+    {
+        /** No added latency */
+        NONE,
+
+        /** Every response takes the mean */
+        CONSTANT,
+
+        /** Uniform between zero and twice the mean */
+        UNIFORM,
+
+        /** Exponential, with the given mean; a few responses are slow */
+        EXPONENTIAL
+    }
+
+    /**
+     * A snapshot of the farm's request counters.
+     */
+    public static final class Statistics
+    {
+        private final long requests;
+        private final long ok;
+        private final long notModified;
+        private final long errors;
+        private final long bytesSent;
+
+        Statistics(long requests,
+                   long ok,
+                   long notModified,
+                   long errors,
+                   long bytesSent)
+        {
+            this.requests    = requests;
+            this.ok          = ok;
+            this.notModified = notModified;
+            this.errors      = errors;
+            this.bytesSent   = bytesSent;
+        }
+
+        /**
+         * Get the total number of feed requests.
+         *
+         * @return the count
+         */
+        public long getRequests()
+        {
+            return requests;
+        }
+
+        /**
+         * Get the number of requests answered with a feed.
+         *
+         * @return the count
+         */
+        public long getOK()
+        {
+            return ok;
+        }
+
+        /**
+         * Get the number of requests answered with 304 (Not Modified).
+         *
+         * @return the count
+         */
+        public long getNotModified()
+        {
+            return notModified;
+        }
+
+        /**
+         * Get the number of requests answered with an injected error.
+         *
+         * @return the count
+         */
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        /**
+         * Get the number of feed bytes sent, after compression.
+         *
+         * @return the count
+         */
+        public long getBytesSent()
+        {
+            return bytesSent;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String FEED_PATH_PREFIX = "/feeds/";
+
+    /**
+     * The statuses an injected error can have.
+     */
+    private static final int[] ERROR_STATUSES = {500, 503, 404};
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * A feed's content at a given generation.
+     */
+    private static final class Rendition
+    {
+        final int generation;
+        final long lastModified;
+        final String eTag;
+        final byte[] xml;
+        private byte[] gzipped = null;
+
+        Rendition(int generation, long lastModified, String eTag, byte[] xml)
+        {
+            this.generation   = generation;
+            this.lastModified = lastModified;
+            this.eTag         = eTag;
+            this.xml          = xml;
+        }
+
+        synchronized byte[] getGzipped()
+            throws IOException
+        {
+            if (gzipped == null)
+            {
+                ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(buf);
+                gzip.write(xml);
+                gzip.close();
+                gzipped = buf.toByteArray();
+            }
+
+            return gzipped;
+        }
+    }
+
+    /**
+     * Serves the feeds.
+     */
+    private class FeedHandler implements HttpHandler
+    {
+        public void handle(HttpExchange exchange)
+            throws IOException
+        {
+            try
+            {
+                serve(exchange);
+            }
+
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            catch (RuntimeException ex)
+            {
+                log.error("Error serving " + exchange.getRequestURI(), ex);
+                exchange.sendResponseHeaders(500, -1);
+            }
+
+            finally
+            {
+                exchange.close();
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final int totalFeeds;
+    private int itemsPerFeed = 20;
+    private int itemBytes = 400;
+    private double changeProbability = 0.25;
+    private int newItemsPerChange = 2;
+    private LatencyDistribution latencyDistribution = LatencyDistribution.NONE;
+    private long meanLatency = 0;
+    private double errorRate = 0.0;
+    private boolean gzip = true;
+    private boolean conditionalGet = true;
+    private FeedGenerator.Format format = null;
+    private long seed = 42;
+    private int serverThreads = 32;
+
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+
+    /**
+     * The current generation, and when each one started.
+     */
+    private volatile int generation = 0;
+    private final List<Long> generationTimes = new ArrayList<Long>();
+
+    /**
+     * The most recently served rendition of each feed, and how many times
+     * each feed has been requested.
+     */
+    private final AtomicReferenceArray<Rendition> renditions;
+    private final AtomicIntegerArray fetches;
+
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong ok = new AtomicLong(0);
+    private final AtomicLong notModified = new AtomicLong(0);
+    private final AtomicLong errors = new AtomicLong(0);
+    private final AtomicLong bytesSent = new AtomicLong(0);
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(FeedFarm.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new feed farm. It doesn't serve anything until
+     * {@link #start} is called.
+     *
+     * @param totalFeeds  how many feeds to serve
+     */
+    public FeedFarm(int totalFeeds)
+    {
+        this.totalFeeds = totalFeeds;
+        this.renditions = new AtomicReferenceArray<Rendition>(totalFeeds);
+        this.fetches = new AtomicIntegerArray(totalFeeds);
+        generationTimes.add(toNextSecond(System.currentTimeMillis()));
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Set how many items each feed contains. Defaults to 20.
+     *
+     * @param items  the number of items
+     */
+    public void setItemsPerFeed(int items)
+    {
+        this.itemsPerFeed = Math.max(1, items);
+    }
+
+    /**
+     * Set roughly how many bytes of description each item has, which
+     * controls the size of the feeds. Defaults to 400.
+     *
+     * @param bytes  the size
+     */
+    public void setItemBytes(int bytes)
+    {
+        this.itemBytes = Math.max(0, bytes);
+    }
+
+    /**
+     * Set the item churn: the chance that a feed changes in a new
+     * generation, and how many new items it gets when it does. Defaults
+     * to 0.25 and 2.
+     *
+     * @param probability  the chance a feed changes, from 0 to 1
+     * @param newItems     how many items a changed feed gains
+     */
+    public void setChangeProbability(double probability, int newItems)
+    {
+        this.changeProbability = probability;
+        this.newItemsPerChange = Math.max(1, newItems);
+    }
+
+    /**
+     * Set the latency added to each response. Defaults to none.
+     *
+     * @param distribution  how the latency is distributed
+     * @param meanMillis    the mean latency, in milliseconds
+     */
+    public void setLatency(LatencyDistribution distribution, long meanMillis)
+    {
+        this.latencyDistribution = distribution;
+        this.meanLatency = meanMillis;
+    }
+
+    /**
+     * Set the fraction of requests that get an error response (500, 503
+     * or 404) instead of a feed. Defaults to 0.
+     *
+     * @param rate  the error rate, from 0 to 1
+     */
+    public void setErrorRate(double rate)
+    {
+        this.errorRate = rate;
+    }
+
+    /**
+     * Set whether to gzip feeds for clients that accept it. Defaults to
+     * <tt>true</tt>.
+     *
+     * @param enable  <tt>true</tt> to gzip, <tt>false</tt> not to
+     */
+    public void setGzip(boolean enable)
+    {
+        this.gzip = enable;
+    }
+
+    /**
+     * Set whether to answer conditional requests (<tt>If-None-Match</tt>
+     * and <tt>If-Modified-Since</tt>) with 304 when a feed hasn't
+     * changed. Defaults to <tt>true</tt>.
+     *
+     * @param enable  <tt>true</tt> to honor conditional requests,
+     *                <tt>false</tt> to always send the feed
+     */
+    public void setConditionalGet(boolean enable)
+    {
+        this.conditionalGet = enable;
+    }
+
+    /**
+     * Set the format of the feeds. By default, even-numbered feeds are
+     * RSS and odd-numbered feeds are Atom.
+     *
+     * @param format  the format, or null for the mix
+     */
+    public void setFormat(FeedGenerator.Format format)
+    {
+        this.format = format;
+    }
+
+    /**
+     * Set the seed for everything random. Defaults to 42.
+     *
+     * @param seed  the seed
+     */
+    public void setSeed(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Set how many threads serve requests. Since latency is simulated by
+     * sleeping, this has to be at least the number of concurrent requests
+     * expected, or the latency will queue up. Defaults to 32.
+     *
+     * @param threads  the number of threads
+     */
+    public void setServerThreads(int threads)
+    {
+        this.serverThreads = Math.max(1, threads);
+    }
+
+    /**
+     * Get the number of feeds the farm serves.
+     *
+     * @return the number of feeds
+     */
+    public int getTotalFeeds()
+    {
+        return totalFeeds;
+    }
+
+    /**
+     * Start serving.
+     *
+     * @param port  the port to listen on, or 0 for any free port
+     *
+     * @throws IOException can't start the server
+     */
+    public synchronized void start(int port)
+        throws IOException
+    {
+        if (server != null)
+            throw new IllegalStateException("Feed farm already started");
+
+        server = HttpServer.create(new InetSocketAddress("localhost", port),
+                                   0);
+        executor = Executors.newFixedThreadPool(serverThreads);
+        server.setExecutor(executor);
+        server.createContext(FEED_PATH_PREFIX, new FeedHandler());
+        server.start();
+        log.info("Serving " + totalFeeds + " feeds on port " + getPort());
+    }
+
+    /**
+     * Stop serving.
+     */
+    public synchronized void stop()
+    {
+        if (server != null)
+        {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * Get the port the farm is listening on.
+     *
+     * @return the port
+     */
+    public synchronized int getPort()
+    {
+        if (server == null)
+            throw new IllegalStateException("Feed farm isn't started");
+
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Get the URL of a feed.
+     *
+     * @param feed  the feed number, from 0
+     *
+     * @return the URL
+     */
+    public URL getFeedURL(int feed)
+    {
+        try
+        {
+            return new URL("http://localhost:" + getPort() +
+                           FEED_PATH_PREFIX + feed + ".xml");
+        }
+
+        catch (MalformedURLException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Start a new generation, giving each feed a chance to change. The new
+     * generation's <tt>Last-Modified</tt> time is on a later second than
+     * anything served before, since HTTP dates have one-second resolution.
+     *
+     * @return the new generation number
+     */
+    public int nextGeneration()
+    {
+        synchronized (generationTimes)
+        {
+            long last = generationTimes.get(generationTimes.size() - 1);
+            long now = toNextSecond(System.currentTimeMillis());
+            generationTimes.add(Math.max(now, last + 1000));
+            generation = generationTimes.size() - 1;
+            return generation;
+        }
+    }
+
+    /**
+     * Get the request counters.
+     *
+     * @return a snapshot of the counters
+     */
+    public Statistics getStatistics()
+    {
+        return new Statistics(requests.get(),
+                              ok.get(),
+                              notModified.get(),
+                              errors.get(),
+                              bytesSent.get());
+    }
+
+    /**
+     * Reset the request counters to zero.
+     */
+    public void resetStatistics()
+    {
+        requests.set(0);
+        ok.set(0);
+        notModified.set(0);
+        errors.set(0);
+        bytesSent.set(0);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private void serve(HttpExchange exchange)
+        throws IOException, InterruptedException
+    {
+        requests.incrementAndGet();
+
+        int feed = parseFeedNumber(exchange.getRequestURI().getPath());
+        if (feed < 0)
+        {
+            errors.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+
+        int gen = generation;
+        Random random = newRandom(feed, gen, fetches.getAndIncrement(feed));
+
+        long latency = nextLatency(random);
+        if (latency > 0)
+            Thread.sleep(latency);
+
+        if (random.nextDouble() < errorRate)
+        {
+            errors.incrementAndGet();
+            int status = ERROR_STATUSES[random.nextInt(ERROR_STATUSES.length)];
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+
+        Rendition rendition = getRendition(feed, gen);
+        Headers request = exchange.getRequestHeaders();
+        Headers response = exchange.getResponseHeaders();
+        response.set("Last-Modified",
+                     FeedGenerator.formatRFC822(rendition.lastModified));
+        response.set("ETag", rendition.eTag);
+
+        if (conditionalGet && isNotModified(request, rendition))
+        {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        byte[] body = rendition.xml;
+        String acceptEncoding = request.getFirst("Accept-Encoding");
+        if (gzip &&
+            (acceptEncoding != null) &&
+            (acceptEncoding.indexOf("gzip") != -1))
+        {
+            body = rendition.getGzipped();
+            response.set("Content-Encoding", "gzip");
+        }
+
+        response.set("Content-Type",
+                     ((formatOf(feed) == FeedGenerator.Format.ATOM)
+                         ? "application/atom+xml"
+                         : "application/rss+xml") + "; charset=UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+
+        ok.incrementAndGet();
+        bytesSent.addAndGet(body.length);
+    }
+
+    private int parseFeedNumber(String path)
+    {
+        int result = -1;
+        if (path.startsWith(FEED_PATH_PREFIX) && path.endsWith(".xml"))
+        {
+            try
+            {
+                int feed = Integer.parseInt
+                    (path.substring(FEED_PATH_PREFIX.length(),
+                                    path.length() - ".xml".length()));
+                if ((feed >= 0) && (feed < totalFeeds))
+                    result = feed;
+            }
+
+            catch (NumberFormatException ex)
+            {
+                // Not one of ours.
+            }
+        }
+
+        return result;
+    }
+
+    private boolean isNotModified(Headers request, Rendition rendition)
+    {
+        boolean result = false;
+        String ifNoneMatch = request.getFirst("If-None-Match");
+        String ifModifiedSince = request.getFirst("If-Modified-Since");
+
+        if (ifNoneMatch != null)
+            result = ifNoneMatch.equals(rendition.eTag);
+
+        else if (ifModifiedSince != null)
+        {
+            try
+            {
+                long since = FeedGenerator.newRFC822Format()
+                                          .parse(ifModifiedSince)
+                                          .getTime();
+                result = (rendition.lastModified / 1000) <= (since / 1000);
+            }
+
+            catch (ParseException ex)
+            {
+                // Ignore it, as HTTP says to.
+            }
+        }
+
+        return result;
+    }
+
+    private Rendition getRendition(int feed, int gen)
+    {
+        Rendition rendition = renditions.get(feed);
+        if ((rendition == null) || (rendition.generation != gen))
+        {
+            // Replay the feed's history up to this generation, to find
+            // out how many items it has gained and when it last changed.
+
+            int changes = 0;
+            int lastChanged = 0;
+            for (int g = 1; g <= gen; g++)
+            {
+                if (newRandom(feed, g, -1).nextDouble() < changeProbability)
+                {
+                    changes++;
+                    lastChanged = g;
+                }
+            }
+
+            long lastModified;
+            synchronized (generationTimes)
+            {
+                lastModified = generationTimes.get(lastChanged);
+            }
+
+            int newestItem = itemsPerFeed - 1 + (changes * newItemsPerChange);
+            byte[] xml = FeedGenerator.generate(formatOf(feed),
+                                                getFeedURL(feed).toString(),
+                                                feed,
+                                                newestItem,
+                                                itemsPerFeed,
+                                                itemBytes,
+                                                lastModified);
+            rendition = new Rendition(gen,
+                                      lastModified,
+                                      "\"" + feed + "-" + lastChanged + "\"",
+                                      xml);
+            renditions.set(feed, rendition);
+        }
+
+        return rendition;
+    }
+
+    private FeedGenerator.Format formatOf(int feed)
+    {
+        FeedGenerator.Format result = format;
+        if (result == null)
+        {
+            result = ((feed % 2) == 0) ? FeedGenerator.Format.RSS
+                                       : FeedGenerator.Format.ATOM;
+        }
+
+        return result;
+    }
+
+    private long nextLatency(Random random)
+    {
+        long result;
+        switch (latencyDistribution)
+        {
+            case CONSTANT:
+                result = meanLatency;
+                break;
+
+            case UNIFORM:
+                result = (long) (random.nextDouble() * 2 * meanLatency);
+                break;
+
+            case EXPONENTIAL:
+                result = (long) (-Math.log(1.0 - random.nextDouble()) *
+                                 meanLatency);
+                break;
+
+            case NONE:
+            default:
+                result = 0;
+                break;
+        }
+
+        return result;
+    }
+
+    /**
+     * Get a random number generator for one decision about one feed. The
+     * seed is mixed well, so neighbouring feeds and generations don't get
+     * correlated sequences.
+     *
+     * @param feed   the feed
+     * @param gen    the generation
+     * @param fetch  which request for the feed this is, or -1 for
+     *               decisions that don't depend on the request
+     *
+     * @return the generator
+     */
+    private Random newRandom(int feed, int gen, int fetch)
+    {
+        long h = mix(seed);
+        h = mix(h ^ feed);
+        h = mix(h ^ gen);
+        h = mix(h ^ fetch);
+        return new Random(h);
+    }
+
+    private static long mix(long z)
+    {
+        // The SplitMix64 finalizer.
+
+        z += 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long toNextSecond(long time)
+    {
+        return ((time / 1000) + 1) * 1000;
+    }
+}
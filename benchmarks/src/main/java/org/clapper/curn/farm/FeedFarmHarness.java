@@ -0,0 +1,378 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.farm;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.clapper.curn.BenchmarkSupport;
+import org.clapper.curn.Curn;
+import org.clapper.curn.CurnConfig;
+import org.clapper.curn.CurnException;
+import org.clapper.curn.CurnFactory;
+
+/**
+ * <p>Runs <i>curn</i> end to end against a {@link FeedFarm}: starts the
+ * farm, writes a configuration listing all its feeds, then calls
+ * <tt>Curn.run()</tt> a number of times, starting a new feed generation
+ * before each run after the first. For each run, it reports the feeds
+ * per second, the bytes per second the farm sent, the farm's response
+ * counts, and the peak and retained heap.</p>
+ *
+ * <p>Usage:</p>
+ *
+ * <pre>
+ * java org.clapper.curn.farm.FeedFarmHarness [option ...]
+ *
+ *   --feeds n                  feeds to serve (1000)
+ *   --runs n                   times to run curn (3)
+ *   --threads n                curn's MaxThreads (20)
+ *   --items n                  items per feed (20)
+ *   --item-bytes n             description bytes per item (400)
+ *   --churn probability,items  chance a feed changes per run, and how
+ *                              many items it gains (0.25,2)
+ *   --latency dist,ms          none, constant, uniform or exponential,
+ *                              and the mean (none,0)
+ *   --error-rate r             fraction of requests that fail (0)
+ *   --format rss|atom|mixed    feed format (mixed)
+ *   --seed n                   seed for everything random (42)
+ *   --server-threads n         threads serving requests (32)
+ *   --no-gzip                  don't gzip responses
+ *   --no-conditional-get       never answer 304
+ *   --no-cache                 run curn without its cache
+ *   --param name=value         add a parameter to the [curn] section
+ * </pre>
+ *
+ * <p>The configuration and cache go in a temporary directory, which is
+ * deleted at the end. No output handlers are configured, so the runs
+ * measure fetching, parsing and caching.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class FeedFarmHarness
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private int totalFeeds = 1000;
+    private int runs = 3;
+    private int curnThreads = 20;
+    private boolean useCache = true;
+    private final Map<String,String> params =
+        new LinkedHashMap<String,String>();
+
+    private final List<MemoryPoolMXBean> heapPools =
+        new ArrayList<MemoryPoolMXBean>();
+
+    private final PrintWriter out = new PrintWriter(System.out, true);
+
+    /*----------------------------------------------------------------------*\
+                                Main Program
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Main program.
+     *
+     * @param args  command-line parameters
+     */
+    public static void main(String[] args)
+    {
+        try
+        {
+            new FeedFarmHarness().run(args);
+        }
+
+        catch (IllegalArgumentException ex)
+        {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+
+        catch (Exception ex)
+        {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private void run(String[] args)
+        throws IOException, CurnException
+    {
+        FeedFarm farm = parseArgs(args);
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+                heapPools.add(pool);
+        }
+
+        File dir = BenchmarkSupport.createTempDirectory();
+        try
+        {
+            farm.start(0);
+            File configFile = new File(dir, "curn.cfg");
+            writeConfig(farm, configFile, new File(dir, "cache.xml"));
+
+            out.println(String.format(Locale.US,
+                                      "%4s %8s %10s %12s %8s %8s %8s " +
+                                      "%10s %10s",
+                                      "run", "seconds", "feeds/s",
+                                      "bytes/s", "200", "304", "errors",
+                                      "peak MB", "after MB"));
+
+            for (int i = 0; i < runs; i++)
+            {
+                if (i > 0)
+                    farm.nextGeneration();
+
+                runOnce(i, farm, configFile);
+            }
+        }
+
+        finally
+        {
+            farm.stop();
+            BenchmarkSupport.deleteDirectory(dir);
+        }
+    }
+
+    private void runOnce(int run, FeedFarm farm, File configFile)
+        throws IOException, CurnException
+    {
+        System.gc();
+        for (MemoryPoolMXBean pool : heapPools)
+            pool.resetPeakUsage();
+        farm.resetStatistics();
+
+        Curn curn = CurnFactory.newCurn();
+        long start = System.nanoTime();
+        curn.run(configFile.toURI().toURL(), "UTF-8", useCache);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools)
+            peak += pool.getPeakUsage().getUsed();
+        System.gc();
+        long after = 0;
+        for (MemoryPoolMXBean pool : heapPools)
+            after += pool.getUsage().getUsed();
+
+        FeedFarm.Statistics stats = farm.getStatistics();
+        out.println(String.format(Locale.US,
+                                  "%4d %8.2f %10.1f %12.0f %8d %8d %8d " +
+                                  "%10.1f %10.1f",
+                                  run + 1,
+                                  seconds,
+                                  farm.getTotalFeeds() / seconds,
+                                  stats.getBytesSent() / seconds,
+                                  stats.getOK(),
+                                  stats.getNotModified(),
+                                  stats.getErrors(),
+                                  peak / (1024.0 * 1024.0),
+                                  after / (1024.0 * 1024.0)));
+    }
+
+    private void writeConfig(FeedFarm farm, File configFile, File cacheFile)
+        throws IOException
+    {
+        PrintWriter w = new PrintWriter
+            (new OutputStreamWriter(new FileOutputStream(configFile),
+                                    "UTF-8"));
+        try
+        {
+            w.println("[" + CurnConfig.MAIN_SECTION + "]");
+            w.println("CacheFile: " + cacheFile.getPath());
+            w.println(CurnConfig.VAR_MAX_THREADS + ": " + curnThreads);
+            w.println(CurnConfig.VAR_DAYS_TO_CACHE + ": 365");
+            for (Map.Entry<String,String> param : params.entrySet())
+                w.println(param.getKey() + ": " + param.getValue());
+
+            for (int i = 0; i < farm.getTotalFeeds(); i++)
+            {
+                w.println();
+                w.println("[Feed" + i + "]");
+                w.println(CurnConfig.VAR_FEED_URL + ": " + farm.getFeedURL(i));
+            }
+        }
+
+        finally
+        {
+            w.close();
+        }
+    }
+
+    private FeedFarm parseArgs(String[] args)
+    {
+        // The farm needs the feed count up front, so collect its settings
+        // and apply them afterwards.
+
+        Map<String,String> farmArgs = new LinkedHashMap<String,String>();
+        for (int i = 0; i < args.length; i++)
+        {
+            String arg = args[i];
+            if (arg.equals("--no-gzip") ||
+                arg.equals("--no-conditional-get"))
+            {
+                farmArgs.put(arg, "");
+            }
+
+            else if (arg.equals("--no-cache"))
+                useCache = false;
+
+            else if (! arg.startsWith("--") || (i + 1 >= args.length))
+                throw new IllegalArgumentException("Bad argument: " + arg);
+
+            else
+            {
+                String value = args[++i];
+                if (arg.equals("--feeds"))
+                    totalFeeds = parseInt(arg, value);
+                else if (arg.equals("--runs"))
+                    runs = parseInt(arg, value);
+                else if (arg.equals("--threads"))
+                    curnThreads = parseInt(arg, value);
+                else if (arg.equals("--param"))
+                {
+                    int eq = value.indexOf('=');
+                    if (eq <= 0)
+                        throw new IllegalArgumentException("Bad " + arg +
+                                                           ": " + value);
+                    params.put(value.substring(0, eq),
+                               value.substring(eq + 1));
+                }
+                else
+                    farmArgs.put(arg, value);
+            }
+        }
+
+        FeedFarm farm = new FeedFarm(totalFeeds);
+        for (Map.Entry<String,String> farmArg : farmArgs.entrySet())
+        {
+            String arg = farmArg.getKey();
+            String value = farmArg.getValue();
+
+            if (arg.equals("--no-gzip"))
+                farm.setGzip(false);
+            else if (arg.equals("--no-conditional-get"))
+                farm.setConditionalGet(false);
+            else if (arg.equals("--items"))
+                farm.setItemsPerFeed(parseInt(arg, value));
+            else if (arg.equals("--item-bytes"))
+                farm.setItemBytes(parseInt(arg, value));
+            else if (arg.equals("--error-rate"))
+                farm.setErrorRate(parseDouble(arg, value));
+            else if (arg.equals("--seed"))
+                farm.setSeed(parseInt(arg, value));
+            else if (arg.equals("--server-threads"))
+                farm.setServerThreads(parseInt(arg, value));
+            else if (arg.equals("--churn"))
+            {
+                String[] tokens = splitPair(arg, value);
+                farm.setChangeProbability(parseDouble(arg, tokens[0]),
+                                          parseInt(arg, tokens[1]));
+            }
+            else if (arg.equals("--latency"))
+            {
+                String[] tokens = splitPair(arg, value);
+                farm.setLatency(FeedFarm.LatencyDistribution.valueOf
+                                    (tokens[0].toUpperCase(Locale.US)),
+                                parseInt(arg, tokens[1]));
+            }
+            else if (arg.equals("--format"))
+            {
+                farm.setFormat(value.equals("mixed")
+                                   ? null
+                                   : FeedGenerator.Format.valueOf
+                                         (value.toUpperCase(Locale.US)));
+            }
+            else
+                throw new IllegalArgumentException("Unknown option: " + arg);
+        }
+
+        return farm;
+    }
+
+    private static String[] splitPair(String arg, String value)
+    {
+        String[] tokens = value.split(",");
+        if (tokens.length != 2)
+            throw new IllegalArgumentException("Bad " + arg + ": " + value);
+
+        return tokens;
+    }
+
+    private static int parseInt(String arg, String value)
+    {
+        try
+        {
+            return Integer.parseInt(value);
+        }
+
+        catch (NumberFormatException ex)
+        {
+            throw new IllegalArgumentException("Bad " + arg + ": " + value);
+        }
+    }
+
+    private static double parseDouble(String arg, String value)
+    {
+        try
+        {
+            return Double.parseDouble(value);
+        }
+
+        catch (NumberFormatException ex)
+        {
+            throw new IllegalArgumentException("Bad " + arg + ": " + value);
+        }
+    }
+}
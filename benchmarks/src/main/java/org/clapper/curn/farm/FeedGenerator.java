@@ -0,0 +1,259 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.farm;
+
+import java.io.UnsupportedEncodingException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Generates the XML for the synthetic feeds the {@link FeedFarm} serves.
+ * The output depends only on the arguments, so the same feed at the same
+ * generation is always byte-for-byte identical.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public final class FeedGenerator
+{
+    /*----------------------------------------------------------------------*\
+                             Public Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The feed formats the generator can produce.
+     */
+    public enum Format
+    {
+        /** RSS 2.0 */
+        RSS,
+
+        /** Atom 1.0 */
+        ATOM
+    }
+
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Filler text for item descriptions.
+     */
+    private static final String FILLER =
+        "Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do " +
+        "eiusmod tempor incididunt ut labore et dolore magna aliqua. Ut " +
+        "enim ad minim veniam, quis nostrud exercitation ullamco laboris " +
+        "nisi ut aliquip ex ea commodo consequat. ";
+
+    /**
+     * How far apart the items' publication dates are, in milliseconds.
+     */
+    private static final long ITEM_SPACING = 60 * 1000;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private FeedGenerator()
+    {
+        // Cannot be instantiated.
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Generate a feed.
+     *
+     * @param format        the format
+     * @param feedURL       the feed's own URL, used as the base for item
+     *                      URLs
+     * @param feed          the feed number, used in titles
+     * @param newestItem    the number of the newest item. The feed contains
+     *                      the items numbered from here down.
+     * @param totalItems    how many items the feed contains
+     * @param itemBytes     roughly how many bytes of text each item's
+     *                      description should have
+     * @param lastModified  when the feed last changed, which is also the
+     *                      newest item's publication date
+     *
+     * @return the feed, encoded in UTF-8
+     */
+    public static byte[] generate(Format format,
+                                  String feedURL,
+                                  int    feed,
+                                  int    newestItem,
+                                  int    totalItems,
+                                  int    itemBytes,
+                                  long   lastModified)
+    {
+        StringBuilder buf = new StringBuilder(totalItems * (itemBytes + 300));
+        int oldestItem = Math.max(0, newestItem - totalItems + 1);
+        String itemBase = feedURL.replaceFirst("\\.xml$", "");
+
+        buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        switch (format)
+        {
+            case ATOM:
+                buf.append("<feed xmlns=\"http://www.w3.org/2005/Atom\">\n");
+                buf.append("<title>Synthetic feed " + feed + "</title>\n");
+                buf.append("<link href=\"" + feedURL + "\"/>\n");
+                buf.append("<id>" + feedURL + "</id>\n");
+                buf.append("<updated>" + formatW3C(lastModified) +
+                           "</updated>\n");
+                for (int item = newestItem; item >= oldestItem; item--)
+                {
+                    String url = itemBase + "/items/" + item + ".html";
+                    buf.append("<entry>\n");
+                    buf.append("<title>Feed " + feed + " item " + item +
+                               "</title>\n");
+                    buf.append("<link href=\"" + url + "\"/>\n");
+                    buf.append("<id>" + url + "</id>\n");
+                    buf.append("<author><name>Feed Farm</name></author>\n");
+                    buf.append("<updated>" +
+                               formatW3C(itemDate(lastModified,
+                                                  newestItem - item)) +
+                               "</updated>\n");
+                    buf.append("<summary>");
+                    appendFiller(buf, item, itemBytes);
+                    buf.append("</summary>\n");
+                    buf.append("</entry>\n");
+                }
+                buf.append("</feed>\n");
+                break;
+
+            case RSS:
+            default:
+                buf.append("<rss version=\"2.0\">\n<channel>\n");
+                buf.append("<title>Synthetic feed " + feed + "</title>\n");
+                buf.append("<link>" + feedURL + "</link>\n");
+                buf.append("<description>Synthetic feed " + feed +
+                           "</description>\n");
+                buf.append("<pubDate>" + formatRFC822(lastModified) +
+                           "</pubDate>\n");
+                for (int item = newestItem; item >= oldestItem; item--)
+                {
+                    String url = itemBase + "/items/" + item + ".html";
+                    buf.append("<item>\n");
+                    buf.append("<title>Feed " + feed + " item " + item +
+                               "</title>\n");
+                    buf.append("<link>" + url + "</link>\n");
+                    buf.append("<guid>" + url + "</guid>\n");
+                    buf.append("<pubDate>" +
+                               formatRFC822(itemDate(lastModified,
+                                                     newestItem - item)) +
+                               "</pubDate>\n");
+                    buf.append("<description>");
+                    appendFiller(buf, item, itemBytes);
+                    buf.append("</description>\n");
+                    buf.append("</item>\n");
+                }
+                buf.append("</channel>\n</rss>\n");
+                break;
+        }
+
+        try
+        {
+            return buf.toString().getBytes("UTF-8");
+        }
+
+        catch (UnsupportedEncodingException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Format a time as an RFC 822 date in GMT, which is also the format
+     * HTTP uses.
+     *
+     * @param time  the time, in milliseconds
+     *
+     * @return the formatted date
+     */
+    static String formatRFC822(long time)
+    {
+        return newRFC822Format().format(new Date(time));
+    }
+
+    /**
+     * Create a <tt>SimpleDateFormat</tt> for the dates
+     * {@link #formatRFC822} produces.
+     *
+     * @return the format
+     */
+    static SimpleDateFormat newRFC822Format()
+    {
+        SimpleDateFormat fmt =
+            new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                                 Locale.US);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return fmt;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static long itemDate(long lastModified, int age)
+    {
+        return lastModified - (age * ITEM_SPACING);
+    }
+
+    private static void appendFiller(StringBuilder buf, int item, int bytes)
+    {
+        // Start at a different place for each item, so the descriptions
+        // don't all compress to the same thing.
+
+        int start = item % FILLER.length();
+        for (int i = 0; i < bytes; i++)
+            buf.append(FILLER.charAt((start + i) % FILLER.length()));
+    }
+
+    private static String formatW3C(long time)
+    {
+        SimpleDateFormat fmt =
+            new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        fmt.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return fmt.format(new Date(time));
+    }
+}
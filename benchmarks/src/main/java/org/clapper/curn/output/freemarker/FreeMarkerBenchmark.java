@@ -0,0 +1,222 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.output.freemarker;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.clapper.curn.BenchmarkSupport;
+import org.clapper.curn.CurnConfig;
+import org.clapper.curn.CurnException;
+import org.clapper.curn.FeedInfo;
+import org.clapper.curn.parser.RSSChannel;
+import org.clapper.curn.parser.RSSParser;
+import org.clapper.curn.parser.RSSParserException;
+import org.clapper.curn.parser.RSSParserFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks rendering the bundled corpus through each of the built-in
+ * FreeMarker templates, the way the FreeMarker output handler does: a new
+ * transformer, one <tt>addChannel()</tt> per feed, then
+ * <tt>transform()</tt>. The corpus is repeated <tt>copies</tt> times, so
+ * that there are enough channels for the render threads to share. The
+ * feeds are parsed once, up front; each invocation gets fresh copies,
+ * since the text templates strip the HTML out of the channels they're
+ * given.
+ *
+ * <p>Only templates with a <tt>renderChannel</tt> macro (the HTML and
+ * text ones) render channels in parallel; for the summary template,
+ * <tt>renderThreads</tt> makes no difference.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FreeMarkerBenchmark
+{
+    /*----------------------------------------------------------------------*\
+                                Parameters
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The built-in template: "html", "text" or "summary".
+     */
+    @Param({"html", "text", "summary"})
+    public String template;
+
+    /**
+     * The number of threads to render channels on (see
+     * {@link FreeMarkerFeedTransformer#setRenderThreads}), or "N" for one
+     * per available processor.
+     */
+    @Param({"1", "2", "4", "N"})
+    public String renderThreads;
+
+    /**
+     * The number of times the corpus is repeated.
+     */
+    @Param({"25"})
+    public int copies;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private CurnConfig config;
+    private TemplateLocation templateLocation;
+    private String mimeType;
+    private boolean allowEmbeddedHTML;
+    private int threads;
+    private List<RSSChannel> channels = new ArrayList<RSSChannel>();
+    private List<FeedInfo> feeds = new ArrayList<FeedInfo>();
+    private List<RSSChannel> channelCopies = new ArrayList<RSSChannel>();
+
+    /*----------------------------------------------------------------------*\
+                                 Set-up
+    \*----------------------------------------------------------------------*/
+
+    @Setup(Level.Trial)
+    public void setUp()
+        throws IOException, CurnException, RSSParserException
+    {
+        if (template.equals("html"))
+        {
+            templateLocation = FreeMarkerFeedTransformer.BUILTIN_HTML_TEMPLATE;
+            mimeType = "text/html";
+            allowEmbeddedHTML = true;
+        }
+
+        else if (template.equals("text"))
+        {
+            templateLocation = FreeMarkerFeedTransformer.BUILTIN_TEXT_TEMPLATE;
+            mimeType = "text/plain";
+        }
+
+        else if (template.equals("summary"))
+        {
+            templateLocation =
+                FreeMarkerFeedTransformer.BUILTIN_SUMMARY_TEMPLATE;
+            mimeType = "text/plain";
+        }
+
+        else
+        {
+            throw new IllegalArgumentException("Unknown template \"" +
+                                               template + "\"");
+        }
+
+        threads = renderThreads.equals("N")
+                      ? Runtime.getRuntime().availableProcessors()
+                      : Integer.parseInt(renderThreads);
+
+        String[] corpus = BenchmarkSupport.CORPUS;
+        config = BenchmarkSupport.loadConfig(corpus.length * copies, null);
+        RSSParser parser = RSSParserFactory.getRSSParser
+            ("org.clapper.curn.parser.rome.RSSParserAdapter");
+
+        List<RSSChannel> parsed = new ArrayList<RSSChannel>();
+        for (int i = 0; i < corpus.length; i++)
+        {
+            byte[] data = BenchmarkSupport.readCorpusFeed(corpus[i]);
+            parsed.add(parser.parseRSSFeed(BenchmarkSupport.feedURL(i),
+                                           new ByteArrayInputStream(data),
+                                           null));
+        }
+
+        for (int i = 0; i < corpus.length * copies; i++)
+        {
+            URL url = BenchmarkSupport.feedURL(i);
+            channels.add(parsed.get(i % corpus.length));
+            feeds.add(config.getFeedInfoMap().get(url));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void copyChannels()
+    {
+        channelCopies.clear();
+        for (RSSChannel channel : channels)
+            channelCopies.add(channel.makeCopy());
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Benchmarks
+    \*----------------------------------------------------------------------*/
+
+    @Benchmark
+    public String render()
+        throws CurnException
+    {
+        FreeMarkerFeedTransformer transformer =
+            new FreeMarkerFeedTransformer(config, true);
+        transformer.setTemplate(templateLocation, mimeType);
+        transformer.setEncoding("UTF-8");
+        transformer.setRenderThreads(threads);
+
+        for (int i = 0; i < channelCopies.size(); i++)
+        {
+            transformer.addChannel(channelCopies.get(i),
+                                   feeds.get(i),
+                                   allowEmbeddedHTML);
+        }
+
+        StringWriter out = new StringWriter();
+        transformer.transform(new PrintWriter(out));
+        return out.toString();
+    }
+}
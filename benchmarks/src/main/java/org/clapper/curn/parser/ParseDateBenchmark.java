@@ -0,0 +1,174 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.clapper.curn.BenchmarkSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks {@link ParserUtil#parseDate} on the dates in the corpus feeds
+ * (see {@link BenchmarkSupport#CORPUS}), pulled out of their date
+ * elements. The <tt>rfc822</tt> and <tt>w3c</tt> kinds are those dates as
+ * they are; the fast parser handles them. Two more kinds are derived from
+ * the RFC 822 ones: <tt>fallback</tt> spells the zone out ("GMT" becomes
+ * "Greenwich Mean Time"), which only the <tt>SimpleDateFormat</tt>
+ * patterns recognize, and <tt>invalid</tt> drops the month, so every
+ * pattern is tried and fails.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParseDateBenchmark
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The elements that hold dates, in RSS and Atom.
+     */
+    private static final Pattern DATE_ELEMENT =
+        Pattern.compile("<(pubDate|lastBuildDate|dc:date|modified|issued|" +
+                        "created|updated|published)>\\s*([^<]+?)\\s*</\\1>");
+
+    private static final Pattern W3C_DATE = Pattern.compile("^\\d{4}-");
+
+    /*----------------------------------------------------------------------*\
+                                Parameters
+    \*----------------------------------------------------------------------*/
+
+    @Param({"rfc822", "w3c", "fallback", "invalid"})
+    public String kind;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private String[] dates;
+
+    /*----------------------------------------------------------------------*\
+                                 Set-up
+    \*----------------------------------------------------------------------*/
+
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        List<String> rfc822 = new ArrayList<String>();
+        List<String> w3c = new ArrayList<String>();
+        for (String name : BenchmarkSupport.CORPUS)
+        {
+            String feed = new String(BenchmarkSupport.readCorpusFeed(name),
+                                     "UTF-8");
+            Matcher m = DATE_ELEMENT.matcher(feed);
+            while (m.find())
+            {
+                String date = m.group(2);
+                if (W3C_DATE.matcher(date).find())
+                    w3c.add(date);
+                else
+                    rfc822.add(date);
+            }
+        }
+
+        List<String> result = new ArrayList<String>();
+        if (kind.equals("rfc822"))
+            result = rfc822;
+        else if (kind.equals("w3c"))
+            result = w3c;
+
+        else
+        {
+            for (String date : rfc822)
+            {
+                if (kind.equals("fallback"))
+                    result.add(date.replace("GMT", "Greenwich Mean Time"));
+                else
+                    result.add(date.replaceAll(" [A-Za-z]{3} ", " "));
+            }
+        }
+
+        if (result.isEmpty())
+            throw new IllegalStateException("No " + kind + " dates in the " +
+                                            "corpus");
+        dates = result.toArray(new String[result.size()]);
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Benchmarks
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Parse each of the dates of the selected kind once. The score is
+     * for the whole set.
+     *
+     * @param blackhole  consumes the results
+     */
+    @Benchmark
+    public void parseDate(Blackhole blackhole)
+    {
+        for (String date : dates)
+        {
+            Date result = ParserUtil.parseDate(date);
+            blackhole.consume(result);
+        }
+    }
+}
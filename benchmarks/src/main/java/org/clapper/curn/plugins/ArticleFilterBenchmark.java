@@ -0,0 +1,266 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.clapper.curn.BenchmarkSupport;
+import org.clapper.curn.CurnConfig;
+import org.clapper.curn.CurnException;
+import org.clapper.curn.FeedInfo;
+import org.clapper.curn.parser.RSSChannel;
+import org.clapper.curn.parser.RSSItem;
+import org.clapper.curn.parser.RSSParser;
+import org.clapper.curn.parser.RSSParserException;
+import org.clapper.curn.parser.RSSParserFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link ArticleFilterPlugIn} with a large <tt>ArticleFilter</tt>
+ * setting: compiling it, and filtering every item in the bundled corpus
+ * with it. The rules are generated from a fixed seed, out of words that
+ * occur in the corpus, so that some of them match. About a third of them
+ * are regular expressions, spread over all the fields; the rest are
+ * plain words. With <tt>literals</tt> set to "regexes", the plain words
+ * are wrapped in a group, which matches the same thing but keeps them
+ * out of the keyword automaton, so the two settings compare the
+ * automaton with one regular expression per keyword.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ArticleFilterBenchmark
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String PARSER_CLASS =
+        "org.clapper.curn.parser.rome.RSSParserAdapter";
+
+    private static final String VAR_ITEM_FILTER = "ArticleFilter";
+
+    private static final String[] FIELDS =
+    {
+        "any", "title", "summary", "text", "author", "category"
+    };
+
+    private static final Pattern WORD = Pattern.compile("[A-Za-z]{4,}");
+
+    /*----------------------------------------------------------------------*\
+                                Parameters
+    \*----------------------------------------------------------------------*/
+
+    @Param({"60"})
+    public int rules;
+
+    /**
+     * How the plain-word rules are written: "keywords" or "regexes".
+     */
+    @Param({"keywords", "regexes"})
+    public String literals;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private CurnConfig config;
+    private FeedInfo feedInfo;
+    private List<RSSChannel> channels = new ArrayList<RSSChannel>();
+    private ArticleFilterPlugIn plugIn;
+
+    /*----------------------------------------------------------------------*\
+                                 Set-up
+    \*----------------------------------------------------------------------*/
+
+    @Setup
+    public void setUp()
+        throws CurnException, IOException, RSSParserException
+    {
+        RSSParser parser = RSSParserFactory.getRSSParser(PARSER_CLASS);
+        TreeSet<String> wordSet = new TreeSet<String>();
+        for (String name : BenchmarkSupport.CORPUS)
+        {
+            RSSChannel channel =
+                parser.parseRSSFeed(BenchmarkSupport.feedURL(0),
+                                    new ByteArrayInputStream
+                                        (BenchmarkSupport.readCorpusFeed(name)),
+                                    null);
+            channels.add(channel);
+            for (RSSItem item : channel.getItems())
+            {
+                Matcher m = WORD.matcher(item.getTitle() + " " +
+                                         item.getSummary());
+                while (m.find())
+                    wordSet.add(m.group());
+            }
+        }
+
+        List<String> words = new ArrayList<String>(wordSet);
+        Map<String,String> params = new HashMap<String,String>();
+        params.put(VAR_ITEM_FILTER, makeFilterSpec(words));
+        config = BenchmarkSupport.loadConfig(1, params);
+        feedInfo = config.getFeedInfoMap().get(BenchmarkSupport.feedURL(0));
+
+        plugIn = compile();
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Benchmarks
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Parse and compile the filter.
+     *
+     * @return the plug-in, with the filter compiled
+     *
+     * @throws CurnException on error
+     */
+    @Benchmark
+    public ArticleFilterPlugIn compile()
+        throws CurnException
+    {
+        ArticleFilterPlugIn result = new ArticleFilterPlugIn();
+        result.runFeedConfigItemPlugIn(CurnConfig.MAIN_SECTION,
+                                       VAR_ITEM_FILTER,
+                                       config,
+                                       feedInfo);
+        return result;
+    }
+
+    /**
+     * Filter every item in the corpus.
+     *
+     * @return the number of items kept
+     *
+     * @throws CurnException on error
+     */
+    @Benchmark
+    public int filter()
+        throws CurnException
+    {
+        int kept = 0;
+        for (RSSChannel channel : channels)
+        {
+            plugIn.startPostFeedItemProcessing(feedInfo, null, channel);
+            int i = 0;
+            for (RSSItem item : channel.getItems())
+            {
+                if (plugIn.runPostFeedProcessItemPlugIn(feedInfo,
+                                                        channel,
+                                                        item,
+                                                        i++))
+                    kept++;
+            }
+        }
+
+        return kept;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private String makeFilterSpec(List<String> words)
+    {
+        Random random = new Random(rules);
+        List<String> commands = new ArrayList<String>();
+        for (int i = 0; i < rules; i++)
+        {
+            String field = FIELDS[i % FIELDS.length];
+            String word = words.get(random.nextInt(words.size()));
+            String regex;
+            switch (i % 3)
+            {
+                case 0:
+                    // A word followed by another, the way "mash[- ]?up"
+                    // is written.
+
+                    regex = word + "[- \t]?" +
+                            words.get(random.nextInt(words.size()));
+                    break;
+
+                default:
+                    regex = literals.equals("keywords") ? word
+                                                        : "(" + word + ")";
+                    break;
+            }
+
+            // Mostly hides, with the odd show, so the rules are tried
+            // until one matches.
+
+            String command = ((i % 10) == 9) ? "show" : "hide";
+            commands.add(command + " " + field + " '" + regex + "'");
+        }
+
+        Collections.shuffle(commands, random);
+        StringBuilder buf = new StringBuilder();
+        for (String command : commands)
+        {
+            if (buf.length() > 0)
+                buf.append(" ; ");
+            buf.append(command);
+        }
+
+        return buf.toString();
+    }
+}
@@ -0,0 +1,187 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.plugins;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.clapper.curn.BenchmarkSupport;
+import org.clapper.curn.CurnConfig;
+import org.clapper.curn.CurnException;
+import org.clapper.curn.FeedInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the {@link CommonXMLFixupsPlugIn} edits on a generated feed
+ * that needs most of them: bare ampersands, <tt>&amp;nbsp;</tt>, and
+ * Windows-1252 character references. The plug-in edits the file in place,
+ * so each invocation starts from a fresh copy; the copy isn't measured.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CommonXMLFixupsBenchmark
+{
+    /*----------------------------------------------------------------------*\
+                                Parameters
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The number of items in the generated feed.
+     */
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private CommonXMLFixupsPlugIn plugIn;
+    private FeedInfo feedInfo;
+    private File dir;
+    private String feedXML;
+    private File feedFile;
+
+    /*----------------------------------------------------------------------*\
+                                 Set-up
+    \*----------------------------------------------------------------------*/
+
+    @Setup(Level.Trial)
+    public void setUp()
+        throws IOException, CurnException
+    {
+        Map<String,String> params = new HashMap<String,String>();
+        params.put("CommonXMLFixups", "true");
+        CurnConfig config = BenchmarkSupport.loadConfig(1, params);
+
+        plugIn = new CommonXMLFixupsPlugIn();
+        plugIn.initPlugIn();
+        plugIn.runMainConfigItemPlugIn(CurnConfig.MAIN_SECTION,
+                                       "CommonXMLFixups",
+                                       config);
+        feedInfo = config.getFeedInfoMap().get(BenchmarkSupport.feedURL(0));
+
+        dir = BenchmarkSupport.createTempDirectory();
+        feedFile = new File(dir, "feed.xml");
+        feedXML = makeFeed(items);
+    }
+
+    @Setup(Level.Invocation)
+    public void resetFeed()
+        throws IOException
+    {
+        Writer w = new OutputStreamWriter(new FileOutputStream(feedFile),
+                                          "UTF-8");
+        try
+        {
+            w.write(feedXML);
+        }
+
+        finally
+        {
+            w.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        BenchmarkSupport.deleteDirectory(dir);
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Benchmarks
+    \*----------------------------------------------------------------------*/
+
+    @Benchmark
+    public boolean fixup()
+        throws CurnException
+    {
+        return plugIn.runPostFeedDownloadPlugIn(feedInfo, feedFile, "UTF-8");
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static String makeFeed(int totalItems)
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        buf.append("<rss version=\"2.0\">\n<channel>\n");
+        buf.append("<title>AT&T News & Views</title>\n");
+        buf.append("<link>" + BenchmarkSupport.feedURL(0) + "</link>\n");
+
+        for (int i = 0; i < totalItems; i++)
+        {
+            buf.append("<item>\n");
+            buf.append("<title>Item " + i + " &#147;quoted&#148; &amp;amp; " +
+                       "more</title>\n");
+            buf.append("<link>" + BenchmarkSupport.itemURL(0, i) +
+                       "?a=1&b=2</link>\n");
+            buf.append("<description>Fish & chips&nbsp;for " + i +
+                       "&#133; it&#146;s &mdash; caf&eacute; " +
+                       "nbsp;&lt;b&gt;bold&lt;/b&gt;</description>\n");
+            buf.append("</item>\n");
+        }
+
+        buf.append("</channel>\n</rss>\n");
+        return buf.toString();
+    }
+}
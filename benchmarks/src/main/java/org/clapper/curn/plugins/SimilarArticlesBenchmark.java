@@ -0,0 +1,207 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn.plugins;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the near-duplicate detection done by
+ * {@link IgnoreSimilarArticlesPlugIn}: one run's worth of articles, each
+ * one signed with {@link MinHashIndex#minHash} and checked against (and
+ * added to) a {@link MinHashIndex}. The articles are generated from a
+ * fixed seed; about a tenth of them are rewordings of an earlier article,
+ * with a few words changed, the way wire stories are. Each measurement
+ * is one whole run, starting from an empty index.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(2)
+public class SimilarArticlesBenchmark
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int VOCABULARY = 5000;
+    private static final int WORDS_PER_ARTICLE = 50;
+    private static final int REWORDED_WORDS = 3;
+
+    /*----------------------------------------------------------------------*\
+                                Parameters
+    \*----------------------------------------------------------------------*/
+
+    @Param({"100000"})
+    public int articles;
+
+    /**
+     * The <tt>SimilarArticleThreshold</tt>.
+     */
+    @Param({"0.5", "0.7", "0.9"})
+    public double threshold;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private String[] texts;
+    private char[][] signatures;
+
+    /*----------------------------------------------------------------------*\
+                                 Set-up
+    \*----------------------------------------------------------------------*/
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(articles);
+        String[] words = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++)
+            words[i] = makeWord(random);
+
+        texts = new String[articles];
+        String[][] articleWords = new String[articles][];
+        for (int i = 0; i < articles; i++)
+        {
+            String[] a;
+            if ((i > 0) && (random.nextInt(10) == 0))
+            {
+                a = articleWords[random.nextInt(i)].clone();
+                for (int j = 0; j < REWORDED_WORDS; j++)
+                {
+                    a[random.nextInt(WORDS_PER_ARTICLE)] =
+                        words[random.nextInt(VOCABULARY)];
+                }
+            }
+
+            else
+            {
+                a = new String[WORDS_PER_ARTICLE];
+                for (int j = 0; j < WORDS_PER_ARTICLE; j++)
+                    a[j] = words[random.nextInt(VOCABULARY)];
+            }
+
+            articleWords[i] = a;
+            StringBuilder buf = new StringBuilder();
+            for (String word : a)
+            {
+                if (buf.length() > 0)
+                    buf.append(' ');
+                buf.append(word);
+            }
+
+            texts[i] = buf.toString();
+        }
+
+        signatures = new char[articles][];
+        for (int i = 0; i < articles; i++)
+            signatures[i] = MinHashIndex.minHash(texts[i]);
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Benchmarks
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Sign and check every article.
+     *
+     * @return the number of near duplicates found
+     */
+    @Benchmark
+    public int signAndIndex()
+    {
+        MinHashIndex index = new MinHashIndex(threshold);
+        int duplicates = 0;
+        for (int i = 0; i < texts.length; i++)
+        {
+            char[] signature = MinHashIndex.minHash(texts[i]);
+            if (index.checkAndAdd(signature, i, 0) >= 0)
+                duplicates++;
+        }
+
+        return duplicates;
+    }
+
+    /**
+     * Check every article, with the signatures computed in advance.
+     *
+     * @return the number of near duplicates found
+     */
+    @Benchmark
+    public int indexOnly()
+    {
+        MinHashIndex index = new MinHashIndex(threshold);
+        int duplicates = 0;
+        for (int i = 0; i < signatures.length; i++)
+        {
+            if (index.checkAndAdd(signatures[i], i, 0) >= 0)
+                duplicates++;
+        }
+
+        return duplicates;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static String makeWord(Random random)
+    {
+        int length = 3 + random.nextInt(8);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = (char) ('a' + random.nextInt(26));
+        return new String(chars);
+    }
+}
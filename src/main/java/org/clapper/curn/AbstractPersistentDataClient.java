@@ -40,15 +40,22 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Abstract class that implements the {@link PersistentDataClient}
+ * <p>Abstract class that implements the {@link PersistentDataClient}
  * interface, providing stubs or simple versions of the methods. This class
  * makes it easier for a class to declare itself as a
  * <tt>PersistentDataClient</tt>, even if it doesn't need to implement all
- * the <tt>PersistentDataClient</tt> methods.
+ * the <tt>PersistentDataClient</tt> methods.</p>
+ *
+ * <p>This class also implements {@link BulkPersistentDataClient}, by
+ * passing the bulk calls on to the map-based methods. A subclass that
+ * doesn't keep any feed or item metadata should override
+ * {@link #hasMetadataForFeed} and {@link #hasMetadataForItems} to return
+ * <tt>false</tt>, so that it isn't consulted for every item in the
+ * cache.</p>
  *
  * @version <tt>$Revision$</tt>
  */
-public class AbstractPersistentDataClient implements PersistentDataClient
+public class AbstractPersistentDataClient implements BulkPersistentDataClient
 {
     /*----------------------------------------------------------------------*\
                                Private Constants
@@ -206,6 +213,123 @@ public class AbstractPersistentDataClient implements PersistentDataClient
         return NO_METADATA;
     }
 
+    /**
+     * <p>Determine whether this object has any metadata to save with a
+     * feed.</p>
+     *
+     * <p>This implementation returns <tt>true</tt>, so that
+     * {@link #getMetadataForFeed} is always consulted.</p>
+     *
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     *
+     * @return <tt>true</tt>
+     *
+     * @throws CurnException on error
+     */
+    public boolean hasMetadataForFeed(FeedCacheEntry feedData)
+        throws CurnException
+    {
+        return true;
+    }
+
+    /**
+     * <p>Determine whether this object has any metadata to save with any
+     * of a feed's items.</p>
+     *
+     * <p>This implementation returns <tt>true</tt>, so that
+     * {@link #getMetadataForItem} is always consulted.</p>
+     *
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     *
+     * @return <tt>true</tt>
+     *
+     * @throws CurnException on error
+     */
+    public boolean hasMetadataForItems(FeedCacheEntry feedData)
+        throws CurnException
+    {
+        return true;
+    }
+
+    /**
+     * <p>Put the metadata that is to be saved with a particular feed or
+     * channel into a sink.</p>
+     *
+     * <p>This implementation puts the contents of the map returned by
+     * {@link #getMetadataForFeed}.</p>
+     *
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     * @param sink     where to put the name/value pairs
+     *
+     * @throws CurnException on error
+     */
+    public void putMetadataForFeed(FeedCacheEntry feedData, MetadataSink sink)
+        throws CurnException
+    {
+        putAll(getMetadataForFeed(feedData), sink);
+    }
+
+    /**
+     * <p>Put the metadata that is to be saved with a particular item within
+     * a feed into a sink.</p>
+     *
+     * <p>This implementation puts the contents of the map returned by
+     * {@link #getMetadataForItem}.</p>
+     *
+     * @param itemData the {@link FeedCacheEntry} record for the item
+     * @param feedData the {@link FeedCacheEntry} record for the parent feed
+     * @param sink     where to put the name/value pairs
+     *
+     * @throws CurnException on error
+     */
+    public void putMetadataForItem(FeedCacheEntry itemData,
+                                   FeedCacheEntry feedData,
+                                   MetadataSink   sink)
+        throws CurnException
+    {
+        putAll(getMetadataForItem(itemData, feedData), sink);
+    }
+
+    /**
+     * <p>Process all the metadata in this object's namespace that has been
+     * read for a feed.</p>
+     *
+     * <p>This implementation passes each name/value pair to
+     * {@link #parseFeedMetadata(String,String,FeedCacheEntry)}.</p>
+     *
+     * @param metadata the name/value pairs
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     *
+     * @throws CurnException on error
+     */
+    public void parseFeedMetadata(Map<String,String> metadata,
+                                  FeedCacheEntry     feedData)
+        throws CurnException
+    {
+        for (Map.Entry<String,String> entry : metadata.entrySet())
+            parseFeedMetadata(entry.getKey(), entry.getValue(), feedData);
+    }
+
+    /**
+     * <p>Process all the metadata in this object's namespace that has been
+     * read for an item.</p>
+     *
+     * <p>This implementation passes each name/value pair to
+     * {@link #parseItemMetadata(String,String,FeedCacheEntry)}.</p>
+     *
+     * @param metadata the name/value pairs
+     * @param itemData the {@link FeedCacheEntry} record for the item
+     *
+     * @throws CurnException on error
+     */
+    public void parseItemMetadata(Map<String,String> metadata,
+                                  FeedCacheEntry     itemData)
+        throws CurnException
+    {
+        for (Map.Entry<String,String> entry : metadata.entrySet())
+            parseItemMetadata(entry.getKey(), entry.getValue(), itemData);
+    }
+
     /**
      * <p>Get the namespace for this object's metadata. The namespace must
      * be unique. Think of it as a package name for the data. Recommendation:
@@ -228,4 +352,13 @@ public class AbstractPersistentDataClient implements PersistentDataClient
     /*----------------------------------------------------------------------*\
                                 Private Methods
     \*----------------------------------------------------------------------*/
+
+    private static void putAll(Map<String,String> metadata, MetadataSink sink)
+    {
+        if (metadata != null)
+        {
+            for (Map.Entry<String,String> entry : metadata.entrySet())
+                sink.put(entry.getKey(), entry.getValue());
+        }
+    }
 }
@@ -0,0 +1,141 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn;
+
+import java.util.Map;
+
+/**
+ * <p>A {@link PersistentDataClient} that exchanges its metadata with the
+ * {@link DataPersister} a feed at a time, rather than one name/value pair
+ * (or one freshly allocated <tt>Map</tt>) at a time. For a cache with many
+ * items, that saves a great deal of allocation on every load and save.</p>
+ *
+ * <p>When saving, the persister first asks whether the client has any
+ * metadata for a feed, and for the feed's items; if not, the client is
+ * skipped for that feed altogether. Otherwise, the client puts its
+ * metadata into a {@link MetadataSink}. When loading, the client receives
+ * each feed's or item's metadata as one <tt>Map</tt>. The map-based
+ * methods inherited from {@link PersistentDataClient} are not called for
+ * feeds and items; {@link AbstractPersistentDataClient} bridges the two,
+ * for subclasses that only implement those.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface BulkPersistentDataClient extends PersistentDataClient
+{
+    /**
+     * Determine whether this object has any metadata to save with a feed.
+     *
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     *
+     * @return <tt>true</tt> if {@link #putMetadataForFeed} should be
+     *         called for the feed, <tt>false</tt> if not
+     *
+     * @throws CurnException on error
+     */
+    public boolean hasMetadataForFeed(FeedCacheEntry feedData)
+        throws CurnException;
+
+    /**
+     * Determine whether this object has any metadata to save with any of
+     * a feed's items.
+     *
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     *
+     * @return <tt>true</tt> if {@link #putMetadataForItem} should be
+     *         called for the feed's items, <tt>false</tt> if not
+     *
+     * @throws CurnException on error
+     */
+    public boolean hasMetadataForItems(FeedCacheEntry feedData)
+        throws CurnException;
+
+    /**
+     * Put the metadata that is to be saved with a particular feed or
+     * channel into a sink.
+     *
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     * @param sink     where to put the name/value pairs
+     *
+     * @throws CurnException on error
+     */
+    public void putMetadataForFeed(FeedCacheEntry feedData, MetadataSink sink)
+        throws CurnException;
+
+    /**
+     * Put the metadata that is to be saved with a particular item within a
+     * feed into a sink.
+     *
+     * @param itemData the {@link FeedCacheEntry} record for the item
+     * @param feedData the {@link FeedCacheEntry} record for the parent feed
+     * @param sink     where to put the name/value pairs
+     *
+     * @throws CurnException on error
+     */
+    public void putMetadataForItem(FeedCacheEntry itemData,
+                                   FeedCacheEntry feedData,
+                                   MetadataSink   sink)
+        throws CurnException;
+
+    /**
+     * Process all the metadata in this object's namespace that has been
+     * read for a feed.
+     *
+     * @param metadata the name/value pairs. The map belongs to the caller;
+     *                 it must not be modified or kept.
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     *
+     * @throws CurnException on error
+     */
+    public void parseFeedMetadata(Map<String,String> metadata,
+                                  FeedCacheEntry     feedData)
+        throws CurnException;
+
+    /**
+     * Process all the metadata in this object's namespace that has been
+     * read for an item.
+     *
+     * @param metadata the name/value pairs. The map belongs to the caller;
+     *                 it must not be modified or kept.
+     * @param itemData the {@link FeedCacheEntry} record for the item
+     *
+     * @throws CurnException on error
+     */
+    public void parseItemMetadata(Map<String,String> metadata,
+                                  FeedCacheEntry     itemData)
+        throws CurnException;
+}
@@ -0,0 +1,360 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * <p>HTTP content coding support for feed downloads: building and
+ * checking the <tt>Accept-Encoding</tt> request header, and decoding a
+ * response body according to its <tt>Content-Encoding</tt> header.</p>
+ *
+ * <p>The supported codings are <tt>gzip</tt> (and its alias
+ * <tt>x-gzip</tt>), <tt>deflate</tt> and <tt>identity</tt>. A
+ * <tt>deflate</tt> body is supposed to be zlib-wrapped, but a lot of
+ * servers send raw deflate data instead; the decoder looks at the first
+ * two bytes and handles either. Decoding is done on the fly, as the body
+ * is read, so nothing is buffered beyond what the decoders need.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public final class ContentEncoding
+{
+    /*----------------------------------------------------------------------*\
+                             Public Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The default <tt>Accept-Encoding</tt> header. <tt>gzip</tt> is
+     * preferred, since <tt>deflate</tt> has never been implemented
+     * consistently.
+     */
+    public static final String DEFAULT_ACCEPT_ENCODING =
+        "gzip, deflate;q=0.9";
+
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String GZIP     = "gzip";
+    private static final String X_GZIP   = "x-gzip";
+    private static final String DEFLATE  = "deflate";
+    private static final String IDENTITY = "identity";
+    private static final String ANY      = "*";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * An <tt>InflaterInputStream</tt> that owns its <tt>Inflater</tt>,
+     * and releases the inflater's native memory when it's closed.
+     */
+    private static class OwnedInflaterInputStream extends InflaterInputStream
+    {
+        private boolean closed = false;
+
+        OwnedInflaterInputStream(InputStream in, Inflater inflater)
+        {
+            super(in, inflater, BUFFER_SIZE);
+        }
+
+        public void close()
+            throws IOException
+        {
+            if (! closed)
+            {
+                closed = true;
+                try
+                {
+                    super.close();
+                }
+
+                finally
+                {
+                    inf.end();
+                }
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private ContentEncoding()
+    {
+        // Cannot be instantiated.
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Check an <tt>Accept-Encoding</tt> header value, and put it in
+     * canonical form. The value is a comma-separated list of codings, each
+     * with an optional quality value (e.g.,
+     * "<tt>gzip;q=1.0, deflate;q=0.5</tt>"). Only the codings this class
+     * can decode, and "<tt>*</tt>", are permitted.
+     *
+     * @param value  the header value
+     *
+     * @return the canonical form: lower case, no redundant quality values
+     *
+     * @throws CurnException if the value is malformed or names a coding
+     *                       that can't be decoded
+     */
+    public static String normalizeAcceptEncoding(final String value)
+        throws CurnException
+    {
+        StringBuilder buf = new StringBuilder();
+
+        for (String element : value.split(","))
+        {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase(Locale.ENGLISH);
+            String q = null;
+
+            if (coding.length() == 0)
+                continue;
+
+            if ((! isSupported(coding)) && (! coding.equals(ANY)))
+                throw badAcceptEncoding(value);
+
+            for (int i = 1; i < parts.length; i++)
+            {
+                String param = parts[i].trim();
+                int eq = param.indexOf('=');
+                if ((eq < 0) ||
+                    (! param.substring(0, eq).trim().equalsIgnoreCase("q")) ||
+                    (q != null))
+                {
+                    throw badAcceptEncoding(value);
+                }
+
+                q = param.substring(eq + 1).trim();
+                if (! isQualityValue(q))
+                    throw badAcceptEncoding(value);
+            }
+
+            if (buf.length() > 0)
+                buf.append(", ");
+            buf.append(coding);
+            if ((q != null) && (parseQuality(q) != 1.0))
+                buf.append(";q=").append(q);
+        }
+
+        if (buf.length() == 0)
+            throw badAcceptEncoding(value);
+
+        return buf.toString();
+    }
+
+    /**
+     * Wrap a response body in the decoders for its content codings. The
+     * codings are undone in the reverse of the order in which they're
+     * listed, as required by RFC 2616. An empty body is passed through
+     * as is, since some servers label even an empty body as compressed.
+     *
+     * @param in               the body, as received
+     * @param contentEncoding  the value of the <tt>Content-Encoding</tt>
+     *                         header, or null
+     *
+     * @return a stream that yields the decoded body
+     *
+     * @throws IOException if a coding isn't supported, or the body is not
+     *                     in the stated coding
+     */
+    public static InputStream decode(final InputStream in,
+                                     final String      contentEncoding)
+        throws IOException
+    {
+        List<String> codings = parseContentEncoding(contentEncoding);
+        if (codings.isEmpty())
+            return in;
+
+        for (String coding : codings)
+        {
+            if (! isSupported(coding))
+            {
+                throw new IOException("Unsupported content encoding \"" +
+                                      coding + "\"");
+            }
+        }
+
+        InputStream result = new BufferedInputStream(in, BUFFER_SIZE);
+        for (int i = codings.size() - 1; i >= 0; i--)
+        {
+            byte[] head = peek(result);
+            if (head.length == 0)
+                break;
+
+            String coding = codings.get(i);
+            if (coding.equals(GZIP) || coding.equals(X_GZIP))
+                result = new GZIPInputStream(result, BUFFER_SIZE);
+
+            else if (coding.equals(DEFLATE))
+            {
+                Inflater inflater = new Inflater(! isZlibHeader(head));
+                result = new OwnedInflaterInputStream(result, inflater);
+            }
+
+            if ((i > 0) && (! result.markSupported()))
+                result = new BufferedInputStream(result, BUFFER_SIZE);
+        }
+
+        return result;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static List<String> parseContentEncoding(final String value)
+    {
+        List<String> result = new ArrayList<String>();
+        if (value != null)
+        {
+            for (String coding : value.split(","))
+            {
+                coding = coding.trim().toLowerCase(Locale.ENGLISH);
+                if ((coding.length() > 0) && (! coding.equals(IDENTITY)))
+                    result.add(coding);
+            }
+        }
+
+        return result;
+    }
+
+    private static boolean isSupported(final String coding)
+    {
+        return coding.equals(GZIP) ||
+               coding.equals(X_GZIP) ||
+               coding.equals(DEFLATE) ||
+               coding.equals(IDENTITY);
+    }
+
+    /**
+     * Determine whether a string is a legal HTTP quality value: 0 or 1,
+     * with up to three decimal places, and not more than 1.
+     */
+    private static boolean isQualityValue(final String q)
+    {
+        return q.matches("0(\\.[0-9]{0,3})?|1(\\.0{0,3})?");
+    }
+
+    private static double parseQuality(final String q)
+    {
+        return Double.parseDouble(q.endsWith(".") ? q + "0" : q);
+    }
+
+    /**
+     * Get the first two bytes of a stream without consuming them.
+     *
+     * @param in  the stream, which must support <tt>mark()</tt>
+     *
+     * @return the bytes; fewer than two if the stream is that short
+     */
+    private static byte[] peek(final InputStream in)
+        throws IOException
+    {
+        byte[] buf = new byte[2];
+        int total = 0;
+
+        in.mark(buf.length);
+        try
+        {
+            while (total < buf.length)
+            {
+                int n = in.read(buf, total, buf.length - total);
+                if (n < 0)
+                    break;
+                total += n;
+            }
+        }
+
+        finally
+        {
+            in.reset();
+        }
+
+        if (total == buf.length)
+            return buf;
+
+        byte[] result = new byte[total];
+        System.arraycopy(buf, 0, result, 0, total);
+        return result;
+    }
+
+    /**
+     * Determine whether data starts with a zlib (RFC 1950) header: the
+     * deflate compression method, a window size no bigger than 32K, and
+     * a check value that makes the first two bytes a multiple of 31.
+     */
+    private static boolean isZlibHeader(final byte[] head)
+    {
+        if (head.length < 2)
+            return false;
+
+        int cmf = head[0] & 0xff;
+        int flg = head[1] & 0xff;
+        return ((cmf & 0x0f) == 8) &&
+               ((cmf >> 4) <= 7) &&
+               ((((cmf << 8) | flg) % 31) == 0);
+    }
+
+    private static CurnException badAcceptEncoding(final String value)
+    {
+        return new CurnException(Constants.BUNDLE_NAME,
+                                 "ContentEncoding.badAcceptEncoding",
+                                 "Bad Accept-Encoding value \"{0}\". Only " +
+                                 "gzip, x-gzip, deflate, identity and * " +
+                                 "are supported, each with an optional " +
+                                 "q value between 0 and 1.",
+                                 new Object[] {value});
+    }
+}
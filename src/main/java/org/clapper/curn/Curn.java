@@ -48,14 +48,16 @@ import java.util.Map;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Properties;
-import java.util.Queue;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import org.clapper.curn.FeedMetrics.Stage;
 import org.clapper.curn.parser.RSSParserFactory;
 import org.clapper.curn.parser.RSSParser;
 import org.clapper.curn.parser.RSSParserException;
@@ -98,7 +100,11 @@ public class Curn
     private Date currentTime = new Date();
     private MetaPlugIn metaPlugIn = null;
     private DataPersister dataPersister = null;
+    private RunMetrics runMetrics = null;
+    private FetchArchive fetchArchive = null;
+    private FeedHealth feedHealth = null;
     private boolean abortOnUndefinedVariable = true;
+    private boolean resetFailureHistory = false;
     private PrintWriter err;
 
     private final Collection<ConfiguredOutputHandler> configuredOutputHandlers =
@@ -160,12 +166,20 @@ public class Curn
                     final boolean useCache)
         throws CurnException
     {
+        runMetrics = new RunMetrics();
         metaPlugIn.runStartupPlugIn();
 
         try
         {
             this.config = loadConfig(configURL, configEncoding);
+            if (RunMetrics.isExportConfigured(config))
+                metaPlugIn.enablePlugInStats();
+            this.fetchArchive = FetchArchive.open(config);
             this.dataPersister = DataPersisterFactory.getInstance();
+            this.feedHealth = new FeedHealth(config,
+                                             currentTime,
+                                             resetFailureHistory);
+            dataPersister.addPersistentDataClient(feedHealth);
             loadOutputHandlers(config);
             metaPlugIn.registerPersistentDataClientPlugIns(dataPersister);
             processRSSFeeds(useCache);
@@ -183,6 +197,10 @@ public class Curn
 
         finally
         {
+            if (config != null)
+                exportRunMetrics();
+            if (fetchArchive != null)
+                closeFetchArchive();
             metaPlugIn.runShutdownPlugIn();
         }
     }
@@ -216,6 +234,21 @@ public class Curn
         abortOnUndefinedVariable = enable;
     }
 
+    /**
+     * Set or clear the flag that controls whether <i>curn</i> forgets the
+     * saved failure history of its feeds. Resetting the history re-enables
+     * any feeds that were disabled because they kept failing, and lets
+     * feeds (and hosts) that are cooling down be tried again right away.
+     * The flag defaults to <tt>false</tt>.
+     *
+     * @param enable  <tt>true</tt> to reset the failure history,
+     *                <tt>false</tt> to use it
+     */
+    public void setResetFailureHistory(boolean enable)
+    {
+        resetFailureHistory = enable;
+    }
+
     /*----------------------------------------------------------------------*\
                               Private Methods
     \*----------------------------------------------------------------------*/
@@ -257,17 +290,136 @@ public class Curn
         }
 
         channels = downloadFeeds(parsingEnabled, cache, config);
+        feedHealth.report(err);
 
         log.debug("After downloading, total (parsed) channels = " +
                   channels.size());
 
-        if (channels.size() > 0)
-            outputChannels(channels);
+        // Nothing touches the cache between the downloads and the
+        // pre-cache-save plug-ins, which run after output. So, if there
+        // aren't any of those, take a snapshot of the cache now and write
+        // it out in the background while the output handlers run. The
+        // new cache only replaces the old one once output has succeeded;
+        // if output fails, the articles that weren't delivered show up
+        // again on the next run.
+
+        boolean saveCache = (cache != null) && config.mustUpdateFeedMetadata();
+        ExecutorService cacheSaveThread = null;
+        Future<Void> cacheSave = null;
+        if (saveCache && (! metaPlugIn.hasPreCacheSavePlugIns()))
+        {
+            saveCache = false;
+            final DataPersister.Snapshot snapshot =
+                dataPersister.takeSnapshot(cache);
+            if (snapshot != null)
+            {
+                cacheSaveThread = Executors.newSingleThreadExecutor();
+                cacheSave = cacheSaveThread.submit(new Callable<Void>()
+                {
+                    public Void call() throws CurnException
+                    {
+                        dataPersister.writeSnapshot(snapshot);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        boolean outputOK = false;
+        try
+        {
+            if (channels.size() > 0)
+                outputChannels(channels);
+            outputOK = true;
+
+            if (saveCache)
+            {
+                metaPlugIn.runPreCacheSavePlugIn(cache);
+                dataPersister.saveData(cache);
+            }
+        }
 
-        if ((cache != null) && config.mustUpdateFeedMetadata())
+        finally
         {
-            metaPlugIn.runPreCacheSavePlugIn(cache);
-            dataPersister.saveData(cache);
+            try
+            {
+                if (cacheSave != null)
+                    finishCacheSave(cacheSave, cacheSaveThread, outputOK);
+            }
+
+            finally
+            {
+                if (cache != null)
+                    dataPersister.close();
+            }
+        }
+    }
+
+    /**
+     * Wait for the background cache write to finish, then either replace
+     * the saved cache with it or, if output failed, throw it away.
+     *
+     * @param cacheSave       the pending write
+     * @param cacheSaveThread the thread doing the write
+     * @param outputOK        <tt>true</tt> if output succeeded.
+     *                        <tt>false</tt> to discard the new cache, and
+     *                        just log any error writing it (because
+     *                        another error is already on its way up)
+     *
+     * @throws CurnException the save failed
+     */
+    private void finishCacheSave(final Future<Void>    cacheSave,
+                                 final ExecutorService cacheSaveThread,
+                                 final boolean         outputOK)
+        throws CurnException
+    {
+        boolean written = false;
+        try
+        {
+            cacheSave.get();
+            written = true;
+        }
+
+        catch (InterruptedException ex)
+        {
+            // The write may still be running, so it can be neither
+            // committed nor discarded. The old cache stays in place.
+
+            Thread.currentThread().interrupt();
+            if (outputOK)
+                throw new CurnException(ex);
+        }
+
+        catch (ExecutionException ex)
+        {
+            // The failed write has already been discarded.
+
+            Throwable cause = ex.getCause();
+            if (! outputOK)
+                log.error("Unable to save the cache", cause);
+            else if (cause instanceof CurnException)
+                throw (CurnException) cause;
+            else
+                throw new CurnException(cause);
+        }
+
+        finally
+        {
+            cacheSaveThread.shutdown();
+        }
+
+        if (written)
+        {
+            if (outputOK)
+            {
+                dataPersister.commitSnapshot();
+            }
+
+            else
+            {
+                log.info("Output failed. Not saving the cache.");
+                dataPersister.discardSnapshot();
+            }
         }
     }
 
@@ -366,7 +518,6 @@ public class Curn
             new ConcurrentHashMap<FeedInfo,RSSChannel>(totalFeeds,
                                                        0.75f,
                                                        maxThreads);
-        final Queue<FeedInfo> feedQueue  = new ConcurrentLinkedQueue<FeedInfo>();
         final RSSParser parser = (parsingEnabled ? getRSSParser(configuration)
                                                  : null);
 
@@ -376,10 +527,9 @@ public class Curn
         log.info("Doing multithreaded download of feeds, using " +
                  maxThreads + " threads.");
 
-        // Fill the feed queue and make it a synchronized list.
+        // Fill the feed queue.
 
-        for (FeedInfo feedInfo : feeds)
-             feedQueue.offer(feedInfo);
+        final FeedQueue feedQueue = new FeedQueue(feeds);
 
         if (feedQueue.size() == 0)
         {
@@ -388,6 +538,8 @@ public class Curn
                                     "All configured RSS feeds are disabled.");
         }
 
+        runMetrics.feedsQueued(feeds);
+
         // Create the thread objects in a concurrent thread pool. They'll pull
         // feeds off the queue themselves.
 
@@ -423,6 +575,9 @@ public class Curn
                                                       feedCache,
                                                       configuration,
                                                       feedQueue,
+                                                      runMetrics,
+                                                      fetchArchive,
+                                                      feedHealth,
                                                       feedDownloadDoneHandler));
         }
 
@@ -520,9 +675,14 @@ public class Curn
                 // affecting anyone else.
 
                 RSSChannel channel = channels.get(fi).makeCopy();
+                FeedMetrics feedMetrics = runMetrics.getFeedMetrics(fi);
+                long start = System.nanoTime();
                 metaPlugIn.runPreFeedOutputPlugIn(fi, channel, handler);
+                start = feedMetrics.addTimeSince(Stage.PRE_FEED_OUTPUT, start);
                 handler.displayChannel(channel, fi);
+                start = feedMetrics.addTimeSince(Stage.OUTPUT, start);
                 metaPlugIn.runPostFeedOutputPlugIn(fi, handler);
+                feedMetrics.addTimeSince(Stage.POST_FEED_OUTPUT, start);
             }
 
             handler.flush();
@@ -536,6 +696,43 @@ public class Curn
         outputHandlers = null;
     }
 
+    /**
+     * Log the run metrics and write them wherever they're configured to go.
+     * A failure here is logged, rather than thrown, so it can't mask the
+     * outcome of the run itself.
+     */
+    private void exportRunMetrics()
+    {
+        try
+        {
+            runMetrics.export(config, metaPlugIn.getPlugInStats());
+        }
+
+        catch (CurnException ex)
+        {
+            log.error("Unable to export run metrics", ex);
+        }
+    }
+
+    /**
+     * Finish recording or replaying fetches. As with the run metrics, a
+     * failure is logged, rather than thrown.
+     */
+    private void closeFetchArchive()
+    {
+        try
+        {
+            fetchArchive.close();
+        }
+
+        catch (CurnException ex)
+        {
+            log.error("Unable to finish fetch archive", ex);
+        }
+
+        fetchArchive = null;
+    }
+
     /**
      * Log all system properties and other information about the Java VM, as
      * well as other environmental trivia deemed useful to log.
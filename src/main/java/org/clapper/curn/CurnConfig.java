@@ -86,6 +86,17 @@ public class CurnConfig extends Configuration
     public static final String VAR_FORCE_ENCODING    = "ForceEncoding";
     public static final String VAR_FORCE_CHAR_ENCODING = "ForceCharacterEncoding";
     public static final String VAR_DISABLED          = "Disabled";
+    public static final String VAR_MAX_FEED_BYTES    = "MaxFeedBytes";
+    public static final String VAR_MAX_FEED_ITEMS    = "MaxFeedItems";
+    public static final String VAR_MAX_PARSE_SECONDS = "MaxParseSeconds";
+    public static final String VAR_MAX_RETRIES       = "MaxRetries";
+    public static final String VAR_RETRY_DELAY       = "RetryDelay";
+    public static final String VAR_FAILURE_THRESHOLD = "FailureThreshold";
+    public static final String VAR_FAILURE_COOL_DOWN = "FailureCoolDown";
+    public static final String VAR_AUTO_DISABLE_AFTER_DAYS =
+        "AutoDisableAfterDays";
+    public static final String VAR_HOST_FAILURE_THRESHOLD =
+        "HostFailureThreshold";
 
     /**
      * Configuration variable: allow embedded HTML. Not used here. Used by
@@ -104,6 +115,15 @@ public class CurnConfig extends Configuration
     public static final String  DEF_PARSER_CLASS_NAME =
         "org.clapper.curn.parser.rome.RSSParserAdapter";
     public static final int     DEF_MAX_THREADS       = 5;
+    public static final long    DEF_MAX_FEED_BYTES    = Long.MAX_VALUE;
+    public static final int     DEF_MAX_FEED_ITEMS    = Integer.MAX_VALUE;
+    public static final int     DEF_MAX_PARSE_SECONDS = Integer.MAX_VALUE;
+    public static final int     DEF_MAX_RETRIES       = 2;
+    public static final int     DEF_RETRY_DELAY       = 2;
+    public static final int     DEF_FAILURE_THRESHOLD = 3;
+    public static final int     DEF_FAILURE_COOL_DOWN = 60;
+    public static final int     DEF_AUTO_DISABLE_AFTER_DAYS = 30;
+    public static final int     DEF_HOST_FAILURE_THRESHOLD  = 5;
 
     /**
      * Others
@@ -149,6 +169,15 @@ public class CurnConfig extends Configuration
     private List<ConfiguredOutputHandler> outputHandlers
                                  = new ArrayList<ConfiguredOutputHandler>();
     private int maxThreads = DEF_MAX_THREADS;
+    private long defaultMaxFeedBytes = DEF_MAX_FEED_BYTES;
+    private int defaultMaxFeedItems = DEF_MAX_FEED_ITEMS;
+    private int defaultMaxParseSeconds = DEF_MAX_PARSE_SECONDS;
+    private int defaultMaxRetries = DEF_MAX_RETRIES;
+    private int retryDelay = DEF_RETRY_DELAY;
+    private int defaultFailureThreshold = DEF_FAILURE_THRESHOLD;
+    private int failureCoolDown = DEF_FAILURE_COOL_DOWN;
+    private int defaultAutoDisableAfterDays = DEF_AUTO_DISABLE_AFTER_DAYS;
+    private int hostFailureThreshold = DEF_HOST_FAILURE_THRESHOLD;
     private PrintWriter err;
 
     /**
@@ -280,6 +309,44 @@ public class CurnConfig extends Configuration
         updateCache = val;
     }
 
+    /**
+     * Get the initial delay before a failed download is retried. Each
+     * further retry waits twice as long as the one before.
+     *
+     * @return the delay, in seconds
+     *
+     * @see FeedInfo#getMaxRetries
+     */
+    public int getRetryDelay()
+    {
+        return retryDelay;
+    }
+
+    /**
+     * Get how long a feed or host is skipped once it reaches its failure
+     * threshold. Each further failure doubles it.
+     *
+     * @return the cool-down, in minutes
+     *
+     * @see FeedInfo#getFailureThreshold
+     * @see #getHostFailureThreshold
+     */
+    public int getFailureCoolDown()
+    {
+        return failureCoolDown;
+    }
+
+    /**
+     * Get the number of consecutive connection failures, across all the
+     * feeds on a host, after which the host's feeds are skipped.
+     *
+     * @return the threshold, or <tt>Integer.MAX_VALUE</tt> for no limit
+     */
+    public int getHostFailureThreshold()
+    {
+        return hostFailureThreshold;
+    }
+
     /**
      * Return the value of "show RSS version" flag.
      *
@@ -587,12 +654,87 @@ public class CurnConfig extends Configuration
 
         if (varName.equals(VAR_DAYS_TO_CACHE))
         {
-            defaultCacheDays = parseMaxDaysParameter(MAIN_SECTION,
-                                                     varName,
-                                                     DEF_DAYS_TO_CACHE);
+            defaultCacheDays = parseLimitParameter(MAIN_SECTION,
+                                                   varName,
+                                                   DEF_DAYS_TO_CACHE);
             val = String.valueOf(defaultCacheDays);
         }
 
+        else if (varName.equals(VAR_MAX_FEED_BYTES))
+        {
+            defaultMaxFeedBytes = parseByteLimitParameter(MAIN_SECTION,
+                                                          varName,
+                                                          DEF_MAX_FEED_BYTES);
+            val = String.valueOf(defaultMaxFeedBytes);
+        }
+
+        else if (varName.equals(VAR_MAX_FEED_ITEMS))
+        {
+            defaultMaxFeedItems = parseLimitParameter(MAIN_SECTION,
+                                                      varName,
+                                                      DEF_MAX_FEED_ITEMS);
+            val = String.valueOf(defaultMaxFeedItems);
+        }
+
+        else if (varName.equals(VAR_MAX_PARSE_SECONDS))
+        {
+            defaultMaxParseSeconds = parseLimitParameter(MAIN_SECTION,
+                                                         varName,
+                                                         DEF_MAX_PARSE_SECONDS);
+            val = String.valueOf(defaultMaxParseSeconds);
+        }
+
+        else if (varName.equals(VAR_MAX_RETRIES))
+        {
+            defaultMaxRetries = getOptionalCardinalValue(MAIN_SECTION,
+                                                         varName,
+                                                         DEF_MAX_RETRIES);
+            val = String.valueOf(defaultMaxRetries);
+        }
+
+        else if (varName.equals(VAR_RETRY_DELAY))
+        {
+            retryDelay = getOptionalCardinalValue(MAIN_SECTION,
+                                                  varName,
+                                                  DEF_RETRY_DELAY);
+            val = String.valueOf(retryDelay);
+        }
+
+        else if (varName.equals(VAR_FAILURE_THRESHOLD))
+        {
+            defaultFailureThreshold =
+                parseLimitParameter(MAIN_SECTION,
+                                    varName,
+                                    DEF_FAILURE_THRESHOLD);
+            val = String.valueOf(defaultFailureThreshold);
+        }
+
+        else if (varName.equals(VAR_FAILURE_COOL_DOWN))
+        {
+            failureCoolDown = getOptionalCardinalValue(MAIN_SECTION,
+                                                       varName,
+                                                       DEF_FAILURE_COOL_DOWN);
+            val = String.valueOf(failureCoolDown);
+        }
+
+        else if (varName.equals(VAR_AUTO_DISABLE_AFTER_DAYS))
+        {
+            defaultAutoDisableAfterDays =
+                parseLimitParameter(MAIN_SECTION,
+                                    varName,
+                                    DEF_AUTO_DISABLE_AFTER_DAYS);
+            val = String.valueOf(defaultAutoDisableAfterDays);
+        }
+
+        else if (varName.equals(VAR_HOST_FAILURE_THRESHOLD))
+        {
+            hostFailureThreshold = parseLimitParameter
+                                       (MAIN_SECTION,
+                                        varName,
+                                        DEF_HOST_FAILURE_THRESHOLD);
+            val = String.valueOf(hostFailureThreshold);
+        }
+
         else if (varName.equals(VAR_NO_CACHE_UPDATE))
         {
             updateCache = (!getOptionalBooleanValue(MAIN_SECTION,
@@ -705,6 +847,12 @@ public class CurnConfig extends Configuration
 
 
         feedInfo.setDaysToCache(defaultCacheDays);
+        feedInfo.setMaxBytes(defaultMaxFeedBytes);
+        feedInfo.setMaxItems(defaultMaxFeedItems);
+        feedInfo.setMaxParseSeconds(defaultMaxParseSeconds);
+        feedInfo.setMaxRetries(defaultMaxRetries);
+        feedInfo.setFailureThreshold(defaultFailureThreshold);
+        feedInfo.setAutoDisableAfterDays(defaultAutoDisableAfterDays);
 
         for (String varName : getVariableNames(sectionName))
         {
@@ -712,13 +860,67 @@ public class CurnConfig extends Configuration
 
             if (varName.equals(VAR_DAYS_TO_CACHE))
             {
-                int maxDays = parseMaxDaysParameter(sectionName,
-                                                    varName,
-                                                    defaultCacheDays);
+                int maxDays = parseLimitParameter(sectionName,
+                                                  varName,
+                                                  defaultCacheDays);
                 feedInfo.setDaysToCache(maxDays);
                 value = String.valueOf(maxDays);
             }
 
+            else if (varName.equals(VAR_MAX_FEED_BYTES))
+            {
+                long maxBytes = parseByteLimitParameter(sectionName,
+                                                        varName,
+                                                        defaultMaxFeedBytes);
+                feedInfo.setMaxBytes(maxBytes);
+                value = String.valueOf(maxBytes);
+            }
+
+            else if (varName.equals(VAR_MAX_FEED_ITEMS))
+            {
+                int maxItems = parseLimitParameter(sectionName,
+                                                   varName,
+                                                   defaultMaxFeedItems);
+                feedInfo.setMaxItems(maxItems);
+                value = String.valueOf(maxItems);
+            }
+
+            else if (varName.equals(VAR_MAX_PARSE_SECONDS))
+            {
+                int maxSeconds = parseLimitParameter(sectionName,
+                                                     varName,
+                                                     defaultMaxParseSeconds);
+                feedInfo.setMaxParseSeconds(maxSeconds);
+                value = String.valueOf(maxSeconds);
+            }
+
+            else if (varName.equals(VAR_MAX_RETRIES))
+            {
+                int maxRetries = getOptionalCardinalValue(sectionName,
+                                                          varName,
+                                                          defaultMaxRetries);
+                feedInfo.setMaxRetries(maxRetries);
+                value = String.valueOf(maxRetries);
+            }
+
+            else if (varName.equals(VAR_FAILURE_THRESHOLD))
+            {
+                int threshold = parseLimitParameter(sectionName,
+                                                    varName,
+                                                    defaultFailureThreshold);
+                feedInfo.setFailureThreshold(threshold);
+                value = String.valueOf(threshold);
+            }
+
+            else if (varName.equals(VAR_AUTO_DISABLE_AFTER_DAYS))
+            {
+                int days = parseLimitParameter(sectionName,
+                                               varName,
+                                               defaultAutoDisableAfterDays);
+                feedInfo.setAutoDisableAfterDays(days);
+                value = String.valueOf(days);
+            }
+
             else if (varName.equals(VAR_FORCE_ENCODING) ||
                      varName.equals(VAR_FORCE_CHAR_ENCODING))
             {
@@ -857,7 +1059,9 @@ public class CurnConfig extends Configuration
     }
 
     /**
-     * Parse an optional MaxDaysToCache parameter.
+     * Parse an optional limit parameter, such as DaysToCache. The value
+     * is a non-negative number, or {@link #NO_LIMIT_VALUE}, which is
+     * returned as <tt>Integer.MAX_VALUE</tt>.
      *
      * @param sectionName   the section name
      * @param variableName  the variable name
@@ -868,9 +1072,9 @@ public class CurnConfig extends Configuration
      * @throws NoSuchSectionException no such section
      * @throws ConfigurationException bad numeric value
      */
-    private int parseMaxDaysParameter(final String sectionName,
-                                      final String variableName,
-                                      final int    def)
+    private int parseLimitParameter(final String sectionName,
+                                    final String variableName,
+                                    final int    def)
         throws NoSuchSectionException,
                ConfigurationException
     {
@@ -926,4 +1130,107 @@ public class CurnConfig extends Configuration
 
         return result;
     }
+
+    /**
+     * Parse an optional byte count limit parameter, such as MaxFeedBytes.
+     * The value is a non-negative number of bytes, optionally followed by
+     * "K", "M" or "G" (multiples of 1024), or {@link #NO_LIMIT_VALUE},
+     * which is returned as <tt>Long.MAX_VALUE</tt>.
+     *
+     * @param sectionName   the section name
+     * @param variableName  the variable name
+     * @param def           the default
+     *
+     * @return the value
+     *
+     * @throws NoSuchSectionException no such section
+     * @throws ConfigurationException bad numeric value
+     */
+    private long parseByteLimitParameter(final String sectionName,
+                                         final String variableName,
+                                         final long   def)
+        throws NoSuchSectionException,
+               ConfigurationException
+    {
+        long result = def;
+        String value = getOptionalStringValue(sectionName,
+                                              variableName,
+                                              null);
+        if (value != null)
+        {
+            if (value.equalsIgnoreCase(NO_LIMIT_VALUE))
+                result = Long.MAX_VALUE;
+
+            else
+            {
+                String number = value.trim();
+                int shift = 0;
+                if (number.length() > 0)
+                {
+                    switch (Character.toUpperCase
+                                (number.charAt(number.length() - 1)))
+                    {
+                        case 'K':
+                            shift = 10;
+                            break;
+                        case 'M':
+                            shift = 20;
+                            break;
+                        case 'G':
+                            shift = 30;
+                            break;
+                        default:
+                            break;
+                    }
+
+                    if (shift > 0)
+                        number = number.substring(0, number.length() - 1)
+                                       .trim();
+                }
+
+                try
+                {
+                    result = Long.parseLong(number);
+                }
+
+                catch (NumberFormatException ex)
+                {
+                    throw new ConfigurationException
+                                         (Constants.BUNDLE_NAME,
+                                          "CurnConfig.badNumericValue",
+                                          "Bad numeric value \"{0}\" for " +
+                                          "variable \"{1}\" in section " +
+                                          "\"{2}\"",
+                                          new Object[]
+                                          {
+                                              value,
+                                              variableName,
+                                              sectionName
+                                          });
+                }
+
+                if (result < 0)
+                {
+                    throw new ConfigurationException
+                                      (Constants.BUNDLE_NAME,
+                                       "CurnConfig.negativeCardinalValue",
+                                       "Unexpected negative numeric value " +
+                                       "{0} for variable \"{1}\" in section " +
+                                       "\"{2}\"",
+                                       new Object[]
+                                       {
+                                           value,
+                                           variableName,
+                                           sectionName
+                                       });
+                }
+
+                result = (result > (Long.MAX_VALUE >> shift))
+                    ? Long.MAX_VALUE
+                    : (result << shift);
+            }
+        }
+
+        return result;
+    }
 }
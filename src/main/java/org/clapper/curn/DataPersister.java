@@ -81,6 +81,86 @@ public abstract class DataPersister
             throws CurnException;
     }
 
+    /*----------------------------------------------------------------------*\
+                              Public Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The data to be saved, as gathered by {@link #takeSnapshot}. It
+     * doesn't refer back to the cache, so it can be written out by
+     * {@link #saveSnapshot} while the cache is still in use.
+     */
+    public static final class Snapshot
+    {
+        private final Collection<PersistentFeedData> feedData;
+        private final Collection<PersistentMetadataGroup> extraMetadata;
+
+        private Snapshot(Collection<PersistentFeedData>      feedData,
+                         Collection<PersistentMetadataGroup> extraMetadata)
+        {
+            this.feedData      = feedData;
+            this.extraMetadata = extraMetadata;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The {@link MetadataSink} handed to bulk clients. It adds what it's
+     * given to one namespace's metadata group for the current feed or
+     * item, creating the group only if something is actually put.
+     */
+    private static class GroupSink implements MetadataSink
+    {
+        private String namespace = null;
+        private PersistentFeedData feedData = null;
+        private PersistentFeedItemData itemData = null;
+        private PersistentMetadataGroup group = null;
+
+        GroupSink()
+        {
+        }
+
+        void setNamespace(String namespace)
+        {
+            this.namespace = namespace;
+        }
+
+        void setTarget(PersistentFeedData     feedData,
+                       PersistentFeedItemData itemData)
+        {
+            this.feedData = feedData;
+            this.itemData = itemData;
+            this.group    = null;
+        }
+
+        public void put(String name, String value)
+        {
+            if (group == null)
+            {
+                group = new PersistentMetadataGroup(namespace);
+                if (itemData != null)
+                    itemData.addItemMetadataGroup(group);
+                else
+                    feedData.addFeedMetadataGroup(group);
+            }
+
+            group.addMetadataItem(name, value);
+        }
+
+        public void put(String name, long value)
+        {
+            put(name, String.valueOf(value));
+        }
+
+        public void put(String name, boolean value)
+        {
+            put(name, String.valueOf(value));
+        }
+    }
+
     /*----------------------------------------------------------------------*\
                             Private Data Items
     \*----------------------------------------------------------------------*/
@@ -91,6 +171,19 @@ public abstract class DataPersister
     private Map<String, PersistentDataClient> persistentDataClients =
         new HashMap<String,PersistentDataClient>();
 
+    /**
+     * Reused for every feed and item while gathering metadata from
+     * {@link BulkPersistentDataClient} objects.
+     */
+    private final GroupSink metadataSink = new GroupSink();
+
+    /**
+     * The metadata groups that were loaded, by owner and namespace. See
+     * {@link #metadataKey}.
+     */
+    private Map<String,PersistentMetadataGroup> loadedMetadata =
+        new HashMap<String,PersistentMetadataGroup>();
+
     /**
      * For logging
      */
@@ -120,11 +213,36 @@ public abstract class DataPersister
     public final void saveData(FeedCache feedCache)
         throws CurnException
     {
+        Snapshot snapshot = takeSnapshot(feedCache);
+        if (snapshot != null)
+            saveSnapshot(snapshot);
+    }
+
+    /**
+     * Gather the data to be saved: the cache entries, and the metadata
+     * from all the registered {@link PersistentDataClient} objects. This
+     * method must be called on the thread that owns the cache and the
+     * clients; the resulting snapshot can be passed to
+     * {@link #saveSnapshot} on any thread.
+     *
+     * @param feedCache {@link FeedCache} object to save
+     *
+     * @return the snapshot, or null if the data persister is disabled or
+     *         nothing has changed since the data was loaded
+     *
+     * @throws CurnException on error
+     */
+    public final Snapshot takeSnapshot(FeedCache feedCache)
+        throws CurnException
+    {
+        Snapshot result = null;
+
         if (isEnabled())
         {
             // First, retrieve all entries from the cache and reorganize them.
 
-            Collection<FeedCacheEntry> cacheEntries = feedCache.getAllEntries();
+            Collection<FeedCacheEntry> cacheEntries =
+                getEntriesToSave(feedCache);
             Map<URL, PersistentFeedData> cacheDataByFeed =
                 getCacheDataByFeed(cacheEntries);
 
@@ -158,15 +276,106 @@ public abstract class DataPersister
                 }
             }
 
-            // Let the saving begin.
+            // If neither the cache nor the metadata has changed since it
+            // was loaded, there's nothing to save.
 
-            startSaveOperation();
+            if ((! feedCache.isModified()) &&
+                (! metadataChanged(persistentDataByFeed, extraMetadata)) &&
+                (! isSaveRequired()))
+            {
+                log.info("Nothing has changed since the cache was loaded. " +
+                         "Not saving it.");
+            }
 
-            for (PersistentFeedData feedData : persistentDataByFeed)
+            else
+            {
+                result = new Snapshot(persistentDataByFeed, extraMetadata);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Save a snapshot taken by {@link #takeSnapshot}: write it out, then
+     * make it the saved data.
+     *
+     * @param snapshot  the snapshot to save
+     *
+     * @throws CurnException on error
+     *
+     * @see #writeSnapshot
+     * @see #commitSnapshot
+     */
+    public final void saveSnapshot(Snapshot snapshot)
+        throws CurnException
+    {
+        writeSnapshot(snapshot);
+        commitSnapshot();
+    }
+
+    /**
+     * Write out a snapshot taken by {@link #takeSnapshot}, without
+     * replacing the saved data yet. This method doesn't touch the cache
+     * or the persistent data clients, so it can run on a background
+     * thread. It must be followed by a call to {@link #commitSnapshot},
+     * to replace the saved data with the snapshot, or to
+     * {@link #discardSnapshot}, to leave the saved data alone. If this
+     * method fails, the snapshot has already been discarded.
+     *
+     * @param snapshot  the snapshot to write
+     *
+     * @throws CurnException on error
+     */
+    public final void writeSnapshot(Snapshot snapshot)
+        throws CurnException
+    {
+        startSaveOperation();
+
+        boolean ok = false;
+        try
+        {
+            for (PersistentFeedData feedData : snapshot.feedData)
                 saveFeedData(feedData);
 
-            saveExtraMetadata(extraMetadata);
-            endSaveOperation();
+            saveExtraMetadata(snapshot.extraMetadata);
+            ok = true;
+        }
+
+        finally
+        {
+            if (! ok)
+                discardSnapshot();
+        }
+    }
+
+    /**
+     * Replace the saved data with the snapshot written by
+     * {@link #writeSnapshot}.
+     *
+     * @throws CurnException on error
+     */
+    public final void commitSnapshot()
+        throws CurnException
+    {
+        endSaveOperation();
+    }
+
+    /**
+     * Throw away the snapshot written by {@link #writeSnapshot}, leaving
+     * the saved data as it was. Errors are logged, not thrown, since this
+     * is usually called because something else has already gone wrong.
+     */
+    public final void discardSnapshot()
+    {
+        try
+        {
+            abortSaveOperation();
+        }
+
+        catch (CurnException ex)
+        {
+            log.error("Unable to discard the unsaved cache", ex);
         }
     }
 
@@ -182,6 +391,10 @@ public abstract class DataPersister
     {
         if (isEnabled())
         {
+            FeedCacheStore store = openCacheStore();
+            if (store != null)
+                feedCache.useStore(store);
+
             startLoadOperation();
 
             doLoad(new LoadedDataHandler()
@@ -196,6 +409,8 @@ public abstract class DataPersister
                 extraMetadataLoaded(PersistentMetadataGroup metadataGroup)
                     throws CurnException
                 {
+                    loadedMetadata.put(metadataKey("", metadataGroup),
+                                       metadataGroup);
                     String namespace = metadataGroup.getNamespace();
                     PersistentDataClient client =
                         persistentDataClients.get(namespace);
@@ -250,6 +465,49 @@ public abstract class DataPersister
     public abstract void init(CurnConfig curnConfig)
         throws CurnException;
 
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Open the store that is to hold the cache's entries, if this
+     * persister supplies one. Called before the load begins. The default
+     * implementation returns null, which leaves the cache's in-memory
+     * store in place.
+     *
+     * @return the store, or null
+     *
+     * @throws CurnException on error
+     */
+    FeedCacheStore openCacheStore()
+        throws CurnException
+    {
+        return null;
+    }
+
+    /**
+     * Get the cache entries to be passed to {@link #saveFeedData}. The
+     * default implementation returns all of them.
+     *
+     * @param feedCache  the cache being saved
+     *
+     * @return the entries
+     */
+    Collection<FeedCacheEntry> getEntriesToSave(FeedCache feedCache)
+    {
+        return feedCache.getAllEntries();
+    }
+
+    /**
+     * Release whatever the persister holds on to between loading and
+     * saving, such as the store returned by {@link #openCacheStore}.
+     * Called once the cache has been saved (or won't be); the cache can't
+     * be used afterwards. The default implementation does nothing.
+     */
+    void close()
+    {
+    }
+
     /*----------------------------------------------------------------------*\
                               Protected Methods
     \*----------------------------------------------------------------------*/
@@ -263,6 +521,20 @@ public abstract class DataPersister
      */
     protected abstract boolean isEnabled();
 
+    /**
+     * Determine whether the data must be saved even if nothing has changed
+     * since it was loaded; for instance, because it was loaded in a
+     * different format from the one the persister now writes. The
+     * default implementation returns <tt>false</tt>.
+     *
+     * @return <tt>true</tt> to save regardless, <tt>false</tt> to save only
+     *         if something has changed
+     */
+    protected boolean isSaveRequired()
+    {
+        return false;
+    }
+
     /**
      * Called at the beginning of the load operation to initialize
      * the load.
@@ -309,6 +581,19 @@ public abstract class DataPersister
     protected abstract void endSaveOperation()
         throws CurnException;
 
+    /**
+     * Called instead of {@link #endSaveOperation} when the data written
+     * since {@link #startSaveOperation} is not to be saved after all, to
+     * throw it away and leave the saved data as it was. The default
+     * implementation does nothing.
+     *
+     * @throws CurnException on error
+     */
+    protected void abortSaveOperation()
+        throws CurnException
+    {
+    }
+
     /**
      * Save the data for one feed, including the items.
      *
@@ -349,6 +634,13 @@ public abstract class DataPersister
     {
         for (PersistentDataClient client : persistentDataClients.values())
         {
+            if (client instanceof BulkPersistentDataClient)
+            {
+                getBulkMetadataForFeed((BulkPersistentDataClient) client,
+                                       feedData);
+                continue;
+            }
+
             String namespace = client.getMetatdataNamespace();
             PersistentMetadataGroup metadata;
 
@@ -381,6 +673,51 @@ public abstract class DataPersister
         }
     }
 
+    /**
+     * Get the persistent metadata for one feed from a bulk client. The
+     * client is skipped for the feed, or its items, if it says it has
+     * nothing for them.
+     *
+     * @param client   the client
+     * @param feedData the PersistentFeedData object into which to store
+     *                 the metadata
+     *
+     * @throws CurnException on error
+     */
+    private void getBulkMetadataForFeed(BulkPersistentDataClient client,
+                                        PersistentFeedData       feedData)
+        throws CurnException
+    {
+        FeedCacheEntry feedCacheEntry = feedData.getFeedCacheEntry();
+        boolean hasFeedMetadata = client.hasMetadataForFeed(feedCacheEntry);
+        boolean hasItemMetadata = client.hasMetadataForItems(feedCacheEntry);
+
+        if (hasFeedMetadata || hasItemMetadata)
+        {
+            metadataSink.setNamespace(client.getMetatdataNamespace());
+
+            if (hasFeedMetadata)
+            {
+                metadataSink.setTarget(feedData, null);
+                client.putMetadataForFeed(feedCacheEntry, metadataSink);
+            }
+
+            if (hasItemMetadata)
+            {
+                for (PersistentFeedItemData itemData :
+                     feedData.getPersistentFeedItems())
+                {
+                    metadataSink.setTarget(null, itemData);
+                    client.putMetadataForItem(itemData.getFeedCacheEntry(),
+                                              feedCacheEntry,
+                                              metadataSink);
+                }
+            }
+
+            metadataSink.setTarget(null, null);
+        }
+    }
+
     private Map<URL,PersistentFeedData>
     getCacheDataByFeed(final Collection<FeedCacheEntry> cacheEntries)
     {
@@ -388,8 +725,12 @@ public abstract class DataPersister
         Map<URL,PersistentFeedData> cacheDataByFeed =
             new HashMap<URL, PersistentFeedData>();
 
-        for (FeedCacheEntry entry : cacheEntries)
+        for (FeedCacheEntry cachedEntry : cacheEntries)
         {
+            // Copy the entry, so that the saved data doesn't depend on
+            // what happens to the cache in the meantime.
+
+            FeedCacheEntry entry = cachedEntry.copy();
             URL channelURL = entry.getChannelURL();
             PersistentFeedData feedData = cacheDataByFeed.get(channelURL);
             if (feedData == null)
@@ -398,7 +739,7 @@ public abstract class DataPersister
                 cacheDataByFeed.put(channelURL, feedData);
             }
 
-            if (entry.isChannelEntry())
+            if (cachedEntry.isChannelEntry())
             {
                 feedData.setFeedCacheEntry(entry);
             }
@@ -423,6 +764,7 @@ public abstract class DataPersister
         log.debug("processLoadedFeed: Processing loaded feed data for " +
                   feedCacheEntry.getChannelURL());
         feedCache.loadFeedCacheEntry(feedCacheEntry);
+        rememberLoadedMetadata(feedData);
 
         // Dispatch the feed metadata to the appropriate places.
 
@@ -438,6 +780,12 @@ public abstract class DataPersister
                          namespace + "\". " + "Ignoring the metadata.");
             }
 
+            else if (client instanceof BulkPersistentDataClient)
+            {
+                ((BulkPersistentDataClient) client).parseFeedMetadata
+                    (mg.getMetadata(), feedCacheEntry);
+            }
+
             else
             {
                 log.debug("Dispatching feed metadata in namespace \"" +
@@ -468,7 +816,7 @@ public abstract class DataPersister
 
             // Now process the metadata.
 
-            for (PersistentMetadataGroup mg : feedData.getFeedMetadata())
+            for (PersistentMetadataGroup mg : itemData.getItemMetadata())
             {
                 String namespace = mg.getNamespace();
                 PersistentDataClient client =
@@ -480,6 +828,12 @@ public abstract class DataPersister
                              namespace + "\". " + "Ignoring the metadata.");
                 }
 
+                else if (client instanceof BulkPersistentDataClient)
+                {
+                    ((BulkPersistentDataClient) client).parseItemMetadata
+                        (mg.getMetadata(), itemCacheEntry);
+                }
+
                 else
                 {
                     log.debug("Dispatching item metadata in namespace \"" +
@@ -496,4 +850,102 @@ public abstract class DataPersister
             }
         }
     }
+
+    /**
+     * Remember the metadata loaded for a feed and its items, so that
+     * {@link #metadataChanged} can tell whether it has changed.
+     *
+     * @param feedData  the feed's data
+     */
+    private void rememberLoadedMetadata(PersistentFeedData feedData)
+    {
+        FeedCacheEntry feedCacheEntry = feedData.getFeedCacheEntry();
+        if (feedCacheEntry != null)
+        {
+            URL feedURL = feedCacheEntry.getChannelURL();
+            for (PersistentMetadataGroup mg : feedData.getFeedMetadata())
+                loadedMetadata.put(metadataKey(feedURL, mg), mg);
+        }
+
+        for (PersistentFeedItemData itemData : feedData.getPersistentFeedItems())
+        {
+            URL itemURL = itemData.getFeedCacheEntry().getEntryURL();
+            for (PersistentMetadataGroup mg : itemData.getItemMetadata())
+                loadedMetadata.put(metadataKey(itemURL, mg), mg);
+        }
+    }
+
+    /**
+     * Determine whether the metadata to be saved differs from what was
+     * loaded. The groups are compared with <tt>equals()</tt>, so no
+     * change can go unnoticed.
+     *
+     * @param feedDataList   the data for each feed
+     * @param extraMetadata  the extra metadata
+     *
+     * @return <tt>true</tt> if anything has been added, removed or changed
+     */
+    private boolean
+    metadataChanged(Collection<PersistentFeedData>      feedDataList,
+                    Collection<PersistentMetadataGroup> extraMetadata)
+    {
+        int total = 0;
+
+        for (PersistentFeedData feedData : feedDataList)
+        {
+            FeedCacheEntry feedCacheEntry = feedData.getFeedCacheEntry();
+            if (feedCacheEntry != null)
+            {
+                URL feedURL = feedCacheEntry.getChannelURL();
+                for (PersistentMetadataGroup mg : feedData.getFeedMetadata())
+                {
+                    if (! mg.equals(loadedMetadata.get
+                                        (metadataKey(feedURL, mg))))
+                        return true;
+                    total++;
+                }
+            }
+
+            for (PersistentFeedItemData itemData :
+                     feedData.getPersistentFeedItems())
+            {
+                URL itemURL = itemData.getFeedCacheEntry().getEntryURL();
+                for (PersistentMetadataGroup mg : itemData.getItemMetadata())
+                {
+                    if (! mg.equals(loadedMetadata.get
+                                        (metadataKey(itemURL, mg))))
+                        return true;
+                    total++;
+                }
+            }
+        }
+
+        for (PersistentMetadataGroup mg : extraMetadata)
+        {
+            if (! mg.equals(loadedMetadata.get(metadataKey("", mg))))
+                return true;
+            total++;
+        }
+
+        // Everything being saved was loaded; was anything loaded that
+        // isn't being saved?
+
+        return total != loadedMetadata.size();
+    }
+
+    /**
+     * Get the key under which a loaded metadata group is kept.
+     *
+     * @param owner  the URL of the feed or item that owns the group, or
+     *               "" for extra metadata
+     * @param mg     the group
+     *
+     * @return the key
+     */
+    private static String metadataKey(Object owner, PersistentMetadataGroup mg)
+    {
+        // URLs can't contain spaces.
+
+        return String.valueOf(owner) + " " + mg.getNamespace();
+    }
 }
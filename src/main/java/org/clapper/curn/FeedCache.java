@@ -40,17 +40,30 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import org.clapper.curn.parser.RSSItem;
 import org.clapper.curn.parser.RSSLink;
 import org.clapper.util.logging.Logger;
 
 /**
- * Defines the in-memory format of the <i>curn</i> cache, and provides
- * methods for saving and restoring the cache.
+ * <p>Defines the in-memory format of the <i>curn</i> cache, and provides
+ * methods for saving and restoring the cache.</p>
+ *
+ * <p>The entries live in a {@link FeedCacheStore}; the
+ * {@link FeedCacheEntry} objects returned by this class are views onto
+ * it. By default, that's a compact in-memory store, filled by the
+ * {@link DataPersister} on every run. Besides the lookup table, the store
+ * keeps the entries grouped by feed and, within each feed, by the hour
+ * in which they were last seen. An entry expires when it hasn't been seen
+ * for the feed's <tt>DaysToCache</tt>, so pruning a feed only has to look
+ * at the hours that are older than that; a feed whose
+ * <tt>DaysToCache</tt> changes only gets a different cutoff, and no other
+ * feed is affected.</p>
+ *
+ * <p>A data persister can supply a different store instead; see
+ * {@link MappedDataPersister}.</p>
  *
  * @see Curn
  * @see org.clapper.curn.parser.RSSChannel
@@ -77,20 +90,20 @@ public class FeedCache
     private final CurnConfig config;
 
     /**
-     * The actual cache, indexed by unique ID.
+     * The actual cache.
      */
-    private Map<String,FeedCacheEntry> cacheByURL = null;
+    private FeedCacheStore store = new HeapFeedCacheStore();
 
     /**
-     * A list of feed entries, used only during load.
+     * Current time
      */
-    private List<FeedCacheEntry> loadedEntries =
-        new LinkedList<FeedCacheEntry>();
+    private long currentTime = System.currentTimeMillis();
 
     /**
-     * Current time
+     * The store's modification count when loading finished, or -1 if the
+     * cache wasn't loaded.
      */
-    private long currentTime = System.currentTimeMillis();
+    private long loadedModifications = -1;
 
     /**
      * For log messages
@@ -125,15 +138,8 @@ public class FeedCache
      */
     public boolean containsURL(final URL url)
     {
-        boolean hasURL = false;
-
-        if (cacheByURL != null)
-        {
-            String  urlKey = CurnUtil.urlToLookupKey(url);
-            hasURL = cacheByURL.containsKey(urlKey);
-            log.debug("Cache contains \"" + urlKey + "\"? " + hasURL);
-        }
-
+        boolean hasURL = (store.find(url) != FeedCacheStore.NOT_FOUND);
+        log.debug("Cache contains \"" + url + "\"? " + hasURL);
         return hasURL;
     }
 
@@ -147,12 +153,9 @@ public class FeedCache
      */
     public FeedCacheEntry getEntryByURL(final URL url)
     {
-        FeedCacheEntry result = null;
-
-        if (cacheByURL != null)
-            result = cacheByURL.get(CurnUtil.urlToLookupKey(url));
-
-        return result;
+        long key = store.find(url);
+        return (key == FeedCacheStore.NOT_FOUND) ? null
+                                                 : store.getEntry(key, url);
     }
 
     /**
@@ -204,25 +207,16 @@ public class FeedCache
                            final Date     pubDate,
                            final FeedInfo parentFeed)
     {
-        synchronized (this)
-        {
-            if (cacheByURL == null)
-                cacheByURL = new HashMap<String,FeedCacheEntry>();
-        }
-
-        URL parentURL = parentFeed.getURL();
-        FeedCacheEntry entry = new FeedCacheEntry(parentURL,
-                                                  url,
-                                                  pubDate,
-                                                  System.currentTimeMillis());
-
         log.debug ("Adding cache entry for URL \"" +
-                   entry.getEntryURL().toExternalForm() +
+                   url.toExternalForm() +
                    "\", channel URL: \"" +
-                   entry.getChannelURL().toExternalForm() +
+                   parentFeed.getURL().toExternalForm() +
                    "\"");
 
-        cacheByURL.put(CurnUtil.urlToLookupKey(url), entry);
+        store.put(parentFeed.getURL(),
+                  url,
+                  pubDate,
+                  System.currentTimeMillis());
     }
 
     /**
@@ -232,14 +226,7 @@ public class FeedCache
      */
     public Collection<FeedCacheEntry> getAllEntries()
     {
-        Collection<FeedCacheEntry> result = null;
-
-        if (cacheByURL != null)
-            result = Collections.unmodifiableCollection(cacheByURL.values());
-        else
-            result = new ArrayList<FeedCacheEntry>();
-
-        return result;
+        return Collections.unmodifiableCollection(store.getEntries());
     }
 
     /**
@@ -259,6 +246,44 @@ public class FeedCache
                             Package-visible Methods
     \*----------------------------------------------------------------------*/
 
+    /**
+     * Replace the (empty) store that holds the cache's entries. Must be
+     * called before anything is added to the cache.
+     *
+     * @param store  the new store
+     */
+    void useStore(FeedCacheStore store)
+    {
+        this.store = store;
+    }
+
+    /**
+     * Get the channel (feed) entries in the cache, one per feed that has
+     * one. Unlike {@link #getAllEntries}, this doesn't visit the item
+     * entries.
+     *
+     * @return a <tt>Collection</tt> of channel entries
+     */
+    Collection<FeedCacheEntry> getChannelEntries()
+    {
+        Collection<FeedCacheEntry> result = new ArrayList<FeedCacheEntry>();
+        Set<Long> seen = new HashSet<Long>();
+        int total = store.getChannelCount();
+        for (int channel = 0; channel < total; channel++)
+        {
+            URL channelURL = store.getChannelURL(channel);
+            long key = store.find(channelURL);
+            if ((key != FeedCacheStore.NOT_FOUND) &&
+                store.isChannelEntry(key) &&
+                seen.add(key))
+            {
+                result.add(store.getEntry(key, channelURL));
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Add a {@link FeedCacheEntry} to the cache. This method exists primarily
      * for use during deserialization of the cache.
@@ -267,11 +292,13 @@ public class FeedCache
      */
     void loadFeedCacheEntry(FeedCacheEntry entry)
     {
-        // Load onto the end of a list, for speed. pruneCache()
-        // will sift through the list when we're done.
+        // pruneCache() will weed out the expired entries when we're done.
 
-        loadedEntries.add(entry);
-   }
+        store.put(entry.getChannelURL(),
+                  entry.getEntryURL(),
+                  entry.getPublicationDate(),
+                  entry.getTimestamp());
+    }
 
     /**
      * Signify that the cache is finished loading (i.e., that all calls to
@@ -279,15 +306,30 @@ public class FeedCache
      */
     void optimizeAfterLoad()
     {
+        loadedModifications = store.getModificationCount();
         pruneCache();
     }
 
+    /**
+     * Determine whether the cache has changed since it was loaded. Pruning
+     * counts as a change, since the pruned entries are still in the saved
+     * data.
+     *
+     * @return <tt>true</tt> if the cache was never loaded or has changed,
+     *         <tt>false</tt> if it's the same as what was loaded
+     */
+    boolean isModified()
+    {
+        return (loadedModifications < 0) ||
+               (store.getModificationCount() != loadedModifications);
+    }
+
     /*----------------------------------------------------------------------*\
                               Private Methods
     \*----------------------------------------------------------------------*/
 
     /**
-     * Prune the loaded cache of out-of-date data.
+     * Prune the loaded cache of out-of-date data, then compact it.
      */
     private void pruneCache()
     {
@@ -296,115 +338,52 @@ public class FeedCache
                    new Date (currentTime));
         Map<URL,FeedInfo> feedInfoMap = config.getFeedInfoMap();
 
-        int maxEntries = loadedEntries.size();
-        if (maxEntries == 0)
-            maxEntries = 100;
-
-        // Use default load factor (0.75), and rely on the HashMap class's
-        // documented behavior: "If the initial capacity is greater than the
-        // maximum number of entries divided by the load factor, no rehash
-        // operations will ever occur."
-
-        int initialCapacity = (int) (((float) maxEntries) / 0.75f);
-
-        log.debug("HashMap sizing: Max entries=" + maxEntries + ", " +
-                  "initialCapacity=" +  initialCapacity);
-        cacheByURL = new HashMap<String,FeedCacheEntry>(initialCapacity);
-
-        for (FeedCacheEntry entry : loadedEntries)
+        int removed = 0;
+        int total = store.getChannelCount();
+        for (int channel = 0; channel < total; channel++)
         {
-            boolean removed = false;
-            URL channelURL = entry.getChannelURL();
-            String itemKey = entry.getEntryURL().toString();
-
-            if (log.isDebugEnabled())
-                dumpCacheEntry (itemKey, entry, "");
-
+            URL channelURL = store.getChannelURL(channel);
             FeedInfo feedInfo = feedInfoMap.get(channelURL);
 
             if (feedInfo == null)
             {
                 // Cached URL no longer corresponds to a configured site
-                // URL. Kill it.
+                // URL. Kill all its entries.
 
-                log.debug ("Cached item \"" + itemKey +
-                           "\", with base URL \"" + channelURL.toString() +
-                           "\" no longer corresponds to a configured feed. " +
-                           "Tossing it.");
-                removed = true;
+                log.debug ("Cached items with base URL \"" + channelURL +
+                           "\" no longer correspond to a configured feed. " +
+                           "Tossing them.");
+                removed += store.removeChannel(channel);
             }
 
             else
             {
-                long timestamp  = entry.getTimestamp();
-                long maxCacheMS = feedInfo.getMillisecondsToCache();
-                long expires    = timestamp + maxCacheMS;
+                // Anything not seen since the cutoff has expired. Time
+                // stamps in the future are reset to the current time.
 
+                long maxCacheMS = feedInfo.getMillisecondsToCache();
                 if (log.isDebugEnabled())
                 {
-                    log.debug ("    Cache time: " + feedInfo.getDaysToCache() +
-                               " days (" + maxCacheMS + " ms)");
-                    log.debug ("    Expires: " +
-                               new Date (expires).toString());
+                    log.debug ("Feed " + channelURL + ": Cache time: " +
+                               feedInfo.getDaysToCache() + " days (" +
+                               maxCacheMS + " ms)");
                 }
 
-                if (timestamp > currentTime)
-                {
-                    log.debug ("Cache time for item \"" + itemKey +
-                               "\" is in the future, relative to cache's " +
-                               "notion of current time. Setting its " +
-                               "timestamp to the current time.");
-                    entry.setTimestamp (currentTime);
-                }
-
-                else if (expires < currentTime)
-                {
-                    log.debug ("Cache time for item \"" + itemKey +
-                               "\" has expired. Deleting cache entry.");
-                    removed = true;
-                }
-            }
-
-            if (! removed)
-            {
-                // Add to URL cache.
-
-                URL url = CurnUtil.normalizeURL(entry.getEntryURL());
-                String strURL = url.toString();
-                log.debug("Loading entry for URL \"" + strURL +
-                          "\" into in-memory URL lookup cache.");
-                cacheByURL.put(strURL, entry);
-                log.debug("Loading entry for URL \"" + strURL +
-                          "\" into in-memory ID lookup cache.");
+                removed += store.pruneChannel(channel,
+                                              currentTime - maxCacheMS,
+                                              currentTime);
             }
         }
 
-        log.debug("Cache now has " + cacheByURL.size() + " elements.");
-        log.debug("DONE PRUNING CACHE");
-    }
-
-    /**
-     * Dump a single cache entry via the "debug" log facility.
-     *
-     * @param itemKey the hash table key for the item
-     * @param entry   the cache entry
-     * @param indent  string to use to indent output, if desired
-     */
-    private void dumpCacheEntry (final Object         itemKey,
-                                 final FeedCacheEntry entry,
-                                       String         indent)
-    {
-        long timestamp  = entry.getTimestamp();
-
-        if (indent == null)
-            indent = "";
+        store.compact();
 
-        log.debug (indent + "Cached item \"" + itemKey.toString() + "\"");
-        log.debug (indent + "    Item URL: " + entry.getEntryURL().toString());
-        log.debug (indent + "    Channel URL: " +
-                   entry.getChannelURL().toString());
-        log.debug (indent + "    Cached on: " +
-                   new Date (timestamp).toString());
+        if (log.isDebugEnabled())
+        {
+            log.debug("Removed " + removed + " expired elements.");
+            log.debug("Cache now has " + store.size() + " elements, " +
+                      "about " + store.estimateBytesPerEntry() +
+                      " bytes each.");
+        }
+        log.debug("DONE PRUNING CACHE");
     }
-
 }
@@ -42,6 +42,12 @@ import java.util.Date;
  * <p>Defines the contents of a cache entry. There is one cache entry
  * per feed item.</p>
  *
+ * <p>The entries a {@link FeedCache} hands out are lightweight views onto
+ * its compact internal store, created on demand; two views of the same
+ * cached URL are equal, but not necessarily the same object. Changes made
+ * through a view (to the time stamp or the "sticky" flag) go straight to
+ * the cache. Entries created with the public constructor stand alone.</p>
+ *
  * @see CurnConfig
  * @see FeedInfo
  *
@@ -63,6 +69,13 @@ public class FeedCacheEntry
     private final Date    publicationDate;
     private       boolean sticky = false;
 
+    /**
+     * For a view: the store and the entry's key. Of the fields above,
+     * only the entry URL is used, and only if the store doesn't keep it.
+     */
+    private final FeedCacheStore store;
+    private final long           key;
+
     /*----------------------------------------------------------------------*\
                                 Constructor
     \*----------------------------------------------------------------------*/
@@ -85,6 +98,24 @@ public class FeedCacheEntry
         this.entryURL        = entryURL;
         this.timestamp       = timestamp;
         this.publicationDate = pubDate;
+        this.store           = null;
+        this.key             = FeedCacheStore.NOT_FOUND;
+    }
+
+    /**
+     * Construct a view of an entry in a {@link FeedCacheStore}.
+     *
+     * @param store     the store
+     * @param key       the entry's key
+     * @param entryURL  the entry's URL, if known, or null
+     */
+    FeedCacheEntry(FeedCacheStore store, long key, URL entryURL)
+    {
+        this.channelURL      = null;
+        this.entryURL        = entryURL;
+        this.publicationDate = null;
+        this.store           = store;
+        this.key             = key;
     }
 
     /*----------------------------------------------------------------------*\
@@ -99,7 +130,7 @@ public class FeedCacheEntry
      */
     public URL getChannelURL()
     {
-        return channelURL;
+        return (store == null) ? channelURL : store.getChannelURLOf(key);
     }
 
     /**
@@ -116,17 +147,26 @@ public class FeedCacheEntry
      */
     public boolean isChannelEntry()
     {
+        if (store != null)
+            return store.isChannelEntry(key);
+
         return channelURL.sameFile(entryURL);
     }
 
     /**
-     * Get the URL for this entry.
+     * Get the URL for this entry. An item entry obtained from a cache
+     * that only keeps hashes of the item URLs (see
+     * {@link MappedDataPersister}) knows its URL only if it was looked
+     * up by URL.
      *
-     * @return the entry URL
+     * @return the entry URL, or null if not known
      */
     public URL getEntryURL()
     {
-        return entryURL;
+        if ((store == null) || (entryURL != null))
+            return entryURL;
+
+        return store.getEntryURL(key);
     }
 
     /**
@@ -137,7 +177,8 @@ public class FeedCacheEntry
      */
     public Date getPublicationDate()
     {
-        return publicationDate;
+        return (store == null) ? publicationDate
+                               : store.getPublicationDate(key);
     }
 
     /**
@@ -148,7 +189,7 @@ public class FeedCacheEntry
      */
     public long getTimestamp()
     {
-        return timestamp;
+        return (store == null) ? timestamp : store.getTimestamp(key);
     }
 
     /**
@@ -159,7 +200,10 @@ public class FeedCacheEntry
      */
     public void setTimestamp (final long timestamp)
     {
-        this.timestamp = timestamp;
+        if (store == null)
+            this.timestamp = timestamp;
+        else
+            store.setTimestamp(key, timestamp);
     }
 
     /**
@@ -171,7 +215,7 @@ public class FeedCacheEntry
      */
     public boolean isSticky()
     {
-        return sticky;
+        return (store == null) ? sticky : store.isSticky(key);
     }
 
     /**
@@ -184,6 +228,58 @@ public class FeedCacheEntry
      */
     public void setSticky(boolean sticky)
     {
-        this.sticky = sticky;
+        if (store == null)
+            this.sticky = sticky;
+        else
+            store.setSticky(key, sticky);
+    }
+
+    /**
+     * Compare this entry to another object for equality. Two views of
+     * the same cached entry are equal; a standalone entry is only equal
+     * to itself.
+     *
+     * @param o  the other object
+     *
+     * @return <tt>true</tt> if equal, <tt>false</tt> if not
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (store == null)
+            return this == o;
+
+        if (! (o instanceof FeedCacheEntry))
+            return false;
+
+        FeedCacheEntry other = (FeedCacheEntry) o;
+        return (other.store == store) && (other.key == key);
+    }
+
+    /**
+     * Get a standalone copy of this entry, which won't change if the
+     * cache does.
+     *
+     * @return the copy
+     */
+    public FeedCacheEntry copy()
+    {
+        FeedCacheEntry result = new FeedCacheEntry(getChannelURL(),
+                                                   getEntryURL(),
+                                                   getPublicationDate(),
+                                                   getTimestamp());
+        result.setSticky(isSticky());
+        return result;
+    }
+
+    /**
+     * Get the hash code for this entry.
+     *
+     * @return the hash code
+     */
+    @Override
+    public int hashCode()
+    {
+        return (store == null) ? super.hashCode() : (int) (key ^ (key >>> 32));
     }
 }
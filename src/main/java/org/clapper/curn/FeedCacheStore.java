@@ -0,0 +1,259 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.curn;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * <p>Storage for the entries in a {@link FeedCache}. Entries are
+ * identified by a key, which the store assigns; the {@link FeedCacheEntry}
+ * objects handed out by the store are views onto a key. Channels
+ * (feeds) are identified by number, from 0 to
+ * {@link #getChannelCount}<tt>&nbsp;-&nbsp;1</tt>.</p>
+ *
+ * <p>There are two implementations: {@link HeapFeedCacheStore}, which
+ * keeps everything in memory and is filled by the {@link DataPersister}
+ * on every run, and {@link MappedFeedCacheStore}, which probes and
+ * updates a memory-mapped file in place.</p>
+ *
+ * <p>Implementations must be thread-safe.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+abstract class FeedCacheStore
+{
+    /*----------------------------------------------------------------------*\
+                             Package Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Returned by {@link #find} when there's no entry.
+     */
+    static final long NOT_FOUND = -1;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The number of changes made to the persistent parts of the entries.
+     */
+    private volatile long modifications = 0;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    FeedCacheStore()
+    {
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Add an entry, or replace the one with the same (normalized) URL.
+     *
+     * @param channelURL  the channel's URL
+     * @param entryURL    the entry's URL
+     * @param pubDate     the publication date, or null
+     * @param timestamp   the time stamp
+     *
+     * @return the entry's key
+     */
+    abstract long put(URL channelURL, URL entryURL, Date pubDate,
+                      long timestamp);
+
+    /**
+     * Find the entry for a URL.
+     *
+     * @param url  the URL, which is normalized
+     *
+     * @return the entry's key, or {@link #NOT_FOUND}
+     */
+    abstract long find(URL url);
+
+    /**
+     * Get a view of an entry.
+     *
+     * @param key  the entry's key
+     * @param url  the URL the entry was found by, or null
+     *
+     * @return the view
+     */
+    FeedCacheEntry getEntry(long key, URL url)
+    {
+        return new FeedCacheEntry(this, key, null);
+    }
+
+    /**
+     * Get a view of all the live entries, in no particular order. Every
+     * entry's URL must be available from {@link #getEntryURL}, since data
+     * persisters save entries by URL; an entry whose URL has been lost is
+     * left out.
+     *
+     * @return the entries
+     */
+    abstract Collection<FeedCacheEntry> getEntries();
+
+    /**
+     * Get the number of live entries.
+     *
+     * @return the number of entries
+     */
+    abstract int size();
+
+    /**
+     * Get the number of channels.
+     *
+     * @return the number of channels
+     */
+    abstract int getChannelCount();
+
+    /**
+     * Get the URL of a channel.
+     *
+     * @param channel  the channel number
+     *
+     * @return the URL
+     */
+    abstract URL getChannelURL(int channel);
+
+    /**
+     * Remove all of a channel's entries.
+     *
+     * @param channel  the channel number
+     *
+     * @return the number of entries removed, if known
+     */
+    abstract int removeChannel(int channel);
+
+    /**
+     * Prune a channel: remove its entries with time stamps before a cutoff,
+     * and bring time stamps after the current time back to the current
+     * time.
+     *
+     * @param channel      the channel number
+     * @param cutoff       the cutoff time
+     * @param currentTime  the current time
+     *
+     * @return the number of entries removed, if known
+     */
+    abstract int pruneChannel(int channel, long cutoff, long currentTime);
+
+    /**
+     * Reclaim the space used by removed entries. Called once, after
+     * the cache has been loaded and pruned. Any outstanding views may
+     * become invalid.
+     */
+    abstract void compact();
+
+    /**
+     * Estimate the number of bytes of storage used per live entry.
+     *
+     * @return the estimate
+     */
+    abstract long estimateBytesPerEntry();
+
+    /**
+     * Write any changes through to permanent storage. The default
+     * implementation does nothing.
+     *
+     * @throws CurnException on error
+     */
+    void force()
+        throws CurnException
+    {
+    }
+
+    /**
+     * Release whatever resources the store holds. The store can't be used
+     * afterwards. The default implementation does nothing.
+     */
+    void close()
+    {
+    }
+
+    /**
+     * Get the number of changes made so far to the persistent parts of
+     * the entries (their URLs, publication dates and time stamps). Only
+     * differences between two values are meaningful.
+     *
+     * @return the modification count
+     */
+    final long getModificationCount()
+    {
+        return modifications;
+    }
+
+    /**
+     * Record a change to the persistent part of an entry. Implementations
+     * call this method with their lock held.
+     */
+    final void modified()
+    {
+        modifications++;
+    }
+
+    /*----------------------------------------------------------------------*\
+               Package-visible Methods Used by FeedCacheEntry
+    \*----------------------------------------------------------------------*/
+
+    abstract URL getChannelURLOf(long key);
+
+    /**
+     * Get the URL of an entry.
+     *
+     * @param key  the entry's key
+     *
+     * @return the URL, or null if it has been lost
+     */
+    abstract URL getEntryURL(long key);
+
+    abstract boolean isChannelEntry(long key);
+
+    abstract Date getPublicationDate(long key);
+
+    abstract long getTimestamp(long key);
+
+    abstract void setTimestamp(long key, long timestamp);
+
+    abstract boolean isSticky(long key);
+
+    abstract void setSticky(long key, boolean sticky);
+}
@@ -41,18 +41,22 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.net.UnknownHostException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.Queue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
+import org.clapper.curn.FeedMetrics.Outcome;
+import org.clapper.curn.FeedMetrics.Stage;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
 import org.clapper.curn.parser.RSSLink;
@@ -82,7 +86,14 @@ class FeedDownloadThread implements Runnable
     private final CurnConfig              configuration;
     private final RSSParser               rssParser;
     private final FeedCache               cache;
-    private final Queue<FeedInfo>         feedQueue;
+    private final FeedQueue               feedQueue;
+    private final RunMetrics              runMetrics;
+    private       FeedMetrics             feedMetrics = null;
+    private final FetchArchive            fetchArchive;
+    private       FetchArchive.Recording  recording = null;
+    private final FeedHealth              feedHealth;
+    private       IOException             ioFailure = null;
+    private       int                     responseCode = -1;
     private       FeedException           exception = null;
     private final MetaPlugIn              metaPlugIn = MetaPlugIn.getMetaPlugIn();
     private       RSSChannel              channel = null;
@@ -123,15 +134,23 @@ class FeedDownloadThread implements Runnable
      * @param parser          the RSS parser to use
      * @param feedCache       the feed cache to save cache data to
      * @param configFile      the parsed configuration file
-     * @param feedQueue       list of feeds to be processed. The list is
-     *                        assumed to be shared across multiple threads,
-     *                        and must be thread safe.
+     * @param feedQueue       queue of feeds to be processed, shared across
+     *                        the threads. Feeds to be retried are put
+     *                        back on it.
+     * @param runMetrics      where to record each feed's timings
+     * @param fetchArchive    the archive to record fetches to or replay
+     *                        them from, or null to just fetch
+     * @param feedHealth      the feeds' failure history, which decides
+     *                        what to retry and what to skip
      * @param feedDoneHandler called when afeed is finished downloading
      */
     FeedDownloadThread(RSSParser               parser,
                        FeedCache               feedCache,
                        CurnConfig              configFile,
-                       Queue<FeedInfo>         feedQueue,
+                       FeedQueue               feedQueue,
+                       RunMetrics              runMetrics,
+                       FetchArchive            fetchArchive,
+                       FeedHealth              feedHealth,
                        FeedDownloadDoneHandler feedDoneHandler)
     {
         this.id = String.valueOf(nextThreadID.getAndIncrement());
@@ -144,6 +163,9 @@ class FeedDownloadThread implements Runnable
         this.rssParser = parser;
         this.cache = feedCache;
         this.feedQueue = feedQueue;
+        this.runMetrics = runMetrics;
+        this.fetchArchive = fetchArchive;
+        this.feedHealth = feedHealth;
         this.feedDownloadDoneHandler = feedDoneHandler;
 
         //setPriority (getPriority() + 1);
@@ -155,7 +177,7 @@ class FeedDownloadThread implements Runnable
 
     /**
      * Run the thread. Pulls the next <tt>FeedInfo</tt> object from the
-     * feed queue (the list passed to the constructor) and processes it.
+     * feed queue (the one passed to the constructor) and processes it.
      * The thread stops running when it has finished downloading a feed and
      * it finds that the feed queue is empty.
      */
@@ -168,12 +190,21 @@ class FeedDownloadThread implements Runnable
 
         while (! done)
         {
-            FeedInfo feed = null;
+            FeedQueue.Entry entry = null;
 
             log.debug("Checking feed queue.");
-            feed = feedQueue.poll();
+            try
+            {
+                entry = feedQueue.take();
+            }
+
+            catch (InterruptedException ex)
+            {
+                log.info("Interrupted while waiting for a retry.");
+                Thread.currentThread().interrupt();
+            }
 
-            if (feed == null)
+            if (entry == null)
             {
                 log.info("Queue of feeds is empty. Nothing left to do.");
                 done = true;
@@ -181,7 +212,18 @@ class FeedDownloadThread implements Runnable
 
             else
             {
-                processFeed(feed);
+                FeedInfo feed = entry.getFeed();
+                int retries = entry.getRetries();
+
+                // A retry's time on the queue was spent waiting on
+                // purpose.
+
+                if (retries == 0)
+                    feedMetrics = runMetrics.feedDequeued(feed);
+                else
+                    feedMetrics = runMetrics.getFeedMetrics(feed);
+
+                processFeed(feed, retries);
             }
         }
 
@@ -199,55 +241,39 @@ class FeedDownloadThread implements Runnable
      * {@link #errorOccurred} method to determine whether a feed-processing
      * error occurred, and the {@link #getException} method to receive the
      * exception if an error did occur. (If an error does occur, this method
-     * logs it regardless.)
+     * logs it regardless.) A feed that has been failing, or whose host
+     * has, may be skipped; see {@link FeedHealth}. A failure that's worth
+     * retrying isn't an error: the feed is put back on the feed queue,
+     * to be retried later.
      *
-     * @param feed  The <tt>FeedInfo</tt> object for the feed to be processed
+     * @param feed     The <tt>FeedInfo</tt> object for the feed to be
+     *                 processed
+     * @param retries  the number of times the feed has already been
+     *                 retried in this run
      *
      * @see #errorOccurred
      * @see #getException
      */
-    void processFeed(final FeedInfo feed)
+    void processFeed(final FeedInfo feed, final int retries)
     {
         this.exception = null;
         this.channel = null;
+        if (feedMetrics == null)
+            feedMetrics = runMetrics.getFeedMetrics(feed);
 
         try
         {
-            log.info("Processing feed: " + feed.getURL().toString());
-
-            channel = handleFeed(feed, rssParser);
-            if (channel != null)
-                feedDownloadDoneHandler.feedFinished(feed, channel);
-        }
-
-        catch (FeedException ex)
-        {
-            this.exception = new FeedException
-                (feed,
-                 Constants.BUNDLE_NAME,
-                 "FeedDownloadThread.downloadError",
-                 "(Config file \"{0}\") error downloading feed",
-                 new Object[]
-                 {
-                     configuration.getConfigurationFileURL(),
-                 },
-                 ex);
-            log.error(ex.getMessages(true), this.exception);
+            Outcome skipped = (retries == 0) ? feedHealth.checkFeed(feed)
+                                             : null;
+            if (skipped != null)
+                feedMetrics.setOutcome(skipped);
+            else
+                tryFeed(feed, retries);
         }
 
-        catch (CurnException ex)
+        finally
         {
-            this.exception = new FeedException
-                (feed,
-                 Constants.BUNDLE_NAME,
-                 "FeedDownloadThread.downloadError",
-                 "(Config file \"{0}\") error downloading feed",
-                 new Object[]
-                 {
-                     configuration.getConfigurationFileURL(),
-                 },
-                 ex);
-            log.error(ex.getMessages(true), this.exception);
+            feedMetrics = null;
         }
     }
 
@@ -296,6 +322,98 @@ class FeedDownloadThread implements Runnable
                               Private Methods
     \*----------------------------------------------------------------------*/
 
+    /**
+     * Make one attempt at processing a feed. If the download fails in a
+     * way that's likely to be transient, the feed is put back on the
+     * queue. Only called by processFeed().
+     *
+     * @param feed     the feed
+     * @param retries  the number of times it has already been retried
+     */
+    private void tryFeed(final FeedInfo feed, final int retries)
+    {
+        this.ioFailure = null;
+        this.responseCode = -1;
+
+        try
+        {
+            log.info("Processing feed: " + feed.getURL().toString());
+
+            channel = handleFeed(feed, rssParser);
+            if (feedMetrics.getOutcome() != Outcome.DISABLED)
+                feedHealth.recordSuccess(feed);
+            if (channel != null)
+                feedDownloadDoneHandler.feedFinished(feed, channel);
+        }
+
+        catch (FeedQuotaException ex)
+        {
+            this.exception = ex;
+            feedMetrics.setOutcome(Outcome.QUOTA_EXCEEDED);
+            feedMetrics.setExceededQuota(ex.getQuotaName());
+            feedHealth.recordFailure(feed, ex, null);
+            log.error(ex.getMessages(true));
+        }
+
+        catch (FeedException ex)
+        {
+            long delay = feedHealth.getRetryDelay(feed,
+                                                  retries,
+                                                  ioFailure,
+                                                  responseCode);
+            if (delay >= 0)
+            {
+                log.warn("Feed \"" + feed.getURL() + "\": " +
+                         ex.getMessage() + " Retrying (" +
+                         (retries + 1) + " of " + feed.getMaxRetries() +
+                         ") in " + delay + " ms.");
+                feedQueue.retry(feed, retries + 1, delay);
+            }
+
+            else
+            {
+                this.exception = new FeedException
+                    (feed,
+                     Constants.BUNDLE_NAME,
+                     "FeedDownloadThread.downloadError",
+                     "(Config file \"{0}\") error downloading feed",
+                     new Object[]
+                     {
+                         configuration.getConfigurationFileURL(),
+                     },
+                     ex);
+                feedMetrics.setOutcome(Outcome.FAILED);
+                feedHealth.recordFailure(feed, ex, ioFailure);
+                log.error(ex.getMessages(true), this.exception);
+            }
+        }
+
+        catch (CurnException ex)
+        {
+            this.exception = new FeedException
+                (feed,
+                 Constants.BUNDLE_NAME,
+                 "FeedDownloadThread.downloadError",
+                 "(Config file \"{0}\") error downloading feed",
+                 new Object[]
+                 {
+                     configuration.getConfigurationFileURL(),
+                 },
+                 ex);
+            feedMetrics.setOutcome(Outcome.FAILED);
+            log.error(ex.getMessages(true), this.exception);
+        }
+
+        finally
+        {
+            if (recording != null)
+            {
+                fetchArchive.save(recording);
+                recording = null;
+            }
+        }
+    }
+
     /**
      * Actually processes a feed. This method is called by checkFeed()
      * after checkFeed() determines that there's a reason to try to download
@@ -324,16 +442,24 @@ class FeedDownloadThread implements Runnable
         {
             log.info("Checking for new data from RSS feed " + feedURLString);
 
+            long start = System.nanoTime();
             boolean forceDownload = metaPlugIn.forceFeedDownload(feedInfo, cache);
+            start = feedMetrics.addTimeSince(Stage.FORCE_FEED_DOWNLOAD, start);
             log.debug("Feed \"" + feedURLString + "\": forceDownload=" +
                       forceDownload);
 
             // Open the connection.
 
-            URLConnection conn = feedURL.openConnection();
+            URLConnection conn = (fetchArchive == null)
+                                     ? feedURL.openConnection()
+                                     : fetchArchive.openConnection(feedURL);
 
-            if (! metaPlugIn.runPreFeedDownloadPlugIn(feedInfo, conn))
+            boolean enabled = metaPlugIn.runPreFeedDownloadPlugIn(feedInfo,
+                                                                  conn);
+            feedMetrics.addTimeSince(Stage.PRE_FEED_DOWNLOAD, start);
+            if (! enabled)
             {
+                feedMetrics.setOutcome(Outcome.DISABLED);
                 log.debug("Feed " + feedInfo.getURL().toString() +
                           ": A plug-in disabled the feed.");
             }
@@ -352,6 +478,7 @@ class FeedDownloadThread implements Runnable
 
         catch (IOException ex)
         {
+            ioFailure = ex;
             throw new FeedException(feedInfo, ex);
         }
 
@@ -385,6 +512,8 @@ class FeedDownloadThread implements Runnable
     {
         RSSChannel  resultChannel = null;
         URL feedURL = feedInfo.getURL();
+        FeedQuota quota = new FeedQuota(feedInfo);
+        DownloadedTempFile tempFile = null;
 
         try
         {
@@ -400,12 +529,15 @@ class FeedDownloadThread implements Runnable
             if (! forceDownload)
                 setIfModifiedSinceHeader(urlConn, feedInfo, cache);
 
+            connect(urlConn);
+
             // If the feed has actually changed, or if downloading is force,
             // process it.
 
             if ((! forceDownload) &&
                 (! feedHasChanged(urlConn, feedInfo, cache)))
             {
+                feedMetrics.setOutcome(Outcome.UNCHANGED);
                 log.info ("Feed has not changed. Skipping it.");
             }
 
@@ -416,18 +548,22 @@ class FeedDownloadThread implements Runnable
 
                 // Download the feed to a file. We'll parse the file.
 
-                DownloadedTempFile tempFile = downloadFeed(urlConn, feedInfo);
+                tempFile = downloadFeed(urlConn, feedInfo, quota);
 
                 if (tempFile.bytesDownloaded == 0)
                 {
+                    feedMetrics.setOutcome(Outcome.NO_DATA);
                     log.debug("Feed \"" + feedURL + "\" returned no data.");
                 }
 
                 else
                 {
+                    feedMetrics.setOutcome(Outcome.DOWNLOADED);
+                    long start = System.nanoTime();
                     metaPlugIn.runPostFeedDownloadPlugIn(feedInfo,
                                                          tempFile.file,
                                                          tempFile.encoding);
+                    feedMetrics.addTimeSince(Stage.POST_FEED_DOWNLOAD, start);
 
                     if (parser == null)
                     {
@@ -440,11 +576,25 @@ class FeedDownloadThread implements Runnable
                                   parser.getClass().getName() +
                                   " to parse \"" + feedURL + "\"");
 
+                        start = System.nanoTime();
                         InputStream is = new FileInputStream(tempFile.file);
-                        resultChannel = parser.parseRSSFeed(feedURL,
-                                                            is,
-                                                            tempFile.encoding);
-                        is.close();
+                        try
+                        {
+                            resultChannel = parser.parseRSSFeed
+                                (feedURL,
+                                 quota.limitParseTime(is, start),
+                                 tempFile.encoding);
+                        }
+
+                        finally
+                        {
+                            is.close();
+                        }
+
+                        quota.checkParseTime(start);
+                        start = feedMetrics.addTimeSince(Stage.PARSE, start);
+                        feedMetrics.setItems(resultChannel.getItems().size());
+                        quota.checkItems(resultChannel.getItems().size());
 
                         // Make sure the channel has a link.
 
@@ -457,32 +607,37 @@ class FeedDownloadThread implements Runnable
                             resultChannel.setLinks(Collections.singleton(link));
                         }
 
-                        if (! metaPlugIn.runPostFeedParsePlugIn(feedInfo,
-                                                                cache,
-                                                                resultChannel))
-                        {
+                        boolean keep =
+                            metaPlugIn.runPostFeedParsePlugIn(feedInfo,
+                                                              cache,
+                                                              resultChannel);
+                        feedMetrics.addTimeSince(Stage.POST_FEED_PARSE, start);
+                        if (! keep)
                             resultChannel = null;
-                        }
 
                         if (resultChannel != null)
                         {
                             processChannelItems(resultChannel, feedInfo);
+                            feedMetrics.setNewItems
+                                (resultChannel.getItems().size());
                             if (resultChannel.getItems().size() == 0)
                                 resultChannel = null;
                         }
 
                         if (resultChannel != null)
                         {
+                            start = System.nanoTime();
                             boolean ok = metaPlugIn.runPostFeedProcessPlugIn(
                                 feedInfo, cache, resultChannel
                             );
+                            feedMetrics.addTimeSince(Stage.POST_FEED_PROCESS,
+                                                     start);
                             if (! ok)
                                 resultChannel = null;
                         }
                     }
                 }
 
-                tempFile.file.delete();
                 if (cache != null)
                 {
                     cache.addToCache(feedURL,
@@ -494,14 +649,27 @@ class FeedDownloadThread implements Runnable
 
         catch (IOException ex)
         {
+            ioFailure = ex;
+            FeedQuotaException quotaEx = quota.getException(ex);
+            if (quotaEx != null)
+                throw quotaEx;
             throw new FeedException(feedInfo, ex);
         }
 
         catch (RSSParserException ex)
         {
+            FeedQuotaException quotaEx = quota.getException(ex);
+            if (quotaEx != null)
+                throw quotaEx;
             throw new FeedException(feedInfo, ex);
         }
 
+        finally
+        {
+            if (tempFile != null)
+                tempFile.file.delete();
+        }
+
         log.debug("downloadAndProcessFeed(): Feed=" +
                   feedInfo.getURL() + ", returning " +
                   ((resultChannel == null) ? "null" : resultChannel.toString()));
@@ -510,10 +678,80 @@ class FeedDownloadThread implements Runnable
     }
 
     /**
-     * Download a feed.
+     * Open a connection to a feed's server, recording how long it takes to
+     * resolve the host name, connect, and get the response headers. The
+     * name lookup is done separately, ahead of the connection, so it can be
+     * timed; the connection then finds the address in the JVM's cache.
+     * It's skipped when a proxy is configured, since the proxy does the
+     * lookup, and when replaying recorded fetches, which don't use the
+     * network. When recording fetches, this is where the recording starts.
+     *
+     * @param conn  the <tt>URLConnection</tt> for the feed
+     *
+     * @throws IOException  I/O error
+     */
+    private void connect(final URLConnection conn)
+        throws IOException
+    {
+        URL url = conn.getURL();
+        String host = url.getHost();
+        long begin = System.nanoTime();
+        long start = begin;
+        boolean recordFetch = (fetchArchive != null) &&
+                              fetchArchive.isRecording();
+
+        if ((host != null) &&
+            (host.length() > 0) &&
+            (System.getProperty(url.getProtocol() + ".proxyHost") == null) &&
+            ((fetchArchive == null) || (! fetchArchive.isReplaying())))
+        {
+            try
+            {
+                InetAddress.getByName(host);
+            }
+
+            catch (UnknownHostException ex)
+            {
+                // Let the connection report it.
+            }
+
+            start = feedMetrics.addTimeSince(Stage.DNS, start);
+        }
+
+        try
+        {
+            conn.connect();
+        }
+
+        catch (IOException ex)
+        {
+            if (recordFetch)
+            {
+                recording = fetchArchive.recordFailure
+                    (url, ex, System.nanoTime() - begin);
+            }
+
+            throw ex;
+        }
+
+        start = feedMetrics.addTimeSince(Stage.CONNECT, start);
+        conn.getHeaderFields();
+        start = feedMetrics.addTimeSince(Stage.FIRST_BYTE, start);
+
+        if (conn instanceof HttpURLConnection)
+            responseCode = ((HttpURLConnection) conn).getResponseCode();
+
+        if (recordFetch)
+            recording = fetchArchive.startRecording(conn, start - begin);
+    }
+
+    /**
+     * Download a feed. The download is abandoned as soon as it goes over
+     * the feed's byte limit.
      *
      * @param conn     the <tt>URLConnection</tt> for the feed
      * @param feedInfo the <tt>FeedInfo</tt> object for the feed
+     * @param quota    the feed's quota
      *
      * @return the <tt>DownloadedTempFile</tt> object that captures the
      *         details about the downloaded file
@@ -522,19 +760,30 @@ class FeedDownloadThread implements Runnable
      * @throws CurnException some other error
      */
     private DownloadedTempFile downloadFeed(final URLConnection conn,
-                                            final FeedInfo      feedInfo)
+                                            final FeedInfo      feedInfo,
+                                            final FeedQuota     quota)
         throws CurnException,
                IOException
     {
         URL feedURL = feedInfo.getURL();
         String feedURLString = feedURL.toString();
         int totalBytes = 0;
+
+        // Don't start a download that is known to be too big. The length
+        // is of the encoded body, so it's only a guide for an encoded one.
+
+        if (conn.getHeaderField("content-encoding") == null)
+            quota.checkLength(conn.getContentLength());
+
         File tempFile = CurnUtil.createTempXMLFile();
 
         log.debug("Downloading \"" + feedURLString + "\" to file \"" +
                   tempFile.getPath());
 
-        InputStream urlStream = getURLInputStream(conn);
+        CountingInputStream wireStream =
+            new CountingInputStream(conn.getInputStream());
+        InputStream urlStream =
+            quota.limitBytes(getURLInputStream(conn, wireStream));
 
         /* Determine the character set encoding to use.
          * When downloading, all we are doing is copying bytes.
@@ -574,15 +823,23 @@ class FeedDownloadThread implements Runnable
             encoding = feedInfo.getForcedCharacterEncoding();
 
         OutputStream tempOutput = null;
+        boolean ok = false;
         try
         {
             tempOutput = new FileOutputStream(tempFile);
+            long start = System.nanoTime();
             totalBytes = IOUtils.copy(urlStream, tempOutput);
+            feedMetrics.addTimeSince(Stage.TRANSFER, start);
+            feedMetrics.setBytes(totalBytes);
+            feedMetrics.setTransferBytes(wireStream.getByteCount());
+            ok = true;
         }
         finally
         {
             IOUtils.closeQuietly(tempOutput);
             IOUtils.closeQuietly(urlStream);
+            if (! ok)
+                tempFile.delete();
         }
 
         // It's possible for totalBytes to be zero if, for instance, the
@@ -635,31 +892,35 @@ class FeedDownloadThread implements Runnable
     }
 
     /**
-     * Get the input stream for a URL. Handles compressed data.
+     * Get the decoded input stream for a URL. Compressed data is
+     * decompressed as it's read, according to the
+     * <tt>Content-Encoding</tt> header.
      *
      * @param conn the <tt>URLConnection</tt> to process
+     * @param is   the connection's input stream
      *
      * @return the <tt>InputStream</tt>
      *
-     * @throws IOException I/O error
+     * @throws IOException I/O error, or an unsupported content encoding
+     *
+     * @see ContentEncoding#decode
      */
-    private InputStream getURLInputStream(final URLConnection conn)
+    private InputStream getURLInputStream(final URLConnection conn,
+                                          InputStream         is)
         throws IOException
     {
-        InputStream is = conn.getInputStream();
         String ce = conn.getHeaderField("content-encoding");
 
+        // Record the data as it arrived, before it's decompressed.
+
+        if (recording != null)
+            is = recording.capture(is);
+
         if (ce != null)
         {
-            String urlString = conn.getURL().toString();
-
-            log.debug("URL \"" + urlString + "\" -> Content-Encoding: " + ce);
-            if (ce.indexOf("gzip") != -1)
-            {
-                log.debug("URL \"" + urlString +
-                          "\" is compressed. Using GZIPInputStream.");
-                is = new GZIPInputStream(is);
-            }
+            log.debug("URL \"" + conn.getURL().toString() +
+                      "\" -> Content-Encoding: " + ce);
+            is = ContentEncoding.decode(is, ce);
         }
 
         return is;
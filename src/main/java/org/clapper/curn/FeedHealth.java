@@ -0,0 +1,641 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.clapper.curn.FeedMetrics.Outcome;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>Keeps track of feeds (and hosts) that keep failing, and decides what
+ * to do about them. Within a run, it says whether, and after how long, a
+ * failed download should be retried: transient failures (refused
+ * connections, and HTTP 408, 429, 500, 502, 503 and 504) are retried up
+ * to <tt>MaxRetries</tt> times, with an exponentially growing, jittered
+ * delay that starts at <tt>RetryDelay</tt> seconds. The feed goes back on
+ * the {@link FeedQueue} for the delay, so no thread sits waiting for it.
+ * Anything else (a time-out, an unknown host, a 404, a feed that won't
+ * parse) isn't worth retrying; a server that's timing out will usually
+ * time out again, and each try costs a full time-out.</p>
+ *
+ * <p>Across runs, it acts as a circuit breaker. Each feed's consecutive
+ * failures are counted; once there have been <tt>FailureThreshold</tt> of
+ * them, the feed isn't tried again until <tt>FailureCoolDown</tt> minutes
+ * have passed, and the cool-down doubles with each further failure (up to
+ * a week). Connection failures are also counted per host, against
+ * <tt>HostFailureThreshold</tt>, so one dead server doesn't cost a
+ * time-out for each of its feeds. A feed that has failed for
+ * <tt>AutoDisableAfterDays</tt> days without a single success is disabled
+ * and reported; it stays disabled until <i>curn</i> is run with
+ * <tt>--reset-failures</tt>. A success clears the feed's history and its
+ * host's.</p>
+ *
+ * <p>The failure history is kept in the extra metadata that the
+ * {@link DataPersister} saves with the cache, so it needs no file of its
+ * own. Entries for feeds that are no longer configured are dropped when
+ * the cache is saved.</p>
+ *
+ * <p>This class is thread-safe; it's shared by all the feed download
+ * threads.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+class FeedHealth extends AbstractPersistentDataClient
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Metadata name prefixes.
+     */
+    private static final String FEED_PREFIX = "feed.";
+    private static final String HOST_PREFIX = "host.";
+
+    /**
+     * The longest delay between retries, in milliseconds.
+     */
+    private static final long MAX_RETRY_DELAY = 60 * 1000;
+
+    /**
+     * The longest cool-down, in milliseconds.
+     */
+    private static final long MAX_COOL_DOWN = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * How much of the last error message to keep.
+     */
+    private static final int MAX_ERROR_LENGTH = 200;
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The failure history of a feed or a host. Encoded as
+     * "failures,first,last,openUntil,disabled,lastError", with the times in
+     * milliseconds.
+     */
+    private static class State
+    {
+        int     failures = 0;
+        long    firstFailure = 0;
+        long    lastFailure = 0;
+        long    openUntil = 0;
+        boolean disabled = false;
+        String  lastError = "";
+
+        static State decode(String s)
+            throws NumberFormatException
+        {
+            String[] fields = s.split(",", 6);
+            if (fields.length != 6)
+                throw new NumberFormatException("Bad failure state: " + s);
+
+            State state = new State();
+            state.failures = Integer.parseInt(fields[0]);
+            state.firstFailure = Long.parseLong(fields[1]);
+            state.lastFailure = Long.parseLong(fields[2]);
+            state.openUntil = Long.parseLong(fields[3]);
+            state.disabled = Boolean.valueOf(fields[4]);
+            state.lastError = fields[5];
+            return state;
+        }
+
+        String encode()
+        {
+            return failures + "," + firstFailure + "," + lastFailure + "," +
+                   openUntil + "," + disabled + "," + lastError;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final CurnConfig config;
+    private final long now;
+    private final boolean reset;
+    private final Set<String> configuredFeeds = new HashSet<String>();
+    private final Set<String> configuredHosts = new HashSet<String>();
+    private final Map<String,State> feedStates = new HashMap<String,State>();
+    private final Map<String,State> hostStates = new HashMap<String,State>();
+    private final List<String> newlyDisabled = new ArrayList<String>();
+    private final Random random = new Random();
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(FeedHealth.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new <tt>FeedHealth</tt> object.
+     *
+     * @param config  the configuration
+     * @param now     the current time
+     * @param reset   <tt>true</tt> to forget the saved failure history,
+     *                <tt>false</tt> to use it
+     */
+    FeedHealth(CurnConfig config, Date now, boolean reset)
+    {
+        this.config = config;
+        this.now = now.getTime();
+        this.reset = reset;
+
+        for (FeedInfo feedInfo : config.getFeeds())
+        {
+            URL url = feedInfo.getURL();
+            configuredFeeds.add(url.toString());
+            configuredHosts.add(getHost(url));
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Parse an extra metadata item: the saved failure history of a feed
+     * or a host.
+     *
+     * @param name   the name associated with the metadata
+     * @param value  the value of the metadata
+     *
+     * @throws CurnException on error
+     */
+    @Override
+    public void parseExtraMetadata(String name, String value)
+        throws CurnException
+    {
+        if (reset)
+            return;
+
+        try
+        {
+            synchronized (this)
+            {
+                if (name.startsWith(FEED_PREFIX))
+                {
+                    feedStates.put(name.substring(FEED_PREFIX.length()),
+                                   State.decode(value));
+                }
+
+                else if (name.startsWith(HOST_PREFIX))
+                {
+                    hostStates.put(name.substring(HOST_PREFIX.length()),
+                                   State.decode(value));
+                }
+            }
+        }
+
+        catch (NumberFormatException ex)
+        {
+            log.error("Ignoring malformed failure history \"" + name +
+                      "\"", ex);
+        }
+    }
+
+    /**
+     * Get the failure history to save, dropping any for feeds and hosts
+     * that are no longer configured.
+     *
+     * @return the failure history, as name/value pairs
+     *
+     * @throws CurnException on error
+     */
+    @Override
+    public synchronized Map<String,String> getExtraFeedMetadata()
+        throws CurnException
+    {
+        Map<String,String> result = new HashMap<String,String>();
+
+        for (Map.Entry<String,State> entry : feedStates.entrySet())
+        {
+            if (configuredFeeds.contains(entry.getKey()))
+            {
+                result.put(FEED_PREFIX + entry.getKey(),
+                           entry.getValue().encode());
+            }
+        }
+
+        for (Map.Entry<String,State> entry : hostStates.entrySet())
+        {
+            if (configuredHosts.contains(entry.getKey()))
+            {
+                result.put(HOST_PREFIX + entry.getKey(),
+                           entry.getValue().encode());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Determine whether this object has any metadata to save with a feed.
+     * It only keeps extra metadata.
+     *
+     * @param feedData the feed data
+     *
+     * @return <tt>false</tt>
+     */
+    @Override
+    public boolean hasMetadataForFeed(FeedCacheEntry feedData)
+    {
+        return false;
+    }
+
+    /**
+     * Determine whether this object has any metadata to save with a feed's
+     * items. It only keeps extra metadata.
+     *
+     * @param feedData the feed data
+     *
+     * @return <tt>false</tt>
+     */
+    @Override
+    public boolean hasMetadataForItems(FeedCacheEntry feedData)
+    {
+        return false;
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether a feed should be skipped this run.
+     *
+     * @param feedInfo  the feed
+     *
+     * @return {@link Outcome#AUTO_DISABLED} if the feed has been disabled,
+     *         {@link Outcome#CIRCUIT_OPEN} if it, or its host, is cooling
+     *         down, or null if it should be downloaded
+     */
+    synchronized Outcome checkFeed(FeedInfo feedInfo)
+    {
+        URL url = feedInfo.getURL();
+        State feedState = feedStates.get(url.toString());
+        State hostState = hostStates.get(getHost(url));
+        Outcome result = null;
+
+        if ((feedState != null) && feedState.disabled)
+        {
+            log.info("Feed \"" + url + "\" has been disabled after " +
+                     feedState.failures + " failures. Skipping it.");
+            result = Outcome.AUTO_DISABLED;
+        }
+
+        else if ((feedState != null) && (feedState.openUntil > now))
+        {
+            log.info("Feed \"" + url + "\" has failed " +
+                     feedState.failures + " times in a row. Skipping it " +
+                     "until " + new Date(feedState.openUntil) + ".");
+            result = Outcome.CIRCUIT_OPEN;
+        }
+
+        else if ((hostState != null) && (hostState.openUntil > now))
+        {
+            log.info("Host \"" + getHost(url) + "\" has failed " +
+                     hostState.failures + " times in a row. Skipping feed \"" +
+                     url + "\" until " + new Date(hostState.openUntil) + ".");
+            result = Outcome.CIRCUIT_OPEN;
+        }
+
+        return result;
+    }
+
+    /**
+     * Determine whether, and when, to retry a failed download.
+     *
+     * @param feedInfo      the feed
+     * @param retries       how many times it has already been retried
+     * @param ioFailure     the I/O error that caused the failure, or null
+     *                      if it wasn't an I/O error
+     * @param responseCode  the HTTP response code, or -1 if none was
+     *                      received
+     *
+     * @return how many milliseconds to wait before retrying, or -1 not to
+     *         retry
+     */
+    long getRetryDelay(FeedInfo    feedInfo,
+                       int         retries,
+                       IOException ioFailure,
+                       int         responseCode)
+    {
+        long result = -1;
+
+        if ((retries < feedInfo.getMaxRetries()) &&
+            isTransient(ioFailure, responseCode))
+        {
+            // Exponential backoff with "equal jitter": half the delay is
+            // fixed, the other half random, so feeds that failed together
+            // don't all retry together.
+
+            long delay = config.getRetryDelay() * 1000L;
+            for (int i = 0; (i < retries) && (delay < MAX_RETRY_DELAY); i++)
+                delay <<= 1;
+            delay = Math.min(delay, MAX_RETRY_DELAY);
+
+            long half = delay / 2;
+            synchronized (random)
+            {
+                result = half + (long) (random.nextDouble() * (delay - half));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Record a successful download, clearing the failure history of the
+     * feed and its host.
+     *
+     * @param feedInfo  the feed
+     */
+    synchronized void recordSuccess(FeedInfo feedInfo)
+    {
+        URL url = feedInfo.getURL();
+        if (feedStates.remove(url.toString()) != null)
+            log.info("Feed \"" + url + "\" has recovered.");
+        hostStates.remove(getHost(url));
+    }
+
+    /**
+     * Record a failed download (after any retries).
+     *
+     * @param feedInfo      the feed
+     * @param failure       the error
+     * @param ioFailure     the I/O error that caused the failure, or null
+     *                      if it wasn't an I/O error
+     */
+    synchronized void recordFailure(FeedInfo    feedInfo,
+                                    Throwable   failure,
+                                    IOException ioFailure)
+    {
+        URL url = feedInfo.getURL();
+        String feedURL = url.toString();
+        State state = feedStates.get(feedURL);
+        if (state == null)
+        {
+            state = new State();
+            feedStates.put(feedURL, state);
+        }
+
+        updateState(state, failure, feedInfo.getFailureThreshold());
+        if (state.openUntil > now)
+        {
+            log.warn("Feed \"" + feedURL + "\" has failed " +
+                     state.failures + " times in a row. Not trying it " +
+                     "again until " + new Date(state.openUntil) + ".");
+        }
+
+        int disableDays = feedInfo.getAutoDisableAfterDays();
+        if ((! state.disabled) &&
+            (disableDays != Integer.MAX_VALUE) &&
+            (state.failures >= feedInfo.getFailureThreshold()) &&
+            ((now - state.firstFailure) >=
+             (disableDays * 24L * 60 * 60 * 1000)))
+        {
+            state.disabled = true;
+            newlyDisabled.add(feedURL);
+        }
+
+        if (isConnectionFailure(ioFailure))
+        {
+            String host = getHost(url);
+            State hostState = hostStates.get(host);
+            if (hostState == null)
+            {
+                hostState = new State();
+                hostStates.put(host, hostState);
+            }
+
+            int threshold = config.getHostFailureThreshold();
+            boolean wasOpen = (hostState.openUntil > now);
+            updateState(hostState, failure, threshold);
+            if ((! wasOpen) && (hostState.openUntil > now))
+            {
+                log.warn("Host \"" + host + "\" has failed " +
+                         hostState.failures + " times in a row. Not " +
+                         "trying its feeds again until " +
+                         new Date(hostState.openUntil) + ".");
+            }
+        }
+    }
+
+    /**
+     * Report the feeds that were disabled during this run, and log a
+     * summary of the ones that are being skipped.
+     *
+     * @param err  where to report disabled feeds
+     */
+    synchronized void report(PrintWriter err)
+    {
+        for (String feedURL : newlyDisabled)
+        {
+            State state = feedStates.get(feedURL);
+            String msg = "Feed \"" + feedURL + "\" has failed " +
+                         state.failures + " times in a row since " +
+                         new Date(state.firstFailure) + " and has been " +
+                         "disabled. Last error: " + state.lastError +
+                         ". Run curn with --reset-failures to try it again.";
+            log.warn(msg);
+            err.println(msg);
+        }
+
+        err.flush();
+
+        int open = 0;
+        int disabled = 0;
+        for (Map.Entry<String,State> entry : feedStates.entrySet())
+        {
+            if (! configuredFeeds.contains(entry.getKey()))
+                continue;
+
+            State state = entry.getValue();
+            if (state.disabled)
+                disabled++;
+            else if (state.openUntil > now)
+                open++;
+        }
+
+        if ((open > 0) || (disabled > 0))
+        {
+            log.info(open + " feed(s) cooling down after repeated " +
+                     "failures; " + disabled + " feed(s) disabled.");
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Count a failure against a feed or host, opening its circuit if it
+     * has reached the threshold.
+     *
+     * @param state      the feed's or host's state
+     * @param failure    the error
+     * @param threshold  the failure threshold
+     */
+    private void updateState(State state, Throwable failure, int threshold)
+    {
+        if (state.failures == 0)
+            state.firstFailure = now;
+
+        state.failures++;
+        state.lastFailure = now;
+        state.lastError = getErrorText(failure);
+
+        if (state.failures >= threshold)
+        {
+            long coolDown = config.getFailureCoolDown() * 60L * 1000;
+            for (int i = threshold;
+                 (i < state.failures) && (coolDown < MAX_COOL_DOWN);
+                 i++)
+            {
+                coolDown <<= 1;
+            }
+
+            state.openUntil = now + Math.min(coolDown, MAX_COOL_DOWN);
+        }
+    }
+
+    /**
+     * Determine whether a failure is worth retrying.
+     *
+     * @param ioFailure     the I/O error, or null
+     * @param responseCode  the HTTP response code, or -1
+     *
+     * @return <tt>true</tt> if it's likely to be transient
+     */
+    private boolean isTransient(IOException ioFailure, int responseCode)
+    {
+        boolean result;
+
+        switch (responseCode)
+        {
+            case 408:   // Request Timeout
+            case 429:   // Too Many Requests
+            case 500:   // Internal Server Error
+            case 502:   // Bad Gateway
+            case 503:   // Service Unavailable
+            case 504:   // Gateway Timeout
+                result = true;
+                break;
+
+            default:
+                // A refused connection fails fast; a time-out doesn't, so
+                // it isn't retried.
+
+                result = (responseCode < 400) &&
+                         (ioFailure instanceof ConnectException);
+                break;
+        }
+
+        return result;
+    }
+
+    /**
+     * Determine whether a failure means the host couldn't be reached at
+     * all, rather than a problem with one feed.
+     *
+     * @param ioFailure  the I/O error, or null
+     *
+     * @return <tt>true</tt> if the host couldn't be reached
+     */
+    private boolean isConnectionFailure(IOException ioFailure)
+    {
+        return (ioFailure instanceof UnknownHostException) ||
+               (ioFailure instanceof ConnectException) ||
+               (ioFailure instanceof NoRouteToHostException) ||
+               (ioFailure instanceof SocketTimeoutException);
+    }
+
+    /**
+     * Get the text of an error, trimmed to fit in the saved state.
+     *
+     * @param failure  the error
+     *
+     * @return the text
+     */
+    private String getErrorText(Throwable failure)
+    {
+        String text = (failure == null) ? "" : failure.getMessage();
+        if (text == null)
+            text = failure.getClass().getName();
+
+        text = text.replaceAll("\\s+", " ").trim();
+        if (text.length() > MAX_ERROR_LENGTH)
+            text = text.substring(0, MAX_ERROR_LENGTH);
+
+        return text;
+    }
+
+    /**
+     * Get the host (and port, if there is one) of a URL.
+     *
+     * @param url  the URL
+     *
+     * @return the host
+     */
+    private static String getHost(URL url)
+    {
+        int port = url.getPort();
+        String host = url.getHost().toLowerCase();
+        return (port == -1) ? host : (host + ":" + port);
+    }
+}
@@ -68,6 +68,15 @@ public class FeedInfo
     private       int         daysToCache = 0;
     private final URL         siteURL;
     private       String      forcedEncoding = null;
+    private       long        maxBytes = CurnConfig.DEF_MAX_FEED_BYTES;
+    private       int         maxItems = CurnConfig.DEF_MAX_FEED_ITEMS;
+    private       int         maxParseSeconds =
+                                  CurnConfig.DEF_MAX_PARSE_SECONDS;
+    private       int         maxRetries = CurnConfig.DEF_MAX_RETRIES;
+    private       int         failureThreshold =
+                                  CurnConfig.DEF_FAILURE_THRESHOLD;
+    private       int         autoDisableAfterDays =
+                                  CurnConfig.DEF_AUTO_DISABLE_AFTER_DAYS;
 
     /*----------------------------------------------------------------------*\
                                 Constructor
@@ -190,6 +199,78 @@ public class FeedInfo
         return forcedEncoding;
     }
 
+    /**
+     * Get the maximum number of bytes <i>curn</i> will download for this
+     * feed, after decompression. A feed that's bigger is abandoned.
+     *
+     * @return the maximum, or <tt>Long.MAX_VALUE</tt> for no limit
+     */
+    public long getMaxBytes()
+    {
+        return maxBytes;
+    }
+
+    /**
+     * Get the maximum number of items this feed can have. A feed with
+     * more is abandoned after it's parsed.
+     *
+     * @return the maximum, or <tt>Integer.MAX_VALUE</tt> for no limit
+     */
+    public int getMaxItems()
+    {
+        return maxItems;
+    }
+
+    /**
+     * Get the maximum number of seconds <i>curn</i> will spend parsing
+     * this feed. A feed that takes longer is abandoned.
+     *
+     * @return the maximum, or <tt>Integer.MAX_VALUE</tt> for no limit
+     */
+    public int getMaxParseSeconds()
+    {
+        return maxParseSeconds;
+    }
+
+    /**
+     * Get the number of times a download that fails with a transient
+     * error (a timeout, a refused connection, or an HTTP status such as
+     * 503) is retried within a run.
+     *
+     * @return the number of retries
+     *
+     * @see CurnConfig#getRetryDelay
+     */
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+    /**
+     * Get the number of consecutive runs in which this feed can fail
+     * before <i>curn</i> starts skipping it for a cool-down period.
+     *
+     * @return the threshold, or <tt>Integer.MAX_VALUE</tt> for no limit
+     *
+     * @see CurnConfig#getFailureCoolDown
+     */
+    public int getFailureThreshold()
+    {
+        return failureThreshold;
+    }
+
+    /**
+     * Get the number of days this feed can fail, without a single
+     * success, before <i>curn</i> disables it.
+     *
+     * @return the number of days, or <tt>Integer.MAX_VALUE</tt> for no
+     *         limit
+     */
+    public int getAutoDisableAfterDays()
+    {
+        return autoDisableAfterDays;
+    }
+
     /*----------------------------------------------------------------------*\
                           Package-visible Methods
     \*----------------------------------------------------------------------*/
@@ -205,4 +286,81 @@ public class FeedInfo
     {
         this.forcedEncoding = encoding;
     }
+
+    /**
+     * Set the maximum number of bytes to download for this feed.
+     *
+     * @param maxBytes the maximum, or <tt>Long.MAX_VALUE</tt> for no limit
+     *
+     * @see #getMaxBytes
+     */
+    void setMaxBytes (final long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Set the maximum number of items for this feed.
+     *
+     * @param maxItems the maximum, or <tt>Integer.MAX_VALUE</tt> for no
+     *                 limit
+     *
+     * @see #getMaxItems
+     */
+    void setMaxItems (final int maxItems)
+    {
+        this.maxItems = maxItems;
+    }
+
+    /**
+     * Set the maximum number of seconds to spend parsing this feed.
+     *
+     * @param maxParseSeconds the maximum, or <tt>Integer.MAX_VALUE</tt> for
+     *                        no limit
+     *
+     * @see #getMaxParseSeconds
+     */
+    void setMaxParseSeconds (final int maxParseSeconds)
+    {
+        this.maxParseSeconds = maxParseSeconds;
+    }
+
+    /**
+     * Set the number of times a failed download is retried within a run.
+     *
+     * @param maxRetries the number of retries
+     *
+     * @see #getMaxRetries
+     */
+    void setMaxRetries (final int maxRetries)
+    {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Set the number of consecutive failed runs after which this feed is
+     * skipped for a while.
+     *
+     * @param failureThreshold the threshold, or <tt>Integer.MAX_VALUE</tt>
+     *                         for no limit
+     *
+     * @see #getFailureThreshold
+     */
+    void setFailureThreshold (final int failureThreshold)
+    {
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Set the number of days this feed can fail before it's disabled.
+     *
+     * @param days the number of days, or <tt>Integer.MAX_VALUE</tt> for no
+     *             limit
+     *
+     * @see #getAutoDisableAfterDays
+     */
+    void setAutoDisableAfterDays (final int days)
+    {
+        this.autoDisableAfterDays = days;
+    }
 }
@@ -0,0 +1,299 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+/**
+ * Timings and counts for one feed during one <i>curn</i> run. The
+ * download thread that handles the feed fills in most of it; the main
+ * thread adds the output time. The figures are collected in a
+ * {@link RunMetrics} object and exported at the end of the run.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class FeedMetrics
+{
+    /*----------------------------------------------------------------------*\
+                               Package Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The stages through which a feed passes. Plug-in stages are named
+     * after the corresponding plug-in interface.
+     */
+    enum Stage
+    {
+        QUEUE_WAIT ("queue_wait", false),
+        DNS ("dns", false),
+        CONNECT ("connect", false),
+        FIRST_BYTE ("first_byte", false),
+        TRANSFER ("transfer", false),
+        PARSE ("parse", false),
+        OUTPUT ("output", false),
+        FORCE_FEED_DOWNLOAD ("ForceFeedDownload", true),
+        PRE_FEED_DOWNLOAD ("PreFeedDownload", true),
+        POST_FEED_DOWNLOAD ("PostFeedDownload", true),
+        POST_FEED_PARSE ("PostFeedParse", true),
+        POST_FEED_PROCESS ("PostFeedProcess", true),
+        PRE_FEED_OUTPUT ("PreFeedOutput", true),
+        POST_FEED_OUTPUT ("PostFeedOutput", true);
+
+        private final String name;
+        private final boolean plugIn;
+
+        private Stage(String name, boolean plugIn)
+        {
+            this.name = name;
+            this.plugIn = plugIn;
+        }
+
+        /**
+         * Get the name under which the stage is exported.
+         *
+         * @return the name
+         */
+        String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Determine whether this stage is a plug-in phase.
+         *
+         * @return <tt>true</tt> for a plug-in phase, <tt>false</tt> for
+         *         one of <i>curn</i>'s own stages
+         */
+        boolean isPlugInPhase()
+        {
+            return plugIn;
+        }
+    }
+
+    /**
+     * What happened to the feed.
+     */
+    enum Outcome
+    {
+        NOT_RUN ("not_run"),
+        DISABLED ("disabled"),
+        UNCHANGED ("unchanged"),
+        NO_DATA ("no_data"),
+        DOWNLOADED ("downloaded"),
+        QUOTA_EXCEEDED ("quota_exceeded"),
+        CIRCUIT_OPEN ("circuit_open"),
+        AUTO_DISABLED ("auto_disabled"),
+        FAILED ("failed");
+
+        private final String name;
+
+        private Outcome(String name)
+        {
+            this.name = name;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final String url;
+    private final long[] stageNanos = new long[Stage.values().length];
+    private long bytes = 0;
+    private long transferBytes = 0;
+    private int items = 0;
+    private int newItems = 0;
+    private Outcome outcome = Outcome.NOT_RUN;
+    private String exceededQuota = null;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create an empty set of metrics for a feed.
+     *
+     * @param url  the feed's URL, as a string
+     */
+    FeedMetrics(String url)
+    {
+        this.url = url;
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    String getURL()
+    {
+        return url;
+    }
+
+    /**
+     * Add the time from a starting point to now to a stage.
+     *
+     * @param stage       the stage
+     * @param startNanos  the starting point, from <tt>System.nanoTime()</tt>
+     *
+     * @return now, from <tt>System.nanoTime()</tt>, so that it can be used
+     *         as the start of the next stage
+     */
+    long addTimeSince(Stage stage, long startNanos)
+    {
+        long now = System.nanoTime();
+        addTime(stage, now - startNanos);
+        return now;
+    }
+
+    synchronized void addTime(Stage stage, long nanos)
+    {
+        stageNanos[stage.ordinal()] += nanos;
+    }
+
+    synchronized long getTime(Stage stage)
+    {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * Get the total time spent on the feed, not counting the time it
+     * spent waiting in the queue.
+     *
+     * @return the time, in nanoseconds
+     */
+    synchronized long getTotalTime()
+    {
+        long total = 0;
+        for (Stage stage : Stage.values())
+        {
+            if (stage != Stage.QUEUE_WAIT)
+                total += stageNanos[stage.ordinal()];
+        }
+
+        return total;
+    }
+
+    synchronized void setBytes(long bytes)
+    {
+        this.bytes = bytes;
+    }
+
+    synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Set the number of bytes actually transferred for the feed, before
+     * any content encoding was decoded. {@link #getBytes} is the decoded
+     * size.
+     *
+     * @param transferBytes  the number of bytes received
+     */
+    synchronized void setTransferBytes(long transferBytes)
+    {
+        this.transferBytes = transferBytes;
+    }
+
+    synchronized long getTransferBytes()
+    {
+        return transferBytes;
+    }
+
+    /**
+     * Set the number of items in the feed, as parsed.
+     *
+     * @param items  the number of items
+     */
+    synchronized void setItems(int items)
+    {
+        this.items = items;
+    }
+
+    synchronized int getItems()
+    {
+        return items;
+    }
+
+    /**
+     * Set the number of items that are new (i.e., not in the cache).
+     *
+     * @param newItems  the number of new items
+     */
+    synchronized void setNewItems(int newItems)
+    {
+        this.newItems = newItems;
+    }
+
+    synchronized int getNewItems()
+    {
+        return newItems;
+    }
+
+    synchronized void setOutcome(Outcome outcome)
+    {
+        this.outcome = outcome;
+    }
+
+    synchronized Outcome getOutcome()
+    {
+        return outcome;
+    }
+
+    /**
+     * Record which of the feed's quotas it exceeded.
+     *
+     * @param quota  the quota name, from
+     *               {@link FeedQuotaException#getQuotaName}
+     */
+    synchronized void setExceededQuota(String quota)
+    {
+        this.exceededQuota = quota;
+    }
+
+    /**
+     * Get the quota the feed exceeded.
+     *
+     * @return the quota name, or null if the feed didn't exceed one
+     */
+    synchronized String getExceededQuota()
+    {
+        return exceededQuota;
+    }
+}
@@ -0,0 +1,191 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+
+/**
+ * <p>The feeds waiting to be downloaded, shared by the feed download
+ * threads. A feed whose download failed in a way that's worth retrying
+ * goes back on the queue, with a time before which it mustn't be tried;
+ * until then, the threads get on with the other feeds, rather than
+ * sleeping. A thread only waits for a retry when there's nothing else
+ * left to do.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ *
+ * @see FeedHealth#getRetryDelay
+ * @version <tt>$Revision$</tt>
+ */
+final class FeedQueue
+{
+    /*----------------------------------------------------------------------*\
+                              Inner Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * A feed on the queue.
+     */
+    static final class Entry implements Comparable<Entry>
+    {
+        private final FeedInfo feed;
+        private final int      retries;
+        private final long     notBefore;
+
+        Entry(FeedInfo feed, int retries, long notBefore)
+        {
+            this.feed = feed;
+            this.retries = retries;
+            this.notBefore = notBefore;
+        }
+
+        /**
+         * Get the feed.
+         *
+         * @return the feed
+         */
+        FeedInfo getFeed()
+        {
+            return feed;
+        }
+
+        /**
+         * Get the number of times the feed has already been retried in
+         * this run.
+         *
+         * @return the number of retries, which is 0 for the first attempt
+         */
+        int getRetries()
+        {
+            return retries;
+        }
+
+        public int compareTo(Entry other)
+        {
+            return (notBefore < other.notBefore) ? -1 :
+                   (notBefore > other.notBefore) ? 1 : 0;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                           Private Instance Data
+    \*----------------------------------------------------------------------*/
+
+    private final LinkedList<Entry> ready = new LinkedList<Entry>();
+    private final PriorityQueue<Entry> retries = new PriorityQueue<Entry>();
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a queue holding feeds to be downloaded.
+     *
+     * @param feeds  the feeds
+     */
+    FeedQueue(Collection<FeedInfo> feeds)
+    {
+        for (FeedInfo feed : feeds)
+            ready.add(new Entry(feed, 0, 0));
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the number of feeds on the queue, including the ones waiting to
+     * be retried.
+     *
+     * @return the number of feeds
+     */
+    synchronized int size()
+    {
+        return ready.size() + retries.size();
+    }
+
+    /**
+     * Take the next feed off the queue. Feeds that are ready come first;
+     * if there are none, this method waits for the next retry to come
+     * due.
+     *
+     * @return the next feed, or null if the queue is empty
+     *
+     * @throws InterruptedException if the thread is interrupted while
+     *                              waiting for a retry
+     */
+    synchronized Entry take()
+        throws InterruptedException
+    {
+        Entry result = ready.poll();
+
+        while ((result == null) && (retries.size() > 0))
+        {
+            long wait = retries.peek().notBefore - System.currentTimeMillis();
+            if (wait <= 0)
+                result = retries.poll();
+
+            else
+            {
+                // Woken early if another feed is put back on the queue.
+
+                wait(wait);
+                result = ready.poll();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Put a feed back on the queue, to be retried after a delay.
+     *
+     * @param feed     the feed
+     * @param retries  the number of times it will have been retried,
+     *                 counting this one
+     * @param delay    how long to wait before retrying, in milliseconds
+     */
+    synchronized void retry(FeedInfo feed, int retries, long delay)
+    {
+        this.retries.add(new Entry(feed,
+                                   retries,
+                                   System.currentTimeMillis() + delay));
+        notifyAll();
+    }
+}
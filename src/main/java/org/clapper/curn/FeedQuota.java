@@ -0,0 +1,302 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.input.ProxyInputStream;
+
+/**
+ * Enforces a feed's limits during one download. The byte limit is applied
+ * while the body streams to disk, and the parse time limit while the
+ * parser reads the downloaded file, so a runaway feed is abandoned as soon
+ * as it goes over, rather than after it has been read in full. The item
+ * limit can only be checked once the feed is parsed, but that's still
+ * before any plug-in, the cache or an output handler sees the items.
+ *
+ * <p>The streams signal a breach with an <tt>IOException</tt>, which the
+ * parser may well wrap in one of its own. The quota remembers the breach,
+ * so the caller can turn whatever comes out into a
+ * {@link FeedQuotaException} with {@link #getException}.</p>
+ *
+ * @see FeedInfo#getMaxBytes
+ * @see FeedInfo#getMaxItems
+ * @see FeedInfo#getMaxParseSeconds
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class FeedQuota
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String BYTES      = "bytes";
+    private static final String ITEMS      = "items";
+    private static final String PARSE_TIME = "parse_time";
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Thrown by the limiting streams.
+     */
+    private static class QuotaIOException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        QuotaIOException(String message)
+        {
+            super(message);
+        }
+    }
+
+    /**
+     * Counts the bytes read, and fails once there are too many.
+     */
+    private class ByteLimitInputStream extends ProxyInputStream
+    {
+        private long total = 0;
+
+        ByteLimitInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        protected void afterRead(int n)
+            throws IOException
+        {
+            if (n > 0)
+            {
+                total += n;
+                if (total > maxBytes)
+                    throw exceeded(BYTES, describe(maxBytes, BYTES));
+            }
+        }
+    }
+
+    /**
+     * Fails any read after a deadline.
+     */
+    private class DeadlineInputStream extends ProxyInputStream
+    {
+        private final long deadline;
+
+        DeadlineInputStream(InputStream in, long deadline)
+        {
+            super(in);
+            this.deadline = deadline;
+        }
+
+        protected void beforeRead(int n)
+            throws IOException
+        {
+            if (System.nanoTime() - deadline > 0)
+                throw exceeded(PARSE_TIME, describe(maxParseSeconds,
+                                                    "seconds"));
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final FeedInfo feedInfo;
+    private final long maxBytes;
+    private final int maxItems;
+    private final int maxParseSeconds;
+
+    /**
+     * The quota that was exceeded, and its limit, or null.
+     */
+    private String exceededQuota = null;
+    private String exceededLimit = null;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create the quota for one download of a feed.
+     *
+     * @param feedInfo  the feed, which supplies the limits
+     */
+    FeedQuota(FeedInfo feedInfo)
+    {
+        this.feedInfo = feedInfo;
+        this.maxBytes = feedInfo.getMaxBytes();
+        this.maxItems = feedInfo.getMaxItems();
+        this.maxParseSeconds = feedInfo.getMaxParseSeconds();
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Check a body's advertised length before it's downloaded.
+     *
+     * @param length  the length, or a negative number if it isn't known
+     *
+     * @throws FeedQuotaException if the body is too big
+     */
+    void checkLength(long length)
+        throws FeedQuotaException
+    {
+        if (length > maxBytes)
+        {
+            exceeded(BYTES, describe(maxBytes, BYTES));
+            throw getException(null);
+        }
+    }
+
+    /**
+     * Wrap the (decoded) body of a download in a stream that enforces the
+     * byte limit.
+     *
+     * @param in  the body
+     *
+     * @return the stream to read instead
+     */
+    InputStream limitBytes(InputStream in)
+    {
+        return (maxBytes == Long.MAX_VALUE) ? in
+                                            : new ByteLimitInputStream(in);
+    }
+
+    /**
+     * Wrap the parser's input in a stream that enforces the parse time
+     * limit.
+     *
+     * @param in          the downloaded feed
+     * @param startNanos  when parsing started, from
+     *                    <tt>System.nanoTime()</tt>
+     *
+     * @return the stream to give the parser
+     */
+    InputStream limitParseTime(InputStream in, long startNanos)
+    {
+        return (maxParseSeconds == Integer.MAX_VALUE)
+            ? in
+            : new DeadlineInputStream(in, startNanos + parseNanos());
+    }
+
+    /**
+     * Check the parse time once parsing is done, since the parser can
+     * do a lot of work after it has read its input.
+     *
+     * @param startNanos  when parsing started, from
+     *                    <tt>System.nanoTime()</tt>
+     *
+     * @throws FeedQuotaException if parsing took too long
+     */
+    void checkParseTime(long startNanos)
+        throws FeedQuotaException
+    {
+        if ((maxParseSeconds != Integer.MAX_VALUE) &&
+            ((System.nanoTime() - startNanos) > parseNanos()))
+        {
+            exceeded(PARSE_TIME, describe(maxParseSeconds, "seconds"));
+            throw getException(null);
+        }
+    }
+
+    /**
+     * Check the number of items in the parsed feed.
+     *
+     * @param items  the number of items
+     *
+     * @throws FeedQuotaException if there are too many
+     */
+    void checkItems(int items)
+        throws FeedQuotaException
+    {
+        if (items > maxItems)
+        {
+            exceeded(ITEMS, describe(maxItems, ITEMS));
+            throw getException(null);
+        }
+    }
+
+    /**
+     * Get the exception for a quota breach, if there was one.
+     *
+     * @param cause  the exception that the breach produced, or null
+     *
+     * @return the exception, or null if no quota was exceeded
+     */
+    FeedQuotaException getException(Throwable cause)
+    {
+        if (exceededQuota == null)
+            return null;
+
+        return new FeedQuotaException(feedInfo,
+                                      exceededQuota,
+                                      exceededLimit,
+                                      cause);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private long parseNanos()
+    {
+        return maxParseSeconds * NANOS_PER_SECOND;
+    }
+
+    private QuotaIOException exceeded(String quota, String limit)
+    {
+        if (exceededQuota == null)
+        {
+            exceededQuota = quota;
+            exceededLimit = limit;
+        }
+
+        return new QuotaIOException("Feed \"" + feedInfo.getURL() +
+                                    "\" exceeded its " + quota +
+                                    " quota of " + limit);
+    }
+
+    private static String describe(long limit, String units)
+    {
+        return limit + " " + units;
+    }
+}
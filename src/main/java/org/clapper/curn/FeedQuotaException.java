@@ -0,0 +1,107 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+/**
+ * <tt>FeedQuotaException</tt> is thrown when a feed exceeds one of its
+ * configured limits (downloaded bytes, item count or parse time), and
+ * <i>curn</i> abandons it.
+ *
+ * @see FeedInfo#getMaxBytes
+ * @see FeedInfo#getMaxItems
+ * @see FeedInfo#getMaxParseSeconds
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class FeedQuotaException extends FeedException
+{
+    /*----------------------------------------------------------------------*\
+                         Private Static Variables
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * See JDK 1.5 version of java.io.Serializable
+     */
+    private static final long serialVersionUID = 1L;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final String quotaName;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Constructs an exception for an exceeded quota.
+     *
+     * @param feedInfo    the <tt>FeedInfo</tt> object for the feed
+     * @param quotaName   the name of the quota: "bytes", "items" or
+     *                    "parse_time"
+     * @param limit       a displayable form of the limit, with its units
+     * @param exception   the exception that stopped the download or
+     *                    parse, or null
+     */
+    public FeedQuotaException (FeedInfo  feedInfo,
+                               String    quotaName,
+                               String    limit,
+                               Throwable exception)
+    {
+        super (feedInfo,
+               Constants.BUNDLE_NAME,
+               "FeedQuotaException.exceeded",
+               "Feed \"{0}\" exceeded its {1} quota of {2}. Abandoning it.",
+               new Object[] {feedInfo.getURL().toString(), quotaName, limit},
+               exception);
+        this.quotaName = quotaName;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the name of the quota that was exceeded.
+     *
+     * @return "bytes", "items" or "parse_time"
+     */
+    public String getQuotaName()
+    {
+        return quotaName;
+    }
+}
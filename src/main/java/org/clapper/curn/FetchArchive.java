@@ -0,0 +1,1008 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>Records the HTTP response for every feed <i>curn</i> fetches, or
+ * replays previously recorded responses instead of going to the network,
+ * so a run can be repeated exactly: same feeds, same headers, same bytes,
+ * same malformed XML.</p>
+ *
+ * <p>If the <tt>RecordFetches</tt> parameter names a file, each feed's
+ * status, headers and body (as sent, before any decompression) are
+ * written there, along with how long the headers and body took to
+ * arrive. If <tt>ReplayFetches</tt> names a file, the download threads
+ * read the responses from it instead; <tt>ReplayTiming</tt> says whether
+ * to reproduce the original timings (<tt>original</tt>, the default) or
+ * return everything at once (<tt>none</tt>). The archive is a stream of
+ * binary records, each body gzipped on its own.</p>
+ *
+ * <p>Neither recording nor replay holds the bodies in memory. While a
+ * feed is being recorded, its body is written to a temporary file as it's
+ * read, and copied into the archive when the feed is done. Loading an
+ * archive for replay reads the records' headers and notes where each
+ * body starts; a replayed body is read from the archive when the
+ * download thread asks for it.</p>
+ *
+ * <p>A replayed response is returned whatever the request, so the cache
+ * decides which feeds look changed. To get the same results as the
+ * recorded run, replay against a copy of the cache as it was before that
+ * run, or with the cache disabled.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class FetchArchive
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String VAR_RECORD_FETCHES = "RecordFetches";
+    private static final String VAR_REPLAY_FETCHES = "ReplayFetches";
+    private static final String VAR_REPLAY_TIMING  = "ReplayTiming";
+
+    private static final String TIMING_ORIGINAL = "original";
+    private static final String TIMING_NONE     = "none";
+
+    /**
+     * Identifies an archive file ("CRFA"), and the format version.
+     */
+    private static final int MAGIC   = 0x43524641;
+    private static final int VERSION = 2;
+
+    /**
+     * The status recorded when the connection itself failed.
+     */
+    private static final int STATUS_FAILED = -1;
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * One recorded fetch.
+     */
+    private static final class Exchange
+    {
+        String url;
+        int status;
+        String failureClass = null;
+        String failureMessage = null;
+        long headerNanos = 0;
+        long transferNanos = 0;
+        List<String> headerKeys = new ArrayList<String>();
+        List<String> headerValues = new ArrayList<String>();
+
+        /**
+         * Where the gzipped body starts in the archive, and its length.
+         * A length of 0 means there's no body.
+         */
+        long bodyOffset = 0;
+        long bodyLength = 0;
+    }
+
+    /**
+     * A replayed connection. It behaves like an HTTP connection that got
+     * the recorded response.
+     */
+    private final class ReplayURLConnection extends HttpURLConnection
+    {
+        private final Exchange exchange;
+
+        ReplayURLConnection(URL url, Exchange exchange)
+        {
+            super(url);
+            this.exchange = exchange;
+        }
+
+        public void connect()
+            throws IOException
+        {
+            if (! connected)
+            {
+                pause(exchange.headerNanos);
+                if (exchange.status == STATUS_FAILED)
+                    throw newFailure(exchange);
+                connected = true;
+            }
+        }
+
+        public void disconnect()
+        {
+            // Nothing to do.
+        }
+
+        public boolean usingProxy()
+        {
+            return false;
+        }
+
+        public int getResponseCode()
+            throws IOException
+        {
+            connect();
+            return exchange.status;
+        }
+
+        public String getResponseMessage()
+            throws IOException
+        {
+            connect();
+
+            // The message is the rest of the status line, which is the
+            // value with no key.
+
+            String result = null;
+            String statusLine = getHeaderField(0);
+            if (statusLine != null)
+            {
+                String[] tokens = statusLine.split(" ", 3);
+                if (tokens.length == 3)
+                    result = tokens[2];
+            }
+
+            return result;
+        }
+
+        public Map<String,List<String>> getHeaderFields()
+        {
+            Map<String,List<String>> result =
+                new LinkedHashMap<String,List<String>>();
+            for (int i = 0; i < exchange.headerKeys.size(); i++)
+            {
+                String key = exchange.headerKeys.get(i);
+                List<String> values = result.get(key);
+                if (values == null)
+                {
+                    values = new ArrayList<String>();
+                    result.put(key, values);
+                }
+
+                values.add(exchange.headerValues.get(i));
+            }
+
+            return Collections.unmodifiableMap(result);
+        }
+
+        public String getHeaderField(String name)
+        {
+            // Like the real thing, the lookup ignores case, and returns
+            // the last value if there's more than one.
+
+            String result = null;
+            for (int i = 0; i < exchange.headerKeys.size(); i++)
+            {
+                String key = exchange.headerKeys.get(i);
+                if ((key != null) && key.equalsIgnoreCase(name))
+                    result = exchange.headerValues.get(i);
+            }
+
+            return result;
+        }
+
+        public String getHeaderFieldKey(int n)
+        {
+            return ((n >= 0) && (n < exchange.headerKeys.size()))
+                ? exchange.headerKeys.get(n)
+                : null;
+        }
+
+        public String getHeaderField(int n)
+        {
+            return ((n >= 0) && (n < exchange.headerValues.size()))
+                ? exchange.headerValues.get(n)
+                : null;
+        }
+
+        public InputStream getInputStream()
+            throws IOException
+        {
+            connect();
+
+            int status = exchange.status;
+            if ((status == HTTP_NOT_FOUND) || (status == HTTP_GONE))
+                throw new FileNotFoundException(url.toString());
+            else if (status >= HTTP_BAD_REQUEST)
+            {
+                throw new IOException("Server returned HTTP response code: " +
+                                      status + " for URL: " + url);
+            }
+
+            pause(exchange.transferNanos);
+            return openBody(exchange);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * A fetch being recorded by a download thread. It's started once the
+     * response headers are in, writes the body to a temporary file as it's
+     * read, and is handed to {@link FetchArchive#save} when the feed is
+     * done.
+     */
+    static final class Recording
+    {
+        private final Exchange exchange;
+        private File bodyFile = null;
+        private OutputStream body = null;
+        private IOException bodyError = null;
+        private long captureStart = 0;
+
+        private Recording(Exchange exchange)
+        {
+            this.exchange = exchange;
+        }
+
+        /**
+         * Wrap the connection's input stream, so everything read from it
+         * is recorded. If the body can't be recorded, the download goes
+         * on regardless; {@link FetchArchive#save} reports the error.
+         *
+         * @param in  the stream returned by the connection
+         *
+         * @return the stream to read instead
+         */
+        InputStream capture(InputStream in)
+        {
+            try
+            {
+                bodyFile = File.createTempFile("curnfetch", ".gz");
+                body = new GZIPOutputStream
+                    (new BufferedOutputStream(new FileOutputStream(bodyFile)));
+            }
+
+            catch (IOException ex)
+            {
+                bodyError = ex;
+                return in;
+            }
+
+            captureStart = System.nanoTime();
+            return new FilterInputStream(in)
+            {
+                public int read()
+                    throws IOException
+                {
+                    int b = super.read();
+                    if (b >= 0)
+                        record(new byte[] {(byte) b}, 0, 1);
+                    return b;
+                }
+
+                public int read(byte[] buf, int off, int len)
+                    throws IOException
+                {
+                    int n = super.read(buf, off, len);
+                    if (n > 0)
+                        record(buf, off, n);
+                    return n;
+                }
+
+                public long skip(long n)
+                    throws IOException
+                {
+                    // Read what's skipped, so it's recorded.
+
+                    byte[] buf = new byte[(int) Math.min(n, 8192)];
+                    int read = read(buf, 0, buf.length);
+                    return (read < 0) ? 0 : read;
+                }
+
+                public void close()
+                    throws IOException
+                {
+                    exchange.transferNanos = System.nanoTime() - captureStart;
+                    super.close();
+                }
+            };
+        }
+
+        /**
+         * Write part of the body to the temporary file. After an error,
+         * the rest of the body is ignored.
+         */
+        private void record(byte[] buf, int off, int len)
+        {
+            if (bodyError == null)
+            {
+                try
+                {
+                    body.write(buf, off, len);
+                }
+
+                catch (IOException ex)
+                {
+                    bodyError = ex;
+                }
+            }
+        }
+
+        /**
+         * Finish writing the body.
+         *
+         * @return the temporary file holding the gzipped body, or null if
+         *         there's no body
+         *
+         * @throws IOException  the body couldn't be written
+         */
+        private File finish()
+            throws IOException
+        {
+            if (body != null)
+            {
+                try
+                {
+                    body.close();
+                }
+
+                catch (IOException ex)
+                {
+                    if (bodyError == null)
+                        bodyError = ex;
+                }
+
+                body = null;
+            }
+
+            if (bodyError != null)
+                throw bodyError;
+
+            return bodyFile;
+        }
+
+        /**
+         * Delete the temporary file.
+         */
+        private void discard()
+        {
+            if ((bodyFile != null) && (! bodyFile.delete()))
+                log.error("Can't delete \"" + bodyFile + "\"");
+            bodyFile = null;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final File file;
+    private final boolean replaying;
+    private final boolean originalTiming;
+
+    /**
+     * Where recordings go, or null when replaying or closed.
+     */
+    private DataOutputStream out = null;
+    private IOException writeError = null;
+    private int totalRecorded = 0;
+
+    /**
+     * The recorded exchanges for each URL, without their bodies, in the
+     * order they happened, and the index of the next one to replay.
+     */
+    private final Map<String,List<Exchange>> exchanges =
+        new HashMap<String,List<Exchange>>();
+    private final Map<String,Integer> nextExchange =
+        new HashMap<String,Integer>();
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(FetchArchive.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private FetchArchive(File file, boolean replaying, boolean originalTiming)
+    {
+        this.file = file;
+        this.replaying = replaying;
+        this.originalTiming = originalTiming;
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Open the archive the configuration asks for, if any: create it for
+     * recording, or load it for replay.
+     *
+     * @param config  the configuration
+     *
+     * @return the archive, or null if neither recording nor replay is
+     *         configured
+     *
+     * @throws CurnException on error
+     */
+    static FetchArchive open(CurnConfig config)
+        throws CurnException
+    {
+        FetchArchive result = null;
+        try
+        {
+            String recordPath =
+                config.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                              VAR_RECORD_FETCHES,
+                                              null);
+            String replayPath =
+                config.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                              VAR_REPLAY_FETCHES,
+                                              null);
+            String timing =
+                config.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                              VAR_REPLAY_TIMING,
+                                              TIMING_ORIGINAL);
+
+            if ((recordPath != null) && (replayPath != null))
+            {
+                throw new CurnException(Constants.BUNDLE_NAME,
+                                        "FetchArchive.recordAndReplay",
+                                        "The \"{0}\" and \"{1}\" " +
+                                        "configuration parameters cannot " +
+                                        "both be set.",
+                                        new Object[]
+                                        {
+                                            VAR_RECORD_FETCHES,
+                                            VAR_REPLAY_FETCHES
+                                        });
+            }
+
+            if ((! timing.equalsIgnoreCase(TIMING_ORIGINAL)) &&
+                (! timing.equalsIgnoreCase(TIMING_NONE)))
+            {
+                throw new CurnException(Constants.BUNDLE_NAME,
+                                        "FetchArchive.badTiming",
+                                        "Bad value \"{0}\" for the \"{1}\" " +
+                                        "configuration parameter. It must " +
+                                        "be \"{2}\" or \"{3}\".",
+                                        new Object[]
+                                        {
+                                            timing,
+                                            VAR_REPLAY_TIMING,
+                                            TIMING_ORIGINAL,
+                                            TIMING_NONE
+                                        });
+            }
+
+            if (recordPath != null)
+            {
+                result = new FetchArchive
+                    (CurnUtil.mapConfiguredPathName(recordPath), false, false);
+                result.create();
+            }
+
+            else if (replayPath != null)
+            {
+                result = new FetchArchive
+                    (CurnUtil.mapConfiguredPathName(replayPath),
+                     true,
+                     timing.equalsIgnoreCase(TIMING_ORIGINAL));
+                result.load();
+            }
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+
+        return result;
+    }
+
+    /**
+     * Determine whether this archive is recording fetches.
+     *
+     * @return <tt>true</tt> if recording, <tt>false</tt> if replaying
+     */
+    boolean isRecording()
+    {
+        return ! replaying;
+    }
+
+    /**
+     * Determine whether this archive is replaying fetches.
+     *
+     * @return <tt>true</tt> if replaying, <tt>false</tt> if recording
+     */
+    boolean isReplaying()
+    {
+        return replaying;
+    }
+
+    /**
+     * Get a connection for a feed. When recording, that's the feed's real
+     * connection. When replaying, it's a connection that returns the next
+     * recorded response for the URL; if the URL was fetched more times
+     * than it was recorded, the last response is used again.
+     *
+     * @param url  the feed's URL
+     *
+     * @return the connection
+     *
+     * @throws IOException  can't open the connection, or nothing was
+     *                      recorded for the URL
+     */
+    URLConnection openConnection(URL url)
+        throws IOException
+    {
+        if (! replaying)
+            return url.openConnection();
+
+        String key = url.toString();
+        Exchange exchange;
+        synchronized (this)
+        {
+            List<Exchange> recorded = exchanges.get(key);
+            if (recorded == null)
+            {
+                throw new IOException("No recorded response for \"" + key +
+                                      "\" in fetch archive \"" + file +
+                                      "\"");
+            }
+
+            Integer next = nextExchange.get(key);
+            int i = (next == null) ? 0 : next;
+            exchange = recorded.get(Math.min(i, recorded.size() - 1));
+            nextExchange.put(key, i + 1);
+        }
+
+        return new ReplayURLConnection(url, exchange);
+    }
+
+    /**
+     * Start recording a fetch whose response headers have arrived.
+     *
+     * @param conn         the connection
+     * @param headerNanos  how long it took to get the headers, in
+     *                     nanoseconds
+     *
+     * @return the recording
+     */
+    Recording startRecording(URLConnection conn, long headerNanos)
+    {
+        Exchange exchange = new Exchange();
+        exchange.url = conn.getURL().toString();
+        exchange.headerNanos = headerNanos;
+        exchange.status = HttpURLConnection.HTTP_OK;
+        if (conn instanceof HttpURLConnection)
+        {
+            try
+            {
+                exchange.status = ((HttpURLConnection) conn).getResponseCode();
+            }
+
+            catch (IOException ex)
+            {
+                log.debug("Can't get response code for \"" + exchange.url +
+                          "\"", ex);
+            }
+        }
+
+        // Walk the fields by index, which keeps them in the order they
+        // arrived; getHeaderFields() doesn't.
+
+        String value;
+        for (int i = 0; (value = conn.getHeaderField(i)) != null; i++)
+        {
+            exchange.headerKeys.add(conn.getHeaderFieldKey(i));
+            exchange.headerValues.add(value);
+        }
+
+        return new Recording(exchange);
+    }
+
+    /**
+     * Record a fetch that failed before any response arrived.
+     *
+     * @param url          the feed's URL
+     * @param failure      the exception
+     * @param headerNanos  how long it took to fail, in nanoseconds
+     *
+     * @return the recording
+     */
+    Recording recordFailure(URL url, IOException failure, long headerNanos)
+    {
+        Exchange exchange = new Exchange();
+        exchange.url = url.toString();
+        exchange.status = STATUS_FAILED;
+        exchange.failureClass = failure.getClass().getName();
+        exchange.failureMessage = failure.getMessage();
+        exchange.headerNanos = headerNanos;
+        return new Recording(exchange);
+    }
+
+    /**
+     * Add a finished recording to the archive, copying its body from
+     * the temporary file. A write error is logged, and reported again by
+     * {@link #close}.
+     *
+     * @param recording  the recording
+     */
+    synchronized void save(Recording recording)
+    {
+        Exchange exchange = recording.exchange;
+        try
+        {
+            if ((out != null) && (writeError == null))
+            {
+                writeExchange(exchange, recording.finish());
+                totalRecorded++;
+            }
+        }
+
+        catch (IOException ex)
+        {
+            log.error("Unable to record fetch of \"" + exchange.url +
+                      "\" to \"" + file + "\"", ex);
+            writeError = ex;
+        }
+
+        finally
+        {
+            recording.discard();
+        }
+    }
+
+    /**
+     * Finish the archive. When recording, this writes out the end of the
+     * archive and closes it.
+     *
+     * @throws CurnException  the archive couldn't be written
+     */
+    synchronized void close()
+        throws CurnException
+    {
+        if (out != null)
+        {
+            try
+            {
+                out.writeBoolean(false);
+                out.close();
+            }
+
+            catch (IOException ex)
+            {
+                if (writeError == null)
+                    writeError = ex;
+            }
+
+            out = null;
+            if (writeError != null)
+            {
+                throw new CurnException(Constants.BUNDLE_NAME,
+                                        "FetchArchive.cantWrite",
+                                        "Unable to write fetch archive " +
+                                        "\"{0}\".",
+                                        new Object[] {file.getPath()},
+                                        writeError);
+            }
+
+            log.info("Recorded " + totalRecorded + " fetches to \"" +
+                     file + "\"");
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private void create()
+        throws CurnException
+    {
+        try
+        {
+            out = new DataOutputStream
+                (new BufferedOutputStream(new FileOutputStream(file)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            log.info("Recording fetches to \"" + file + "\"");
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "FetchArchive.cantWrite",
+                                    "Unable to write fetch archive \"{0}\".",
+                                    new Object[] {file.getPath()},
+                                    ex);
+        }
+    }
+
+    private void load()
+        throws CurnException
+    {
+        DataInputStream in = null;
+        int total = 0;
+        try
+        {
+            CountingInputStream counter = new CountingInputStream
+                (new BufferedInputStream(new FileInputStream(file)));
+            in = new DataInputStream(counter);
+            if ((in.readInt() != MAGIC) || (in.readInt() != VERSION))
+                throw new IOException("Not a fetch archive");
+
+            while (in.readBoolean())
+            {
+                Exchange exchange = readExchange(in);
+
+                // Note where the body is, and skip it.
+
+                exchange.bodyOffset = counter.getByteCount();
+                IOUtils.skipFully(in, exchange.bodyLength);
+
+                List<Exchange> recorded = exchanges.get(exchange.url);
+                if (recorded == null)
+                {
+                    recorded = new ArrayList<Exchange>();
+                    exchanges.put(exchange.url, recorded);
+                }
+
+                recorded.add(exchange);
+                total++;
+            }
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "FetchArchive.cantRead",
+                                    "Unable to read fetch archive \"{0}\".",
+                                    new Object[] {file.getPath()},
+                                    ex);
+        }
+
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+
+                catch (IOException ex)
+                {
+                    log.error("Can't close \"" + file + "\"", ex);
+                }
+            }
+        }
+
+        log.info("Replaying " + total + " fetches of " + exchanges.size() +
+                 " URLs from \"" + file + "\", " +
+                 (originalTiming ? "with" : "without") + " original timing");
+    }
+
+    /**
+     * Write a record. The gzipped body is copied from a file, and
+     * everything before it is written first, so its length has to be
+     * known up front.
+     */
+    private void writeExchange(Exchange exchange, File bodyFile)
+        throws IOException
+    {
+        out.writeBoolean(true);
+        out.writeUTF(exchange.url);
+        out.writeInt(exchange.status);
+        writeOptionalUTF(exchange.failureClass);
+        writeOptionalUTF(exchange.failureMessage);
+        out.writeLong(exchange.headerNanos);
+        out.writeLong(exchange.transferNanos);
+
+        out.writeInt(exchange.headerKeys.size());
+        for (int i = 0; i < exchange.headerKeys.size(); i++)
+        {
+            writeOptionalUTF(exchange.headerKeys.get(i));
+            out.writeUTF(exchange.headerValues.get(i));
+        }
+
+        exchange.bodyLength = (bodyFile == null) ? 0 : bodyFile.length();
+        out.writeLong(exchange.bodyLength);
+        if (exchange.bodyLength > 0)
+        {
+            InputStream body = new FileInputStream(bodyFile);
+            try
+            {
+                long copied = IOUtils.copyLarge(body, out);
+                if (copied != exchange.bodyLength)
+                    throw new IOException("\"" + bodyFile + "\" changed size");
+            }
+
+            finally
+            {
+                body.close();
+            }
+        }
+    }
+
+    private Exchange readExchange(DataInputStream in)
+        throws IOException
+    {
+        Exchange exchange = new Exchange();
+        exchange.url = in.readUTF();
+        exchange.status = in.readInt();
+        exchange.failureClass = readOptionalUTF(in);
+        exchange.failureMessage = readOptionalUTF(in);
+        exchange.headerNanos = in.readLong();
+        exchange.transferNanos = in.readLong();
+
+        int totalHeaders = in.readInt();
+        for (int i = 0; i < totalHeaders; i++)
+        {
+            exchange.headerKeys.add(readOptionalUTF(in));
+            exchange.headerValues.add(in.readUTF());
+        }
+
+        exchange.bodyLength = in.readLong();
+        return exchange;
+    }
+
+    /**
+     * Open a replayed body, reading it from the archive.
+     *
+     * @param exchange  the recorded fetch
+     *
+     * @return the body, decompressed as it's read
+     *
+     * @throws IOException  on error
+     */
+    private InputStream openBody(Exchange exchange)
+        throws IOException
+    {
+        if (exchange.bodyLength == 0)
+            return new ByteArrayInputStream(new byte[0]);
+
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            in.getChannel().position(exchange.bodyOffset);
+            BoundedInputStream bounded =
+                new BoundedInputStream(in, exchange.bodyLength);
+            return new GZIPInputStream(new BufferedInputStream(bounded));
+        }
+
+        catch (IOException ex)
+        {
+            in.close();
+            throw ex;
+        }
+    }
+
+    private void writeOptionalUTF(String s)
+        throws IOException
+    {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private static String readOptionalUTF(DataInputStream in)
+        throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Wait as long as the original fetch did, if replaying with the
+     * original timing.
+     *
+     * @param nanos  the original time, in nanoseconds
+     *
+     * @throws InterruptedIOException  interrupted while waiting
+     */
+    private void pause(long nanos)
+        throws InterruptedIOException
+    {
+        if (originalTiming && (nanos > 0))
+        {
+            try
+            {
+                Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+            }
+
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    /**
+     * Recreate the exception a recorded fetch failed with. If it can't
+     * be recreated exactly, a plain <tt>IOException</tt> with the same
+     * description is used.
+     *
+     * @param exchange  the recorded fetch
+     *
+     * @return the exception
+     */
+    private static IOException newFailure(Exchange exchange)
+    {
+        IOException result = null;
+        try
+        {
+            result = Class.forName(exchange.failureClass)
+                          .asSubclass(IOException.class)
+                          .getConstructor(String.class)
+                          .newInstance(exchange.failureMessage);
+        }
+
+        catch (Exception ex)
+        {
+            result = new IOException(exchange.failureClass + ": " +
+                                     exchange.failureMessage);
+        }
+
+        return result;
+    }
+}
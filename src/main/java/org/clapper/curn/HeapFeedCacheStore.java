@@ -0,0 +1,704 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.curn;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <p>Compact in-memory storage for the entries in a {@link FeedCache}.
+ * Rather than
+ * one {@link FeedCacheEntry} object (with its two <tt>URL</tt> objects,
+ * <tt>Date</tt> and map entry) per cached URL, the store keeps:</p>
+ *
+ * <ul>
+ *   <li>each distinct channel URL once, in a small table, referenced by
+ *       number;
+ *   <li>each entry URL once, as the UTF-8 bytes of its lookup key (see
+ *       {@link CurnUtil#urlToLookupKey}), which double as the key in an
+ *       open-addressing hash table of entry numbers;
+ *   <li>time stamps, publication dates, channel numbers and flags in
+ *       parallel primitive arrays.
+ * </ul>
+ *
+ * <p>An entry's key is its entry number. Entry numbers are stable until
+ * {@link #compact} is called, which the cache only does right after
+ * loading.</p>
+ *
+ * <p>For pruning, each channel's entries are also grouped by the hour of
+ * their time stamps (see {@link FeedCache}). When an entry's time stamp
+ * or channel changes, it's simply added to its new group; the stale
+ * membership is recognized, and dropped, when its group is next
+ * examined.</p>
+ *
+ * <p>All methods are synchronized.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class HeapFeedCacheStore extends FeedCacheStore
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int  MIN_CAPACITY = 64;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * Width of a time stamp group, in milliseconds: one hour.
+     */
+    private static final long BUCKET_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * Flag bits
+     */
+    private static final byte FLAG_STICKY  = 0x01;
+    private static final byte FLAG_CHANNEL = 0x02;
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * A growable list of ints.
+     */
+    private static class IntList
+    {
+        private int[] values = new int[4];
+        private int   size = 0;
+
+        void add(int value)
+        {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * A channel: its URL, and its entries, grouped by time stamp.
+     */
+    private static class Channel
+    {
+        private final URL    url;
+        private final byte[] key;
+        private final TreeMap<Long,IntList> buckets =
+            new TreeMap<Long,IntList>();
+
+        Channel(URL url)
+        {
+            this.url = url;
+            this.key = keyBytes(url);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Channels, by number and by URL (external form).
+     */
+    private List<Channel> channels = new ArrayList<Channel>();
+    private Map<String,Integer> channelNumbers = new HashMap<String,Integer>();
+    private Channel lastChannel = null;
+    private int     lastChannelNumber = -1;
+
+    /**
+     * Entries. A removed entry has null URL bytes until the store is
+     * compacted.
+     */
+    private byte[][] urls;
+    private int[]    hashes;
+    private int[]    channelOf;
+    private long[]   timestamps;
+    private long[]   pubDates;
+    private byte[]   flags;
+    private int      entries = 0;
+    private int      live = 0;
+
+    /**
+     * The lookup table: entry number + 1, or 0 for an empty slot.
+     */
+    private int[] table;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Construct a new, empty store.
+     */
+    HeapFeedCacheStore()
+    {
+        allocate(MIN_CAPACITY);
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    synchronized long put(URL channelURL, URL entryURL, Date pubDate,
+                          long timestamp)
+    {
+        byte[] key = keyBytes(entryURL);
+        int hash = hash(key);
+        int channel = channelNumber(channelURL);
+        int i = find(key, hash);
+        boolean regroup = true;
+
+        if (i >= 0)
+        {
+            regroup = (channelOf[i] != channel) ||
+                      (bucketOf(timestamps[i]) != bucketOf(timestamp));
+        }
+
+        else
+        {
+            if (entries == urls.length)
+                allocate(urls.length * 2);
+            if ((live + 1) * 2 > table.length)
+                rehash(table.length * 2);
+
+            i = entries++;
+            live++;
+            urls[i] = key;
+            hashes[i] = hash;
+            insert(i);
+        }
+
+        channelOf[i] = channel;
+        timestamps[i] = timestamp;
+        pubDates[i] = (pubDate == null) ? NO_DATE : pubDate.getTime();
+        flags[i] = ((entryURL == channelURL) ||
+                    Arrays.equals(key, lastChannel.key)) ? FLAG_CHANNEL : 0;
+        if (regroup)
+            addToBucket(i);
+
+        modified();
+        return i;
+    }
+
+    synchronized long find(URL url)
+    {
+        byte[] key = keyBytes(url);
+        return find(key, hash(key));
+    }
+
+    synchronized Collection<FeedCacheEntry> getEntries()
+    {
+        return new AbstractCollection<FeedCacheEntry>()
+        {
+            public int size()
+            {
+                return HeapFeedCacheStore.this.size();
+            }
+
+            public Iterator<FeedCacheEntry> iterator()
+            {
+                return new Iterator<FeedCacheEntry>()
+                {
+                    private int next = nextLive(0);
+
+                    public boolean hasNext()
+                    {
+                        return next >= 0;
+                    }
+
+                    public FeedCacheEntry next()
+                    {
+                        if (next < 0)
+                            throw new NoSuchElementException();
+
+                        FeedCacheEntry result = getEntry(next, null);
+                        next = nextLive(next + 1);
+                        return result;
+                    }
+
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    synchronized int size()
+    {
+        return live;
+    }
+
+    synchronized int getChannelCount()
+    {
+        return channels.size();
+    }
+
+    synchronized URL getChannelURL(int channel)
+    {
+        return channels.get(channel).url;
+    }
+
+    synchronized int removeChannel(int channel)
+    {
+        int removed = 0;
+        Channel c = channels.get(channel);
+        for (Map.Entry<Long,IntList> bucket : c.buckets.entrySet())
+        {
+            IntList members = bucket.getValue();
+            for (int j = 0; j < members.size; j++)
+            {
+                int i = members.values[j];
+                if (isMember(i, channel, bucket.getKey()))
+                {
+                    remove(i);
+                    removed++;
+                }
+            }
+        }
+
+        c.buckets.clear();
+        return removed;
+    }
+
+    /**
+     * Prune a channel. Only the groups before the cutoff and after the
+     * current time are examined.
+     */
+    synchronized int pruneChannel(int channel, long cutoff, long currentTime)
+    {
+        Channel c = channels.get(channel);
+        int removed = 0;
+
+        // Every live member of a group before the one holding the cutoff
+        // has expired; the members of the one holding the cutoff have to
+        // be checked.
+
+        SortedMap<Long,IntList> old = c.buckets.headMap(bucketOf(cutoff) + 1);
+        List<Long> emptied = new ArrayList<Long>();
+        for (Map.Entry<Long,IntList> bucket : old.entrySet())
+        {
+            long key = bucket.getKey();
+            IntList members = bucket.getValue();
+            int kept = 0;
+            for (int j = 0; j < members.size; j++)
+            {
+                int i = members.values[j];
+                if (! isMember(i, channel, key))
+                    continue;
+
+                if (timestamps[i] < cutoff)
+                {
+                    remove(i);
+                    removed++;
+                }
+
+                else
+                {
+                    members.values[kept++] = i;
+                }
+            }
+
+            members.size = kept;
+            if (kept == 0)
+                emptied.add(key);
+        }
+
+        for (Long key : emptied)
+            c.buckets.remove(key);
+
+        // Time stamps in the future are reset to the current time, which
+        // moves them to the current group.
+
+        SortedMap<Long,IntList> future =
+            c.buckets.tailMap(bucketOf(currentTime));
+        List<Integer> moved = new ArrayList<Integer>();
+        for (Map.Entry<Long,IntList> bucket : future.entrySet())
+        {
+            IntList members = bucket.getValue();
+            for (int j = 0; j < members.size; j++)
+            {
+                int i = members.values[j];
+                if (isMember(i, channel, bucket.getKey()) &&
+                    (timestamps[i] > currentTime))
+                {
+                    moved.add(i);
+                }
+            }
+        }
+
+        for (int i : moved)
+            setTimestamp((long) i, currentTime);
+
+        return removed;
+    }
+
+    /**
+     * Compact the store, reclaiming the space used by removed entries and
+     * stale group memberships. This renumbers the entries.
+     */
+    synchronized void compact()
+    {
+        int[] newNumbers = new int[entries];
+        int n = 0;
+        for (int i = 0; i < entries; i++)
+        {
+            if (urls[i] == null)
+            {
+                newNumbers[i] = -1;
+                continue;
+            }
+
+            newNumbers[i] = n;
+            urls[n] = urls[i];
+            hashes[n] = hashes[i];
+            channelOf[n] = channelOf[i];
+            timestamps[n] = timestamps[i];
+            pubDates[n] = pubDates[i];
+            flags[n] = flags[i];
+            n++;
+        }
+
+        for (int i = n; i < entries; i++)
+            urls[i] = null;
+
+        entries = n;
+        live = n;
+        allocate(Math.max(MIN_CAPACITY, n + (n / 4)));
+        rehash(tableSizeFor(n));
+
+        for (Channel c : channels)
+            c.buckets.clear();
+        for (int i = 0; i < n; i++)
+            addToBucket(i);
+    }
+
+    /**
+     * Estimate the heap used per live entry, assuming compressed object
+     * pointers.
+     */
+    synchronized long estimateBytesPerEntry()
+    {
+        if (live == 0)
+            return 0;
+
+        long total = 0;
+        for (int i = 0; i < entries; i++)
+        {
+            if (urls[i] != null)
+                total += 16 + ((urls[i].length + 7) & ~7);
+        }
+
+        // Per array slot: URL reference (4), hash (4), channel (4), time
+        // stamp (8), publication date (8), flags (1); table slots (4
+        // each); and roughly one group membership (4) per entry.
+
+        total += ((long) urls.length) * (4 + 4 + 4 + 8 + 8 + 1);
+        total += ((long) table.length) * 4;
+        total += ((long) live) * 4;
+
+        return total / live;
+    }
+
+    /*----------------------------------------------------------------------*\
+               Package-visible Methods Used by FeedCacheEntry
+    \*----------------------------------------------------------------------*/
+
+    synchronized URL getChannelURLOf(long key)
+    {
+        return channels.get(channelOf[(int) key]).url;
+    }
+
+    synchronized URL getEntryURL(long key)
+    {
+        int i = (int) key;
+        if ((flags[i] & FLAG_CHANNEL) != 0)
+            return channels.get(channelOf[i]).url;
+
+        try
+        {
+            return new URL(new String(urls[i], "UTF-8"));
+        }
+
+        catch (MalformedURLException ex)
+        {
+            // Shouldn't happen; it was a URL when it went in.
+
+            throw new IllegalStateException(ex.toString());
+        }
+
+        catch (UnsupportedEncodingException ex)
+        {
+            throw new IllegalStateException(ex.toString());
+        }
+    }
+
+    synchronized boolean isChannelEntry(long key)
+    {
+        return (flags[(int) key] & FLAG_CHANNEL) != 0;
+    }
+
+    synchronized Date getPublicationDate(long key)
+    {
+        int i = (int) key;
+        return (pubDates[i] == NO_DATE) ? null : new Date(pubDates[i]);
+    }
+
+    synchronized long getTimestamp(long key)
+    {
+        return timestamps[(int) key];
+    }
+
+    synchronized void setTimestamp(long key, long timestamp)
+    {
+        int i = (int) key;
+        long oldBucket = bucketOf(timestamps[i]);
+        if (timestamps[i] != timestamp)
+            modified();
+        timestamps[i] = timestamp;
+        if ((urls[i] != null) && (bucketOf(timestamp) != oldBucket))
+            addToBucket(i);
+    }
+
+    synchronized boolean isSticky(long key)
+    {
+        return (flags[(int) key] & FLAG_STICKY) != 0;
+    }
+
+    synchronized void setSticky(long key, boolean sticky)
+    {
+        int i = (int) key;
+        if (sticky)
+            flags[i] |= FLAG_STICKY;
+        else
+            flags[i] &= ~FLAG_STICKY;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static byte[] keyBytes(URL url)
+    {
+        try
+        {
+            return CurnUtil.urlToLookupKey(url).getBytes("UTF-8");
+        }
+
+        catch (UnsupportedEncodingException ex)
+        {
+            // UTF-8 is always supported.
+
+            throw new IllegalStateException(ex.toString());
+        }
+    }
+
+    private static int hash(byte[] key)
+    {
+        int h = Arrays.hashCode(key);
+        return h ^ (h >>> 16);
+    }
+
+    private static long bucketOf(long timestamp)
+    {
+        return timestamp / BUCKET_MILLIS;
+    }
+
+    private static int tableSizeFor(int n)
+    {
+        int size = MIN_CAPACITY;
+        while (size < (n * 2))
+            size <<= 1;
+        return size;
+    }
+
+    private int find(byte[] key, int hash)
+    {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask)
+        {
+            int i = table[slot] - 1;
+            if (i < 0)
+                return -1;
+
+            if ((hashes[i] == hash) && Arrays.equals(urls[i], key))
+                return i;
+        }
+    }
+
+    private void insert(int i)
+    {
+        int mask = table.length - 1;
+        int slot = hashes[i] & mask;
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = i + 1;
+    }
+
+    /**
+     * Remove an entry from the lookup table (shifting later entries in
+     * its probe sequence back, so no tombstone is needed) and mark it
+     * removed.
+     */
+    private void remove(int i)
+    {
+        modified();
+        int mask = table.length - 1;
+        int slot = hashes[i] & mask;
+        while (table[slot] != i + 1)
+            slot = (slot + 1) & mask;
+
+        int hole = slot;
+        for (slot = (hole + 1) & mask; table[slot] != 0;
+             slot = (slot + 1) & mask)
+        {
+            int home = hashes[table[slot] - 1] & mask;
+            boolean movable = (hole <= slot) ? ((home <= hole) || (home > slot))
+                                             : ((home <= hole) && (home > slot));
+            if (movable)
+            {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+
+        table[hole] = 0;
+        urls[i] = null;
+        live--;
+    }
+
+    private void rehash(int size)
+    {
+        table = new int[size];
+        for (int i = 0; i < entries; i++)
+        {
+            if (urls[i] != null)
+                insert(i);
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        if (urls == null)
+        {
+            urls = new byte[capacity][];
+            hashes = new int[capacity];
+            channelOf = new int[capacity];
+            timestamps = new long[capacity];
+            pubDates = new long[capacity];
+            flags = new byte[capacity];
+            table = new int[MIN_CAPACITY * 2];
+        }
+
+        else
+        {
+            urls = Arrays.copyOf(urls, capacity);
+            hashes = Arrays.copyOf(hashes, capacity);
+            channelOf = Arrays.copyOf(channelOf, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            pubDates = Arrays.copyOf(pubDates, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+    }
+
+    private int channelNumber(URL channelURL)
+    {
+        if ((lastChannel == null) || (lastChannel.url != channelURL))
+        {
+            String key = channelURL.toExternalForm();
+            Integer number = channelNumbers.get(key);
+            if (number == null)
+            {
+                number = channels.size();
+                channels.add(new Channel(channelURL));
+                channelNumbers.put(key, number);
+            }
+
+            lastChannelNumber = number;
+            lastChannel = channels.get(number);
+        }
+
+        return lastChannelNumber;
+    }
+
+    private void addToBucket(int i)
+    {
+        Long key = bucketOf(timestamps[i]);
+        Channel c = channels.get(channelOf[i]);
+        IntList members = c.buckets.get(key);
+        if (members == null)
+        {
+            members = new IntList();
+            c.buckets.put(key, members);
+        }
+
+        members.add(i);
+    }
+
+    /**
+     * Determine whether a group membership is current: the entry is live,
+     * and still belongs to the channel and group.
+     */
+    private boolean isMember(int i, int channel, long bucket)
+    {
+        return (urls[i] != null) &&
+               (channelOf[i] == channel) &&
+               (bucketOf(timestamps[i]) == bucket);
+    }
+
+    private synchronized int nextLive(int from)
+    {
+        for (int i = from; i < entries; i++)
+        {
+            if (urls[i] != null)
+                return i;
+        }
+
+        return -1;
+    }
+}
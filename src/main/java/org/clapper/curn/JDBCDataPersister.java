@@ -0,0 +1,1314 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.curn;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>A {@link DataPersister} that keeps the cache and the plug-in metadata
+ * in a relational database, via JDBC. To use it, set
+ * <tt>DataPersisterClass</tt> to this class's name, and
+ * <tt>CacheJDBCURL</tt> to the database's JDBC URL. The driver (e.g., an
+ * embedded H2 or Derby database) must be on the class path. The tables
+ * are created if they don't exist:</p>
+ *
+ * <pre>
+ * curn_feed           one row per feed (channel entry)
+ * curn_item           one row per item entry, referring to its feed
+ * curn_namespace      metadata namespaces, by number
+ * curn_feed_metadata  name/value pairs, by feed and namespace
+ * curn_item_metadata  name/value pairs, by item and namespace
+ * curn_extra_metadata name/value pairs, by namespace
+ * </pre>
+ *
+ * <p>Items are read with a single forward-only query, ordered by feed, so
+ * only one feed's items are held at a time. Loading also remembers a
+ * signature of each row; saving then only writes the rows that changed,
+ * with batched prepared statements, and deletes the ones that are no
+ * longer in the cache, all in one transaction. What was loaded is only
+ * used to decide what changed, not whether a row exists: changed rows
+ * are updated, and inserted only if the update finds nothing, so rows
+ * added to the database behind curn's back don't make the save fail.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class JDBCDataPersister extends DataPersister
+{
+    /*----------------------------------------------------------------------*\
+                               Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String VAR_JDBC_URL      = "CacheJDBCURL";
+    private static final String VAR_JDBC_DRIVER   = "CacheJDBCDriver";
+    private static final String VAR_JDBC_USER     = "CacheJDBCUser";
+    private static final String VAR_JDBC_PASSWORD = "CacheJDBCPassword";
+
+    /**
+     * Number of statements per batch, and rows per fetch.
+     */
+    private static final int BATCH_SIZE = 500;
+    private static final int FETCH_SIZE = 500;
+
+    private static final String[] SCHEMA =
+    {
+        "CREATE TABLE curn_feed (" +
+        " feed_id INTEGER NOT NULL PRIMARY KEY," +
+        " feed_url VARCHAR(2048) NOT NULL," +
+        " last_seen BIGINT NOT NULL)",
+
+        "CREATE TABLE curn_item (" +
+        " item_url VARCHAR(2048) NOT NULL PRIMARY KEY," +
+        " feed_id INTEGER NOT NULL" +
+        "  REFERENCES curn_feed (feed_id) ON DELETE CASCADE," +
+        " last_seen BIGINT NOT NULL," +
+        " pub_date BIGINT)",
+
+        "CREATE TABLE curn_namespace (" +
+        " ns_id INTEGER NOT NULL PRIMARY KEY," +
+        " ns_name VARCHAR(255) NOT NULL)",
+
+        "CREATE TABLE curn_feed_metadata (" +
+        " feed_id INTEGER NOT NULL" +
+        "  REFERENCES curn_feed (feed_id) ON DELETE CASCADE," +
+        " ns_id INTEGER NOT NULL REFERENCES curn_namespace (ns_id)," +
+        " md_name VARCHAR(255) NOT NULL," +
+        " md_value VARCHAR(32672)," +
+        " PRIMARY KEY (feed_id, ns_id, md_name))",
+
+        "CREATE TABLE curn_item_metadata (" +
+        " item_url VARCHAR(2048) NOT NULL" +
+        "  REFERENCES curn_item (item_url) ON DELETE CASCADE," +
+        " ns_id INTEGER NOT NULL REFERENCES curn_namespace (ns_id)," +
+        " md_name VARCHAR(255) NOT NULL," +
+        " md_value VARCHAR(32672)," +
+        " PRIMARY KEY (item_url, ns_id, md_name))",
+
+        "CREATE TABLE curn_extra_metadata (" +
+        " ns_id INTEGER NOT NULL REFERENCES curn_namespace (ns_id)," +
+        " md_name VARCHAR(255) NOT NULL," +
+        " md_value VARCHAR(32672)," +
+        " PRIMARY KEY (ns_id, md_name))"
+    };
+
+    private static final String SQL_LOAD_ITEMS =
+        "SELECT i.feed_id, i.item_url, i.last_seen, i.pub_date," +
+        " m.ns_id, m.md_name, m.md_value" +
+        " FROM curn_item i" +
+        " LEFT OUTER JOIN curn_item_metadata m ON m.item_url = i.item_url" +
+        " ORDER BY i.feed_id, i.item_url";
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Metadata, by namespace, then name.
+     */
+    private static class Metadata
+        extends HashMap<String,Map<String,String>>
+    {
+        private static final long serialVersionUID = 1L;
+
+        Metadata()
+        {
+        }
+
+        Metadata(Collection<PersistentMetadataGroup> groups)
+        {
+            for (PersistentMetadataGroup group : groups)
+            {
+                if (group.getMetadata().size() > 0)
+                {
+                    put(group.getNamespace(),
+                        new HashMap<String,String>(group.getMetadata()));
+                }
+            }
+        }
+
+        void add(String namespace, String name, String value)
+        {
+            Map<String,String> pairs = get(namespace);
+            if (pairs == null)
+            {
+                pairs = new HashMap<String,String>();
+                put(namespace, pairs);
+            }
+
+            pairs.put(name, value);
+        }
+
+        Collection<PersistentMetadataGroup> toGroups()
+        {
+            Collection<PersistentMetadataGroup> result =
+                new ArrayList<PersistentMetadataGroup>();
+            for (Map.Entry<String,Map<String,String>> entry : entrySet())
+            {
+                PersistentMetadataGroup group =
+                    new PersistentMetadataGroup(entry.getKey());
+                group.addMetadata(entry.getValue());
+                result.add(group);
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * An item row waiting to be written.
+     */
+    private static class ItemRow
+    {
+        final int    feedID;
+        final long   timestamp;
+        final Date   pubDate;
+        final String itemURL;
+
+        ItemRow(int feedID, long timestamp, Date pubDate, String itemURL)
+        {
+            this.feedID = feedID;
+            this.timestamp = timestamp;
+            this.pubDate = pubDate;
+            this.itemURL = itemURL;
+        }
+
+        /**
+         * Set the parameters of the insert or update statement, which
+         * take the same ones, in the same order.
+         */
+        void bind(PreparedStatement statement)
+            throws SQLException
+        {
+            statement.setInt(1, feedID);
+            statement.setLong(2, timestamp);
+            if (pubDate == null)
+                statement.setNull(3, Types.BIGINT);
+            else
+                statement.setLong(3, pubDate.getTime());
+            statement.setString(4, itemURL);
+        }
+    }
+
+    /**
+     * The statements used while saving.
+     */
+    private static class SaveStatements
+    {
+        PreparedStatement findFeed;
+        PreparedStatement insertFeed;
+        PreparedStatement updateFeed;
+        PreparedStatement deleteFeed;
+        PreparedStatement insertItem;
+        PreparedStatement updateItem;
+        PreparedStatement deleteItem;
+        PreparedStatement findNamespace;
+        PreparedStatement insertNamespace;
+        PreparedStatement insertFeedMetadata;
+        PreparedStatement deleteFeedMetadata;
+        PreparedStatement insertItemMetadata;
+        PreparedStatement deleteItemMetadata;
+        PreparedStatement insertExtraMetadata;
+        PreparedStatement deleteExtraMetadata;
+        List<ItemRow>     pendingItems = new ArrayList<ItemRow>();
+        int               pendingItemMetadata = 0;
+
+        void prepare(Connection connection)
+            throws SQLException
+        {
+            findFeed = connection.prepareStatement
+                ("SELECT feed_id FROM curn_feed WHERE feed_url = ?");
+            insertFeed = connection.prepareStatement
+                ("INSERT INTO curn_feed (feed_id, feed_url, last_seen) " +
+                 "VALUES (?, ?, ?)");
+            updateFeed = connection.prepareStatement
+                ("UPDATE curn_feed SET last_seen = ? WHERE feed_id = ?");
+            deleteFeed = connection.prepareStatement
+                ("DELETE FROM curn_feed WHERE feed_id = ?");
+            insertItem = connection.prepareStatement
+                ("INSERT INTO curn_item " +
+                 "(feed_id, last_seen, pub_date, item_url) " +
+                 "VALUES (?, ?, ?, ?)");
+            updateItem = connection.prepareStatement
+                ("UPDATE curn_item SET feed_id = ?, last_seen = ?, " +
+                 "pub_date = ? WHERE item_url = ?");
+            deleteItem = connection.prepareStatement
+                ("DELETE FROM curn_item WHERE item_url = ?");
+            findNamespace = connection.prepareStatement
+                ("SELECT ns_id FROM curn_namespace WHERE ns_name = ?");
+            insertNamespace = connection.prepareStatement
+                ("INSERT INTO curn_namespace (ns_id, ns_name) VALUES (?, ?)");
+            insertFeedMetadata = connection.prepareStatement
+                ("INSERT INTO curn_feed_metadata " +
+                 "(feed_id, ns_id, md_name, md_value) VALUES (?, ?, ?, ?)");
+            deleteFeedMetadata = connection.prepareStatement
+                ("DELETE FROM curn_feed_metadata " +
+                 "WHERE feed_id = ? AND ns_id = ?");
+            insertItemMetadata = connection.prepareStatement
+                ("INSERT INTO curn_item_metadata " +
+                 "(item_url, ns_id, md_name, md_value) VALUES (?, ?, ?, ?)");
+            deleteItemMetadata = connection.prepareStatement
+                ("DELETE FROM curn_item_metadata " +
+                 "WHERE item_url = ? AND ns_id = ?");
+            insertExtraMetadata = connection.prepareStatement
+                ("INSERT INTO curn_extra_metadata " +
+                 "(ns_id, md_name, md_value) VALUES (?, ?, ?)");
+            deleteExtraMetadata = connection.prepareStatement
+                ("DELETE FROM curn_extra_metadata WHERE ns_id = ?");
+        }
+
+        /**
+         * Run the pending item batches, then the item metadata batches
+         * (which refer to the items). The items are updated first; the
+         * ones the update didn't find are inserted.
+         */
+        void flushItems()
+            throws SQLException
+        {
+            if (pendingItems.size() > 0)
+            {
+                for (ItemRow row : pendingItems)
+                {
+                    row.bind(updateItem);
+                    updateItem.addBatch();
+                }
+
+                int[] counts = updateItem.executeBatch();
+                int inserts = 0;
+                for (int i = 0; i < counts.length; i++)
+                {
+                    ItemRow row = pendingItems.get(i);
+                    int count = counts[i];
+
+                    // Drivers needn't report per-row counts in a batch.
+
+                    if (count == Statement.SUCCESS_NO_INFO)
+                    {
+                        row.bind(updateItem);
+                        count = updateItem.executeUpdate();
+                    }
+
+                    if (count == 0)
+                    {
+                        row.bind(insertItem);
+                        insertItem.addBatch();
+                        inserts++;
+                    }
+                }
+
+                if (inserts > 0)
+                    insertItem.executeBatch();
+                pendingItems.clear();
+            }
+
+            if (pendingItemMetadata > 0)
+            {
+                deleteItemMetadata.executeBatch();
+                insertItemMetadata.executeBatch();
+                pendingItemMetadata = 0;
+            }
+        }
+
+        void close()
+        {
+            PreparedStatement[] all =
+            {
+                findFeed, insertFeed, updateFeed, deleteFeed,
+                insertItem, updateItem, deleteItem,
+                findNamespace, insertNamespace,
+                insertFeedMetadata, deleteFeedMetadata,
+                insertItemMetadata, deleteItemMetadata,
+                insertExtraMetadata, deleteExtraMetadata
+            };
+
+            for (PreparedStatement statement : all)
+                closeQuietly(statement);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                             Private Instance Data
+    \*----------------------------------------------------------------------*/
+
+    private String jdbcURL = null;
+    private String user = null;
+    private String password = null;
+
+    private Connection connection = null;
+    private SaveStatements statements = null;
+
+    /**
+     * What's in the database, as of the last load or save: feed numbers
+     * and time stamps, namespace numbers, a signature of each item row,
+     * and the metadata.
+     */
+    private Map<String,Integer> feedIDs = new HashMap<String,Integer>();
+    private Map<Integer,Long> feedTimestamps = new HashMap<Integer,Long>();
+    private Map<String,Integer> namespaceIDs = new HashMap<String,Integer>();
+    private Map<String,Long> itemSignatures = new HashMap<String,Long>();
+    private Map<Integer,Metadata> feedMetadata =
+        new HashMap<Integer,Metadata>();
+    private Map<String,Metadata> itemMetadata =
+        new HashMap<String,Metadata>();
+    private Metadata extraMetadata = new Metadata();
+    private int maxFeedID = 0;
+    private int maxNamespaceID = 0;
+
+    /**
+     * The same, for what's been saved so far by the current save.
+     */
+    private Set<Integer> savedFeeds = null;
+    private Map<String,Long> savedItemSignatures = null;
+    private Map<String,Metadata> savedItemMetadata = null;
+
+    /**
+     * For logging
+     */
+    private static final Logger log = new Logger(JDBCDataPersister.class);
+
+    /*----------------------------------------------------------------------*\
+                                   Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Creates a new instance of JDBCDataPersister
+     */
+    public JDBCDataPersister()
+    {
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Called when the <tt>DataPersister</tt> is first instantiated. Useful
+     * for retrieving configuration values, etc.
+     *
+     * @param curnConfig  the configuration
+     * @throws CurnException on error
+     */
+    public void init(CurnConfig curnConfig) throws CurnException
+    {
+        String driver = null;
+
+        try
+        {
+            jdbcURL =
+                curnConfig.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                                  VAR_JDBC_URL,
+                                                  null);
+            driver =
+                curnConfig.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                                  VAR_JDBC_DRIVER,
+                                                  null);
+            user =
+                curnConfig.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                                  VAR_JDBC_USER,
+                                                  null);
+            password =
+                curnConfig.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                                  VAR_JDBC_PASSWORD,
+                                                  null);
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+
+        if (jdbcURL == null)
+            log.debug("Cache database is not configured.");
+
+        // JDBC 4 drivers register themselves; older ones have to be
+        // loaded.
+
+        if (driver != null)
+        {
+            try
+            {
+                Class.forName(driver);
+            }
+
+            catch (ClassNotFoundException ex)
+            {
+                throw new CurnException(Constants.BUNDLE_NAME,
+                                        "JDBCDataPersister.noDriver",
+                                        "Unable to load JDBC driver " +
+                                        "class \"{0}\".",
+                                        new Object[] {driver},
+                                        ex);
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                               Protected Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether the data persister subclass is enabled or not (i.e.,
+     * whether or not metadata is to be loaded and saved). The configuration
+     * usually determines whether or not the data persister is enabled.
+     *
+     * @return <tt>true</tt> if enabled, <tt>false</tt> if disabled.
+     */
+    protected boolean isEnabled()
+    {
+        return jdbcURL != null;
+    }
+
+    /**
+     * Called at the beginning of the load operation to initialize
+     * the load.
+     *
+     * @throws CurnException on error
+     */
+    protected void startLoadOperation()
+        throws CurnException
+    {
+        connect();
+    }
+
+    /**
+     * Called at the end of the load operation to close files, clean
+     * up, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void endLoadOperation()
+        throws CurnException
+    {
+        disconnect();
+    }
+
+    /**
+     * The actual load method; only called if the object is enabled.
+     *
+     * @param loadedDataHandler object to receive data as it's loaded
+     *
+     * @throws CurnException on error
+     */
+    protected void doLoad(LoadedDataHandler loadedDataHandler)
+        throws CurnException
+    {
+        Statement statement = null;
+        ResultSet rs = null;
+
+        try
+        {
+            statement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                                                   ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(FETCH_SIZE);
+
+            // Namespaces.
+
+            Map<Integer,String> namespaces = new HashMap<Integer,String>();
+            rs = statement.executeQuery("SELECT ns_id, ns_name " +
+                                        "FROM curn_namespace");
+            while (rs.next())
+            {
+                int id = rs.getInt(1);
+                namespaces.put(id, rs.getString(2));
+                namespaceIDs.put(rs.getString(2), id);
+                maxNamespaceID = Math.max(maxNamespaceID, id);
+            }
+            rs.close();
+
+            // Feeds, and their metadata.
+
+            Map<Integer,PersistentFeedData> feeds =
+                new HashMap<Integer,PersistentFeedData>();
+            Map<Integer,URL> feedURLs = new HashMap<Integer,URL>();
+            rs = statement.executeQuery("SELECT feed_id, feed_url, " +
+                                        "last_seen FROM curn_feed");
+            while (rs.next())
+            {
+                int id = rs.getInt(1);
+                URL url = parseURL(rs.getString(2));
+                long timestamp = rs.getLong(3);
+                maxFeedID = Math.max(maxFeedID, id);
+                if (url == null)
+                    continue;
+
+                feedIDs.put(url.toExternalForm(), id);
+                feedTimestamps.put(id, timestamp);
+                feedURLs.put(id, url);
+                feeds.put(id, new PersistentFeedData
+                                  (new FeedCacheEntry(url, url, null,
+                                                      timestamp)));
+            }
+            rs.close();
+
+            rs = statement.executeQuery("SELECT feed_id, ns_id, md_name, " +
+                                        "md_value FROM curn_feed_metadata");
+            while (rs.next())
+            {
+                int id = rs.getInt(1);
+                Metadata metadata = feedMetadata.get(id);
+                if (metadata == null)
+                {
+                    metadata = new Metadata();
+                    feedMetadata.put(id, metadata);
+                }
+
+                metadata.add(namespaces.get(rs.getInt(2)),
+                             rs.getString(3),
+                             rs.getString(4));
+            }
+            rs.close();
+
+            for (Map.Entry<Integer,Metadata> entry : feedMetadata.entrySet())
+            {
+                PersistentFeedData feedData = feeds.get(entry.getKey());
+                if (feedData != null)
+                    feedData.addFeedMetadata(entry.getValue().toGroups());
+            }
+
+            // The items, one feed at a time. Each feed is handed off as
+            // soon as its last item has been read.
+
+            rs = statement.executeQuery(SQL_LOAD_ITEMS);
+            PersistentFeedData feedData = null;
+            int lastFeedID = -1;
+            String lastItemURL = null;
+            URL feedURL = null;
+            FeedCacheEntry itemEntry = null;
+            Metadata metadata = null;
+
+            while (rs.next())
+            {
+                int id = rs.getInt(1);
+                String itemURL = rs.getString(2);
+
+                if ((id != lastFeedID) || (! itemURL.equals(lastItemURL)))
+                {
+                    addLoadedItem(feedData, itemEntry, metadata);
+                    itemEntry = null;
+                    metadata = null;
+                    lastItemURL = itemURL;
+                }
+
+                if (id != lastFeedID)
+                {
+                    if (feedData != null)
+                        loadedDataHandler.feedLoaded(feedData);
+                    lastFeedID = id;
+                    feedData = feeds.remove(id);
+                    feedURL = feedURLs.get(id);
+                }
+
+                if (feedData == null)
+                    continue;
+
+                if (itemEntry == null)
+                {
+                    URL url = parseURL(itemURL);
+                    if (url == null)
+                        continue;
+
+                    long timestamp = rs.getLong(3);
+                    long pubDate = rs.getLong(4);
+                    Date date = rs.wasNull() ? null : new Date(pubDate);
+                    itemEntry = new FeedCacheEntry(feedURL, url, date,
+                                                   timestamp);
+                    itemSignatures.put(itemURL,
+                                       signature(id, timestamp, date));
+                }
+
+                int namespaceID = rs.getInt(5);
+                if (! rs.wasNull())
+                {
+                    if (metadata == null)
+                    {
+                        metadata = new Metadata();
+                        itemMetadata.put(itemURL, metadata);
+                    }
+
+                    metadata.add(namespaces.get(namespaceID),
+                                 rs.getString(6),
+                                 rs.getString(7));
+                }
+            }
+            rs.close();
+
+            addLoadedItem(feedData, itemEntry, metadata);
+            if (feedData != null)
+                loadedDataHandler.feedLoaded(feedData);
+
+            // Feeds without items.
+
+            for (PersistentFeedData emptyFeed : feeds.values())
+                loadedDataHandler.feedLoaded(emptyFeed);
+
+            // Extra metadata.
+
+            rs = statement.executeQuery("SELECT ns_id, md_name, md_value " +
+                                        "FROM curn_extra_metadata");
+            while (rs.next())
+            {
+                extraMetadata.add(namespaces.get(rs.getInt(1)),
+                                  rs.getString(2),
+                                  rs.getString(3));
+            }
+            rs.close();
+
+            for (PersistentMetadataGroup group : extraMetadata.toGroups())
+                loadedDataHandler.extraMetadataLoaded(group);
+
+            log.debug("Loaded " + feedIDs.size() + " feeds and " +
+                      itemSignatures.size() + " items from " + jdbcURL);
+        }
+
+        catch (SQLException ex)
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "JDBCDataPersister.loadFailed",
+                                    "Unable to load the cache from " +
+                                    "database \"{0}\".",
+                                    new Object[] {jdbcURL},
+                                    ex);
+        }
+
+        finally
+        {
+            closeQuietly(rs);
+            closeQuietly(statement);
+        }
+    }
+
+    /**
+     * Called at the beginning of the actual save operation to initialize
+     * the save, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void startSaveOperation() throws CurnException
+    {
+        connect();
+
+        try
+        {
+            connection.setAutoCommit(false);
+            statements = new SaveStatements();
+            statements.prepare(connection);
+
+            // New feeds and namespaces are numbered from what's in the
+            // database now, not from what was loaded.
+
+            maxFeedID = Math.max(maxFeedID,
+                                 selectMax("SELECT MAX(feed_id) " +
+                                           "FROM curn_feed"));
+            maxNamespaceID = Math.max(maxNamespaceID,
+                                      selectMax("SELECT MAX(ns_id) " +
+                                                "FROM curn_namespace"));
+        }
+
+        catch (SQLException ex)
+        {
+            throw saveFailed(ex);
+        }
+
+        savedFeeds = new HashSet<Integer>();
+        savedItemSignatures = new HashMap<String,Long>();
+        savedItemMetadata = new HashMap<String,Metadata>();
+    }
+
+    /**
+     * Save the data for one feed, including the items. Only the rows that
+     * have changed are written.
+     *
+     * @param feedData  the feed data to be saved
+     *
+     * @throws CurnException on error
+     */
+    protected void saveFeedData(PersistentFeedData feedData)
+        throws CurnException
+    {
+        FeedCacheEntry feedCacheData = feedData.getFeedCacheEntry();
+
+        if (feedCacheData == null)
+            return;
+
+        try
+        {
+            // The feed, which is written right away, since its items
+            // refer to it.
+
+            String feedURL = feedCacheData.getChannelURL().toExternalForm();
+            long timestamp = feedCacheData.getTimestamp();
+            Integer feedID = feedIDs.get(feedURL);
+
+            if (feedID == null)
+            {
+                feedID = selectID(statements.findFeed, feedURL);
+                if (feedID != null)
+                    feedTimestamps.remove(feedID);
+            }
+
+            if (feedID == null)
+            {
+                feedID = ++maxFeedID;
+                insertFeed(feedID, feedURL, timestamp);
+            }
+
+            else if (! Long.valueOf(timestamp).equals
+                         (feedTimestamps.get(feedID)))
+            {
+                statements.updateFeed.setLong(1, timestamp);
+                statements.updateFeed.setInt(2, feedID);
+                if (statements.updateFeed.executeUpdate() == 0)
+                    insertFeed(feedID, feedURL, timestamp);
+            }
+
+            feedIDs.put(feedURL, feedID);
+
+            feedTimestamps.put(feedID, timestamp);
+            savedFeeds.add(feedID);
+
+            Metadata metadata = new Metadata(feedData.getFeedMetadata());
+            Metadata old = feedMetadata.get(feedID);
+            for (String namespace : changedNamespaces(old, metadata))
+            {
+                int namespaceID = getNamespaceID(namespace);
+                statements.deleteFeedMetadata.setInt(1, feedID);
+                statements.deleteFeedMetadata.setInt(2, namespaceID);
+                statements.deleteFeedMetadata.executeUpdate();
+                addMetadataRows(statements.insertFeedMetadata, feedID,
+                                namespaceID, metadata.get(namespace));
+                statements.insertFeedMetadata.executeBatch();
+            }
+            feedMetadata.put(feedID, metadata);
+
+            // The items, in batches.
+
+            for (PersistentFeedItemData itemData :
+                     feedData.getPersistentFeedItems())
+            {
+                saveItem(feedID, itemData);
+                if ((statements.pendingItems.size() >= BATCH_SIZE) ||
+                    (statements.pendingItemMetadata >= BATCH_SIZE))
+                {
+                    statements.flushItems();
+                }
+            }
+        }
+
+        catch (SQLException ex)
+        {
+            throw saveFailed(ex);
+        }
+    }
+
+    /**
+     * Save any extra metadata (i.e., metadata that isn't attached to a
+     * specific feed or a specific item).
+     *
+     * @param metadata the collection of metadata items
+     *
+     * @throws CurnException on error
+     */
+    protected void
+    saveExtraMetadata(Collection<PersistentMetadataGroup> metadata)
+        throws CurnException
+    {
+        Metadata current = new Metadata(metadata);
+
+        try
+        {
+            for (String namespace : changedNamespaces(extraMetadata, current))
+            {
+                int namespaceID = getNamespaceID(namespace);
+                statements.deleteExtraMetadata.setInt(1, namespaceID);
+                statements.deleteExtraMetadata.executeUpdate();
+                addMetadataRows(statements.insertExtraMetadata, null,
+                                namespaceID, current.get(namespace));
+                statements.insertExtraMetadata.executeBatch();
+            }
+        }
+
+        catch (SQLException ex)
+        {
+            throw saveFailed(ex);
+        }
+
+        extraMetadata = current;
+    }
+
+    /**
+     * Called at the end of the actual save operation to flush files, clean
+     * up, etc. Deletes what's no longer in the cache, then commits.
+     *
+     * @throws CurnException on error
+     */
+    protected void endSaveOperation() throws CurnException
+    {
+        try
+        {
+            statements.flushItems();
+
+            int deletedItems = 0;
+            for (String itemURL : itemSignatures.keySet())
+            {
+                if (! savedItemSignatures.containsKey(itemURL))
+                {
+                    statements.deleteItem.setString(1, itemURL);
+                    statements.deleteItem.addBatch();
+                    deletedItems++;
+                }
+            }
+            statements.deleteItem.executeBatch();
+
+            List<String> deletedFeeds = new ArrayList<String>();
+            for (Map.Entry<String,Integer> entry : feedIDs.entrySet())
+            {
+                Integer feedID = entry.getValue();
+                if (! savedFeeds.contains(feedID))
+                {
+                    statements.deleteFeed.setInt(1, feedID);
+                    statements.deleteFeed.addBatch();
+                    deletedFeeds.add(entry.getKey());
+                    feedTimestamps.remove(feedID);
+                    feedMetadata.remove(feedID);
+                }
+            }
+            statements.deleteFeed.executeBatch();
+
+            connection.commit();
+
+            for (String feedURL : deletedFeeds)
+                feedIDs.remove(feedURL);
+            itemSignatures = savedItemSignatures;
+            itemMetadata = savedItemMetadata;
+
+            log.debug("Saved cache to " + jdbcURL + ": deleted " +
+                      deletedItems + " items and " + deletedFeeds.size() +
+                      " feeds");
+        }
+
+        catch (SQLException ex)
+        {
+            try
+            {
+                connection.rollback();
+            }
+
+            catch (SQLException ex2)
+            {
+                log.error("Rollback failed", ex2);
+            }
+
+            throw saveFailed(ex);
+        }
+
+        finally
+        {
+            finishSave();
+        }
+    }
+
+    /**
+     * Called instead of {@link #endSaveOperation} when what's been
+     * written since {@link #startSaveOperation} is not to be saved after
+     * all. Rolls the transaction back.
+     *
+     * @throws CurnException on error
+     */
+    protected void abortSaveOperation() throws CurnException
+    {
+        try
+        {
+            connection.rollback();
+        }
+
+        catch (SQLException ex)
+        {
+            throw saveFailed(ex);
+        }
+
+        finally
+        {
+            finishSave();
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Release what was set up for saving, and disconnect.
+     */
+    private void finishSave()
+    {
+        statements.close();
+        statements = null;
+        savedFeeds = null;
+        savedItemSignatures = null;
+        savedItemMetadata = null;
+        disconnect();
+    }
+
+    /**
+     * Queue one item's changes, if any.
+     */
+    private void saveItem(int feedID, PersistentFeedItemData itemData)
+        throws SQLException
+    {
+        FeedCacheEntry entry = itemData.getFeedCacheEntry();
+        String itemURL = entry.getEntryURL().toExternalForm();
+        long timestamp = entry.getTimestamp();
+        Date pubDate = entry.getPublicationDate();
+        long signature = signature(feedID, timestamp, pubDate);
+
+        Long old = itemSignatures.get(itemURL);
+        if ((old == null) || (old != signature))
+        {
+            statements.pendingItems.add(new ItemRow(feedID, timestamp,
+                                                    pubDate, itemURL));
+        }
+
+        savedItemSignatures.put(itemURL, signature);
+
+        Metadata metadata = new Metadata(itemData.getItemMetadata());
+        for (String namespace :
+                 changedNamespaces(itemMetadata.get(itemURL), metadata))
+        {
+            int namespaceID = getNamespaceID(namespace);
+            statements.deleteItemMetadata.setString(1, itemURL);
+            statements.deleteItemMetadata.setInt(2, namespaceID);
+            statements.deleteItemMetadata.addBatch();
+            addMetadataRows(statements.insertItemMetadata, itemURL,
+                            namespaceID, metadata.get(namespace));
+            statements.pendingItemMetadata++;
+        }
+
+        if (metadata.size() > 0)
+            savedItemMetadata.put(itemURL, metadata);
+    }
+
+    /**
+     * Add a batch of metadata rows to an insert statement whose parameters
+     * are (owner, namespace, name, value), or (namespace, name, value) if
+     * the owner is null.
+     */
+    private void addMetadataRows(PreparedStatement statement,
+                                 Object            owner,
+                                 int               namespaceID,
+                                 Map<String,String> pairs)
+        throws SQLException
+    {
+        if (pairs == null)
+            return;
+
+        for (Map.Entry<String,String> pair : pairs.entrySet())
+        {
+            int i = 1;
+            if (owner != null)
+                statement.setObject(i++, owner);
+            statement.setInt(i++, namespaceID);
+            statement.setString(i++, pair.getKey());
+            statement.setString(i, pair.getValue());
+            statement.addBatch();
+        }
+    }
+
+    /**
+     * Get the namespaces whose metadata differs between what's stored and
+     * what's being saved.
+     */
+    private static Set<String> changedNamespaces(Metadata stored,
+                                                 Metadata current)
+    {
+        Set<String> result = new HashSet<String>();
+        if (stored == null)
+            stored = new Metadata();
+
+        for (String namespace : current.keySet())
+        {
+            if (! current.get(namespace).equals(stored.get(namespace)))
+                result.add(namespace);
+        }
+
+        for (String namespace : stored.keySet())
+        {
+            if (! current.containsKey(namespace))
+                result.add(namespace);
+        }
+
+        return result;
+    }
+
+    private int getNamespaceID(String namespace)
+        throws SQLException
+    {
+        Integer id = namespaceIDs.get(namespace);
+        if (id == null)
+            id = selectID(statements.findNamespace, namespace);
+
+        if (id != null)
+            namespaceIDs.put(namespace, id);
+
+        else
+        {
+            id = ++maxNamespaceID;
+            statements.insertNamespace.setInt(1, id);
+            statements.insertNamespace.setString(2, namespace);
+            statements.insertNamespace.executeUpdate();
+            namespaceIDs.put(namespace, id);
+        }
+
+        return id;
+    }
+
+    private void insertFeed(int feedID, String feedURL, long timestamp)
+        throws SQLException
+    {
+        statements.insertFeed.setInt(1, feedID);
+        statements.insertFeed.setString(2, feedURL);
+        statements.insertFeed.setLong(3, timestamp);
+        statements.insertFeed.executeUpdate();
+    }
+
+    /**
+     * Look up a number by name, with a query that takes the name and
+     * returns the number.
+     *
+     * @return the number, or null if there's no such row
+     */
+    private static Integer selectID(PreparedStatement query, String name)
+        throws SQLException
+    {
+        query.setString(1, name);
+        ResultSet rs = query.executeQuery();
+        try
+        {
+            return rs.next() ? Integer.valueOf(rs.getInt(1)) : null;
+        }
+
+        finally
+        {
+            rs.close();
+        }
+    }
+
+    private int selectMax(String sql)
+        throws SQLException
+    {
+        Statement statement = connection.createStatement();
+        try
+        {
+            ResultSet rs = statement.executeQuery(sql);
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    private static void addLoadedItem(PersistentFeedData feedData,
+                                      FeedCacheEntry     itemEntry,
+                                      Metadata           metadata)
+    {
+        if ((feedData == null) || (itemEntry == null))
+            return;
+
+        PersistentFeedItemData itemData =
+            new PersistentFeedItemData(itemEntry);
+        if (metadata != null)
+            itemData.addItemMetadata(metadata.toGroups());
+        feedData.addPersistentFeedItem(itemData);
+    }
+
+    /**
+     * Compute a signature of an item row, for change detection.
+     */
+    private static long signature(int feedID, long timestamp, Date pubDate)
+    {
+        long h = mix(feedID);
+        h = mix(h ^ timestamp);
+        h = mix(h ^ ((pubDate == null) ? Long.MIN_VALUE : pubDate.getTime()));
+        return h;
+    }
+
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private URL parseURL(String s)
+    {
+        try
+        {
+            return new URL(s);
+        }
+
+        catch (MalformedURLException ex)
+        {
+            log.error("Bad URL \"" + s + "\" in cache database. Ignoring it.");
+            return null;
+        }
+    }
+
+    /**
+     * Connect to the database, creating the tables if they aren't there.
+     */
+    private void connect()
+        throws CurnException
+    {
+        try
+        {
+            connection = DriverManager.getConnection(jdbcURL, user, password);
+            connection.setAutoCommit(true);
+
+            Statement statement = connection.createStatement();
+            try
+            {
+                try
+                {
+                    statement.executeQuery("SELECT feed_id FROM curn_feed " +
+                                           "WHERE 1 = 0").close();
+                }
+
+                catch (SQLException ex)
+                {
+                    log.info("Creating curn tables in " + jdbcURL);
+                    connection.setAutoCommit(false);
+                    for (String sql : SCHEMA)
+                        statement.executeUpdate(sql);
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+            }
+
+            finally
+            {
+                statement.close();
+            }
+        }
+
+        catch (SQLException ex)
+        {
+            disconnect();
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "JDBCDataPersister.cantConnect",
+                                    "Unable to open cache database \"{0}\".",
+                                    new Object[] {jdbcURL},
+                                    ex);
+        }
+    }
+
+    private void disconnect()
+    {
+        if (connection != null)
+        {
+            try
+            {
+                connection.close();
+            }
+
+            catch (SQLException ex)
+            {
+                log.error("Error closing cache database", ex);
+            }
+
+            connection = null;
+        }
+    }
+
+    private CurnException saveFailed(SQLException ex)
+    {
+        return new CurnException(Constants.BUNDLE_NAME,
+                                 "JDBCDataPersister.saveFailed",
+                                 "Unable to save the cache to database " +
+                                 "\"{0}\".",
+                                 new Object[] {jdbcURL},
+                                 ex);
+    }
+
+    private static void closeQuietly(Statement statement)
+    {
+        if (statement != null)
+        {
+            try
+            {
+                statement.close();
+            }
+
+            catch (SQLException ex)
+            {
+            }
+        }
+    }
+
+    private static void closeQuietly(ResultSet rs)
+    {
+        if (rs != null)
+        {
+            try
+            {
+                rs.close();
+            }
+
+            catch (SQLException ex)
+            {
+            }
+        }
+    }
+}
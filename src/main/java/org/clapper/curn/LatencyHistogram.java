@@ -0,0 +1,217 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+/**
+ * <p>A histogram of latencies, in nanoseconds, laid out the way
+ * HdrHistogram lays them out. Values below 64 get a bucket each. Above
+ * that, each power of two is split into 32 equal buckets, so any value
+ * is recorded to within about 3% of its true size. The counts live in a
+ * single fixed array, so recording a value costs a few shifts and an
+ * increment and never allocates.</p>
+ *
+ * <p>Values of 2<sup>40</sup> nanoseconds (about 18 minutes) or more all
+ * fall in the last bucket; the exact maximum is tracked separately.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class LatencyHistogram
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Number of bits of precision kept within each power of two.
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values below this are counted exactly.
+     */
+    private static final int EXACT_LIMIT = SUB_BUCKETS * 2;
+
+    /**
+     * The largest value that gets its own bucket.
+     */
+    private static final long HIGHEST_TRACKABLE = (1L << 40) - 1;
+
+    private static final int TOTAL_BUCKETS = bucketFor(HIGHEST_TRACKABLE) + 1;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final long[] counts = new long[TOTAL_BUCKETS];
+    private long totalCount = 0;
+    private long totalNanos = 0;
+    private long maxNanos = 0;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new, empty histogram.
+     */
+    LatencyHistogram()
+    {
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Record one value.
+     *
+     * @param nanos  the value, in nanoseconds. Negative values (which
+     *               <tt>System.nanoTime()</tt> shouldn't produce) count
+     *               as zero.
+     */
+    synchronized void record(long nanos)
+    {
+        if (nanos < 0)
+            nanos = 0;
+
+        counts[bucketFor(Math.min(nanos, HIGHEST_TRACKABLE))]++;
+        totalCount++;
+        totalNanos += nanos;
+        if (nanos > maxNanos)
+            maxNanos = nanos;
+    }
+
+    /**
+     * Get the number of values recorded.
+     *
+     * @return the count
+     */
+    synchronized long getCount()
+    {
+        return totalCount;
+    }
+
+    /**
+     * Get the sum of the values recorded.
+     *
+     * @return the total, in nanoseconds
+     */
+    synchronized long getTotal()
+    {
+        return totalNanos;
+    }
+
+    /**
+     * Get the largest value recorded.
+     *
+     * @return the maximum, in nanoseconds, or 0 if nothing was recorded
+     */
+    synchronized long getMax()
+    {
+        return maxNanos;
+    }
+
+    /**
+     * Get the value at a given percentile: the upper bound of the bucket
+     * that holds it, but never more than the recorded maximum.
+     *
+     * @param percentile  the percentile, from 0 to 100
+     *
+     * @return the value, in nanoseconds, or 0 if nothing was recorded
+     */
+    synchronized long getValueAtPercentile(double percentile)
+    {
+        if (totalCount == 0)
+            return 0;
+
+        long target = (long) Math.ceil((percentile / 100.0) * totalCount);
+        if (target < 1)
+            target = 1;
+
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen >= target)
+                return Math.min(highestValueIn(i), maxNanos);
+        }
+
+        return maxNanos;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the index of the bucket that holds a value.
+     *
+     * @param value  the value, between 0 and HIGHEST_TRACKABLE
+     *
+     * @return the bucket index
+     */
+    private static int bucketFor(long value)
+    {
+        if (value < EXACT_LIMIT)
+            return (int) value;
+
+        // The magnitude is the position of the highest bit. Keep the
+        // SUB_BUCKET_BITS bits below it.
+
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return EXACT_LIMIT + ((shift - 1) * SUB_BUCKETS) + subBucket;
+    }
+
+    /**
+     * Get the largest value that falls in a bucket.
+     *
+     * @param bucket  the bucket index
+     *
+     * @return the value
+     */
+    private static long highestValueIn(int bucket)
+    {
+        if (bucket < EXACT_LIMIT)
+            return bucket;
+
+        int shift = ((bucket - EXACT_LIMIT) / SUB_BUCKETS) + 1;
+        long subBucket = ((bucket - EXACT_LIMIT) % SUB_BUCKETS) + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,548 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.curn;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>A {@link DataPersister} that keeps the cache in a memory-mapped hash
+ * file (see {@link MappedFeedCacheStore}), rather than reading all of it
+ * at startup and writing all of it at the end. To use it, set
+ * <tt>DataPersisterClass</tt> to this class's name. The <tt>CacheFile</tt>
+ * variable names the hash file; the other files are named after it:</p>
+ *
+ * <ul>
+ *   <li><i>CacheFile</i><tt>.channels</tt> holds the feed URLs.
+ *   <li><i>CacheFile</i><tt>.urls.</tt><i>n</i> holds the item URLs.
+ *   <li><i>CacheFile</i><tt>.metadata</tt> holds the feed-level and
+ *       extra metadata saved by plug-ins. It's rewritten, to a temporary
+ *       file that is then renamed, on every save.
+ * </ul>
+ *
+ * <p>Item-level metadata isn't supported; none of the plug-ins shipped
+ * with <i>curn</i> use it. The items added during a run are offered to
+ * the {@link PersistentDataClient}s when the cache is saved, so that a
+ * plug-in that does keep item metadata gets a warning (once per
+ * namespace) that it's being dropped. The cache files aren't compatible
+ * with {@link XMLDataPersister}'s; switching persisters starts with an
+ * empty cache.</p>
+ *
+ * <p>If the cache isn't being updated (see
+ * {@link CurnConfig#mustUpdateFeedMetadata}), the hash file is mapped
+ * copy-on-write, so it's left untouched.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class MappedDataPersister extends DataPersister
+{
+    /*----------------------------------------------------------------------*\
+                               Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String VAR_CACHE_FILE = "CacheFile";
+
+    private static final String METADATA_FILE_SUFFIX = ".metadata";
+
+    /**
+     * Metadata keys are "extra TAB namespace TAB name" or "feed TAB
+     * namespace TAB name TAB url".
+     */
+    private static final String EXTRA_PREFIX = "extra";
+    private static final String FEED_PREFIX  = "feed";
+    private static final String SEPARATOR    = "\t";
+
+    /*----------------------------------------------------------------------*\
+                             Private Instance Data
+    \*----------------------------------------------------------------------*/
+
+    private CurnConfig config = null;
+    private File cacheFile = null;
+    private File metadataFile = null;
+    private MappedFeedCacheStore store = null;
+
+    /**
+     * Metadata being saved.
+     */
+    private Properties metadataForSaving = null;
+
+    /**
+     * The namespaces whose item metadata has already been warned about.
+     */
+    private Set<String> droppedItemNamespaces = new HashSet<String>();
+
+    /**
+     * For logging
+     */
+    private static final Logger log = new Logger(MappedDataPersister.class);
+
+    /*----------------------------------------------------------------------*\
+                                   Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Creates a new instance of MappedDataPersister
+     */
+    public MappedDataPersister()
+    {
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Called when the <tt>DataPersister</tt> is first instantiated. Useful
+     * for retrieving configuration values, etc.
+     *
+     * @param curnConfig  the configuration
+     * @throws CurnException on error
+     */
+    public void init(CurnConfig curnConfig) throws CurnException
+    {
+        this.config = curnConfig;
+
+        try
+        {
+            String cacheFileName =
+                curnConfig.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                                  VAR_CACHE_FILE,
+                                                  null);
+            if (cacheFileName == null)
+            {
+                log.debug("Feed metadata (cache) file is not configured.");
+            }
+
+            else
+            {
+                cacheFile = CurnUtil.mapConfiguredPathName(cacheFileName);
+                metadataFile = new File(cacheFile.getPath() +
+                                        METADATA_FILE_SUFFIX);
+                log.debug("Feed metadata (cache) file is " + cacheFile);
+                if (cacheFile.isDirectory())
+                {
+                    throw new CurnException
+                        (Constants.BUNDLE_NAME,
+                         "MappedDataPersister.cacheIsDir",
+                         "Configured cache file \"{0}\" is a directory.",
+                         new Object[] {cacheFile.getPath()});
+                }
+            }
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Map the hash file.
+     *
+     * @return the store
+     *
+     * @throws CurnException on error
+     */
+    FeedCacheStore openCacheStore()
+        throws CurnException
+    {
+        try
+        {
+            store = new MappedFeedCacheStore(cacheFile,
+                                             config.mustUpdateFeedMetadata());
+            return store;
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "MappedDataPersister.cantOpen",
+                                    "Unable to open cache file \"{0}\".",
+                                    new Object[] {cacheFile.getPath()},
+                                    ex);
+        }
+    }
+
+    /**
+     * Only the channel entries are saved (with their metadata); the item
+     * entries are already in the hash file. The items added during this
+     * run are passed along too, but only so that {@link #saveFeedData}
+     * can tell whether any plug-in has metadata for them. (A plug-in can't
+     * have metadata for other items, since none is ever loaded.)
+     *
+     * @param feedCache  the cache being saved
+     *
+     * @return the channel entries, and the items added during this run
+     */
+    Collection<FeedCacheEntry> getEntriesToSave(FeedCache feedCache)
+    {
+        Collection<FeedCacheEntry> result = feedCache.getChannelEntries();
+        if (store != null)
+            result.addAll(store.getItemEntriesPut());
+        return result;
+    }
+
+    /**
+     * Close the hash file.
+     */
+    void close()
+    {
+        if (store != null)
+        {
+            store.close();
+            store = null;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                               Protected Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether the data persister subclass is enabled or not (i.e.,
+     * whether or not metadata is to be loaded and saved). The configuration
+     * usually determines whether or not the data persister is enabled.
+     *
+     * @return <tt>true</tt> if enabled, <tt>false</tt> if disabled.
+     */
+    protected boolean isEnabled()
+    {
+        return cacheFile != null;
+    }
+
+    /**
+     * Called at the beginning of the actual save operation to initialize
+     * the save, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void startSaveOperation() throws CurnException
+    {
+        log.debug("Saving feed metadata to \"" + cacheFile.getPath() + "\"");
+        metadataForSaving = new Properties();
+    }
+
+    /**
+     * Called at the end of the actual save operation to flush files, clean
+     * up, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void endSaveOperation() throws CurnException
+    {
+        store.force();
+
+        File tempFile = new File(metadataFile.getPath() + ".tmp");
+        try
+        {
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try
+            {
+                metadataForSaving.store(out, "curn metadata");
+                out.getFD().sync();
+            }
+
+            finally
+            {
+                out.close();
+            }
+
+            if ((! tempFile.renameTo(metadataFile)) &&
+                ((! metadataFile.delete()) ||
+                 (! tempFile.renameTo(metadataFile))))
+            {
+                throw new IOException("Can't rename \"" + tempFile +
+                                      "\" to \"" + metadataFile + "\"");
+            }
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException("Failed to write metadata file \"" +
+                                    metadataFile.getPath() + "\"",
+                                    ex);
+        }
+
+        metadataForSaving = null;
+    }
+
+    /**
+     * Called instead of {@link #endSaveOperation} when the metadata
+     * gathered since {@link #startSaveOperation} is not to be saved after
+     * all. The metadata file is left as it was. The hash file isn't
+     * affected: it's updated in place as the feeds are processed.
+     *
+     * @throws CurnException on error
+     */
+    protected void abortSaveOperation() throws CurnException
+    {
+        metadataForSaving = null;
+    }
+
+    /**
+     * Save the data for one feed. Only the feed's metadata is saved.
+     *
+     * @param feedData  the feed data to be saved
+     *
+     * @throws CurnException on error
+     */
+    protected void saveFeedData(PersistentFeedData feedData) throws CurnException
+    {
+        for (PersistentFeedItemData itemData : feedData.getPersistentFeedItems())
+        {
+            for (PersistentMetadataGroup group : itemData.getItemMetadata())
+            {
+                if (droppedItemNamespaces.add(group.getNamespace()))
+                {
+                    log.warn("Item metadata in namespace \"" +
+                             group.getNamespace() + "\" isn't saved by " +
+                             getClass().getName() + ". Use " +
+                             XMLDataPersister.class.getName() + " or " +
+                             JDBCDataPersister.class.getName() +
+                             " to keep it.");
+                }
+            }
+        }
+
+        FeedCacheEntry feedCacheData = feedData.getFeedCacheEntry();
+
+        if (feedCacheData == null)
+            return;
+
+        String urlString = feedCacheData.getChannelURL().toExternalForm();
+        for (PersistentMetadataGroup group : feedData.getFeedMetadata())
+        {
+            for (Map.Entry<String,String> nameValuePair :
+                 group.getMetadata().entrySet())
+            {
+                metadataForSaving.setProperty
+                    (FEED_PREFIX + SEPARATOR + group.getNamespace() +
+                     SEPARATOR + nameValuePair.getKey() + SEPARATOR +
+                     urlString,
+                     nameValuePair.getValue());
+            }
+        }
+    }
+
+    /**
+     * Save any extra metadata (i.e., metadata that isn't attached to a
+     * specific feed or a specific item).
+     *
+     * @param metadata the collection of metadata items
+     *
+     * @throws CurnException on error
+     */
+    protected void
+    saveExtraMetadata(Collection<PersistentMetadataGroup> metadata)
+        throws CurnException
+    {
+        for (PersistentMetadataGroup group : metadata)
+        {
+            for (Map.Entry<String,String> nameValuePair :
+                 group.getMetadata().entrySet())
+            {
+                metadataForSaving.setProperty
+                    (EXTRA_PREFIX + SEPARATOR + group.getNamespace() +
+                     SEPARATOR + nameValuePair.getKey(),
+                     nameValuePair.getValue());
+            }
+        }
+    }
+
+    /**
+     * Called at the beginning of the load operation to initialize
+     * the load.
+     *
+     * @throws CurnException on error
+     */
+    protected void startLoadOperation()
+        throws CurnException
+    {
+    }
+
+    /**
+     * Called at the end of the load operation to close files, clean
+     * up, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void endLoadOperation()
+        throws CurnException
+    {
+    }
+
+    /**
+     * Load the metadata. The cache entries themselves are already in the
+     * mapped store.
+     *
+     * @param loadedDataHandler object to receive data as it's loaded
+     *
+     * @throws CurnException on error
+     */
+    protected void doLoad(LoadedDataHandler loadedDataHandler)
+        throws CurnException
+    {
+        if (! metadataFile.exists())
+        {
+            log.debug("Metadata file \"" + metadataFile.getPath() +
+                      "\" doesn't exist.");
+            return;
+        }
+
+        Properties metadata = new Properties();
+        try
+        {
+            InputStream in = new FileInputStream(metadataFile);
+            try
+            {
+                metadata.load(in);
+            }
+
+            finally
+            {
+                in.close();
+            }
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "FeedCache.badCacheFile",
+                                    "Unable to load cache file \"{0}\".",
+                                    new Object[] {metadataFile.getPath()},
+                                    ex);
+        }
+
+        // Group the metadata by feed and namespace.
+
+        Map<String,PersistentMetadataGroup> extra =
+            new HashMap<String,PersistentMetadataGroup>();
+        Map<String,Map<String,PersistentMetadataGroup>> byFeed =
+            new LinkedHashMap<String,Map<String,PersistentMetadataGroup>>();
+
+        for (String key : metadata.stringPropertyNames())
+        {
+            String[] fields = key.split(SEPARATOR, 4);
+            String value = metadata.getProperty(key);
+            Map<String,PersistentMetadataGroup> groups = null;
+
+            if (fields[0].equals(EXTRA_PREFIX) && (fields.length == 3))
+            {
+                groups = extra;
+            }
+
+            else if (fields[0].equals(FEED_PREFIX) && (fields.length == 4))
+            {
+                groups = byFeed.get(fields[3]);
+                if (groups == null)
+                {
+                    groups = new HashMap<String,PersistentMetadataGroup>();
+                    byFeed.put(fields[3], groups);
+                }
+            }
+
+            else
+            {
+                log.warn("Ignoring bad metadata key \"" + key + "\" in \"" +
+                         metadataFile.getPath() + "\"");
+                continue;
+            }
+
+            PersistentMetadataGroup group = groups.get(fields[1]);
+            if (group == null)
+            {
+                group = new PersistentMetadataGroup(fields[1]);
+                groups.put(fields[1], group);
+            }
+
+            group.addMetadataItem(fields[2], value);
+        }
+
+        // Feed metadata goes with the feed's cache entry, so it's dropped
+        // if the feed no longer has one.
+
+        for (Map.Entry<String,Map<String,PersistentMetadataGroup>> feed :
+             byFeed.entrySet())
+        {
+            URL channelURL;
+            try
+            {
+                channelURL = new URL(feed.getKey());
+            }
+
+            catch (MalformedURLException ex)
+            {
+                log.warn("Ignoring metadata for bad feed URL \"" +
+                         feed.getKey() + "\"");
+                continue;
+            }
+
+            long key = store.find(channelURL);
+            if (key == FeedCacheStore.NOT_FOUND)
+            {
+                log.debug("No cache entry for feed \"" + channelURL +
+                          "\". Ignoring its metadata.");
+                continue;
+            }
+
+            PersistentFeedData feedData =
+                new PersistentFeedData(store.getEntry(key, channelURL));
+            feedData.addFeedMetadata(feed.getValue().values());
+            loadedDataHandler.feedLoaded(feedData);
+        }
+
+        for (PersistentMetadataGroup group : extra.values())
+            loadedDataHandler.extraMetadataLoaded(group);
+    }
+}
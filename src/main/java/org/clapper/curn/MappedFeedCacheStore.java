@@ -0,0 +1,1655 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.curn;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>A {@link FeedCacheStore} that lives in a memory-mapped file, so that
+ * opening the cache costs the same no matter how big it is. The file is
+ * an open-addressed (linear probing) hash table, keyed by a 64-bit hash of
+ * each entry's normalized URL (see {@link CurnUtil#urlToLookupKey}); the
+ * hash is also the entry's key. Lookups probe the file directly, and
+ * changes are written in place.</p>
+ *
+ * <p>The file starts with two copies of a header; each slot after that is
+ * 40 bytes:</p>
+ *
+ * <pre>
+ * long hash         0 for an empty slot, 1 for a deleted one
+ * long timestamp
+ * long pubDate      Long.MIN_VALUE if unknown
+ * int  channel      channel number &lt;&lt; 1, plus 1 for a channel entry
+ * int  checksum     of the other fields
+ * long url          where an item's URL is in the URL file, or -1
+ * </pre>
+ *
+ * <p>Item URLs are appended, one per line, to a URL file,
+ * <i>file</i><tt>.urls.</tt><i>n</i>, where <i>n</i> is the generation
+ * recorded in the header. They're only read when an entry's URL is asked
+ * for, which lookups by URL never need; so opening the cache still costs
+ * the same no matter how big it is.</p>
+ *
+ * <p>Crash safety comes from checksums rather than a journal. A slot
+ * with a bad checksum (e.g., one that was being written when the process
+ * died) is treated as deleted, which at worst makes an item look new
+ * again. A new slot's hash is written last, so a torn insert leaves the
+ * slot empty. Each header copy has a sequence number and its own
+ * checksum, and the newer valid copy wins. The header is marked dirty
+ * before the first change and clean by {@link #force}; if it's dirty (or
+ * unreadable) at open time, the counts are rebuilt by scanning the file,
+ * which is the only time opening the file costs more than mapping it.</p>
+ *
+ * <p>When the table gets too full, it's rebuilt into
+ * <i>file</i><tt>.new</tt>, which is then renamed over the original. A
+ * <tt>.new</tt> file with a valid header is complete, so if one is found
+ * at open time, it replaces the original. The rebuild also copies the
+ * live entries' URLs to the next generation's URL file, which is what
+ * keeps the URL file from growing forever; the old generation is
+ * deleted once it's no longer referred to.</p>
+ *
+ * <p>Channel URLs are kept, by number, in an append-only text file,
+ * <i>file</i><tt>.channels</tt>. A line is either "<i>n</i> TAB
+ * <i>url</i>", which defines channel <i>n</i>, or "-<i>n</i>", which
+ * marks channel <i>n</i>'s entries as removed. An incomplete last line
+ * is ignored.</p>
+ *
+ * <p>Pruning is lazy: {@link #pruneChannel} and {@link #removeChannel}
+ * just record a channel's cutoff or its removal, and {@link #find} drops
+ * the expired entries it comes across. {@link #compact} sweeps a bounded
+ * number of slots per run, picking up where the last run left off.</p>
+ *
+ * <p>If the store isn't writable, the file is mapped copy-on-write, so
+ * nothing is ever written to it; the URLs of new items are kept in
+ * memory.</p>
+ *
+ * <p>{@link #close} unmaps the file. The store can't be used after
+ * that.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class MappedFeedCacheStore extends FeedCacheStore
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int MAGIC   = 0x6375726e; // "curn"
+    private static final int VERSION = 2;
+
+    /**
+     * Header layout. There are two copies, one after the other.
+     */
+    private static final int HEADER_COPY_SIZE = 64;
+    private static final int HEADER_SIZE      = 2 * HEADER_COPY_SIZE;
+    private static final int H_MAGIC          = 0;
+    private static final int H_VERSION        = 4;
+    private static final int H_SEQUENCE       = 8;
+    private static final int H_COUNT          = 16;
+    private static final int H_DELETED        = 20;
+    private static final int H_CURSOR         = 24;
+    private static final int H_DIRTY          = 28;
+    private static final int H_CHECKSUM       = 32;
+    private static final int H_GENERATION     = 40;
+
+    /**
+     * Slot layout.
+     */
+    private static final int SLOT_SIZE   = 40;
+    private static final int S_HASH      = 0;
+    private static final int S_TIMESTAMP = 8;
+    private static final int S_PUB_DATE  = 16;
+    private static final int S_CHANNEL   = 24;
+    private static final int S_CHECKSUM  = 28;
+    private static final int S_URL       = 32;
+
+    private static final long EMPTY   = 0;
+    private static final long DELETED = 1;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    /**
+     * The URL position of an entry whose URL isn't in the URL file. Below
+     * that, -2 - <i>n</i> is the <i>n</i>th URL kept in memory.
+     */
+    private static final long NO_URL = -1;
+
+    private static final int FLAG_CHANNEL = 1;
+
+    /**
+     * Table sizes, in slots. The maximum keeps the mapping under 2 Gb.
+     */
+    private static final int MIN_SLOTS = 1024;
+    private static final int MAX_SLOTS = 1 << 25;
+
+    /**
+     * The table is rebuilt when live plus deleted slots would exceed this
+     * fraction of it, and rebuilt to at least twice the live entries.
+     */
+    private static final double MAX_LOAD = 0.7;
+
+    /**
+     * Number of slots {@link #compact} sweeps per run.
+     */
+    private static final int SWEEP_SLOTS = 16384;
+
+    private static final String CHANNEL_FILE_SUFFIX = ".channels";
+    private static final String URL_FILE_SUFFIX     = ".urls.";
+    private static final String NEW_FILE_SUFFIX     = ".new";
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * A channel, and what this run's pruning said about it.
+     */
+    private static class Channel
+    {
+        private final URL  url;
+        private final long hash;
+        private boolean    removed = false;
+        private long       cutoff = Long.MIN_VALUE;
+        private long       currentTime = Long.MAX_VALUE;
+
+        Channel(URL url)
+        {
+            this.url = url;
+            this.hash = hash(url);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final File    file;
+    private final File    channelFile;
+    private final boolean writable;
+
+    /**
+     * The mapped table, and what's in its header.
+     */
+    private MappedByteBuffer buffer;
+    private int              slots;
+    private int              mask;
+    private int              count = 0;
+    private int              deleted = 0;
+    private int              cursor = 0;
+    private long             sequence = 0;
+    private boolean          dirty = false;
+    private int              generation = 0;
+
+    /**
+     * The item URLs: the current generation's file, opened for appending
+     * and for reading as needed, and the URLs that can't be written to it
+     * because the store isn't writable.
+     */
+    private File                 urlFile = null;
+    private long                 urlFileLength = 0;
+    private FileOutputStream     urlFileOut = null;
+    private BufferedOutputStream urlOut = null;
+    private RandomAccessFile     urlIn = null;
+    private List<String>         unsavedURLs = new ArrayList<String>();
+    private boolean              lostURLsReported = false;
+
+    /**
+     * The keys of the item entries put since the store was opened.
+     */
+    private Set<Long> itemsPut = new LinkedHashSet<Long>();
+
+    /**
+     * Channels, by number and by URL (external form).
+     */
+    private List<Channel> channels = new ArrayList<Channel>();
+    private Map<String,Integer> channelNumbers = new HashMap<String,Integer>();
+    private Channel lastChannel = null;
+    private int     lastChannelNumber = -1;
+    private FileOutputStream channelOut = null;
+
+    /**
+     * Hashes of the entries marked sticky. Stickiness isn't persisted.
+     */
+    private Set<Long> sticky = new HashSet<Long>();
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(MappedFeedCacheStore.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Open (or create) a store.
+     *
+     * @param file      the table file
+     * @param writable  whether changes are to be written to the file. If
+     *                  not, the file is mapped copy-on-write (and need not
+     *                  exist).
+     *
+     * @throws IOException on error
+     */
+    MappedFeedCacheStore(File file, boolean writable)
+        throws IOException
+    {
+        this.file = file;
+        this.channelFile = new File(file.getPath() + CHANNEL_FILE_SUFFIX);
+        this.writable = writable;
+
+        loadChannels();
+
+        File newFile = new File(file.getPath() + NEW_FILE_SUFFIX);
+        File source = file;
+        if (newFile.exists())
+        {
+            if (isComplete(newFile))
+            {
+                log.info("Using rebuilt cache file \"" + newFile + "\"");
+                if (! writable)
+                    source = newFile;
+                else if (! replace(newFile, file))
+                    throw new IOException("Can't rename \"" + newFile +
+                                          "\" to \"" + file + "\"");
+            }
+
+            else if (writable)
+            {
+                log.info("Discarding incomplete cache file \"" + newFile +
+                         "\"");
+                newFile.delete();
+            }
+        }
+
+        if (isMappable(source))
+            open(source);
+        else
+            create(MIN_SLOTS);
+
+        setURLFile(urlFile(generation));
+        if (writable)
+            deleteOtherURLFiles();
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    synchronized long put(URL channelURL, URL entryURL, Date pubDate,
+                          long timestamp)
+    {
+        long hash = hash(entryURL);
+        int channel = channelNumber(channelURL);
+        int word = channel << 1;
+        if ((entryURL == channelURL) || (hash == lastChannel.hash))
+            word |= FLAG_CHANNEL;
+
+        long date = (pubDate == null) ? NO_DATE : pubDate.getTime();
+        int slot = locate(hash);
+        long url;
+        if (slot >= 0)
+            url = buffer.getLong(offset(slot) + S_URL);
+
+        else
+        {
+            if ((count + deleted + 1) > (slots * MAX_LOAD))
+                rebuild();
+
+            slot = freeSlot(hash);
+            if (getHash(slot) != EMPTY)
+                deleted--;
+            count++;
+            url = NO_URL;
+        }
+
+        if ((word & FLAG_CHANNEL) == 0)
+        {
+            if (url == NO_URL)
+                url = saveURL(entryURL.toExternalForm());
+            itemsPut.add(hash);
+        }
+
+        writeSlot(slot, hash, timestamp, date, word, url);
+        return hash;
+    }
+
+    synchronized long find(URL url)
+    {
+        long hash = hash(url);
+        int slot = locate(hash);
+        if (slot < 0)
+            return NOT_FOUND;
+
+        Channel c = liveChannel(getChannelWord(slot));
+        long timestamp = buffer.getLong(offset(slot) + S_TIMESTAMP);
+        if ((c == null) || (timestamp < c.cutoff))
+        {
+            delete(slot);
+            return NOT_FOUND;
+        }
+
+        if (timestamp > c.currentTime)
+            writeTimestamp(slot, c.currentTime);
+
+        return hash;
+    }
+
+    FeedCacheEntry getEntry(long key, URL url)
+    {
+        return new FeedCacheEntry(this, key, url);
+    }
+
+    /**
+     * Get views of all the live entries. This scans the whole table, and
+     * reads the URL file, so that entries whose URLs have been lost can
+     * be left out.
+     */
+    synchronized Collection<FeedCacheEntry> getEntries()
+    {
+        Collection<FeedCacheEntry> result = new ArrayList<FeedCacheEntry>();
+        for (int slot = 0; slot < slots; slot++)
+        {
+            if (isValid(slot) && (! isExpired(slot)))
+                addEntry(result, slot);
+        }
+
+        return result;
+    }
+
+    /**
+     * Get views of the (live) item entries that have been put since the
+     * store was opened.
+     */
+    synchronized Collection<FeedCacheEntry> getItemEntriesPut()
+    {
+        Collection<FeedCacheEntry> result = new ArrayList<FeedCacheEntry>();
+        for (long key : itemsPut)
+        {
+            int slot = locate(key);
+            if ((slot >= 0) && (! isExpired(slot)))
+                addEntry(result, slot);
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the number of entries. Until they're found or swept, this
+     * includes the entries that have expired.
+     */
+    synchronized int size()
+    {
+        return count;
+    }
+
+    synchronized int getChannelCount()
+    {
+        return channels.size();
+    }
+
+    synchronized URL getChannelURL(int channel)
+    {
+        return channels.get(channel).url;
+    }
+
+    /**
+     * Mark a channel's entries removed. They're dropped when they're next
+     * found or swept, so the number removed isn't known.
+     */
+    synchronized int removeChannel(int channel)
+    {
+        Channel c = channels.get(channel);
+        if (! c.removed)
+        {
+            c.removed = true;
+            appendChannelLine("-" + channel);
+        }
+
+        return 0;
+    }
+
+    /**
+     * Record a channel's cutoff and current time, for {@link #find} and
+     * {@link #compact} to apply.
+     */
+    synchronized int pruneChannel(int channel, long cutoff, long currentTime)
+    {
+        Channel c = channels.get(channel);
+        c.cutoff = cutoff;
+        c.currentTime = currentTime;
+        return 0;
+    }
+
+    /**
+     * Sweep the next {@link #SWEEP_SLOTS} slots, dropping expired entries
+     * and resetting time stamps in the future.
+     */
+    synchronized void compact()
+    {
+        int total = Math.min(SWEEP_SLOTS, slots);
+        int swept = 0;
+        for (int i = 0; i < total; i++)
+        {
+            int slot = (cursor + i) & mask;
+            if (! isValid(slot))
+                continue;
+
+            if (isExpired(slot))
+            {
+                delete(slot);
+                swept++;
+                continue;
+            }
+
+            Channel c = liveChannel(getChannelWord(slot));
+            if (buffer.getLong(offset(slot) + S_TIMESTAMP) > c.currentTime)
+                writeTimestamp(slot, c.currentTime);
+        }
+
+        cursor = (cursor + total) & mask;
+        log.debug("Swept " + total + " slots, dropping " + swept +
+                  " expired entries. Next sweep starts at " + cursor);
+    }
+
+    /**
+     * Get the size of the files per entry.
+     */
+    synchronized long estimateBytesPerEntry()
+    {
+        if (count == 0)
+            return 0;
+
+        return (HEADER_SIZE + ((long) slots * SLOT_SIZE) + urlFileLength) /
+               count;
+    }
+
+    /**
+     * Write the changes through to the file, then mark its header clean.
+     *
+     * @throws CurnException on error
+     */
+    synchronized void force()
+        throws CurnException
+    {
+        if (! writable)
+            return;
+
+        try
+        {
+            if (channelOut != null)
+                channelOut.getFD().sync();
+            if (urlOut != null)
+            {
+                urlOut.flush();
+                urlFileOut.getFD().sync();
+            }
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException("Can't sync \"" + channelFile +
+                                    "\" or \"" + urlFile + "\"", ex);
+        }
+
+        buffer.force();
+        dirty = false;
+        writeHeader();
+        buffer.force();
+    }
+
+    /**
+     * Close the files and unmap the table. Changes that haven't been
+     * {@link #force}d are still written (by the operating system), but
+     * the header stays dirty.
+     */
+    synchronized void close()
+    {
+        closeQuietly(channelOut);
+        channelOut = null;
+        closeURLFile();
+        if (buffer != null)
+        {
+            unmap(buffer);
+            buffer = null;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+               Package-visible Methods Used by FeedCacheEntry
+    \*----------------------------------------------------------------------*/
+
+    // A view whose entry has since been removed sees empty values.
+
+    synchronized URL getChannelURLOf(long key)
+    {
+        int slot = locate(key);
+        if (slot < 0)
+            return null;
+
+        int channel = getChannelWord(slot) >>> 1;
+        return (channel < channels.size()) ? channels.get(channel).url : null;
+    }
+
+    synchronized URL getEntryURL(long key)
+    {
+        int slot = locate(key);
+        return (slot < 0) ? null : getURL(slot);
+    }
+
+    synchronized boolean isChannelEntry(long key)
+    {
+        int slot = locate(key);
+        return (slot >= 0) && ((getChannelWord(slot) & FLAG_CHANNEL) != 0);
+    }
+
+    synchronized Date getPublicationDate(long key)
+    {
+        int slot = locate(key);
+        if (slot < 0)
+            return null;
+
+        long date = buffer.getLong(offset(slot) + S_PUB_DATE);
+        return (date == NO_DATE) ? null : new Date(date);
+    }
+
+    synchronized long getTimestamp(long key)
+    {
+        int slot = locate(key);
+        return (slot < 0) ? 0 : buffer.getLong(offset(slot) + S_TIMESTAMP);
+    }
+
+    synchronized void setTimestamp(long key, long timestamp)
+    {
+        int slot = locate(key);
+        if (slot >= 0)
+            writeTimestamp(slot, timestamp);
+    }
+
+    synchronized boolean isSticky(long key)
+    {
+        return sticky.contains(key);
+    }
+
+    synchronized void setSticky(long key, boolean sticky)
+    {
+        if (sticky)
+            this.sticky.add(key);
+        else
+            this.sticky.remove(key);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Hash a URL's lookup key: 64-bit FNV-1a over its UTF-8 bytes, then
+     * the MurmurHash3 finalizer. The values reserved for empty and deleted
+     * slots, and for {@link #NOT_FOUND}, are mapped elsewhere.
+     */
+    private static long hash(URL url)
+    {
+        byte[] key;
+        try
+        {
+            key = CurnUtil.urlToLookupKey(url).getBytes("UTF-8");
+        }
+
+        catch (UnsupportedEncodingException ex)
+        {
+            // UTF-8 is always supported.
+
+            throw new IllegalStateException(ex.toString());
+        }
+
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key)
+        {
+            h ^= (b & 0xff);
+            h *= 0x100000001b3L;
+        }
+
+        h = mix(h);
+        if ((h == EMPTY) || (h == DELETED) || (h == NOT_FOUND))
+            h = 2;
+        return h;
+    }
+
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int checksum(long a, long b, long c, long d, long e)
+    {
+        long h = mix(a ^ 0x5bd1e9955bd1e995L);
+        h = mix(h ^ b);
+        h = mix(h ^ c);
+        h = mix(h ^ d);
+        h = mix(h ^ e);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int offset(int slot)
+    {
+        return HEADER_SIZE + (slot * SLOT_SIZE);
+    }
+
+    /**
+     * Rename one file over another, deleting the target first if the
+     * platform won't rename over an existing file.
+     */
+    private static boolean replace(File from, File to)
+    {
+        if (from.renameTo(to))
+            return true;
+
+        to.delete();
+        return from.renameTo(to);
+    }
+
+    /**
+     * Determine whether a file looks like a table: the right size, with
+     * at least one valid header copy.
+     */
+    private static boolean isMappable(File f)
+    {
+        long length = f.length();
+        if ((! f.isFile()) || (length < HEADER_SIZE))
+            return false;
+
+        long n = (length - HEADER_SIZE) / SLOT_SIZE;
+        return ((length - HEADER_SIZE) % SLOT_SIZE == 0) &&
+               (n >= MIN_SLOTS) && (n <= MAX_SLOTS) &&
+               ((n & (n - 1)) == 0);
+    }
+
+    /**
+     * Determine whether a (rebuilt) file is complete, i.e., has a valid
+     * header.
+     */
+    private static boolean isComplete(File f)
+        throws IOException
+    {
+        if (! isMappable(f))
+            return false;
+
+        byte[] bytes = new byte[HEADER_SIZE];
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try
+        {
+            raf.readFully(bytes);
+            ByteBuffer header = ByteBuffer.wrap(bytes);
+            return (headerCopyOK(header, 0) ||
+                    headerCopyOK(header, HEADER_COPY_SIZE));
+        }
+
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    private static boolean headerCopyOK(ByteBuffer b, int base)
+    {
+        return (b.getInt(base + H_MAGIC) == MAGIC) &&
+               (b.getInt(base + H_VERSION) == VERSION) &&
+               (b.getInt(base + H_CHECKSUM) == headerChecksum(b, base));
+    }
+
+    private static int headerChecksum(ByteBuffer b, int base)
+    {
+        return checksum(b.getLong(base + H_MAGIC),
+                        b.getLong(base + H_SEQUENCE),
+                        b.getLong(base + H_COUNT),
+                        b.getLong(base + H_CURSOR),
+                        b.getInt(base + H_GENERATION));
+    }
+
+    private static MappedByteBuffer map(File f,
+                                        long length,
+                                        FileChannel.MapMode mode)
+        throws IOException
+    {
+        // Even a copy-on-write mapping needs a channel that's open for
+        // writing, so a file that can't be written is copied first.
+
+        if ((mode == FileChannel.MapMode.PRIVATE) && (! f.canWrite()))
+            f = copyToTempFile(f);
+
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try
+        {
+            if (mode == FileChannel.MapMode.READ_WRITE)
+                raf.setLength(length);
+            return raf.getChannel().map(mode, 0, length);
+        }
+
+        finally
+        {
+            // The mapping stays valid after the channel is closed.
+
+            raf.close();
+        }
+    }
+
+    private static File copyToTempFile(File f)
+        throws IOException
+    {
+        File copy = File.createTempFile("curn", ".cache");
+        copy.deleteOnExit();
+
+        FileInputStream in = new FileInputStream(f);
+        try
+        {
+            FileOutputStream out = new FileOutputStream(copy);
+            try
+            {
+                in.getChannel().transferTo(0, f.length(), out.getChannel());
+            }
+
+            finally
+            {
+                out.close();
+            }
+        }
+
+        finally
+        {
+            in.close();
+        }
+
+        return copy;
+    }
+
+    /**
+     * Map an existing table and read its header, scanning the table if
+     * the header can't be trusted.
+     */
+    private void open(File source)
+        throws IOException
+    {
+        long length = source.length();
+        buffer = map(source,
+                     length,
+                     writable ? FileChannel.MapMode.READ_WRITE
+                              : FileChannel.MapMode.PRIVATE);
+        slots = (int) ((length - HEADER_SIZE) / SLOT_SIZE);
+        mask = slots - 1;
+
+        int base = -1;
+        for (int copy = 0; copy < 2; copy++)
+        {
+            int b = copy * HEADER_COPY_SIZE;
+            if (headerCopyOK(buffer, b) &&
+                ((base < 0) ||
+                 (buffer.getLong(b + H_SEQUENCE) > sequence)))
+            {
+                base = b;
+                sequence = buffer.getLong(b + H_SEQUENCE);
+            }
+        }
+
+        if (base >= 0)
+        {
+            cursor = buffer.getInt(base + H_CURSOR) & mask;
+            dirty = (buffer.getInt(base + H_DIRTY) != 0);
+            generation = buffer.getInt(base + H_GENERATION);
+        }
+
+        if ((base >= 0) && (! dirty))
+        {
+            count = buffer.getInt(base + H_COUNT);
+            deleted = buffer.getInt(base + H_DELETED);
+        }
+
+        else
+        {
+            log.info("Cache file \"" + source + "\" wasn't closed " +
+                     "cleanly. Recounting its entries.");
+            count = 0;
+            deleted = 0;
+            for (int slot = 0; slot < slots; slot++)
+            {
+                if (isValid(slot))
+                    count++;
+                else if (getHash(slot) != EMPTY)
+                    deleted++;
+            }
+            dirty = true;
+        }
+
+        log.debug("Mapped cache file \"" + source + "\": " + slots +
+                  " slots, " + count + " entries, " + deleted + " deleted");
+    }
+
+    /**
+     * Create an empty table. If the store is writable, it's the store's
+     * file; otherwise, it's a temporary file.
+     */
+    private void create(int size)
+        throws IOException
+    {
+        File f = file;
+        if (! writable)
+        {
+            f = File.createTempFile("curn", ".cache");
+            f.deleteOnExit();
+        }
+
+        else if (f.exists())
+        {
+            log.warn("\"" + f + "\" isn't a curn cache file. Replacing it.");
+            f.delete();
+        }
+
+        if (writable)
+            urlFile(0).delete();
+
+        buffer = map(f,
+                     HEADER_SIZE + ((long) size * SLOT_SIZE),
+                     FileChannel.MapMode.READ_WRITE);
+        slots = size;
+        mask = size - 1;
+        count = 0;
+        deleted = 0;
+        cursor = 0;
+        dirty = true;
+        generation = 0;
+        writeHeader();
+    }
+
+    /**
+     * Rebuild the table, without its deleted or expired entries, in a new
+     * file, which then replaces the old one.
+     */
+    private void rebuild()
+    {
+        int live = count;
+        int size = MIN_SLOTS;
+        while ((size < MAX_SLOTS) && (size < (live * 2) + 1))
+            size <<= 1;
+        if ((live + 1) > (size * MAX_LOAD))
+            throw new IllegalStateException("Cache file \"" + file +
+                                            "\" is full.");
+
+        try
+        {
+            File target;
+            if (writable)
+            {
+                target = new File(file.getPath() + NEW_FILE_SUFFIX);
+                target.delete();
+            }
+
+            else
+            {
+                target = File.createTempFile("curn", ".cache");
+                target.deleteOnExit();
+            }
+
+            // The live entries' URLs go to the next generation's URL
+            // file. A store that isn't writable leaves them where they
+            // are.
+
+            File oldURLFile = urlFile;
+            File newURLFile = urlFile;
+            FileOutputStream newURLFileOut = null;
+            BufferedOutputStream newURLOut = null;
+            long newURLFileLength = urlFileLength;
+            if (writable)
+            {
+                newURLFile = urlFile(generation + 1);
+                newURLFileOut = new FileOutputStream(newURLFile);
+                newURLOut = new BufferedOutputStream(newURLFileOut);
+                newURLFileLength = 0;
+            }
+
+            MappedByteBuffer old = buffer;
+            int oldSlots = slots;
+            buffer = map(target,
+                         HEADER_SIZE + ((long) size * SLOT_SIZE),
+                         FileChannel.MapMode.READ_WRITE);
+            slots = size;
+            mask = size - 1;
+            count = 0;
+            deleted = 0;
+            cursor = 0;
+            dirty = true;
+
+            try
+            {
+                for (int slot = 0; slot < oldSlots; slot++)
+                {
+                    int off = offset(slot);
+                    long hash = old.getLong(off + S_HASH);
+                    if ((hash == EMPTY) || (hash == DELETED))
+                        continue;
+
+                    long timestamp = old.getLong(off + S_TIMESTAMP);
+                    long date = old.getLong(off + S_PUB_DATE);
+                    int word = old.getInt(off + S_CHANNEL);
+                    long url = old.getLong(off + S_URL);
+                    if (old.getInt(off + S_CHECKSUM) !=
+                        checksum(hash, timestamp, date, word, url))
+                    {
+                        continue;
+                    }
+
+                    Channel c = liveChannel(word);
+                    if ((c == null) || (timestamp < c.cutoff))
+                        continue;
+
+                    if ((newURLOut != null) && (url >= 0))
+                    {
+                        byte[] line = readURL(url);
+                        if (line == null)
+                            url = NO_URL;
+
+                        else
+                        {
+                            newURLOut.write(line);
+                            url = newURLFileLength;
+                            newURLFileLength += line.length;
+                        }
+                    }
+
+                    writeSlot(freeSlot(hash), hash, timestamp, date, word,
+                              url);
+                    count++;
+                }
+
+                if (newURLOut != null)
+                {
+                    newURLOut.flush();
+                    newURLFileOut.getFD().sync();
+                }
+            }
+
+            finally
+            {
+                closeQuietly(newURLOut);
+            }
+
+            // Make the new file complete (i.e., give it a valid header)
+            // only once its contents, and the URLs it refers to, are on
+            // disk.
+
+            if (writable)
+            {
+                generation++;
+                buffer.force();
+                dirty = false;
+                writeHeader();
+                buffer.force();
+
+                if (! replace(target, file))
+                {
+                    // The next open will pick up the .new file.
+
+                    log.warn("Can't rename \"" + target + "\" to \"" +
+                             file + "\"");
+                }
+
+                setURLFile(newURLFile);
+                oldURLFile.delete();
+            }
+
+            unmap(old);
+
+            log.debug("Rebuilt cache file: " + oldSlots + " -> " + slots +
+                      " slots, " + count + " entries");
+        }
+
+        catch (IOException ex)
+        {
+            throw new IllegalStateException("Can't rebuild cache file \"" +
+                                            file + "\": " + ex.toString());
+        }
+    }
+
+    private void writeHeader()
+    {
+        sequence++;
+        int base = (int) (sequence & 1) * HEADER_COPY_SIZE;
+        buffer.putInt(base + H_MAGIC, MAGIC);
+        buffer.putInt(base + H_VERSION, VERSION);
+        buffer.putLong(base + H_SEQUENCE, sequence);
+        buffer.putInt(base + H_COUNT, count);
+        buffer.putInt(base + H_DELETED, deleted);
+        buffer.putInt(base + H_CURSOR, cursor);
+        buffer.putInt(base + H_DIRTY, dirty ? 1 : 0);
+        buffer.putInt(base + H_GENERATION, generation);
+        buffer.putInt(base + H_CHECKSUM, headerChecksum(buffer, base));
+    }
+
+    /**
+     * Mark the header dirty, durably, before the first change after
+     * opening (or forcing) the file.
+     */
+    private void markDirty()
+    {
+        if (writable && (! dirty))
+        {
+            dirty = true;
+            writeHeader();
+            buffer.force();
+        }
+    }
+
+    private long getHash(int slot)
+    {
+        return buffer.getLong(offset(slot) + S_HASH);
+    }
+
+    private int getChannelWord(int slot)
+    {
+        return buffer.getInt(offset(slot) + S_CHANNEL);
+    }
+
+    /**
+     * Determine whether a slot holds an entry with a good checksum.
+     */
+    private boolean isValid(int slot)
+    {
+        int off = offset(slot);
+        long hash = buffer.getLong(off + S_HASH);
+        if ((hash == EMPTY) || (hash == DELETED))
+            return false;
+
+        return buffer.getInt(off + S_CHECKSUM) ==
+               checksum(hash,
+                        buffer.getLong(off + S_TIMESTAMP),
+                        buffer.getLong(off + S_PUB_DATE),
+                        buffer.getInt(off + S_CHANNEL),
+                        buffer.getLong(off + S_URL));
+    }
+
+    /**
+     * Get the URL of the entry in a (valid) slot.
+     *
+     * @return the URL, or null if it has been lost
+     */
+    private URL getURL(int slot)
+    {
+        long hash = getHash(slot);
+        int word = getChannelWord(slot);
+        if ((word & FLAG_CHANNEL) != 0)
+        {
+            int channel = word >>> 1;
+            return (channel < channels.size()) ? channels.get(channel).url
+                                               : null;
+        }
+
+        // The URL is checked against the hash, in case the URL file
+        // doesn't match the table (e.g., after a crash).
+
+        URL url = loadURL(buffer.getLong(offset(slot) + S_URL));
+        if ((url == null) || (hash(url) != hash))
+        {
+            if (! lostURLsReported)
+            {
+                log.warn("\"" + urlFile + "\" doesn't have the URLs of " +
+                         "some cache entries. They'll still be found by " +
+                         "URL, but they can't be listed.");
+                lostURLsReported = true;
+            }
+
+            return null;
+        }
+
+        return url;
+    }
+
+    /**
+     * Add a view of the entry in a (valid) slot to a collection, unless
+     * its URL has been lost.
+     */
+    private void addEntry(Collection<FeedCacheEntry> entries, int slot)
+    {
+        URL url = getURL(slot);
+        if (url != null)
+            entries.add(getEntry(getHash(slot), url));
+    }
+
+    private boolean isExpired(int slot)
+    {
+        Channel c = liveChannel(getChannelWord(slot));
+        return (c == null) ||
+               (buffer.getLong(offset(slot) + S_TIMESTAMP) < c.cutoff);
+    }
+
+    /**
+     * Get the channel a slot's channel word refers to, or null if it has
+     * been removed (or its definition was lost).
+     */
+    private Channel liveChannel(int word)
+    {
+        int channel = word >>> 1;
+        if (channel >= channels.size())
+            return null;
+
+        Channel c = channels.get(channel);
+        return c.removed ? null : c;
+    }
+
+    /**
+     * Find the slot holding a hash.
+     *
+     * @return the slot, or -1
+     */
+    private int locate(long hash)
+    {
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask)
+        {
+            long h = getHash(slot);
+            if (h == EMPTY)
+                return -1;
+
+            if ((h == hash) && isValid(slot))
+                return slot;
+        }
+    }
+
+    /**
+     * Find the first deleted (or invalid) or empty slot in a hash's probe
+     * sequence.
+     */
+    private int freeSlot(long hash)
+    {
+        for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask)
+        {
+            if (! isValid(slot))
+                return slot;
+        }
+    }
+
+    /**
+     * Write a slot. For a new entry, the hash goes last, so a torn write
+     * leaves the slot empty; otherwise, a torn write leaves a bad checksum.
+     */
+    private void writeSlot(int slot, long hash, long timestamp, long date,
+                           int word, long url)
+    {
+        markDirty();
+        modified();
+        int off = offset(slot);
+        boolean isNew = (buffer.getLong(off + S_HASH) != hash);
+        if (isNew)
+            buffer.putLong(off + S_HASH, EMPTY);
+        buffer.putLong(off + S_TIMESTAMP, timestamp);
+        buffer.putLong(off + S_PUB_DATE, date);
+        buffer.putInt(off + S_CHANNEL, word);
+        buffer.putLong(off + S_URL, url);
+        buffer.putInt(off + S_CHECKSUM,
+                      checksum(hash, timestamp, date, word, url));
+        buffer.putLong(off + S_HASH, hash);
+    }
+
+    private void writeTimestamp(int slot, long timestamp)
+    {
+        int off = offset(slot);
+        writeSlot(slot,
+                  buffer.getLong(off + S_HASH),
+                  timestamp,
+                  buffer.getLong(off + S_PUB_DATE),
+                  buffer.getInt(off + S_CHANNEL),
+                  buffer.getLong(off + S_URL));
+    }
+
+    /**
+     * Delete the entry in a slot. If that ends a probe sequence, the
+     * deleted slots at its end are emptied.
+     */
+    private void delete(int slot)
+    {
+        markDirty();
+        modified();
+        sticky.remove(getHash(slot));
+        buffer.putLong(offset(slot) + S_HASH, DELETED);
+        count--;
+        deleted++;
+
+        if (getHash((slot + 1) & mask) == EMPTY)
+        {
+            for (int s = slot; ! isValid(s); s = (s - 1) & mask)
+            {
+                if (getHash(s) == EMPTY)
+                    break;
+
+                buffer.putLong(offset(s) + S_HASH, EMPTY);
+                deleted--;
+            }
+        }
+    }
+
+    private int channelNumber(URL channelURL)
+    {
+        if ((lastChannel == null) || (lastChannel.url != channelURL))
+        {
+            String key = channelURL.toExternalForm();
+            Integer number = channelNumbers.get(key);
+            if ((number == null) || channels.get(number).removed)
+            {
+                number = channels.size();
+                channels.add(new Channel(channelURL));
+                channelNumbers.put(key, number);
+                appendChannelLine(number + "\t" + key);
+            }
+
+            lastChannelNumber = number;
+            lastChannel = channels.get(number);
+        }
+
+        return lastChannelNumber;
+    }
+
+    /**
+     * Read the channel file. An incomplete last line is ignored and, if
+     * the store is writable, truncated away.
+     */
+    private void loadChannels()
+        throws IOException
+    {
+        if (! channelFile.exists())
+            return;
+
+        byte[] bytes = new byte[(int) channelFile.length()];
+        FileInputStream in = new FileInputStream(channelFile);
+        try
+        {
+            int total = 0;
+            while (total < bytes.length)
+            {
+                int n = in.read(bytes, total, bytes.length - total);
+                if (n < 0)
+                    break;
+                total += n;
+            }
+        }
+
+        finally
+        {
+            in.close();
+        }
+
+        int end = bytes.length;
+        while ((end > 0) && (bytes[end - 1] != '\n'))
+            end--;
+
+        if ((end < bytes.length) && writable)
+        {
+            log.info("Truncating incomplete last line of \"" +
+                     channelFile + "\"");
+            RandomAccessFile raf = new RandomAccessFile(channelFile, "rw");
+            try
+            {
+                raf.setLength(end);
+            }
+
+            finally
+            {
+                raf.close();
+            }
+        }
+
+        if (end == 0)
+            return;
+
+        for (String line : new String(bytes, 0, end, "UTF-8").split("\n"))
+        {
+            try
+            {
+                if (line.startsWith("-"))
+                {
+                    int number = Integer.parseInt(line.substring(1));
+                    if (number < channels.size())
+                        channels.get(number).removed = true;
+                    continue;
+                }
+
+                int tab = line.indexOf('\t');
+                if ((tab > 0) &&
+                    (Integer.parseInt(line.substring(0, tab)) ==
+                     channels.size()))
+                {
+                    String key = line.substring(tab + 1);
+                    channelNumbers.put(key, channels.size());
+                    channels.add(new Channel(new URL(key)));
+                    continue;
+                }
+            }
+
+            catch (NumberFormatException ex)
+            {
+            }
+
+            catch (MalformedURLException ex)
+            {
+            }
+
+            log.warn("Ignoring bad line in \"" + channelFile + "\": " + line);
+        }
+    }
+
+    private void appendChannelLine(String line)
+    {
+        if (! writable)
+            return;
+
+        try
+        {
+            if (channelOut == null)
+                channelOut = new FileOutputStream(channelFile, true);
+            channelOut.write((line + "\n").getBytes("UTF-8"));
+        }
+
+        catch (IOException ex)
+        {
+            throw new IllegalStateException("Can't write to \"" +
+                                            channelFile + "\": " +
+                                            ex.toString());
+        }
+    }
+
+    private File urlFile(int generation)
+    {
+        return new File(file.getPath() + URL_FILE_SUFFIX + generation);
+    }
+
+    /**
+     * Switch to another URL file, closing the current one.
+     */
+    private void setURLFile(File f)
+    {
+        closeURLFile();
+        urlFile = f;
+        urlFileLength = f.length();
+    }
+
+    private void closeURLFile()
+    {
+        closeQuietly(urlOut);
+        closeQuietly(urlIn);
+        urlOut = null;
+        urlFileOut = null;
+        urlIn = null;
+    }
+
+    /**
+     * Delete the URL files of other generations, which are left over from
+     * an interrupted rebuild.
+     */
+    private void deleteOtherURLFiles()
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        String prefix = file.getName() + URL_FILE_SUFFIX;
+        String[] names = (dir == null) ? null : dir.list();
+        if (names == null)
+            return;
+
+        for (String name : names)
+        {
+            if (name.startsWith(prefix) && (! name.equals(urlFile.getName())))
+            {
+                log.info("Deleting stale URL file \"" + name + "\"");
+                new File(dir, name).delete();
+            }
+        }
+    }
+
+    /**
+     * Save an item URL.
+     *
+     * @return where it was saved, for {@link #loadURL}
+     */
+    private long saveURL(String url)
+    {
+        if (! writable)
+        {
+            unsavedURLs.add(url);
+            return NO_URL - unsavedURLs.size();
+        }
+
+        try
+        {
+            if (urlOut == null)
+            {
+                urlFileOut = new FileOutputStream(urlFile, true);
+                urlOut = new BufferedOutputStream(urlFileOut);
+            }
+
+            byte[] line = (url + "\n").getBytes("UTF-8");
+            urlOut.write(line);
+            long position = urlFileLength;
+            urlFileLength += line.length;
+            return position;
+        }
+
+        catch (IOException ex)
+        {
+            throw new IllegalStateException("Can't write to \"" +
+                                            urlFile + "\": " +
+                                            ex.toString());
+        }
+    }
+
+    /**
+     * Load a URL saved by {@link #saveURL}.
+     *
+     * @return the URL, or null if it can't be read
+     */
+    private URL loadURL(long position)
+    {
+        String url;
+        if (position < NO_URL)
+            url = unsavedURLs.get((int) (NO_URL - 1 - position));
+
+        else if (position == NO_URL)
+            return null;
+
+        else
+        {
+            byte[] line = readURL(position);
+            if (line == null)
+                return null;
+
+            try
+            {
+                url = new String(line, 0, line.length - 1, "UTF-8");
+            }
+
+            catch (UnsupportedEncodingException ex)
+            {
+                throw new IllegalStateException(ex.toString());
+            }
+        }
+
+        try
+        {
+            return new URL(url);
+        }
+
+        catch (MalformedURLException ex)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Read a line, including its newline, from the URL file.
+     *
+     * @return the line, or null if there's no complete line there
+     */
+    private byte[] readURL(long position)
+    {
+        try
+        {
+            if (urlOut != null)
+                urlOut.flush();
+            if (urlIn == null)
+            {
+                if (! urlFile.exists())
+                    return null;
+                urlIn = new RandomAccessFile(urlFile, "r");
+            }
+
+            if (position >= urlIn.length())
+                return null;
+
+            urlIn.seek(position);
+            ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+            byte[] chunk = new byte[256];
+            for (;;)
+            {
+                int n = urlIn.read(chunk);
+                if (n < 0)
+                    return null;
+
+                for (int i = 0; i < n; i++)
+                {
+                    if (chunk[i] == '\n')
+                    {
+                        line.write(chunk, 0, i + 1);
+                        return line.toByteArray();
+                    }
+                }
+
+                line.write(chunk, 0, n);
+            }
+        }
+
+        catch (IOException ex)
+        {
+            log.warn("Can't read \"" + urlFile + "\": " + ex.toString());
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Closeable c)
+    {
+        if (c == null)
+            return;
+
+        try
+        {
+            c.close();
+        }
+
+        catch (IOException ex)
+        {
+            log.warn("Can't close " + c + ": " + ex.toString());
+        }
+    }
+
+    /**
+     * Unmap a buffer now, rather than when it's garbage collected, so its
+     * file can be deleted or renamed (on Windows) and its address space is
+     * given back. There's no public API for that, so this uses the JDK's
+     * internals: <tt>Unsafe.invokeCleaner()</tt> from Java 9 on, the
+     * buffer's cleaner before that. If neither works, the buffer is left
+     * to the garbage collector. The buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer b)
+    {
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try
+            {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+                                                      ByteBuffer.class);
+            }
+
+            catch (NoSuchMethodException ex)
+            {
+                invokeCleaner = null;
+            }
+
+            if (invokeCleaner != null)
+            {
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), b);
+            }
+
+            else
+            {
+                Method getCleaner = b.getClass().getMethod("cleaner");
+                getCleaner.setAccessible(true);
+                Object cleaner = getCleaner.invoke(b);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        }
+
+        catch (Exception ex)
+        {
+            log.debug("Can't unmap cache file buffer; leaving it to the " +
+                      "garbage collector: " + ex.toString());
+        }
+    }
+}
@@ -36,6 +36,7 @@
 package org.clapper.curn;
 
 import org.clapper.curn.parser.RSSChannel;
+import org.clapper.curn.parser.RSSItem;
 
 import org.clapper.util.logging.Logger;
 
@@ -43,7 +44,9 @@ import java.io.File;
 
 import java.net.URLConnection;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.TreeSet;
 
 /**
@@ -63,6 +66,8 @@ import java.util.TreeSet;
  * @see PostFeedDownloadPlugIn
  * @see PostFeedOutputPlugIn
  * @see PostFeedParsePlugIn
+ * @see PostFeedProcessPlugIn
+ * @see PostFeedProcessItemPlugIn
  * @see PostOutputHandlerFlushPlugIn
  * @see PreCacheSavePlugIn
  * @see PreFeedDownloadPlugIn
@@ -131,9 +136,20 @@ public class MetaPlugIn
     private final Collection<PostFeedProcessPlugIn>
         postFeedProcessPlugIns = new TreeSet<PostFeedProcessPlugIn>(cmp);
 
+    private final Collection<PostFeedProcessItemPlugIn>
+        postFeedProcessItemPlugIns =
+            new TreeSet<PostFeedProcessItemPlugIn>(cmp);
+
     private final Collection<PostFeedParsePlugIn>
         postFeedParsePlugIns = new TreeSet<PostFeedParsePlugIn>(cmp);
 
+    /**
+     * The post-feed process plug-ins, both channel and item, in the order
+     * in which they run.
+     */
+    private final Collection<PlugIn>
+        postFeedProcessChain = new TreeSet<PlugIn>(cmp);
+
     private final Collection<PostOutputHandlerFlushPlugIn>
         postOutputHandlerFlushPlugIns =
             new TreeSet<PostOutputHandlerFlushPlugIn>(cmp);
@@ -165,6 +181,11 @@ public class MetaPlugIn
 
     private final Collection<PlugIn> allPlugIns = new TreeSet<PlugIn>(cmp);
 
+    /**
+     * Per-plug-in, per-hook timings, or null if they're not being kept.
+     */
+    private volatile PlugInStats plugInStats = null;
+
     /**
      * The singleton
      */
@@ -238,7 +259,17 @@ public class MetaPlugIn
                 postFeedParsePlugIns.add((PostFeedParsePlugIn) plugIn);
 
             if (plugIn instanceof PostFeedProcessPlugIn)
+            {
                 postFeedProcessPlugIns.add((PostFeedProcessPlugIn) plugIn);
+                postFeedProcessChain.add(plugIn);
+            }
+
+            if (plugIn instanceof PostFeedProcessItemPlugIn)
+            {
+                postFeedProcessItemPlugIns.add
+                    ((PostFeedProcessItemPlugIn) plugIn);
+                postFeedProcessChain.add(plugIn);
+            }
 
             if (plugIn instanceof PostOutputHandlerFlushPlugIn)
                 postOutputHandlerFlushPlugIns.add
@@ -320,7 +351,9 @@ public class MetaPlugIn
         for (StartupPlugIn plugIn : startupPlugIns)
         {
             logPlugInInvocation ("runStartupPlugIn", plugIn);
+            long start = startTiming();
             plugIn.runStartupPlugIn();
+            stopTiming("runStartupPlugIn", plugIn, start);
         }
     }
 
@@ -336,7 +369,9 @@ public class MetaPlugIn
                                 plugIn,
                                 sectionName,
                                 paramName);
+            long start = startTiming();
             plugIn.runMainConfigItemPlugIn(sectionName, paramName, config);
+            stopTiming("runMainConfigItemPlugIn", plugIn, start);
         }
     }
 
@@ -355,10 +390,12 @@ public class MetaPlugIn
                                 plugIn,
                                 sectionName,
                                 paramName);
+            long start = startTiming();
             keepGoing = plugIn.runFeedConfigItemPlugIn(sectionName,
                                                        paramName,
                                                        config,
                                                        feedInfo);
+            stopTiming("runFeedConfigItemPlugIn", plugIn, start);
             if (! keepGoing)
             {
                 log.info("Plug-in " + plugIn.getPlugInName() +
@@ -386,10 +423,12 @@ public class MetaPlugIn
                                 plugIn,
                                 sectionName,
                                 paramName);
+            long start = startTiming();
             keepGoing = plugIn.runOutputHandlerConfigItemPlugIn(sectionName,
                                                                 paramName,
                                                                 config,
                                                                 handler);
+            stopTiming("runOutputHandlerConfigItemPlugIn", plugIn, start);
             if (! keepGoing)
                 break;
         }
@@ -410,9 +449,11 @@ public class MetaPlugIn
                                 plugIn,
                                 sectionName,
                                 paramName);
+            long start = startTiming();
             plugIn.runUnknownSectionConfigItemPlugIn(sectionName,
                                                      paramName,
                                                      config);
+            stopTiming("runUnknownSectionConfigItemPlugIn", plugIn, start);
         }
     }
 
@@ -422,7 +463,9 @@ public class MetaPlugIn
         for (PostConfigPlugIn plugIn : postConfigPlugIns)
         {
             logPlugInInvocation("runPostConfigPlugIn", plugIn);
+            long start = startTiming();
             plugIn.runPostConfigPlugIn(config);
+            stopTiming("runPostConfigPlugIn", plugIn, start);
         }
     }
 
@@ -432,7 +475,9 @@ public class MetaPlugIn
         for (CacheLoadedPlugIn plugIn : cacheLoadedPlugIns)
         {
             logPlugInInvocation ("runCacheLoadedPlugIn", plugIn);
+            long start = startTiming();
             plugIn.runCacheLoadedPlugIn (cache);
+            stopTiming("runCacheLoadedPlugIn", plugIn, start);
         }
     }
 
@@ -445,7 +490,9 @@ public class MetaPlugIn
         for (ForceFeedDownloadPlugIn plugIn : forceFeedDownloadPlugIns)
         {
             logPlugInInvocation("forceFeedDownload", plugIn);
+            long start = startTiming();
             forceDownload = plugIn.forceFeedDownload(feedInfo, feedCache);
+            stopTiming("forceFeedDownload", plugIn, start);
 
             if (forceDownload)
                 break;
@@ -464,7 +511,9 @@ public class MetaPlugIn
         for (PreFeedDownloadPlugIn plugIn : preFeedDownloadPlugIns)
         {
             logPlugInInvocation("runPreFeedDownloadPlugIn", plugIn);
+            long start = startTiming();
             keepGoing = plugIn.runPreFeedDownloadPlugIn(feedInfo, urlConn);
+            stopTiming("runPreFeedDownloadPlugIn", plugIn, start);
 
             if (! keepGoing)
                 break;
@@ -484,9 +533,11 @@ public class MetaPlugIn
         for (PostFeedDownloadPlugIn plugIn : postFeedDownloadPlugIns)
         {
             logPlugInInvocation("runPostFeedDownloadPlugIn", plugIn);
+            long start = startTiming();
             keepGoing = plugIn.runPostFeedDownloadPlugIn(feedInfo,
                                                          feedDataFile,
                                                          encoding);
+            stopTiming("runPostFeedDownloadPlugIn", plugIn, start);
             if (! keepGoing)
                 break;
         }
@@ -505,8 +556,10 @@ public class MetaPlugIn
         for (PostFeedParsePlugIn plugIn : postFeedParsePlugIns)
         {
             logPlugInInvocation("runPostFeedParsePlugIn", plugIn);
+            long start = startTiming();
             keepGoing = plugIn.runPostFeedParsePlugIn(feedInfo, feedCache,
                                                       channel);
+            stopTiming("runPostFeedParsePlugIn", plugIn, start);
             if (! keepGoing)
                 break;
         }
@@ -521,16 +574,51 @@ public class MetaPlugIn
         throws CurnException
     {
         boolean keepGoing = true;
+        List<PostFeedProcessItemPlugIn> itemPlugIns =
+            new ArrayList<PostFeedProcessItemPlugIn>();
+
+        // Consecutive item plug-ins are batched, so they can share one
+        // pass over the items. A channel plug-in ends the batch, since it
+        // must see the results of the item plug-ins that precede it.
 
-        for (PostFeedProcessPlugIn plugIn : postFeedProcessPlugIns)
+        for (PlugIn plugIn : postFeedProcessChain)
         {
-            logPlugInInvocation("runPostFeedParsePlugIn", plugIn);
-            keepGoing = plugIn.runPostFeedProcessPlugIn(feedInfo, feedCache,
-                                                        channel);
-            if (! keepGoing)
-                break;
+            if (plugIn instanceof PostFeedProcessPlugIn)
+            {
+                runItemPlugIns(itemPlugIns, feedInfo, channel);
+                itemPlugIns.clear();
+
+                logPlugInInvocation("runPostFeedProcessPlugIn", plugIn);
+                long start = startTiming();
+                keepGoing = ((PostFeedProcessPlugIn) plugIn)
+                            .runPostFeedProcessPlugIn(feedInfo, feedCache,
+                                                      channel);
+                stopTiming("runPostFeedProcessPlugIn", plugIn, start);
+                if (! keepGoing)
+                    break;
+            }
+
+            if (plugIn instanceof PostFeedProcessItemPlugIn)
+            {
+                PostFeedProcessItemPlugIn itemPlugIn =
+                    (PostFeedProcessItemPlugIn) plugIn;
+                logPlugInInvocation("startPostFeedItemProcessing", plugIn);
+                long start = startTiming();
+                boolean wantsItems =
+                    itemPlugIn.startPostFeedItemProcessing(feedInfo,
+                                                           feedCache,
+                                                           channel);
+                stopTiming("startPostFeedItemProcessing", plugIn, start);
+                if (wantsItems)
+                {
+                    itemPlugIns.add(itemPlugIn);
+                }
+            }
         }
 
+        if (keepGoing)
+            runItemPlugIns(itemPlugIns, feedInfo, channel);
+
         return keepGoing;
     }
 
@@ -543,7 +631,9 @@ public class MetaPlugIn
         for (PreFeedOutputPlugIn plugIn : preFeedOutputPlugIns)
         {
             logPlugInInvocation("runPreFeedOutputPlugIn", plugIn);
+            long start = startTiming();
             plugIn.runPreFeedOutputPlugIn(feedInfo, channel, outputHandler);
+            stopTiming("runPreFeedOutputPlugIn", plugIn, start);
         }
     }
 
@@ -555,7 +645,9 @@ public class MetaPlugIn
         for (PostFeedOutputPlugIn plugIn : postFeedOutputPlugIns)
         {
             logPlugInInvocation("runPostFeedOutputPlugIn", plugIn);
+            long start = startTiming();
             plugIn.runPostFeedOutputPlugIn(feedInfo, outputHandler);
+            stopTiming("runPostFeedOutputPlugIn", plugIn, start);
         }
     }
 
@@ -569,7 +661,9 @@ public class MetaPlugIn
                  postOutputHandlerFlushPlugIns)
         {
             logPlugInInvocation("runPostOutputHandlerFlushPlugIn", plugIn);
+            long start = startTiming();
             keepGoing = plugIn.runPostOutputHandlerFlushPlugIn(outputHandler);
+            stopTiming("runPostOutputHandlerFlushPlugIn", plugIn, start);
 
             if (! keepGoing)
                 break;
@@ -585,7 +679,9 @@ public class MetaPlugIn
         for (PostOutputPlugIn plugIn : postOutputPlugIns)
         {
             logPlugInInvocation("runPostOutputPlugIn", plugIn);
+            long start = startTiming();
             plugIn.runPostOutputPlugIn(outputHandlers);
+            stopTiming("runPostOutputPlugIn", plugIn, start);
         }
     }
 
@@ -595,7 +691,9 @@ public class MetaPlugIn
         for (PreCacheSavePlugIn plugIn : preCacheSavePlugIns)
         {
             logPlugInInvocation("runPreCacheSavePlugIn", plugIn);
+            long start = startTiming();
             plugIn.runPreCacheSavePlugIn(cache);
+            stopTiming("runPreCacheSavePlugIn", plugIn, start);
         }
     }
 
@@ -605,7 +703,9 @@ public class MetaPlugIn
         for (ShutdownPlugIn plugIn : shutdownPlugIns)
         {
             logPlugInInvocation("runShutdownPlugIn", plugIn);
+            long start = startTiming();
             plugIn.runShutdownPlugIn();
+            stopTiming("runShutdownPlugIn", plugIn, start);
         }
     }
 
@@ -636,10 +736,128 @@ public class MetaPlugIn
         }
     }
 
+    /**
+     * Determine whether any loaded plug-in implements
+     * {@link PreCacheSavePlugIn}.
+     *
+     * @return <tt>true</tt> if so, <tt>false</tt> if not
+     */
+    synchronized boolean hasPreCacheSavePlugIns()
+    {
+        return ! preCacheSavePlugIns.isEmpty();
+    }
+
+    /**
+     * Start timing every plug-in hook call. Until this method is called,
+     * the calls aren't timed at all. Calling it again has no effect.
+     */
+    synchronized void enablePlugInStats()
+    {
+        if (plugInStats == null)
+            plugInStats = new PlugInStats();
+    }
+
+    /**
+     * Get the plug-in timings.
+     *
+     * @return the timings, or null if {@link #enablePlugInStats} hasn't
+     *         been called
+     */
+    PlugInStats getPlugInStats()
+    {
+        return plugInStats;
+    }
+
     /*----------------------------------------------------------------------*\
                               Private Methods
     \*----------------------------------------------------------------------*/
 
+    /**
+     * Get the start time for a plug-in hook call, if plug-in statistics
+     * are enabled.
+     *
+     * @return the current <tt>System.nanoTime()</tt>, or 0 if statistics
+     *         are disabled
+     */
+    private long startTiming()
+    {
+        return (plugInStats == null) ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Record the time taken by a plug-in hook call, if plug-in statistics
+     * are enabled.
+     *
+     * @param hookName  the hook name
+     * @param plugIn    the plug-in
+     * @param start     the value returned by {@link #startTiming}
+     */
+    private void stopTiming(final String hookName,
+                            final PlugIn plugIn,
+                            final long   start)
+    {
+        PlugInStats stats = plugInStats;
+        if ((stats != null) && (start != 0))
+            stats.record(hookName, plugIn, System.nanoTime() - start);
+    }
+
+    /**
+     * Pass each of a channel's items through a batch of item plug-ins, in
+     * a single pass. An item dropped by one plug-in is not passed to the
+     * rest. The channel's items are only replaced if an item was dropped.
+     *
+     * @param plugIns   the item plug-ins, in order
+     * @param feedInfo  the feed
+     * @param channel   the parsed channel data
+     *
+     * @throws CurnException on error
+     */
+    private void runItemPlugIns(final List<PostFeedProcessItemPlugIn> plugIns,
+                                final FeedInfo                        feedInfo,
+                                final RSSChannel                      channel)
+        throws CurnException
+    {
+        int total = plugIns.size();
+        if (total == 0)
+            return;
+
+        if (log.isDebugEnabled())
+        {
+            for (PostFeedProcessItemPlugIn plugIn : plugIns)
+                logPlugInInvocation("runPostFeedProcessItemPlugIn", plugIn);
+        }
+
+        PostFeedProcessItemPlugIn[] plugInArray =
+            plugIns.toArray(new PostFeedProcessItemPlugIn[total]);
+        int[] itemCounts = new int[total];
+        Collection<RSSItem> items = channel.getItems();
+        Collection<RSSItem> keptItems = new ArrayList<RSSItem>(items.size());
+
+        PlugInStats stats = plugInStats;
+        for (RSSItem item : items)
+        {
+            boolean keep = true;
+            for (int i = 0; keep && (i < total); i++)
+            {
+                long start = (stats == null) ? 0 : System.nanoTime();
+                keep = plugInArray[i].runPostFeedProcessItemPlugIn
+                    (feedInfo, channel, item, itemCounts[i]++);
+                if (stats != null)
+                {
+                    stats.record("runPostFeedProcessItemPlugIn",
+                                 plugInArray[i],
+                                 System.nanoTime() - start);
+                }
+            }
+
+            if (keep)
+                keptItems.add(item);
+        }
+
+        if (keptItems.size() != items.size())
+            channel.setItems(keptItems);
+    }
+
     /**
      * Log a plug-in invocation.
      *
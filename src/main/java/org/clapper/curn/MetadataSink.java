@@ -0,0 +1,77 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn;
+
+/**
+ * Receives the name/value pairs of one namespace's worth of metadata for a
+ * feed or an item, as a {@link BulkPersistentDataClient} produces them.
+ * The {@link DataPersister} reuses the same sink for every feed and item,
+ * and only allocates storage for the metadata once something is put into
+ * it, so a client doesn't have to build a <tt>Map</tt> for each item.
+ * Names should not be qualified by the namespace; the caller handles
+ * that.
+ *
+ * @see BulkPersistentDataClient
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface MetadataSink
+{
+    /**
+     * Add a string value.
+     *
+     * @param name   the name of the data item
+     * @param value  its value
+     */
+    public void put(String name, String value);
+
+    /**
+     * Add a numeric value.
+     *
+     * @param name   the name of the data item
+     * @param value  its value
+     */
+    public void put(String name, long value);
+
+    /**
+     * Add a boolean value.
+     *
+     * @param name   the name of the data item
+     * @param value  its value
+     */
+    public void put(String name, boolean value);
+}
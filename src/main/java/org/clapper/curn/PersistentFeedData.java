@@ -35,9 +35,11 @@
 
 package org.clapper.curn;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -87,8 +89,8 @@ public class PersistentFeedData
     /**
      * The PersistentFeedItemData contained within this feed.
      */
-    private Set<PersistentFeedItemData> feedItemData =
-        new HashSet<PersistentFeedItemData>();
+    private List<PersistentFeedItemData> feedItemData =
+        new ArrayList<PersistentFeedItemData>();
 
     /**
      * Extra metadata associated with the feed.
@@ -167,7 +169,7 @@ public class PersistentFeedData
      */
     public Collection<PersistentFeedItemData> getPersistentFeedItems()
     {
-        return Collections.unmodifiableSet(feedItemData);
+        return Collections.unmodifiableList(feedItemData);
     }
 
     /**
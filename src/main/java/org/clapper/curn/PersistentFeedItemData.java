@@ -69,10 +69,10 @@ public class PersistentFeedItemData
     private FeedCacheEntry feedCacheEntry = null;
 
     /**
-     * Extra metadata associated with the item.
+     * Extra metadata associated with the item. Most items have none, so
+     * the set is only allocated when the first group is added.
      */
-    private Set<PersistentMetadataGroup> itemMetadata =
-        new HashSet<PersistentMetadataGroup>();
+    private Set<PersistentMetadataGroup> itemMetadata = null;
 
     /*----------------------------------------------------------------------*\
                                    Constructor
@@ -110,7 +110,9 @@ public class PersistentFeedItemData
      */
     public void addItemMetadataGroup(PersistentMetadataGroup metadataGroup)
     {
-         itemMetadata.add(metadataGroup);
+        if (itemMetadata == null)
+            itemMetadata = new HashSet<PersistentMetadataGroup>();
+        itemMetadata.add(metadataGroup);
     }
 
     /**
@@ -131,15 +133,14 @@ public class PersistentFeedItemData
      *
      * @return a <tt>Collection</tt> of {@link PersistentMetadataGroup}
      *         objects, each one containing the data for one namespace.
+     *         The collection will be empty if there is no item metadata.
      */
     public Collection<PersistentMetadataGroup> getItemMetadata()
     {
-        Collection<PersistentMetadataGroup> result = null;
+        if (itemMetadata == null)
+            return Collections.emptySet();
 
-        if (itemMetadata != null)
-            result = Collections.unmodifiableCollection(itemMetadata);
-
-        return result;
+        return Collections.unmodifiableCollection(itemMetadata);
     }
 
     /*----------------------------------------------------------------------*\
@@ -71,7 +71,7 @@ public class PersistentMetadataGroup
      */
     public PersistentMetadataGroup(String namespace)
     {
-        this.namespace = namespace;
+        this.namespace = namespace.intern();
     }
 
     /*----------------------------------------------------------------------*\
@@ -89,14 +89,15 @@ public class PersistentMetadataGroup
     }
 
     /**
-     * Add a name/value pair to this metadata group.
+     * Add a name/value pair to this metadata group. The name is interned,
+     * since the same few names recur for every feed and item.
      *
      * @param name   the name
      * @param value  the value
      */
     public void addMetadataItem(String name, String value)
     {
-        nameValuePairs.put(name, value);
+        nameValuePairs.put(name.intern(), value);
     }
 
     /**
@@ -106,7 +107,8 @@ public class PersistentMetadataGroup
      */
     public void addMetadata(Map<String,String> metadata)
     {
-        this.nameValuePairs.putAll(metadata);
+        for (Map.Entry<String,String> entry : metadata.entrySet())
+            addMetadataItem(entry.getKey(), entry.getValue());
     }
 
     /**
@@ -0,0 +1,215 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-plug-in, per-hook latency histograms, filled in by the
+ * {@link MetaPlugIn} when statistics are enabled. Each call to a plug-in
+ * hook is timed and recorded in a {@link LatencyHistogram} for that
+ * plug-in class and hook method.
+ *
+ * @see MetaPlugIn#enablePlugInStats
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class PlugInStats
+{
+    /*----------------------------------------------------------------------*\
+                              Package Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The statistics for one hook of one plug-in.
+     */
+    static final class HookStats
+    {
+        private final String plugInClassName;
+        private final String hookName;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+
+        HookStats(String plugInClassName, String hookName)
+        {
+            this.plugInClassName = plugInClassName;
+            this.hookName = hookName;
+        }
+
+        String getPlugInClassName()
+        {
+            return plugInClassName;
+        }
+
+        String getHookName()
+        {
+            return hookName;
+        }
+
+        LatencyHistogram getHistogram()
+        {
+            return histogram;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The statistics, indexed by plug-in class name, then by hook name.
+     */
+    private final Map<String,Map<String,HookStats>> stats =
+        new TreeMap<String,Map<String,HookStats>>();
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new, empty set of statistics.
+     */
+    PlugInStats()
+    {
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Record one invocation of a plug-in hook.
+     *
+     * @param hookName  the hook (i.e., <tt>MetaPlugIn</tt> method) name
+     * @param plugIn    the plug-in
+     * @param nanos     how long the call took
+     */
+    void record(String hookName, PlugIn plugIn, long nanos)
+    {
+        getHookStats(hookName, plugIn).getHistogram().record(nanos);
+    }
+
+    /**
+     * Get all the statistics, ordered by plug-in class name and hook name.
+     *
+     * @return the statistics
+     */
+    synchronized Collection<HookStats> getAllHookStats()
+    {
+        Collection<HookStats> result = new ArrayList<HookStats>();
+        for (Map<String,HookStats> hooks : stats.values())
+            result.addAll(hooks.values());
+
+        return result;
+    }
+
+    /**
+     * Print the statistics as a table, with times in milliseconds.
+     *
+     * @param out  where to print them
+     */
+    void print(PrintWriter out)
+    {
+        Collection<HookStats> allStats = getAllHookStats();
+
+        out.println();
+        out.println("Plug-in statistics (times in milliseconds):");
+        out.println();
+
+        if (allStats.size() == 0)
+        {
+            out.println("No plug-in hooks were called.");
+            out.flush();
+            return;
+        }
+
+        String format = "  %-36s %9s %10s %10s %10s %11s%n";
+        String lastClassName = null;
+        out.printf(format, "Hook", "Count", "p50", "p99", "Max", "Total");
+        for (HookStats hookStats : allStats)
+        {
+            if (! hookStats.getPlugInClassName().equals(lastClassName))
+            {
+                lastClassName = hookStats.getPlugInClassName();
+                out.println(lastClassName);
+            }
+
+            LatencyHistogram h = hookStats.getHistogram();
+            out.printf(format,
+                       hookStats.getHookName(),
+                       String.valueOf(h.getCount()),
+                       millis(h.getValueAtPercentile(50.0)),
+                       millis(h.getValueAtPercentile(99.0)),
+                       millis(h.getMax()),
+                       millis(h.getTotal()));
+        }
+
+        out.flush();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private synchronized HookStats getHookStats(String hookName,
+                                                PlugIn plugIn)
+    {
+        String className = plugIn.getClass().getName();
+        Map<String,HookStats> hooks = stats.get(className);
+        if (hooks == null)
+        {
+            hooks = new TreeMap<String,HookStats>();
+            stats.put(className, hooks);
+        }
+
+        HookStats hookStats = hooks.get(hookName);
+        if (hookStats == null)
+        {
+            hookStats = new HookStats(className, hookName);
+            hooks.put(hookName, hookStats);
+        }
+
+        return hookStats;
+    }
+
+    private String millis(long nanos)
+    {
+        return String.format("%.3f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,118 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.curn;
+
+import org.clapper.curn.parser.RSSChannel;
+import org.clapper.curn.parser.RSSItem;
+
+/**
+ * <p>This interface defines the methods that must be supported by plug-ins
+ * that process a feed's items, one at a time, after <i>curn</i> has parsed
+ * and processed the feed. It runs in the same phase as
+ * {@link PostFeedProcessPlugIn}, and in the same plug-in order. However,
+ * rather than each such plug-in walking the feed's items itself, the
+ * {@link MetaPlugIn} makes a single pass over the items for every run of
+ * consecutive item plug-ins, handing each item to each plug-in in turn.
+ * An item that one plug-in drops is not passed to the plug-ins after it,
+ * and the channel's item list is only replaced if something was
+ * dropped.</p>
+ *
+ * <p>For each feed, <i>curn</i> first calls
+ * {@link #startPostFeedItemProcessing startPostFeedItemProcessing()}, in
+ * plug-in order. That method can perform any channel-level work, and
+ * returns <tt>false</tt> if the plug-in has nothing to do to the feed's
+ * items, in which case it's left out of the item pass. Then, for each
+ * item, <i>curn</i> calls
+ * {@link #runPostFeedProcessItemPlugIn runPostFeedProcessItemPlugIn()}.
+ * The item calls for one feed are never interleaved with the calls for
+ * another feed, so a plug-in may save per-feed settings in
+ * <tt>startPostFeedItemProcessing()</tt> for use by the item calls that
+ * follow.</p>
+ *
+ * @see PlugIn
+ * @see MetaPlugIn
+ * @see PostFeedProcessPlugIn
+ * @see Curn
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public interface PostFeedProcessItemPlugIn extends PlugIn
+{
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Called once for each feed, after the feed is parsed and before any
+     * of its items are passed to
+     * {@link #runPostFeedProcessItemPlugIn runPostFeedProcessItemPlugIn()}.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed that
+     *                  has been downloaded and parsed.
+     * @param feedCache the loaded feed cache, or null if there's no cache
+     * @param channel   the parsed channel data
+     *
+     * @return <tt>true</tt> if the plug-in wants to see the feed's items,
+     *         <tt>false</tt> if it has nothing to do to them
+     *
+     * @throws CurnException on error
+     */
+    public boolean startPostFeedItemProcessing(FeedInfo   feedInfo,
+                                               FeedCache  feedCache,
+                                               RSSChannel channel)
+        throws CurnException;
+
+    /**
+     * Called for each item in a feed. The plug-in may edit the item in
+     * place, or drop it.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     * @param channel   the parsed channel data
+     * @param item      the item
+     * @param itemIndex the number of items of this feed already passed to
+     *                  this plug-in (i.e., the item's position in the
+     *                  item list the plug-in would have seen, had it
+     *                  walked the channel's items itself)
+     *
+     * @return <tt>true</tt> to keep the item, <tt>false</tt> to drop it
+     *
+     * @throws CurnException on error
+     */
+    public boolean runPostFeedProcessItemPlugIn(FeedInfo   feedInfo,
+                                                RSSChannel channel,
+                                                RSSItem    item,
+                                                int        itemIndex)
+        throws CurnException;
+}
@@ -54,10 +54,11 @@ public interface PreCacheSavePlugIn extends PlugIn
 
     /**
      * Called right before the <i>curn</i> cache is to be saved. A plug-in
-     * might choose to edit the cache at this point.
-     * 
-     * 
-     * 
+     * might choose to edit the cache at this point. This happens after
+     * all output has been produced. (If no plug-in implements this
+     * interface, <i>curn</i> writes the cache out while the output
+     * handlers run, instead of afterwards.)
+     *
      * @param cache  the {@link FeedCache} object
      * @throws CurnException on error
      */
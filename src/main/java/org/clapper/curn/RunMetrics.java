@@ -0,0 +1,730 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.clapper.curn.FeedMetrics.Outcome;
+import org.clapper.curn.FeedMetrics.Stage;
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+
+/**
+ * <p>Collects the {@link FeedMetrics} for every feed during a <i>curn</i>
+ * run, and, at the end of the run, logs a summary and exports the figures.
+ * If the <tt>MetricsJSONFile</tt> parameter is set, the metrics are
+ * written there as JSON; if <tt>MetricsPrometheusFile</tt> is set, they're
+ * written there in the Prometheus text exposition format, suitable for
+ * the node exporter's text file collector. Each file is written to a
+ * temporary file and renamed, so a reader never sees a partial file.</p>
+ *
+ * <p>If plug-in statistics were kept (see {@link PlugInStats}), they're
+ * exported, too.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class RunMetrics
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String VAR_METRICS_JSON_FILE = "MetricsJSONFile";
+    private static final String VAR_METRICS_PROMETHEUS_FILE =
+        "MetricsPrometheusFile";
+
+    /**
+     * Prefix for the Prometheus metric names.
+     */
+    private static final String PROMETHEUS_PREFIX = "curn_";
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final long startTime = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    private long endNanos = 0;
+
+    /**
+     * When the feeds were queued for download.
+     */
+    private long queuedNanos = 0;
+
+    /**
+     * The metrics for each feed, in configuration order, indexed by URL.
+     * (Not by FeedInfo, since URL.hashCode() can do a DNS lookup.)
+     */
+    private final Map<String,FeedMetrics> feedMetrics =
+        new LinkedHashMap<String,FeedMetrics>();
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger(RunMetrics.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Start collecting metrics for a run. The run's elapsed time is
+     * measured from now.
+     */
+    RunMetrics()
+    {
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Record that the feeds have been queued for download. The time each
+     * feed spends in the queue is measured from now.
+     *
+     * @param feeds  the feeds
+     */
+    synchronized void feedsQueued(Collection<FeedInfo> feeds)
+    {
+        queuedNanos = System.nanoTime();
+        for (FeedInfo feedInfo : feeds)
+            getFeedMetrics(feedInfo);
+    }
+
+    /**
+     * Called by a download thread when it takes a feed off the queue.
+     * Records how long the feed waited.
+     *
+     * @param feedInfo  the feed
+     *
+     * @return the feed's metrics
+     */
+    FeedMetrics feedDequeued(FeedInfo feedInfo)
+    {
+        FeedMetrics metrics;
+        long queued;
+        synchronized (this)
+        {
+            metrics = getFeedMetrics(feedInfo);
+            queued = queuedNanos;
+        }
+
+        metrics.addTimeSince(Stage.QUEUE_WAIT, queued);
+        return metrics;
+    }
+
+    /**
+     * Get the metrics for a feed, creating them if necessary.
+     *
+     * @param feedInfo  the feed
+     *
+     * @return the feed's metrics
+     */
+    synchronized FeedMetrics getFeedMetrics(FeedInfo feedInfo)
+    {
+        String url = feedInfo.getURL().toString();
+        FeedMetrics metrics = feedMetrics.get(url);
+        if (metrics == null)
+        {
+            metrics = new FeedMetrics(url);
+            feedMetrics.put(url, metrics);
+        }
+
+        return metrics;
+    }
+
+    /**
+     * Determine whether the configuration asks for the metrics to be
+     * written anywhere.
+     *
+     * @param config  the configuration
+     *
+     * @return <tt>true</tt> if a metrics file is configured, <tt>false</tt>
+     *         if not
+     *
+     * @throws CurnException on error
+     */
+    static boolean isExportConfigured(CurnConfig config)
+        throws CurnException
+    {
+        return (getConfiguredPath(config, VAR_METRICS_JSON_FILE) != null) ||
+               (getConfiguredPath(config, VAR_METRICS_PROMETHEUS_FILE) != null);
+    }
+
+    /**
+     * Mark the end of the run, log a summary, and write the metrics to
+     * the configured files, if any.
+     *
+     * @param config       the configuration
+     * @param plugInStats  the plug-in statistics, or null if none were kept
+     *
+     * @throws CurnException on error
+     */
+    synchronized void export(CurnConfig config, PlugInStats plugInStats)
+        throws CurnException
+    {
+        if (endNanos == 0)
+            endNanos = System.nanoTime();
+
+        logSummary();
+
+        File jsonFile = getConfiguredPath(config, VAR_METRICS_JSON_FILE);
+        if (jsonFile != null)
+            writeFile(jsonFile, toJSON(plugInStats));
+
+        File prometheusFile = getConfiguredPath(config,
+                                                VAR_METRICS_PROMETHEUS_FILE);
+        if (prometheusFile != null)
+            writeFile(prometheusFile, toPrometheus(plugInStats));
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the value of a path parameter from the main configuration
+     * section.
+     *
+     * @param config   the configuration
+     * @param varName  the parameter name
+     *
+     * @return the path, or null if the parameter isn't set
+     *
+     * @throws CurnException on error
+     */
+    private static File getConfiguredPath(CurnConfig config, String varName)
+        throws CurnException
+    {
+        try
+        {
+            String path = config.getOptionalStringValue(CurnConfig.MAIN_SECTION,
+                                                        varName,
+                                                        null);
+            return (path == null) ? null : CurnUtil.mapConfiguredPathName(path);
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+    }
+
+    /**
+     * Log a one-line summary of the run, plus the slowest feed.
+     */
+    private void logSummary()
+    {
+        Map<Outcome,Integer> outcomes =
+            new EnumMap<Outcome,Integer>(Outcome.class);
+        long bytes = 0;
+        long transferBytes = 0;
+        int newItems = 0;
+        FeedMetrics slowest = null;
+
+        for (FeedMetrics metrics : feedMetrics.values())
+        {
+            Integer count = outcomes.get(metrics.getOutcome());
+            outcomes.put(metrics.getOutcome(),
+                         (count == null) ? 1 : (count + 1));
+            bytes += metrics.getBytes();
+            transferBytes += metrics.getTransferBytes();
+            newItems += metrics.getNewItems();
+            if ((slowest == null) ||
+                (metrics.getTotalTime() > slowest.getTotalTime()))
+            {
+                slowest = metrics;
+            }
+        }
+
+        StringBuilder buf = new StringBuilder();
+        buf.append("Run took ");
+        buf.append(seconds(endNanos - startNanos));
+        buf.append(" seconds: ");
+        buf.append(feedMetrics.size());
+        buf.append(" feeds ");
+        buf.append(outcomes.toString());
+        buf.append(", ");
+        buf.append(bytes);
+        buf.append(" bytes (");
+        buf.append(transferBytes);
+        buf.append(" transferred), ");
+        buf.append(newItems);
+        buf.append(" new items.");
+        if (slowest != null)
+        {
+            buf.append(" Slowest feed: ");
+            buf.append(slowest.getURL());
+            buf.append(" (");
+            buf.append(seconds(slowest.getTotalTime()));
+            buf.append(" seconds)");
+        }
+
+        log.info(buf.toString());
+    }
+
+    /**
+     * Format the metrics as JSON.
+     *
+     * @param plugInStats  the plug-in statistics, or null
+     *
+     * @return the JSON document
+     */
+    private String toJSON(PlugInStats plugInStats)
+    {
+        StringBuilder buf = new StringBuilder();
+        long[] totals = new long[Stage.values().length];
+        long totalBytes = 0;
+        long totalTransferBytes = 0;
+        long totalItems = 0;
+        long totalNewItems = 0;
+        Collection<String> feeds = new ArrayList<String>();
+
+        for (FeedMetrics metrics : feedMetrics.values())
+        {
+            StringBuilder feed = new StringBuilder();
+            feed.append("    {\"url\": ");
+            appendJSONString(feed, metrics.getURL());
+            feed.append(", \"outcome\": ");
+            appendJSONString(feed, metrics.getOutcome().getName());
+            if (metrics.getExceededQuota() != null)
+            {
+                feed.append(", \"exceededQuota\": ");
+                appendJSONString(feed, metrics.getExceededQuota());
+            }
+            feed.append(", \"bytes\": ").append(metrics.getBytes());
+            feed.append(", \"transferBytes\": ")
+                .append(metrics.getTransferBytes());
+            feed.append(", \"items\": ").append(metrics.getItems());
+            feed.append(", \"newItems\": ").append(metrics.getNewItems());
+
+            long[] times = new long[totals.length];
+            for (Stage stage : Stage.values())
+            {
+                times[stage.ordinal()] = metrics.getTime(stage);
+                totals[stage.ordinal()] += times[stage.ordinal()];
+            }
+
+            feed.append(",\n     ");
+            appendJSONTimes(feed, times);
+            feed.append("}");
+            feeds.add(feed.toString());
+
+            totalBytes += metrics.getBytes();
+            totalTransferBytes += metrics.getTransferBytes();
+            totalItems += metrics.getItems();
+            totalNewItems += metrics.getNewItems();
+        }
+
+        buf.append("{\n");
+        buf.append("  \"startTime\": ").append(startTime).append(",\n");
+        buf.append("  \"seconds\": ").append(seconds(endNanos - startNanos));
+        buf.append(",\n");
+        buf.append("  \"totals\": {\"feeds\": ").append(feedMetrics.size());
+        buf.append(", \"bytes\": ").append(totalBytes);
+        buf.append(", \"transferBytes\": ").append(totalTransferBytes);
+        buf.append(", \"items\": ").append(totalItems);
+        buf.append(", \"newItems\": ").append(totalNewItems);
+        buf.append(",\n     ");
+        appendJSONTimes(buf, totals);
+        buf.append("},\n");
+        buf.append("  \"feeds\": [\n");
+
+        String sep = "";
+        for (String feed : feeds)
+        {
+            buf.append(sep).append(feed);
+            sep = ",\n";
+        }
+
+        buf.append("\n  ]");
+
+        if (plugInStats != null)
+        {
+            buf.append(",\n  \"plugIns\": [");
+            sep = "\n";
+            for (PlugInStats.HookStats hookStats :
+                     plugInStats.getAllHookStats())
+            {
+                LatencyHistogram h = hookStats.getHistogram();
+                buf.append(sep);
+                buf.append("    {\"plugIn\": ");
+                appendJSONString(buf, hookStats.getPlugInClassName());
+                buf.append(", \"hook\": ");
+                appendJSONString(buf, hookStats.getHookName());
+                buf.append(", \"count\": ").append(h.getCount());
+                buf.append(",\n     \"p50\": ");
+                buf.append(seconds(h.getValueAtPercentile(50.0)));
+                buf.append(", \"p99\": ");
+                buf.append(seconds(h.getValueAtPercentile(99.0)));
+                buf.append(", \"max\": ").append(seconds(h.getMax()));
+                buf.append(", \"total\": ").append(seconds(h.getTotal()));
+                buf.append("}");
+                sep = ",\n";
+            }
+
+            buf.append("\n  ]");
+        }
+
+        buf.append("\n}\n");
+        return buf.toString();
+    }
+
+    /**
+     * Append the "stages" and "plugIns" objects, which give the time in
+     * seconds for each stage.
+     *
+     * @param buf    where to append them
+     * @param times  the times, in nanoseconds, indexed by stage ordinal
+     */
+    private void appendJSONTimes(StringBuilder buf, long[] times)
+    {
+        StringBuilder stages = new StringBuilder();
+        StringBuilder plugIns = new StringBuilder();
+        for (Stage stage : Stage.values())
+        {
+            StringBuilder b = stage.isPlugInPhase() ? plugIns : stages;
+            if (b.length() > 0)
+                b.append(", ");
+            appendJSONString(b, stage.getName());
+            b.append(": ").append(seconds(times[stage.ordinal()]));
+        }
+
+        buf.append("\"stages\": {").append(stages).append("},\n     ");
+        buf.append("\"plugIns\": {").append(plugIns).append("}");
+    }
+
+    private void appendJSONString(StringBuilder buf, String s)
+    {
+        buf.append('"');
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    buf.append("\\\"");
+                    break;
+                case '\\':
+                    buf.append("\\\\");
+                    break;
+                case '\n':
+                    buf.append("\\n");
+                    break;
+                case '\r':
+                    buf.append("\\r");
+                    break;
+                case '\t':
+                    buf.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        buf.append(String.format("\\u%04x", (int) c));
+                    else
+                        buf.append(c);
+                    break;
+            }
+        }
+        buf.append('"');
+    }
+
+    /**
+     * Format the metrics in the Prometheus text exposition format.
+     *
+     * @param plugInStats  the plug-in statistics, or null
+     *
+     * @return the metrics
+     */
+    private String toPrometheus(PlugInStats plugInStats)
+    {
+        StringBuilder buf = new StringBuilder();
+
+        startMetric(buf, "run_start_time_seconds",
+                    "When the curn run started, in seconds since the epoch.");
+        buf.append(PROMETHEUS_PREFIX).append("run_start_time_seconds ");
+        buf.append(startTime / 1000).append('\n');
+
+        startMetric(buf, "run_duration_seconds",
+                    "Elapsed time of the curn run.");
+        buf.append(PROMETHEUS_PREFIX).append("run_duration_seconds ");
+        buf.append(seconds(endNanos - startNanos)).append('\n');
+
+        startMetric(buf, "feed_stage_seconds",
+                    "Time each feed spent in each stage.");
+        for (FeedMetrics metrics : feedMetrics.values())
+        {
+            for (Stage stage : Stage.values())
+            {
+                if (! stage.isPlugInPhase())
+                {
+                    appendSample(buf, "feed_stage_seconds", metrics,
+                                 "stage", stage.getName(),
+                                 seconds(metrics.getTime(stage)));
+                }
+            }
+        }
+
+        startMetric(buf, "feed_plugin_phase_seconds",
+                    "Time each feed spent in the plug-ins for each phase.");
+        for (FeedMetrics metrics : feedMetrics.values())
+        {
+            for (Stage stage : Stage.values())
+            {
+                if (stage.isPlugInPhase())
+                {
+                    appendSample(buf, "feed_plugin_phase_seconds", metrics,
+                                 "phase", stage.getName(),
+                                 seconds(metrics.getTime(stage)));
+                }
+            }
+        }
+
+        startMetric(buf, "feed_bytes",
+                    "Bytes downloaded for each feed, after decompression.");
+        for (FeedMetrics metrics : feedMetrics.values())
+        {
+            appendSample(buf, "feed_bytes", metrics, null, null,
+                         String.valueOf(metrics.getBytes()));
+        }
+
+        startMetric(buf, "feed_transfer_bytes",
+                    "Bytes received for each feed, before decompression.");
+        for (FeedMetrics metrics : feedMetrics.values())
+        {
+            appendSample(buf, "feed_transfer_bytes", metrics, null, null,
+                         String.valueOf(metrics.getTransferBytes()));
+        }
+
+        startMetric(buf, "feed_items", "Items parsed from each feed.");
+        for (FeedMetrics metrics : feedMetrics.values())
+        {
+            appendSample(buf, "feed_items", metrics, null, null,
+                         String.valueOf(metrics.getItems()));
+        }
+
+        startMetric(buf, "feed_new_items",
+                    "Items in each feed that weren't in the cache.");
+        for (FeedMetrics metrics : feedMetrics.values())
+        {
+            appendSample(buf, "feed_new_items", metrics, null, null,
+                         String.valueOf(metrics.getNewItems()));
+        }
+
+        startMetric(buf, "feed_outcome",
+                    "What happened to each feed (1 for the outcome, " +
+                    "0 otherwise).");
+        for (FeedMetrics metrics : feedMetrics.values())
+        {
+            for (Outcome outcome : Outcome.values())
+            {
+                appendSample(buf, "feed_outcome", metrics,
+                             "outcome", outcome.getName(),
+                             (metrics.getOutcome() == outcome) ? "1" : "0");
+            }
+        }
+
+        if (plugInStats != null)
+            appendPlugInStats(buf, plugInStats);
+
+        return buf.toString();
+    }
+
+    /**
+     * Append the plug-in statistics, as a Prometheus summary. The maximum
+     * is exported as the 1.0 quantile.
+     *
+     * @param buf          where to append them
+     * @param plugInStats  the statistics
+     */
+    private void appendPlugInStats(StringBuilder buf, PlugInStats plugInStats)
+    {
+        String name = PROMETHEUS_PREFIX + "plugin_hook_seconds";
+        buf.append("# HELP ").append(name);
+        buf.append(" Time spent in each plug-in hook.\n");
+        buf.append("# TYPE ").append(name).append(" summary\n");
+
+        for (PlugInStats.HookStats hookStats : plugInStats.getAllHookStats())
+        {
+            LatencyHistogram h = hookStats.getHistogram();
+            StringBuilder labels = new StringBuilder();
+            labels.append("plugin=\"");
+            appendLabelValue(labels, hookStats.getPlugInClassName());
+            labels.append("\",hook=\"");
+            appendLabelValue(labels, hookStats.getHookName());
+            labels.append('"');
+
+            String[] quantiles = {"0.5", "0.99", "1"};
+            long[] values = {h.getValueAtPercentile(50.0),
+                             h.getValueAtPercentile(99.0),
+                             h.getMax()};
+            for (int i = 0; i < quantiles.length; i++)
+            {
+                buf.append(name).append('{').append(labels);
+                buf.append(",quantile=\"").append(quantiles[i]).append("\"} ");
+                buf.append(seconds(values[i])).append('\n');
+            }
+
+            buf.append(name).append("_sum{").append(labels).append("} ");
+            buf.append(seconds(h.getTotal())).append('\n');
+            buf.append(name).append("_count{").append(labels).append("} ");
+            buf.append(h.getCount()).append('\n');
+        }
+    }
+
+    private void startMetric(StringBuilder buf, String name, String help)
+    {
+        buf.append("# HELP ").append(PROMETHEUS_PREFIX).append(name);
+        buf.append(' ').append(help).append('\n');
+        buf.append("# TYPE ").append(PROMETHEUS_PREFIX).append(name);
+        buf.append(" gauge\n");
+    }
+
+    /**
+     * Append one Prometheus sample for a feed.
+     *
+     * @param buf        where to append it
+     * @param name       the metric name, without the prefix
+     * @param metrics    the feed's metrics
+     * @param labelName  the name of an additional label, or null
+     * @param label      the value of the additional label
+     * @param value      the sample value
+     */
+    private void appendSample(StringBuilder buf,
+                              String        name,
+                              FeedMetrics   metrics,
+                              String        labelName,
+                              String        label,
+                              String        value)
+    {
+        buf.append(PROMETHEUS_PREFIX).append(name);
+        buf.append("{feed=\"");
+        appendLabelValue(buf, metrics.getURL());
+        buf.append('"');
+        if (labelName != null)
+        {
+            buf.append(',').append(labelName).append("=\"");
+            appendLabelValue(buf, label);
+            buf.append('"');
+        }
+
+        buf.append("} ").append(value).append('\n');
+    }
+
+    private void appendLabelValue(StringBuilder buf, String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == '\\')
+                buf.append("\\\\");
+            else if (c == '"')
+                buf.append("\\\"");
+            else if (c == '\n')
+                buf.append("\\n");
+            else
+                buf.append(c);
+        }
+    }
+
+    /**
+     * Convert nanoseconds to seconds, as a string.
+     *
+     * @param nanos  the nanoseconds
+     *
+     * @return the seconds
+     */
+    private String seconds(long nanos)
+    {
+        return String.valueOf(nanos / 1e9);
+    }
+
+    /**
+     * Write a file, by way of a temporary file.
+     *
+     * @param file      the file
+     * @param contents  what to write
+     *
+     * @throws CurnException on error
+     */
+    private void writeFile(File file, String contents)
+        throws CurnException
+    {
+        File tempFile = new File(file.getPath() + ".tmp");
+        log.debug("Writing run metrics to \"" + file + "\"");
+
+        try
+        {
+            Writer out = new OutputStreamWriter(new FileOutputStream(tempFile),
+                                                "UTF-8");
+            try
+            {
+                out.write(contents);
+            }
+
+            finally
+            {
+                out.close();
+            }
+
+            if ((! tempFile.renameTo(file)) &&
+                ((! file.delete()) || (! tempFile.renameTo(file))))
+            {
+                throw new IOException("Can't rename \"" + tempFile +
+                                      "\" to \"" + file + "\"");
+            }
+        }
+
+        catch (IOException ex)
+        {
+            tempFile.delete();
+            throw new CurnException(Constants.BUNDLE_NAME,
+                                    "RunMetrics.cantWrite",
+                                    "Unable to write run metrics to \"{0}\".",
+                                    new Object[] {file.getPath()},
+                                    ex);
+        }
+    }
+}
@@ -132,6 +132,8 @@ public class Tool
     private Date    currentTime                  = new Date();
     private boolean optShowBuildInfo             = false;
     private boolean optShowPlugIns               = false;
+    private boolean optShowPlugInStats           = false;
+    private boolean optResetFailures             = false;
     private boolean optShowVersion               = false;
     private Boolean optUpdateCache               = null;
     private boolean optAbortOnUndefinedConfigVar = true;
@@ -260,6 +262,24 @@ public class Tool
         throws CommandLineUsageException,
                NoSuchElementException
     {
+        if (shortOption == UsageInfo.NO_SHORT_OPTION)
+        {
+            if (longOption.equals("plugin-stats"))
+                optShowPlugInStats = true;
+
+            else if (longOption.equals("reset-failures"))
+                optResetFailures = true;
+
+            else
+            {
+                // Should not happen.
+                throw new IllegalStateException("(BUG) Unknown option. " +
+                                                "Why am I here?");
+            }
+
+            return;
+        }
+
         switch (shortOption)
         {
             case 'a':           // --authors
@@ -436,8 +456,18 @@ public class Tool
                        "build-info or " +
                        UsageInfo.LONG_OPTION_PREFIX +
                        "version to show version information, as well.");
+        info.addOption(UsageInfo.NO_SHORT_OPTION, "plugin-stats",
+                       "Time every call to every plug-in, and print a " +
+                       "summary for each plug-in and hook (call count, " +
+                       "median, 99th percentile, maximum and total time) " +
+                       "when done.");
         info.addOption('r', "rss-version", null);
         info.addOption('R', "no-rss-version", null);
+        info.addOption(UsageInfo.NO_SHORT_OPTION, "reset-failures",
+                       "Forget the saved failure history of every feed, " +
+                       "re-enabling feeds that were disabled because they " +
+                       "kept failing, and trying feeds that are cooling " +
+                       "down right away.");
         info.addOption('T', "threads", "<n>", null);
         info.addOption('u', "no-update",
                        "Read the cache, but don't update it.");
@@ -547,12 +577,25 @@ public class Tool
 
                 // Fire it up.
 
+                if (optShowPlugInStats)
+                    MetaPlugIn.getMetaPlugIn().enablePlugInStats();
+
                 curn.setCurrentTime(currentTime);
                 curn.setAbortOnUndefinedConfigVariable
                     (optAbortOnUndefinedConfigVar);
-                curn.run(getConfigurationURL(),
-                         configEncoding,
-                         this.useCache);
+                curn.setResetFailureHistory(optResetFailures);
+                try
+                {
+                    curn.run(getConfigurationURL(),
+                             configEncoding,
+                             this.useCache);
+                }
+
+                finally
+                {
+                    if (optShowPlugInStats)
+                        showPlugInStats();
+                }
             }
         }
 
@@ -698,6 +741,13 @@ public class Tool
         }
     }
 
+    private void showPlugInStats()
+    {
+        PlugInStats stats = MetaPlugIn.getMetaPlugIn().getPlugInStats();
+        if (stats != null)
+            stats.print(new PrintWriter(System.out));
+    }
+
     private void deprecatedOption (final char   shortOption,
                                    final String longOption)
     {
@@ -35,30 +35,67 @@
 
 package org.clapper.curn;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.Writer;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.clapper.util.config.ConfigurationException;
-import org.clapper.util.io.IOExceptionExt;
 import org.clapper.util.logging.Logger;
 import org.clapper.util.text.TextUtil;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.input.SAXBuilder;
-import org.jdom.output.Format;
-import org.jdom.output.XMLOutputter;
 
 /**
+ * <p>Saves <i>curn</i>'s data in an XML file.</p>
+ *
+ * <p>The file is read and written a piece at a time, with StAX: each
+ * <tt>&lt;feed&gt;</tt> is handed to the <tt>LoadedDataHandler</tt> as
+ * soon as it has been parsed, and each feed is written out as soon as it's
+ * saved, so the whole document is never held in memory. If
+ * <tt>CompressCache</tt> is set, the files are written with gzip; a
+ * compressed file is recognized when it's loaded, whatever the setting.</p>
+ *
+ * <p>If <tt>TotalCacheShards</tt> is set, the feeds are spread over that
+ * many XML files (shards), by a hash of the feed URL, and the configured
+ * cache file becomes a small manifest that lists the shards and a digest
+ * of each one. A save only rewrites the shards whose contents changed, so
+ * the amount written depends on how many feeds changed, not on how big
+ * the cache is. A load parses the shards in parallel.</p>
+ *
  * @version <tt>$Revision$</tt>
  */
 public class XMLDataPersister extends DataPersister
@@ -68,9 +105,13 @@ public class XMLDataPersister extends DataPersister
     \*----------------------------------------------------------------------*/
 
     private static final int DEF_TOTAL_CACHE_BACKUPS = 0;
+    private static final int DEF_TOTAL_CACHE_SHARDS = 0;
+    private static final boolean DEF_COMPRESS_CACHE = false;
 
     private static final String VAR_CACHE_FILE        = "CacheFile";
     private static final String VAR_TOTAL_CACHE_BACKUPS = "TotalCacheBackups";
+    private static final String VAR_TOTAL_CACHE_SHARDS = "TotalCacheShards";
+    private static final String VAR_COMPRESS_CACHE    = "CompressCache";
 
     /**
      * Constants for the old XML format
@@ -101,17 +142,211 @@ public class XMLDataPersister extends DataPersister
     private static final String XML_ID_ATTR               = "id";
     private static final String XML_PUB_DATE_ATTR         = "pub-date";
 
+    /**
+     * Constants for the shard manifest.
+     */
+    private static final String XML_SHARDS_ELEMENT        = "curn-shards";
+    private static final String XML_SHARD_ELEMENT         = "shard";
+    private static final String XML_SHARD_FILE_ATTR       = "file";
+    private static final String XML_SHARD_DIGEST_ATTR     = "digest";
+
+    /**
+     * Suffixes appended to the cache file name to get the shard file names.
+     */
+    private static final String SHARD_FILE_SUFFIX         = ".shard";
+    private static final String EXTRA_FILE_SUFFIX         = ".extra";
+
+    /**
+     * Appended to the digest of a compressed shard, so that changing
+     * <tt>CompressCache</tt> causes every shard to be rewritten.
+     */
+    private static final String GZIP_DIGEST_SUFFIX        = ".gz";
+
+    /**
+     * The encoding of the files.
+     */
+    private static final String ENCODING                  = "UTF-8";
+
+    /**
+     * The indentation for each level of nesting.
+     */
+    private static final String INDENT                    = "  ";
+
+    /*----------------------------------------------------------------------*\
+                                Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Holds the data loaded from one shard until it can be handed to the
+     * real <tt>LoadedDataHandler</tt>.
+     */
+    private static class BufferedLoad implements LoadedDataHandler
+    {
+        private final List<PersistentFeedData> feeds =
+            new ArrayList<PersistentFeedData>();
+        private final List<PersistentMetadataGroup> extraMetadata =
+            new ArrayList<PersistentMetadataGroup>();
+
+        BufferedLoad()
+        {
+        }
+
+        public void feedLoaded(PersistentFeedData feedData)
+        {
+            feeds.add(feedData);
+        }
+
+        public void extraMetadataLoaded(PersistentMetadataGroup metadataGroup)
+        {
+            extraMetadata.add(metadataGroup);
+        }
+
+        void replay(LoadedDataHandler loadedDataHandler)
+            throws CurnException
+        {
+            for (PersistentFeedData feedData : feeds)
+                loadedDataHandler.feedLoaded(feedData);
+            for (PersistentMetadataGroup metadataGroup : extraMetadata)
+                loadedDataHandler.extraMetadataLoaded(metadataGroup);
+        }
+    }
+
+    /**
+     * Writes an indented XML document to a stream, one element at a time.
+     */
+    private static class CacheWriter
+    {
+        private final XMLStreamWriter out;
+        private final String newline = System.getProperty("line.separator");
+        private int depth = 0;
+
+        CacheWriter(OutputStream os)
+            throws XMLStreamException
+        {
+            out = XMLOutputFactory.newInstance().createXMLStreamWriter(os,
+                                                                       ENCODING);
+            out.writeStartDocument(ENCODING, "1.0");
+        }
+
+        /**
+         * Start an element. Its attributes must be written next.
+         *
+         * @param name   the element name
+         * @param empty  whether the element has no children, in which case
+         *               there's no matching call to {@link #endElement}
+         */
+        void startElement(String name, boolean empty)
+            throws XMLStreamException
+        {
+            indent();
+            if (empty)
+            {
+                out.writeEmptyElement(name);
+            }
+
+            else
+            {
+                out.writeStartElement(name);
+                depth++;
+            }
+        }
+
+        void attribute(String name, String value)
+            throws XMLStreamException
+        {
+            out.writeAttribute(name, value);
+        }
+
+        void endElement()
+            throws XMLStreamException
+        {
+            depth--;
+            indent();
+            out.writeEndElement();
+        }
+
+        /**
+         * Finish the document, and flush (but don't close) the stream.
+         */
+        void finish()
+            throws XMLStreamException
+        {
+            out.writeCharacters(newline);
+            out.writeEndDocument();
+            out.flush();
+            out.close();
+        }
+
+        private void indent()
+            throws XMLStreamException
+        {
+            out.writeCharacters(newline);
+            for (int i = 0; i < depth; i++)
+                out.writeCharacters(INDENT);
+        }
+    }
+
+    /**
+     * Discards what's written to it. Used to compute a shard's digest
+     * without keeping the shard's bytes.
+     */
+    private static class NullOutputStream extends OutputStream
+    {
+        NullOutputStream()
+        {
+        }
+
+        public void write(int b)
+        {
+        }
+
+        public void write(byte[] b, int off, int len)
+        {
+        }
+    }
+
     /*----------------------------------------------------------------------*\
                              Private Instance Data
     \*----------------------------------------------------------------------*/
 
     private int totalCacheBackups = DEF_TOTAL_CACHE_BACKUPS;
+    private int totalCacheShards = DEF_TOTAL_CACHE_SHARDS;
+    private boolean compressCache = DEF_COMPRESS_CACHE;
     private File metadataFile = null;
 
     /**
-     * Root XML element, used while saving.
+     * While saving an unsharded cache: the temporary file being written,
+     * the stream to it, and the XML writer on top of the stream.
+     */
+    private File tempFileForSaving = null;
+    private FileOutputStream fileStreamForSaving = null;
+    private OutputStream streamForSaving = null;
+    private CacheWriter writerForSaving = null;
+
+    /**
+     * The feeds for each shard, used while saving a sharded cache, indexed
+     * by URL. They're sorted by URL, so that an unchanged shard is written
+     * out exactly as before and its digest doesn't change.
      */
-    private Element rootElementForSaving = null;
+    private List<Map<String,PersistentFeedData>> shardFeedsForSaving = null;
+
+    /**
+     * The extra metadata, used while saving a sharded cache.
+     */
+    private Collection<PersistentMetadataGroup> extraMetadataForSaving =
+        Collections.emptyList();
+
+    /**
+     * The shard files listed in the manifest that was loaded (or last
+     * saved), and their digests, indexed by file name.
+     */
+    private Map<String,String> shardDigests = new HashMap<String,String>();
+
+    /**
+     * Whether the cache must be saved even if nothing in it has changed,
+     * because what was loaded isn't in the configured layout.
+     */
+    private boolean saveRequired = true;
 
     /**
      * For logging
@@ -150,392 +385,1216 @@ public class XMLDataPersister extends DataPersister
                                                   null);
             if (cacheFileName == null)
             {
-                log.debug("Feed metadata (cache) file is not configured.");
+                log.debug("Feed metadata (cache) file is not configured.");
+            }
+
+            else
+            {
+                metadataFile = CurnUtil.mapConfiguredPathName(cacheFileName);
+                log.debug("Feed metadata (cache) file is " + metadataFile);
+                if (metadataFile.isDirectory())
+                {
+                    throw new CurnException
+                        (Constants.BUNDLE_NAME, "XMLDataPersister.cacheIsDir",
+                         "Configured XML cache file \"{0}\" is a directory.",
+                         new Object[] {metadataFile.getPath()});
+                }
+            }
+
+            totalCacheBackups =
+                curnConfig.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
+                                                    VAR_TOTAL_CACHE_BACKUPS,
+                                                    DEF_TOTAL_CACHE_BACKUPS);
+            totalCacheShards =
+                curnConfig.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
+                                                    VAR_TOTAL_CACHE_SHARDS,
+                                                    DEF_TOTAL_CACHE_SHARDS);
+            compressCache =
+                curnConfig.getOptionalBooleanValue(CurnConfig.MAIN_SECTION,
+                                                   VAR_COMPRESS_CACHE,
+                                                   DEF_COMPRESS_CACHE);
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                               Protected Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether the data persister subclass is enabled or not (i.e.,
+     * whether or not metadata is to be loaded and saved). The configuration
+     * usually determines whether or not the data persister is enabled.
+     *
+     * @return <tt>true</tt> if enabled, <tt>false</tt> if disabled.
+     */
+    protected boolean isEnabled()
+    {
+        return metadataFile != null;
+    }
+
+    /**
+     * Determine whether the data must be saved even if nothing has changed
+     * since it was loaded. That's the case if there was nothing to load,
+     * or if it was loaded in a different layout (sharded or not, and
+     * compressed or not) from the configured one.
+     *
+     * @return <tt>true</tt> to save regardless, <tt>false</tt> to save only
+     *         if something has changed
+     */
+    protected boolean isSaveRequired()
+    {
+        return saveRequired;
+    }
+
+    /**
+     * Called at the beginning of the actual save operation to initialize
+     * the save, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void startSaveOperation() throws CurnException
+    {
+        assert(isEnabled());
+
+        log.debug("Saving feed metadata to \"" + metadataFile.getPath() +
+                  "\". Total backups=" + totalCacheBackups +
+                  ", total shards=" + totalCacheShards +
+                  ", compressed=" + compressCache);
+
+        if (totalCacheShards > 0)
+        {
+            shardFeedsForSaving =
+                new ArrayList<Map<String,PersistentFeedData>>(totalCacheShards);
+            for (int i = 0; i < totalCacheShards; i++)
+                shardFeedsForSaving.add(new TreeMap<String,PersistentFeedData>());
+            extraMetadataForSaving = Collections.emptyList();
+            return;
+        }
+
+        // Write the new cache next to the old one, and only replace the
+        // old one once the new one is safely on disk. That way, a crash in
+        // the middle of the save can't leave a truncated cache behind.
+
+        tempFileForSaving = new File(metadataFile.getPath() + ".tmp");
+        try
+        {
+            fileStreamForSaving = new FileOutputStream(tempFileForSaving);
+            streamForSaving = openOutputStream(fileStreamForSaving);
+            writerForSaving = new CacheWriter(streamForSaving);
+            writerForSaving.startElement(XML_ROOT_ELEMENT, false);
+            writerForSaving.attribute(XML_TIMESTAMP_ATTR,
+                                      String.valueOf(System.currentTimeMillis()));
+        }
+
+        catch (IOException ex)
+        {
+            abortSave();
+            throw writeError(metadataFile, ex);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            abortSave();
+            throw writeError(metadataFile, ex);
+        }
+     }
+
+    /**
+     * Called at the end of the actual save operation to flush files, clean
+     * up, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void endSaveOperation() throws CurnException
+    {
+        if (totalCacheShards > 0)
+        {
+            saveShards();
+            shardFeedsForSaving = null;
+            extraMetadataForSaving = Collections.emptyList();
+            return;
+        }
+
+        try
+        {
+            writerForSaving.endElement();
+            writerForSaving.finish();
+            closeOutputStream(streamForSaving, fileStreamForSaving);
+            streamForSaving = null;
+
+            replaceFile(tempFileForSaving, metadataFile, totalCacheBackups);
+
+            // If the cache used to be sharded, the shards are now
+            // obsolete.
+
+            deleteShardFiles(Collections.<String>emptySet());
+        }
+
+        catch (IOException ex)
+        {
+            abortSave();
+            throw writeError(metadataFile, ex);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            abortSave();
+            throw writeError(metadataFile, ex);
+        }
+
+        finally
+        {
+            writerForSaving = null;
+            fileStreamForSaving = null;
+            tempFileForSaving = null;
+        }
+    }
+
+    /**
+     * Called instead of {@link #endSaveOperation} when what's been
+     * written since {@link #startSaveOperation} is not to be saved after
+     * all. Deletes the temporary file, leaving the cache as it was.
+     *
+     * @throws CurnException on error
+     */
+    protected void abortSaveOperation() throws CurnException
+    {
+        if (totalCacheShards > 0)
+        {
+            // Nothing has been written yet.
+
+            shardFeedsForSaving = null;
+            extraMetadataForSaving = Collections.emptyList();
+            return;
+        }
+
+        log.debug("Discarding unsaved cache \"" + tempFileForSaving + "\"");
+        abortSave();
+    }
+
+    /**
+     * Save the data for one feed, including the items.
+     *
+     * @param feedData  the feed data to be saved
+     *
+     * @throws CurnException on error
+     */
+    protected void saveFeedData(PersistentFeedData feedData) throws CurnException
+    {
+        FeedCacheEntry feedCacheData = feedData.getFeedCacheEntry();
+
+        if (feedCacheData == null)
+            return;
+
+        if (totalCacheShards > 0)
+        {
+            String urlString = feedCacheData.getChannelURL().toString();
+            shardFeedsForSaving.get(shardFor(urlString)).put(urlString,
+                                                             feedData);
+            return;
+        }
+
+        try
+        {
+            writeFeed(writerForSaving, feedData, false);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            abortSave();
+            throw writeError(metadataFile, ex);
+        }
+    }
+
+    /**
+     * Save any extra metadata (i.e., metadata that isn't attached to a
+     * specific feed or a specific item).
+     *
+     * @param metadata the collection of metadata items
+     *
+     * @throws CurnException on error
+     */
+    protected void
+    saveExtraMetadata(Collection<PersistentMetadataGroup> metadata)
+        throws CurnException
+    {
+        if (totalCacheShards > 0)
+        {
+            extraMetadataForSaving = metadata;
+            return;
+        }
+
+        try
+        {
+            writeMetadata(writerForSaving,
+                          metadata,
+                          XML_EXTRA_METADATA_ELEMENT);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            abortSave();
+            throw writeError(metadataFile, ex);
+        }
+    }
+
+    /**
+     * Called at the beginning of the load operation to initialize
+     * the load.
+     *
+     * @throws CurnException on error
+     */
+    protected void startLoadOperation()
+        throws CurnException
+    {
+         assert(isEnabled());
+         log.debug("Starting load of XML curn data.");
+   }
+
+    /**
+     * Called at the end of the load operation to close files, clean
+     * up, etc.
+     *
+     * @throws CurnException on error
+     */
+    protected void endLoadOperation()
+        throws CurnException
+    {
+         log.debug("Load of XML curn data complete.");
+    }
+
+    /**
+     * The actual load method; only called if the object is enabled.
+     *
+     * @param loadedDataHandler object to receive data as it's loaded
+     *
+     * @throws CurnException on error
+     */
+    protected void doLoad(LoadedDataHandler loadedDataHandler)
+        throws CurnException
+    {
+        String filePath = metadataFile.getPath();
+        log.debug("Preparing to load " + metadataFile);
+        saveRequired = true;
+        if (! metadataFile.exists())
+        {
+            log.warn("Feed metadata file \"" + filePath + "\" does not exist.");
+            return;
+        }
+
+        log.debug("Reading feed metadata from \"" + filePath + "\"");
+        log.info("Attempting to parse \"" + filePath + "\" as XML.");
+
+        try
+        {
+            BufferedInputStream in =
+                new BufferedInputStream(new FileInputStream(metadataFile));
+            try
+            {
+                boolean compressed = isCompressed(in);
+                XMLStreamReader reader =
+                    newInputFactory().createXMLStreamReader
+                        (compressed ? new GZIPInputStream(in) : in);
+
+                // Get the top-level element and decide what to do with
+                // the rest of the file.
+
+                reader.nextTag();
+                String rootTagName = reader.getLocalName();
+
+                if (rootTagName.equals(OLD_XML_ROOT_ELEMENT))
+                {
+                    log.debug("Reading old-style <" + OLD_XML_ROOT_ELEMENT +
+                              "> cache file.");
+                    readOldXMLCache(reader, filePath, loadedDataHandler);
+                }
+
+                else if (rootTagName.equals(XML_ROOT_ELEMENT))
+                {
+                    log.debug("Reading new-style <" + XML_ROOT_ELEMENT +
+                              "> metadata file.");
+                    readNewXMLMetaData(reader, loadedDataHandler);
+                    saveRequired = (totalCacheShards > 0) ||
+                                   (compressed != compressCache);
+                }
+
+                else if (rootTagName.equals(XML_SHARDS_ELEMENT))
+                {
+                    log.debug("Reading <" + XML_SHARDS_ELEMENT +
+                              "> manifest of a sharded metadata file.");
+                    saveRequired = ! readShards(reader, loadedDataHandler);
+                }
+
+                else
+                {
+                    throw notCacheError(filePath, rootTagName);
+                }
+
+                reader.close();
+            }
+
+            finally
+            {
+                in.close();
+            }
+        }
+
+        catch (IOException ex)
+        {
+            log.error(ex);
+            throw new CurnException(ex);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            log.error(ex);
+            throw new CurnException(ex);
+        }
+
+        log.debug("XML parse succeeded.");
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the shard that holds a feed.
+     *
+     * @param feedURL  the feed's URL, as a string
+     *
+     * @return the shard index
+     */
+    private int shardFor(String feedURL)
+    {
+        return (feedURL.hashCode() & 0x7fffffff) % totalCacheShards;
+    }
+
+    /**
+     * Write out the shards that have changed since the last save, followed
+     * by the manifest, if it changed. Each file is written to a temporary
+     * file first and then renamed, so that a crash leaves either the old
+     * or the new file.
+     *
+     * @throws CurnException on error
+     */
+    private void saveShards() throws CurnException
+    {
+        File directory = metadataFile.getAbsoluteFile().getParentFile();
+        String baseName = metadataFile.getName();
+        Map<String,String> newDigests = new TreeMap<String,String>();
+        Collection<PersistentMetadataGroup> noMetadata =
+            Collections.emptyList();
+        int totalWritten = 0;
+
+        for (int i = 0; i < totalCacheShards; i++)
+        {
+            File shardFile = new File(directory,
+                                      baseName + SHARD_FILE_SUFFIX + i);
+            if (saveShard(shardFeedsForSaving.get(i).values(),
+                          noMetadata,
+                          shardFile,
+                          newDigests))
+            {
+                totalWritten++;
+            }
+        }
+
+        File extraFile = new File(directory, baseName + EXTRA_FILE_SUFFIX);
+        Collection<PersistentFeedData> noFeeds = Collections.emptyList();
+        if (saveShard(noFeeds, extraMetadataForSaving, extraFile, newDigests))
+            totalWritten++;
+
+        log.info("Rewrote " + totalWritten + " of " + newDigests.size() +
+                 " cache shard files.");
+
+        if ((totalWritten > 0) ||
+            (! newDigests.equals(shardDigests)) ||
+            (! metadataFile.exists()))
+        {
+            writeManifest(newDigests);
+        }
+
+        // Now that the manifest no longer refers to them, remove any shards
+        // left over from a different number of shards.
+
+        deleteShardFiles(newDigests.keySet());
+        shardDigests = newDigests;
+    }
+
+    /**
+     * Save one shard, if it differs from what's on disk. The shard is
+     * serialized once to compute its digest, and again to write it out
+     * if the digest has changed.
+     *
+     * @param feeds      the feeds in the shard
+     * @param metadata   the extra metadata in the shard
+     * @param shardFile  the shard file
+     * @param digests    where to record the shard's digest
+     *
+     * @return <tt>true</tt> if the shard was written, <tt>false</tt> if it
+     *         was unchanged
+     *
+     * @throws CurnException on error
+     */
+    private boolean saveShard(Collection<PersistentFeedData>      feeds,
+                              Collection<PersistentMetadataGroup> metadata,
+                              File                                shardFile,
+                              Map<String,String>                  digests)
+        throws CurnException
+    {
+        String name = shardFile.getName();
+        File tempFile = new File(shardFile.getPath() + ".tmp");
+
+        try
+        {
+            MessageDigest md = MessageDigest.getInstance("MD5");
+            writeShard(new DigestOutputStream(new NullOutputStream(), md),
+                       feeds,
+                       metadata);
+            String digest = toHex(md.digest());
+            if (compressCache)
+                digest = digest + GZIP_DIGEST_SUFFIX;
+            digests.put(name, digest);
+
+            if (digest.equals(shardDigests.get(name)) && shardFile.exists())
+            {
+                log.debug("Cache shard \"" + shardFile + "\" is unchanged.");
+                return false;
+            }
+
+            log.debug("Writing cache shard \"" + shardFile + "\".");
+            FileOutputStream fileOut = new FileOutputStream(tempFile);
+            try
+            {
+                OutputStream out = openOutputStream(fileOut);
+                writeShard(out, feeds, metadata);
+                closeOutputStream(out, fileOut);
+            }
+
+            finally
+            {
+                fileOut.close();
+            }
+
+            replaceFile(tempFile, shardFile, 0);
+            return true;
+        }
+
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new CurnException(ex);
+        }
+
+        catch (IOException ex)
+        {
+            tempFile.delete();
+            throw writeError(shardFile, ex);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            tempFile.delete();
+            throw writeError(shardFile, ex);
+        }
+    }
+
+    /**
+     * Serialize one shard. A shard carries no time stamp, since that would
+     * make every shard differ from the last save.
+     *
+     * @param out       where to write the shard
+     * @param feeds     the feeds in the shard
+     * @param metadata  the extra metadata in the shard
+     *
+     * @throws XMLStreamException on error
+     */
+    private void writeShard(OutputStream                        out,
+                            Collection<PersistentFeedData>      feeds,
+                            Collection<PersistentMetadataGroup> metadata)
+        throws XMLStreamException
+    {
+        CacheWriter writer = new CacheWriter(out);
+        writer.startElement(XML_ROOT_ELEMENT, false);
+        for (PersistentFeedData feedData : feeds)
+            writeFeed(writer, feedData, true);
+        writeMetadata(writer, metadata, XML_EXTRA_METADATA_ELEMENT);
+        writer.endElement();
+        writer.finish();
+    }
+
+    /**
+     * Write the shard manifest.
+     *
+     * @param digests  the shard files and their digests
+     *
+     * @throws CurnException on error
+     */
+    private void writeManifest(Map<String,String> digests)
+        throws CurnException
+    {
+        File tempFile = new File(metadataFile.getPath() + ".tmp");
+        try
+        {
+            FileOutputStream fileOut = new FileOutputStream(tempFile);
+            try
+            {
+                OutputStream out = openOutputStream(fileOut);
+                CacheWriter writer = new CacheWriter(out);
+                writer.startElement(XML_SHARDS_ELEMENT, false);
+                writer.attribute(XML_TIMESTAMP_ATTR,
+                                 String.valueOf(System.currentTimeMillis()));
+                for (Map.Entry<String,String> entry : digests.entrySet())
+                {
+                    writer.startElement(XML_SHARD_ELEMENT, true);
+                    writer.attribute(XML_SHARD_FILE_ATTR, entry.getKey());
+                    writer.attribute(XML_SHARD_DIGEST_ATTR, entry.getValue());
+                }
+
+                writer.endElement();
+                writer.finish();
+                closeOutputStream(out, fileOut);
+            }
+
+            finally
+            {
+                fileOut.close();
+            }
+
+            replaceFile(tempFile, metadataFile, 0);
+        }
+
+        catch (IOException ex)
+        {
+            tempFile.delete();
+            throw writeError(metadataFile, ex);
+        }
+
+        catch (XMLStreamException ex)
+        {
+            tempFile.delete();
+            throw writeError(metadataFile, ex);
+        }
+    }
+
+    /**
+     * Delete the shard files named in the last manifest that aren't in a
+     * set of files to keep.
+     *
+     * @param keep  the names of the files to keep
+     */
+    private void deleteShardFiles(Collection<String> keep)
+    {
+        File directory = metadataFile.getAbsoluteFile().getParentFile();
+        for (String name : shardDigests.keySet())
+        {
+            if (! keep.contains(name))
+            {
+                File file = new File(directory, name);
+                log.debug("Deleting obsolete cache shard \"" + file + "\".");
+                file.delete();
+            }
+        }
+
+        if (keep.isEmpty())
+            shardDigests.clear();
+    }
+
+    /**
+     * Write the element for one feed, including its items.
+     *
+     * @param writer    the writer
+     * @param feedData  the feed's data
+     * @param sorted    whether to write the items in a stable order, by URL
+     *
+     * @throws XMLStreamException on error
+     */
+    private void writeFeed(CacheWriter        writer,
+                           PersistentFeedData feedData,
+                           boolean            sorted)
+        throws XMLStreamException
+    {
+        FeedCacheEntry feedCacheData = feedData.getFeedCacheEntry();
+        Collection<PersistentMetadataGroup> feedMetadata =
+            feedData.getFeedMetadata();
+        Collection<PersistentFeedItemData> items =
+            feedData.getPersistentFeedItems();
+        boolean empty = feedMetadata.isEmpty() && items.isEmpty();
+
+        String urlString = feedCacheData.getChannelURL().toString();
+        writer.startElement(XML_FEED_ELEMENT, empty);
+        writer.attribute(XML_URL_ATTR, urlString);
+        writer.attribute(XML_TIMESTAMP_ATTR,
+                         String.valueOf(feedCacheData.getTimestamp()));
+        writer.attribute(XML_ID_ATTR, urlString);
+        if (empty)
+            return;
+
+        // Now the feed metadata
+
+        writeMetadata(writer, feedMetadata, XML_FEED_METADATA_ELEMENT);
+
+        // Then the items. For a shard, put them in a stable order.
+
+        if (sorted)
+        {
+            List<PersistentFeedItemData> sortedItems =
+                new ArrayList<PersistentFeedItemData>(items);
+            Collections.sort(sortedItems,
+                             new Comparator<PersistentFeedItemData>()
+            {
+                public int compare(PersistentFeedItemData i1,
+                                   PersistentFeedItemData i2)
+                {
+                    return i1.getFeedCacheEntry().getEntryURL().toString()
+                           .compareTo(i2.getFeedCacheEntry()
+                                        .getEntryURL().toString());
+                }
+            });
+            items = sortedItems;
+        }
+
+        for (PersistentFeedItemData itemData : items)
+        {
+            FeedCacheEntry itemCacheData = itemData.getFeedCacheEntry();
+            Collection<PersistentMetadataGroup> itemMetadata =
+                itemData.getItemMetadata();
+            boolean itemEmpty = itemMetadata.isEmpty();
+
+            urlString = itemCacheData.getEntryURL().toString();
+            writer.startElement(XML_ITEM_ELEMENT, itemEmpty);
+            writer.attribute(XML_TIMESTAMP_ATTR,
+                             String.valueOf(itemCacheData.getTimestamp()));
+            writer.attribute(XML_ID_ATTR, urlString);
+            writer.attribute(XML_URL_ATTR, urlString);
+
+            // Only write the publication date if it's present.
+
+            Date pubDate = itemCacheData.getPublicationDate();
+            if (pubDate != null)
+            {
+                writer.attribute(XML_PUB_DATE_ATTR,
+                                 String.valueOf(pubDate.getTime()));
+            }
+
+            if (! itemEmpty)
+            {
+                writeMetadata(writer, itemMetadata, XML_ITEM_METADATA_ELEMENT);
+                writer.endElement();
+            }
+        }
+
+        writer.endElement();
+    }
+
+    private void writeMetadata(CacheWriter                         writer,
+                               Collection<PersistentMetadataGroup> metadata,
+                               String                              elementName)
+        throws XMLStreamException
+    {
+        for (PersistentMetadataGroup metadataGroup : metadata)
+        {
+            Map<String,String> nameValuePairs =
+                new TreeMap<String,String>(metadataGroup.getMetadata());
+            boolean empty = nameValuePairs.isEmpty();
+
+            writer.startElement(elementName, empty);
+            writer.attribute(XML_METADATA_NAMESPACE_ATTR,
+                             metadataGroup.getNamespace());
+            if (empty)
+                continue;
+
+            for (Map.Entry<String,String> nameValuePair : nameValuePairs.entrySet())
+            {
+                writer.startElement(XML_METADATUM_ELEMENT, true);
+                writer.attribute(XML_METADATUM_NAME_ATTR,
+                                 nameValuePair.getKey());
+                writer.attribute(XML_METADATUM_VALUE_ATTR,
+                                 nameValuePair.getValue());
+            }
+
+            writer.endElement();
+        }
+    }
+
+    /**
+     * Wrap a file's output stream in a buffer and, if the cache is to be
+     * compressed, a gzip stream.
+     *
+     * @param fileOut  the file's stream
+     *
+     * @return the stream to write to
+     *
+     * @throws IOException on error
+     */
+    private OutputStream openOutputStream(FileOutputStream fileOut)
+        throws IOException
+    {
+        OutputStream out = new BufferedOutputStream(fileOut);
+        if (compressCache)
+            out = new GZIPOutputStream(out);
+        return out;
+    }
+
+    /**
+     * Flush a stream returned by {@link #openOutputStream}, force the file
+     * to disk, and close it.
+     *
+     * @param out      the stream
+     * @param fileOut  the file's stream, under <tt>out</tt>
+     *
+     * @throws IOException on error
+     */
+    private void closeOutputStream(OutputStream out, FileOutputStream fileOut)
+        throws IOException
+    {
+        if (out instanceof GZIPOutputStream)
+            ((GZIPOutputStream) out).finish();
+        out.flush();
+        fileOut.getFD().sync();
+        out.close();
+    }
+
+    /**
+     * Give up on saving an unsharded cache, removing the partly written
+     * temporary file.
+     */
+    private void abortSave()
+    {
+        writerForSaving = null;
+        streamForSaving = null;
+        if (fileStreamForSaving != null)
+        {
+            try
+            {
+                fileStreamForSaving.close();
             }
 
-            else
+            catch (IOException ex)
             {
-                metadataFile = CurnUtil.mapConfiguredPathName(cacheFileName);
-                log.debug("Feed metadata (cache) file is " + metadataFile);
-                if (metadataFile.isDirectory())
-                {
-                    throw new CurnException
-                        (Constants.BUNDLE_NAME, "XMLDataPersister.cacheIsDir",
-                         "Configured XML cache file \"{0}\" is a directory.",
-                         new Object[] {metadataFile.getPath()});
-                }
+                log.error("Unable to close \"" + tempFileForSaving + "\"", ex);
             }
 
-            totalCacheBackups =
-                curnConfig.getOptionalCardinalValue(CurnConfig.MAIN_SECTION,
-                                                    VAR_TOTAL_CACHE_BACKUPS,
-                                                    DEF_TOTAL_CACHE_BACKUPS);
+            fileStreamForSaving = null;
         }
 
-        catch (ConfigurationException ex)
+        if (tempFileForSaving != null)
         {
-            throw new CurnException(ex);
+            tempFileForSaving.delete();
+            tempFileForSaving = null;
         }
     }
 
-    /*----------------------------------------------------------------------*\
-                               Protected Methods
-    \*----------------------------------------------------------------------*/
-
     /**
-     * Determine whether the data persister subclass is enabled or not (i.e.,
-     * whether or not metadata is to be loaded and saved). The configuration
-     * usually determines whether or not the data persister is enabled.
+     * Make the exception for a failure to write a cache file.
      *
-     * @return <tt>true</tt> if enabled, <tt>false</tt> if disabled.
+     * @param file  the file
+     * @param ex    the cause
+     *
+     * @return the exception
      */
-    protected boolean isEnabled()
+    private CurnException writeError(File file, Exception ex)
     {
-        return metadataFile != null;
+        return new CurnException("Failed to write XML cache file \"" +
+                                 file.getPath() + "\"",
+                                 ex);
     }
 
     /**
-     * Called at the beginning of the actual save operation to initialize
-     * the save, etc.
+     * Make the exception for a file whose root element isn't one of ours.
      *
-     * @throws CurnException on error
+     * @param filePath     the file's path
+     * @param rootTagName  the root element
+     *
+     * @return the exception
      */
-    protected void startSaveOperation() throws CurnException
+    private CurnException notCacheError(String filePath, String rootTagName)
     {
-        assert(isEnabled());
-
-        log.debug("Saving feed metadata to \"" + metadataFile.getPath() +
-                  "\". Total backups=" + totalCacheBackups);
-
-        // Create the DOM's root element.
-
-        rootElementForSaving = new Element(XML_ROOT_ELEMENT);
-        rootElementForSaving.setAttribute
-            (XML_TIMESTAMP_ATTR, String.valueOf(System.currentTimeMillis()));
-     }
+        return new CurnException
+            (Constants.BUNDLE_NAME,
+             "XMLDataPersister.nonCacheXML",
+             "File \"{0}\" is not a curn XML metadata file. The root " +
+             "XML element is <{1}>, not the expected <{2}> or <{3}>",
+             new Object[]
+             {
+                 filePath,
+                 rootTagName,
+                 OLD_XML_ROOT_ELEMENT,
+                 XML_ROOT_ELEMENT
+             });
+    }
 
     /**
-     * Called at the end of the actual save operation to flush files, clean
-     * up, etc.
+     * Convert a digest to a hex string.
      *
-     * @throws CurnException on error
+     * @param hash  the digest
+     *
+     * @return the hex string
      */
-    protected void endSaveOperation() throws CurnException
+    private String toHex(byte[] hash)
     {
-        try
+        StringBuilder buf = new StringBuilder(hash.length * 2);
+        for (byte b : hash)
         {
-            Document document = new Document(rootElementForSaving);
-            Format outputFormat = Format.getPrettyFormat();
-            outputFormat.setLineSeparator(System.getProperty("line.separator"));
-            XMLOutputter xmlOut = new XMLOutputter(outputFormat);
+            buf.append(Character.forDigit((b >> 4) & 0xf, 16));
+            buf.append(Character.forDigit(b & 0xf, 16));
+        }
 
-            // Open the cache file. For the cache file, the index
-            // marker goes at the end of the file (since the extension
-            // doesn't matter as much). This allows the file names to
-            // sort better in a directory listing.
+        return buf.toString();
+    }
 
-            Writer cacheOut = CurnUtil.openOutputFile
-                                         (metadataFile,
-                                          null,
-                                          CurnUtil.IndexMarker.AFTER_EXTENSION,
-                                          totalCacheBackups);
+    /**
+     * Rename a newly written file over the file it replaces, first making
+     * a backup copy of the old file, if backups are wanted. The backups
+     * are rolled as described for <tt>TotalCacheBackups</tt>:
+     * <tt>file.0</tt> is the newest, and the oldest one is dropped.
+     *
+     * @param tempFile      the new file
+     * @param file          the file to replace
+     * @param totalBackups  the total number of backups to keep
+     *
+     * @throws IOException on error
+     */
+    private void replaceFile(File tempFile, File file, int totalBackups)
+        throws IOException
+    {
+        if ((totalBackups > 0) && file.exists())
+        {
+            String path = file.getPath();
+            new File(path + "." + (totalBackups - 1)).delete();
+            for (int i = totalBackups - 2; i >= 0; i--)
+            {
+                File backup = new File(path + "." + i);
+                if (backup.exists())
+                    backup.renameTo(new File(path + "." + (i + 1)));
+            }
 
-            //xmlOut.output(document, new XMLWriter(cacheOut));
-            xmlOut.output(document, cacheOut);
-        }
+            // Copy, rather than rename, the current file, so that there's
+            // always a cache file in place.
 
-        catch (IOException ex)
-        {
-            throw new CurnException("Failed to write XML cache file \"" +
-                                    metadataFile.getPath() + "\"",
-                                    ex);
+            copyFile(file, new File(path + ".0"));
         }
 
-        catch (IOExceptionExt ex)
+        if ((! tempFile.renameTo(file)) &&
+            ((! file.delete()) || (! tempFile.renameTo(file))))
         {
-            throw new CurnException("Failed to write XML cache file \"" +
-                                    metadataFile.getPath() + "\"",
-                                    ex);
+            throw new IOException("Can't rename \"" + tempFile +
+                                  "\" to \"" + file + "\"");
         }
     }
 
     /**
-     * Save the data for one feed, including the items.
+     * Copy a file.
      *
-     * @param feedData  the feed data to be saved
+     * @param from  the file to copy
+     * @param to    the copy
      *
-     * @throws CurnException on error
+     * @throws IOException on error
      */
-    protected void saveFeedData(PersistentFeedData feedData) throws CurnException
+    private void copyFile(File from, File to)
+        throws IOException
     {
-        FeedCacheEntry feedCacheData = feedData.getFeedCacheEntry();
-
-        if (feedCacheData == null)
-            return;
-
-        URL channelURL = feedCacheData.getChannelURL();
-
-        Element channelElement = new Element(XML_FEED_ELEMENT);
-        String urlString = channelURL.toString();
-            channelElement.setAttribute(XML_URL_ATTR, urlString);
-        channelElement.setAttribute
-            (XML_TIMESTAMP_ATTR, String.valueOf(feedCacheData.getTimestamp()));
-        channelElement.setAttribute(XML_ID_ATTR, urlString);
-        rootElementForSaving.addContent(channelElement);
-
-        // Now the feed metadata
-
-        fillInMetadata(feedData.getFeedMetadata(),
-                       XML_FEED_METADATA_ELEMENT,
-                       channelElement);
-
-        // Okay, the feed element has been built. Time to add the items to it.
-
-        for (PersistentFeedItemData itemData : feedData.getPersistentFeedItems())
+        FileInputStream in = new FileInputStream(from);
+        try
         {
-            Element itemElement = new Element(XML_ITEM_ELEMENT);
-            channelElement.addContent(itemElement);
-
-            FeedCacheEntry itemCacheData = itemData.getFeedCacheEntry();
-            itemElement.setAttribute
-                (XML_TIMESTAMP_ATTR,
-                 String.valueOf(itemCacheData.getTimestamp()));
-            urlString = itemCacheData.getEntryURL().toString();
-            itemElement.setAttribute(XML_ID_ATTR, urlString);
-            itemElement.setAttribute(XML_URL_ATTR, urlString);
-                                     
-
-            // Only write the publication date if it's present.
-
-            Date pubDate = itemCacheData.getPublicationDate();
-            if (pubDate != null)
+            FileOutputStream out = new FileOutputStream(to);
+            try
             {
-                itemElement.setAttribute(XML_PUB_DATE_ATTR,
-                                         String.valueOf(pubDate.getTime()));
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) > 0)
+                    out.write(buf, 0, n);
             }
 
-            // Fill in the metadata for the item.
+            finally
+            {
+                out.close();
+            }
+        }
 
-            fillInMetadata(itemData.getItemMetadata(),
-                           XML_ITEM_METADATA_ELEMENT,
-                           itemElement);
+        finally
+        {
+            in.close();
         }
     }
 
     /**
-     * Save any extra metadata (i.e., metadata that isn't attached to a
-     * specific feed or a specific item).
-     *
-     * @param metadata the collection of metadata items
+     * Create a StAX input factory. External entities and DTDs are never
+     * needed for a cache file, so they're turned off.
      *
-     * @throws CurnException on error
+     * @return the factory
      */
-    protected void
-    saveExtraMetadata(Collection<PersistentMetadataGroup> metadata)
-        throws CurnException
+    private XMLInputFactory newInputFactory()
     {
-        fillInMetadata(metadata,
-                       XML_EXTRA_METADATA_ELEMENT,
-                       rootElementForSaving);
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                            Boolean.FALSE);
+        return factory;
     }
 
     /**
-     * Called at the beginning of the load operation to initialize
-     * the load.
+     * Determine whether a stream holds gzip-compressed data, by peeking at
+     * its first two bytes.
      *
-     * @throws CurnException on error
+     * @param in  the stream
+     *
+     * @return <tt>true</tt> if it's compressed, <tt>false</tt> if not
+     *
+     * @throws IOException on error
      */
-    protected void startLoadOperation()
-        throws CurnException
+    private boolean isCompressed(BufferedInputStream in)
+        throws IOException
     {
-         assert(isEnabled());
-         log.debug("Starting load of XML curn data.");
-   }
+        in.mark(2);
+        int b1 = in.read();
+        int b2 = in.read();
+        in.reset();
+        return ((b1 | (b2 << 8)) == GZIPInputStream.GZIP_MAGIC);
+    }
 
     /**
-     * Called at the end of the load operation to close files, clean
-     * up, etc.
+     * Skip the rest of the current element, including its children. On
+     * return, the reader is positioned on the element's end tag.
      *
-     * @throws CurnException on error
+     * @param reader  the reader, positioned on a start tag
+     *
+     * @throws XMLStreamException on error
      */
-    protected void endLoadOperation()
-        throws CurnException
+    private void skipElement(XMLStreamReader reader)
+        throws XMLStreamException
     {
-         log.debug("Load of XML curn data complete.");
+        int depth = 1;
+        while (depth > 0)
+        {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
     }
 
     /**
-     * The actual load method; only called if the object is enabled.
+     * Load the shards listed in a shard manifest. The shards are parsed in
+     * parallel; each parsed shard is then handed to the
+     * <tt>LoadedDataHandler</tt> on this thread, in the order in which the
+     * shards finish, since the handler isn't thread-safe.
      *
-     * @param loadedDataHandler object to receive data as it's loaded
+     * @param reader            the reader, positioned on the manifest's
+     *                          root element
+     * @param loadedDataHandler the callback to invoke with loaded data
      *
-     * @throws CurnException on error
+     * @return <tt>true</tt> if the shards are the ones the configuration
+     *         calls for, <tt>false</tt> if not
+     *
+     * @throws CurnException      on error
+     * @throws XMLStreamException on error reading the manifest
      */
-    protected void doLoad(LoadedDataHandler loadedDataHandler)
-        throws CurnException
+    private boolean readShards(final XMLStreamReader   reader,
+                               final LoadedDataHandler loadedDataHandler)
+        throws CurnException, XMLStreamException
     {
-        String filePath = metadataFile.getPath();
-        log.debug("Preparing to load " + metadataFile);
-        if (! metadataFile.exists())
+        File directory = metadataFile.getAbsoluteFile().getParentFile();
+        List<File> shardFiles = new ArrayList<File>();
+        boolean current = true;
+        shardDigests.clear();
+
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
         {
-            log.warn("Feed metadata file \"" + filePath + "\" does not exist.");
+            if (reader.getLocalName().equals(XML_SHARD_ELEMENT))
+            {
+                String name = getRequiredXMLAttribute(reader,
+                                                      XML_SHARD_FILE_ATTR);
+                String digest = getOptionalXMLAttribute(reader,
+                                                        XML_SHARD_DIGEST_ATTR,
+                                                        null);
+                if (name != null)
+                {
+                    shardDigests.put(name, digest);
+                    File shardFile = new File(directory, name);
+                    if (shardFile.exists())
+                    {
+                        shardFiles.add(shardFile);
+                    }
+
+                    else
+                    {
+                        log.warn("Cache shard \"" + shardFile +
+                                 "\" does not exist.");
+                        current = false;
+                    }
+
+                    if ((digest == null) ||
+                        (digest.endsWith(GZIP_DIGEST_SUFFIX) != compressCache))
+                    {
+                        current = false;
+                    }
+                }
+            }
+
+            skipElement(reader);
         }
 
-        else
-        {
-            log.debug("Reading feed metadata from \"" + filePath + "\"");
+        // The shards are in the configured layout only if there's one of
+        // each.
 
-            // First, parse the XML file into a DOM.
+        Set<String> expected = new HashSet<String>();
+        String baseName = metadataFile.getName();
+        for (int i = 0; i < totalCacheShards; i++)
+            expected.add(baseName + SHARD_FILE_SUFFIX + i);
+        if (totalCacheShards > 0)
+            expected.add(baseName + EXTRA_FILE_SUFFIX);
+        current = current && expected.equals(shardDigests.keySet());
 
-            SAXBuilder builder = new SAXBuilder();
-            Document document;
+        if (shardFiles.size() == 0)
+            return current;
 
-            log.info("Attempting to parse \"" + filePath + "\" as XML.");
-            try
-            {
-                document = builder.build(metadataFile);
-            }
+        int totalThreads = Math.min(shardFiles.size(),
+                                    Runtime.getRuntime().availableProcessors());
+        log.debug("Loading " + shardFiles.size() + " cache shards with " +
+                  totalThreads + " threads.");
+        ExecutorService threadPool = Executors.newFixedThreadPool(totalThreads);
+        CompletionService<BufferedLoad> completionService =
+            new ExecutorCompletionService<BufferedLoad>(threadPool);
 
-            catch (Throwable ex)
+        try
+        {
+            for (final File shardFile : shardFiles)
             {
-                log.error(ex);
-                throw new CurnException(ex);
+                completionService.submit(new Callable<BufferedLoad>()
+                {
+                    public BufferedLoad call() throws CurnException
+                    {
+                        return readShard(shardFile);
+                    }
+                });
             }
 
-            log.debug("XML parse succeeded.");
+            for (int i = 0; i < shardFiles.size(); i++)
+                completionService.take().get().replay(loadedDataHandler);
+        }
 
-            // Get the top-level element and verify that it's the one
-            // we want.
+        catch (InterruptedException ex)
+        {
+            throw new CurnException(ex);
+        }
 
-            Element root = document.getRootElement();
-            String rootTagName = root.getName();
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if (cause instanceof CurnException)
+                throw (CurnException) cause;
+            throw new CurnException(cause);
+        }
 
-            if (rootTagName.equals(OLD_XML_ROOT_ELEMENT))
-            {
-                log.debug("Reading old-style <" + OLD_XML_ROOT_ELEMENT +
-                          "> cache file.");
-                readOldXMLCache(document, filePath, loadedDataHandler);
-            }
+        finally
+        {
+            threadPool.shutdownNow();
+        }
+
+        return current;
+    }
+
+    /**
+     * Parse one shard. Called on a loader thread.
+     *
+     * @param shardFile  the shard file
+     *
+     * @return the shard's data
+     *
+     * @throws CurnException on error
+     */
+    private BufferedLoad readShard(final File shardFile)
+        throws CurnException
+    {
+        BufferedLoad result = new BufferedLoad();
+        log.debug("Reading cache shard \"" + shardFile + "\"");
 
-            else if (rootTagName.equals(XML_ROOT_ELEMENT))
+        try
+        {
+            BufferedInputStream in =
+                new BufferedInputStream(new FileInputStream(shardFile));
+            try
             {
-                log.debug("Reading new-style <" + XML_ROOT_ELEMENT +
-                          "> metadata file.");
-                readNewXMLMetaData(document, loadedDataHandler);
+                XMLStreamReader reader =
+                    newInputFactory().createXMLStreamReader
+                        (isCompressed(in) ? new GZIPInputStream(in) : in);
+                reader.nextTag();
+                String rootTagName = reader.getLocalName();
+                if (! rootTagName.equals(XML_ROOT_ELEMENT))
+                    throw notCacheError(shardFile.getPath(), rootTagName);
+
+                readNewXMLMetaData(reader, result);
+                reader.close();
             }
 
-            else
+            finally
             {
-                throw new CurnException
-                    (Constants.BUNDLE_NAME,
-                     "XMLDataPersister.nonCacheXML",
-                     "File \"{0}\" is not a curn XML metadata file. The root " +
-                     "XML element is <{1}>, not the expected <{2}> or <{3}>",
-                     new Object[]
-                     {
-                         filePath,
-                         rootTagName,
-                         OLD_XML_ROOT_ELEMENT,
-                         XML_ROOT_ELEMENT
-                     });
+                in.close();
             }
         }
-    }
-
-    /*----------------------------------------------------------------------*\
-                                Private Methods
-    \*----------------------------------------------------------------------*/
 
-    private void fillInMetadata(Collection<PersistentMetadataGroup> metadata,
-                                String elementName,
-                                Element parentElement)
-    {
-        for (PersistentMetadataGroup metadataGroup : metadata)
+        catch (IOException ex)
         {
-            Element metadataElement = new Element(elementName);
-            metadataElement.setAttribute(XML_METADATA_NAMESPACE_ATTR,
-                                         metadataGroup.getNamespace());
-            parentElement.addContent(metadataElement);
+            log.error(ex);
+            throw new CurnException(ex);
+        }
 
-            Map<String,String> nameValuePairs = metadataGroup.getMetadata();
-            for (Map.Entry<String,String> nameValuePair : nameValuePairs.entrySet())
-            {
-                Element metadatumElement = new Element(XML_METADATUM_ELEMENT);
-                metadatumElement.setAttribute(XML_METADATUM_NAME_ATTR,
-                                              nameValuePair.getKey());
-                metadatumElement.setAttribute(XML_METADATUM_VALUE_ATTR,
-                                              nameValuePair.getValue());
-                metadataElement.addContent(metadatumElement);
-            }
+        catch (XMLStreamException ex)
+        {
+            log.error(ex);
+            throw new CurnException(ex);
         }
+
+        return result;
     }
 
     /**
      * Attempt to parse an old-style XML cache. This method will go away
      * soon.
      *
-     * @param document          the parsed XML document
+     * @param reader            the reader, positioned on the root element
      * @param filePath          the path to the file, for errors
      * @param loadedDataHandler the callback to invoke with loaded data
      *
-     * @throws CurnException on error
+     * @throws CurnException      on error
+     * @throws XMLStreamException on error reading the file
      */
-    private void readOldXMLCache(final Document          document,
+    private void readOldXMLCache(final XMLStreamReader   reader,
                                  final String            filePath,
                                  final LoadedDataHandler loadedDataHandler)
-        throws CurnException
+        throws CurnException, XMLStreamException
     {
-        // Get the top-level element and verify that it's the one
-        // we want.
-
-        Element root = document.getRootElement();
-        String rootTagName = root.getName();
-        assert(rootTagName.equals(OLD_XML_ROOT_ELEMENT));
+        // Okay, it's a curn cache. Parse each cache entry. The entries
+        // aren't grouped by feed in the file, so they're gathered up here.
+        // (They're indexed by string, since URL.hashCode() can do a
+        // DNS lookup.)
 
-        // Okay, it's a curn cache. Start traversing the child nodes,
-        // parsing each cache entry.
+        Map<String,PersistentFeedData> loadedData =
+            new LinkedHashMap<String,PersistentFeedData>();
 
-        Map<URL,PersistentFeedData> loadedData =
-            new HashMap<URL,PersistentFeedData>();
-
-        List<?> childNodes = root.getChildren();
-        for (Iterator<?> it = childNodes.iterator(); it.hasNext(); )
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
         {
-            Element childNode = (Element) it.next();
-
-            // Skip non-element nodes (like text).
-
-            String nodeName = childNode.getName();
+            String nodeName = reader.getLocalName();
             if (! nodeName.equals(OLD_XML_ENTRY_ELEMENT))
             {
                 log.warn("Skipping unexpected XML element <" +
                          nodeName + "> in curn XML cache file \"" +
                          filePath + "\".");
+                skipElement(reader);
                 continue;
             }
 
+            FeedCacheEntry entry = null;
             try
             {
-                FeedCacheEntry entry = parseOldXMLCacheEntry(childNode);
-                URL feedURL = entry.getChannelURL();
-                PersistentFeedData feedData = loadedData.get(feedURL);
-                log.debug("readOldXMLCache: read entry " + entry.getEntryURL());
-                if (feedData == null)
-                {
-                    feedData = new PersistentFeedData();
-                    loadedData.put(feedURL, feedData);
-                }
-
-                if (entry.isChannelEntry())
-                {
-                    feedData.setFeedCacheEntry(entry);
-                }
-
-                else
-                {
-                    feedData.addPersistentFeedItem
-                        (new PersistentFeedItemData(entry));
-                }
+                entry = parseOldXMLCacheEntry(reader);
             }
 
             catch (CurnException ex)
@@ -544,6 +1603,30 @@ public class XMLDataPersister extends DataPersister
 
                 log.error("Error parsing feed cache entry", ex);
             }
+
+            skipElement(reader);
+            if (entry == null)
+                continue;
+
+            String feedURL = entry.getChannelURL().toString();
+            PersistentFeedData feedData = loadedData.get(feedURL);
+            log.debug("readOldXMLCache: read entry " + entry.getEntryURL());
+            if (feedData == null)
+            {
+                feedData = new PersistentFeedData();
+                loadedData.put(feedURL, feedData);
+            }
+
+            if (entry.isChannelEntry())
+            {
+                feedData.setFeedCacheEntry(entry);
+            }
+
+            else
+            {
+                feedData.addPersistentFeedItem
+                    (new PersistentFeedItemData(entry));
+            }
         }
 
         for (PersistentFeedData feedData : loadedData.values())
@@ -554,13 +1637,13 @@ public class XMLDataPersister extends DataPersister
      * Parse an old-style XML feed cache entry. This method will go away
      * soon.
      *
-     * @param element  the XML element for the feed cache entry
+     * @param reader  the reader, positioned on the feed cache entry
      *
-     * @return the FeedCacheEntry
+     * @return the FeedCacheEntry, or null if it's missing attributes
      *
      * @throws CurnException on error
      */
-    private FeedCacheEntry parseOldXMLCacheEntry(final Element element)
+    private FeedCacheEntry parseOldXMLCacheEntry(final XMLStreamReader reader)
         throws CurnException
     {
         FeedCacheEntry result = null;
@@ -568,15 +1651,15 @@ public class XMLDataPersister extends DataPersister
         // Parse out the attributes.
 
         String entryID =
-            getRequiredXMLAttribute(element, OLD_XML_ENTRY_ENTRY_ID_ATTR);
+            getRequiredXMLAttribute(reader, OLD_XML_ENTRY_ENTRY_ID_ATTR);
         String sChannelURL =
-            getRequiredXMLAttribute(element, OLD_XML_ENTRY_CHANNEL_URL_ATTR);
+            getRequiredXMLAttribute(reader, OLD_XML_ENTRY_CHANNEL_URL_ATTR);
         String sEntryURL =
-            getRequiredXMLAttribute(element, OLD_XML_ENTRY_ENTRY_URL_ATTR);
+            getRequiredXMLAttribute(reader, OLD_XML_ENTRY_ENTRY_URL_ATTR);
         String sTimestamp =
-            getRequiredXMLAttribute(element, OLD_XML_ENTRY_TIMESTAMP_ATTR);
+            getRequiredXMLAttribute(reader, OLD_XML_ENTRY_TIMESTAMP_ATTR);
         String sPubDate =
-            getOptionalXMLAttribute(element, OLD_XML_ENTRY_PUB_DATE_ATTR, null);
+            getOptionalXMLAttribute(reader, OLD_XML_ENTRY_PUB_DATE_ATTR, null);
 
 
         if ((entryID != null) &&
@@ -659,130 +1742,154 @@ public class XMLDataPersister extends DataPersister
     }
 
     /**
-     * Attempt to parse a new-style XML metadata file.
+     * Parse a new-style XML metadata file. Each feed is handed to the
+     * <tt>LoadedDataHandler</tt> as soon as its end tag has been read.
      *
-     * @param document the parsed XML file
+     * @param reader            the reader, positioned on the root element
      * @param loadedDataHandler the callback to invoke with loaded data
      *
-     * @throws CurnException on error
+     * @throws CurnException      on error
+     * @throws XMLStreamException on error reading the file
      */
-    private void readNewXMLMetaData(final Document          document,
+    private void readNewXMLMetaData(final XMLStreamReader   reader,
                                     final LoadedDataHandler loadedDataHandler)
-        throws CurnException
+        throws CurnException, XMLStreamException
     {
-        // Get the top-level element and verify that it's the one
-        // we want.
-
-        Element root = document.getRootElement();
-        String rootTagName = root.getName();
-        assert(rootTagName.equals(XML_ROOT_ELEMENT));
-
-        // Get the list of channels.
-
-        List<?> channels = root.getChildren(XML_FEED_ELEMENT);
-        for (Iterator<?> itChannel = channels.iterator(); itChannel.hasNext(); )
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
         {
-            // Parse the channel element itself.
+            String name = reader.getLocalName();
+            if (name.equals(XML_FEED_ELEMENT))
+                loadedDataHandler.feedLoaded(readFeed(reader));
+
+            else if (name.equals(XML_EXTRA_METADATA_ELEMENT))
+                loadedDataHandler.extraMetadataLoaded(readMetadata(reader));
 
-            Element channelElement = (Element) itChannel.next();
-            FeedCacheEntry entry = parseXMLFeedElement(channelElement);
-            PersistentFeedData feedData = new PersistentFeedData(entry);
-            URL channelURL = entry.getChannelURL();
+            else
+                skipElement(reader);
+        }
+    }
 
-            // Parse any metadata in the channel.
+    /**
+     * Parse a <tt>&lt;feed&gt;</tt> element, including its items.
+     *
+     * @param reader  the reader, positioned on the feed's start tag. On
+     *                return, it's positioned on the end tag.
+     *
+     * @return the feed's data
+     *
+     * @throws CurnException      on error
+     * @throws XMLStreamException on error reading the file
+     */
+    private PersistentFeedData readFeed(final XMLStreamReader reader)
+        throws CurnException, XMLStreamException
+    {
+        // Parse the channel element itself.
 
-            List<?> feedMetadata =
-                channelElement.getChildren(XML_FEED_METADATA_ELEMENT);
-            feedData.addFeedMetadata(parseMetadata(feedMetadata));
+        FeedCacheEntry entry = parseXMLFeedElement(reader);
+        PersistentFeedData feedData = new PersistentFeedData(entry);
+        URL channelURL = entry.getChannelURL();
 
-            // Get the list of items and process each one.
+        // Then its metadata and items.
 
-            List<?> items = channelElement.getChildren(XML_ITEM_ELEMENT);
-            for (Iterator<?> itItem = items.iterator(); itItem.hasNext(); )
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+        {
+            String name = reader.getLocalName();
+            if (name.equals(XML_FEED_METADATA_ELEMENT))
             {
-                // Parse the item element itself.
+                feedData.addFeedMetadataGroup(readMetadata(reader));
+            }
 
-                Element itemElement = (Element) itItem.next();
-                entry = parseXMLItemElement(itemElement, channelURL);
-                PersistentFeedItemData itemData =
-                    new PersistentFeedItemData(entry);
-                feedData.addPersistentFeedItem(itemData);
+            else if (name.equals(XML_ITEM_ELEMENT))
+            {
+                entry = parseXMLItemElement(reader, channelURL);
+                PersistentFeedItemData itemData = null;
+                if (entry != null)
+                {
+                    itemData = new PersistentFeedItemData(entry);
+                    feedData.addPersistentFeedItem(itemData);
+                }
 
                 // Get and process the item metadata
 
-                List<?> itemMetadata =
-                    itemElement.getChildren(XML_ITEM_METADATA_ELEMENT);
-                itemData.addItemMetadata(parseMetadata(itemMetadata));
+                while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+                {
+                    if ((itemData != null) &&
+                        reader.getLocalName().equals(XML_ITEM_METADATA_ELEMENT))
+                    {
+                        itemData.addItemMetadataGroup(readMetadata(reader));
+                    }
+
+                    else
+                    {
+                        skipElement(reader);
+                    }
+                }
             }
 
-            loadedDataHandler.feedLoaded(feedData);
+            else
+            {
+                skipElement(reader);
+            }
         }
 
-        // Finally, parse any extra metadata.
-
-        Collection<PersistentMetadataGroup> extraMetadata =
-            parseMetadata(root.getChildren(XML_EXTRA_METADATA_ELEMENT));
-        for (PersistentMetadataGroup metadataGroup : extraMetadata)
-            loadedDataHandler.extraMetadataLoaded(metadataGroup);
+        return feedData;
     }
 
-    private Collection<PersistentMetadataGroup>
-    parseMetadata(List<?> metadataElements)
+    /**
+     * Parse a metadata element (<tt>&lt;feed-metadata&gt;</tt>,
+     * <tt>&lt;item-metadata&gt;</tt> or <tt>&lt;extra-metadata&gt;</tt>).
+     *
+     * @param reader  the reader, positioned on the element's start tag. On
+     *                return, it's positioned on the end tag.
+     *
+     * @return the metadata
+     *
+     * @throws XMLStreamException on error reading the file
+     */
+    private PersistentMetadataGroup readMetadata(final XMLStreamReader reader)
+        throws XMLStreamException
     {
-        Collection<PersistentMetadataGroup> result = new
-            ArrayList<PersistentMetadataGroup>();
+        String namespace =
+            getRequiredXMLAttribute(reader, XML_METADATA_NAMESPACE_ATTR);
+        PersistentMetadataGroup metadataGroup =
+            new PersistentMetadataGroup(namespace);
 
-        for (Iterator<?> it = metadataElements.iterator(); it.hasNext(); )
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
         {
-            Element mdElement = (Element) it.next();
-            String namespace =
-                getRequiredXMLAttribute(mdElement,
-                                        XML_METADATA_NAMESPACE_ATTR);
-            List<?> nameValuePairs =
-                mdElement.getChildren(XML_METADATUM_ELEMENT);
-            PersistentMetadataGroup metadataGroup =
-                new PersistentMetadataGroup(namespace);
-
-            for (Iterator<?> itNV = nameValuePairs.iterator();
-                 itNV.hasNext(); )
+            if (reader.getLocalName().equals(XML_METADATUM_ELEMENT))
             {
-                Element nvElement = (Element) itNV.next();
                 String name =
-                    getRequiredXMLAttribute(nvElement,
-                                            XML_METADATUM_NAME_ATTR);
-                 String value =
-                    getRequiredXMLAttribute(nvElement,
-                                            XML_METADATUM_VALUE_ATTR);
-                 metadataGroup.addMetadataItem(name, value);
-           }
+                    getRequiredXMLAttribute(reader, XML_METADATUM_NAME_ATTR);
+                String value =
+                    getRequiredXMLAttribute(reader, XML_METADATUM_VALUE_ATTR);
+                metadataGroup.addMetadataItem(name, value);
+            }
 
-            result.add(metadataGroup);
+            skipElement(reader);
         }
 
-        return result;
-   }
+        return metadataGroup;
+    }
 
     /**
      * Parse an XML feed metadata channel element. This method only parses the
      * attributes of the channel element; it does not handle any child
      * elements.
      *
-     * @param channelElement the XML element for the channel
+     * @param reader  the reader, positioned on the channel element
      *
      * @return the FeedCacheEntry object for the feed
      *
      * @throws CurnException on error
      */
-    private FeedCacheEntry parseXMLFeedElement(final Element channelElement)
+    private FeedCacheEntry parseXMLFeedElement(final XMLStreamReader reader)
         throws CurnException
     {
         // Parse the channel and create an entry for it.
 
-        String sChannelURL = getRequiredXMLAttribute(channelElement,
-                                                     XML_URL_ATTR);
-        String id = getRequiredXMLAttribute(channelElement, XML_ID_ATTR);
-        String sTimestamp = getRequiredXMLAttribute(channelElement,
-                                                    XML_TIMESTAMP_ATTR);
+        String sChannelURL = getRequiredXMLAttribute(reader, XML_URL_ATTR);
+        String id = getRequiredXMLAttribute(reader, XML_ID_ATTR);
+        String sTimestamp = getRequiredXMLAttribute(reader, XML_TIMESTAMP_ATTR);
 
 
         long timestamp = 0;
@@ -817,34 +1924,32 @@ public class XMLDataPersister extends DataPersister
                                                   null,
                                                   timestamp);
 
-        // Now the feed metadata.
-
         return entry;
     }
 
     /**
-     * Parse an XML feed metadata item entry.
+     * Parse an XML feed metadata item entry. This method only parses the
+     * attributes of the item element.
      *
-     * @param itemElement  the XML element for the item entry
-     * @param channelURL   the URL of the parent channel
+     * @param reader      the reader, positioned on the item element
+     * @param channelURL  the URL of the parent channel
      *
-     * @return the FeedCacheEntry
+     * @return the FeedCacheEntry, or null if it's missing attributes
      *
      * @throws CurnException on error
      */
-    private FeedCacheEntry parseXMLItemElement(final Element itemElement,
-                                               final URL     channelURL)
+    private FeedCacheEntry parseXMLItemElement(final XMLStreamReader reader,
+                                               final URL             channelURL)
         throws CurnException
     {
         FeedCacheEntry result = null;
 
         // Parse out the attributes.
 
-        String id = getRequiredXMLAttribute(itemElement, XML_ID_ATTR);
-        String sItemURL = getRequiredXMLAttribute(itemElement, XML_URL_ATTR);
-        String sTimestamp = getRequiredXMLAttribute(itemElement,
-                                                    XML_TIMESTAMP_ATTR);
-        String sPubDate =  getOptionalXMLAttribute(itemElement,
+        String id = getRequiredXMLAttribute(reader, XML_ID_ATTR);
+        String sItemURL = getRequiredXMLAttribute(reader, XML_URL_ATTR);
+        String sTimestamp = getRequiredXMLAttribute(reader, XML_TIMESTAMP_ATTR);
+        String sPubDate =  getOptionalXMLAttribute(reader,
                                                    XML_PUB_DATE_ATTR,
                                                    null);
 
@@ -916,20 +2021,21 @@ public class XMLDataPersister extends DataPersister
     }
 
     /**
-     * Retrieve an optional XML attribute value from a list of attributes.
+     * Retrieve an optional XML attribute value from the current element.
      * If the attribute is missing or empty, the default is returned.
      *
-     * @param element      the XML element
-     * @param defaultValue the default value
+     * @param reader       the reader, positioned on a start tag
      * @param name         the attribute name
+     * @param defaultValue the default value
      *
-     * @return the attribute's value, or null if the attribute wasn't found
+     * @return the attribute's value, or the default if the attribute
+     *         wasn't found
      */
-    private String getOptionalXMLAttribute(final Element element,
-                                           final String  name,
-                                           final String  defaultValue)
+    private String getOptionalXMLAttribute(final XMLStreamReader reader,
+                                           final String          name,
+                                           final String          defaultValue)
     {
-        String value = element.getAttributeValue(name);
+        String value = reader.getAttributeValue(null, name);
         if ((value != null) && TextUtil.stringIsEmpty(value))
             value = null;
 
@@ -937,23 +2043,23 @@ public class XMLDataPersister extends DataPersister
     }
 
     /**
-     * Retrieve an XML attribute value from a list of attributes. If the
+     * Retrieve an XML attribute value from the current element. If the
      * attribute is missing, the error is logged (but an exception is not
      * thrown).
      *
-     * @param element the element
+     * @param reader  the reader, positioned on a start tag
      * @param name    the attribute name
-*
+     *
      * @return the attribute's value, or null if the attribute wasn't found
      */
-    private String getRequiredXMLAttribute (final Element element,
-                                            final String  name)
+    private String getRequiredXMLAttribute (final XMLStreamReader reader,
+                                            final String          name)
     {
-        String value = getOptionalXMLAttribute (element, name, null);
+        String value = getOptionalXMLAttribute (reader, name, null);
 
         if (value == null)
         {
-            log.error("<" + element.getName() + "> is missing required " +
+            log.error("<" + reader.getLocalName() + "> is missing required " +
                       "\"" + name + "\" XML attribute.");
         }
 
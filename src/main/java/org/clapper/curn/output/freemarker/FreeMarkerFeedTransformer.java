@@ -35,20 +35,33 @@
 
 package org.clapper.curn.output.freemarker;
 
+import freemarker.core.Environment;
 import freemarker.template.DefaultObjectWrapper;
 import freemarker.template.SimpleDate;
 import freemarker.template.SimpleHash;
 import freemarker.template.SimpleNumber;
+import freemarker.template.SimpleScalar;
 import freemarker.template.SimpleSequence;
 import freemarker.template.Template;
 import freemarker.template.TemplateBooleanModel;
 import freemarker.template.TemplateException;
+import freemarker.template.TemplateModelException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.clapper.curn.Constants;
 import org.clapper.curn.CurnConfig;
 import org.clapper.curn.CurnException;
@@ -129,6 +142,13 @@ import org.clapper.util.text.TextUtil;
  *                 |
  *                 +-- totalItems               total items in channel
  *                 |
+ *                 +-- itemOffset               total items in all preceding
+ *                 |                            channels
+ *                 |
+ *                 +-- fragment                 pre-rendered output for the
+ *                 |                            channel (parallel rendering
+ *                 |                            only; see below)
+ *                 |
  *                 +-- title                    channel title
  *                 |
  *                 +-- description              the channel's description, or
@@ -192,8 +212,28 @@ import org.clapper.util.text.TextUtil;
  *  +-- indentText (string, indentation)
  *  |
  *  +-- stripHTML (string)
+ *  |
+ *  +-- escapeHTML (string)
  * </pre>
  *
+ * <p>These methods keep no per-call state, so they can safely be used by
+ * several templates at once.</p>
+ *
+ * <h3>Parallel Rendering</h3>
+ *
+ * <p>If {@link #setRenderThreads setRenderThreads()} is called with a value
+ * greater than 1, and the template defines a macro called
+ * <tt>renderChannel</tt> that takes a single <tt>channel</tt> parameter,
+ * the transformer renders each channel through that macro on a pool of
+ * threads before processing the template itself. The rendered text for
+ * each channel is stored in the channel's <tt>fragment</tt> variable, in
+ * feed order, and the template can emit it instead of invoking the macro
+ * again. Because fragments are rendered independently of one another, the
+ * macro must not depend on variables assigned while rendering other
+ * channels; <tt>itemOffset</tt> is provided for templates that need a
+ * running item count. The built-in HTML and text templates follow this
+ * convention. Templates that don't define the macro are always rendered
+ * serially.</p>
  *
  * @version <tt>$Revision$</tt>
  */
@@ -264,6 +304,24 @@ public class FreeMarkerFeedTransformer
      */
     private static final String CHANNEL_ANCHOR_PREFIX = "feed";
 
+    /**
+     * Name of the template macro used to render a single channel, when
+     * rendering in parallel.
+     */
+    private static final String CHANNEL_MACRO = "renderChannel";
+
+    /**
+     * Namespace into which the main template is imported when rendering
+     * a channel fragment.
+     */
+    private static final String FRAGMENT_NAMESPACE = "curnTemplate";
+
+    /**
+     * Source of the small template used to invoke the channel macro.
+     */
+    private static final String FRAGMENT_TEMPLATE_SOURCE =
+        "<@" + FRAGMENT_NAMESPACE + "." + CHANNEL_MACRO + " channel=channel/>";
+
     /*----------------------------------------------------------------------*\
                              Private Instance Data
     \*----------------------------------------------------------------------*/
@@ -273,6 +331,8 @@ public class FreeMarkerFeedTransformer
     private SimpleHash                        freemarkerTOCData;
     private SimpleSequence                    freemarkerTOCItems;
     private SimpleSequence                    freemarkerChannelsData;
+    private List<SimpleHash>                  channelHashes =
+        new ArrayList<SimpleHash>();
     private TemplateLocation                  templateLocation = null;
     private String                            mimeType = "text/plain";
     private String                            title = null;
@@ -282,6 +342,7 @@ public class FreeMarkerFeedTransformer
     private int                               totalChannels = 0;
     private int                               totalItems = 0;
     private int                               tocThreshold = 0;
+    private int                               renderThreads = 1;
 
     /**
      * For logging
@@ -341,19 +402,19 @@ public class FreeMarkerFeedTransformer
         freemarkerDataModel.put("configFile", map);
         URL configFileURL = config.getConfigurationFileURL();
         if (configFileURL == null)
-            map.put("url", "?");
+            map.put("url", new SimpleScalar("?"));
         else
-            map.put("url", configFileURL.toString());
+            map.put("url", new SimpleScalar(configFileURL.toString()));
 
         map = new SimpleHash();
         freemarkerDataModel.put("curn", map);
         Version version = Version.getInstance();
-        map.put("version", version.getVersion());
-        map.put("buildID", version.getBuildID());
+        map.put("version", new SimpleScalar(version.getVersion()));
+        map.put("buildID", new SimpleScalar(version.getBuildID()));
         if (showToolInfo)
-            map.put("showToolInfo", true);
+            map.put("showToolInfo", TemplateBooleanModel.TRUE);
         else
-            map.put("showToolInfo", false);
+            map.put("showToolInfo", TemplateBooleanModel.FALSE);
 
         this.freemarkerTOCData = new SimpleHash();
         freemarkerDataModel.put("tableOfContents", this.freemarkerTOCData);
@@ -449,6 +510,20 @@ public class FreeMarkerFeedTransformer
         this.encoding = encoding;
     }
 
+    /**
+     * Set the number of threads to use when rendering channels. A value
+     * of 1 (the default) renders everything serially. Larger values only
+     * take effect if the template defines a <tt>renderChannel</tt> macro;
+     * see the class documentation for details. No more threads are used
+     * than there are processors.
+     *
+     * @param threads the number of rendering threads
+     */
+    public void setRenderThreads(int threads)
+    {
+        this.renderThreads = (threads < 1) ? 1 : threads;
+    }
+
     /**
      * Get the MIME type, as parsed from the template specification.
      *
@@ -488,6 +563,7 @@ public class FreeMarkerFeedTransformer
         if (totalItemsInChannel == 0)
             return;
 
+        int itemOffset = this.totalItems;
         this.totalItems += totalItemsInChannel;
         totalChannels++;
 
@@ -499,8 +575,10 @@ public class FreeMarkerFeedTransformer
 
         SimpleHash channelData = new SimpleHash();
         freemarkerChannelsData.add(channelData);
+        channelHashes.add(channelData);
         channelData.put("index", new SimpleNumber(totalChannels));
         channelData.put("totalItems", new SimpleNumber(totalItemsInChannel));
+        channelData.put("itemOffset", new SimpleNumber(itemOffset));
         channelData.put("anchorName", channelAnchorName);
 
         String channelTitle = channel.getTitle();
@@ -558,9 +636,9 @@ public class FreeMarkerFeedTransformer
         // Store a table of contents entry for the channel.
 
         SimpleHash tocData = new SimpleHash();
-        tocData.put("title", channelTitle);
+        tocData.put("title", new SimpleScalar(channelTitle));
         tocData.put("totalItems", new SimpleNumber(totalItemsInChannel));
-        tocData.put("channelAnchor", channelAnchorName);
+        tocData.put("channelAnchor", new SimpleScalar(channelAnchorName));
         freemarkerTOCItems.add(tocData);
 
         // Create a collection for the channel items.
@@ -676,12 +754,16 @@ public class FreeMarkerFeedTransformer
 
         freemarkerDataModel.put("dateGenerated",
                                 new SimpleDate(new Date(), SimpleDate.DATETIME));
-        freemarkerDataModel.put("title", (title != null) ? title : "");
-        freemarkerDataModel.put("extraText", (extraText != null) ? extraText : "");
+        freemarkerDataModel.put("title",
+                                new SimpleScalar((title != null) ? title : ""));
+        freemarkerDataModel.put("extraText",
+                                new SimpleScalar((extraText != null) ? extraText
+                                                                     : ""));
 
         freemarkerDataModel.put("encoding",
-                                (encoding != null) ? encoding
-                                                   : FileUtil.getDefaultEncoding());
+                                new SimpleScalar
+                                    ((encoding != null) ? encoding
+                                                        : FileUtil.getDefaultEncoding()));
 
         freemarkerDataModel.put("totalItems", new SimpleNumber(totalItems));
 
@@ -715,6 +797,21 @@ public class FreeMarkerFeedTransformer
         else
             freemarkerTOCData.put ("needed", TemplateBooleanModel.FALSE);
 
+        // Rendering is CPU-bound, so threads beyond the number of
+        // processors only add overhead.
+
+        int threads = Math.min(Math.min(renderThreads, totalChannels),
+                               Runtime.getRuntime().availableProcessors());
+        if (threads > 1)
+        {
+            if (template.getMacros().containsKey(CHANNEL_MACRO))
+                renderChannelFragments(template, threads);
+            else
+                log.debug("Template \"" + templateLocation.getLocation() +
+                          "\" has no " + CHANNEL_MACRO + " macro. " +
+                          "Rendering serially.");
+        }
+
         try
         {
             template.process (freemarkerDataModel, out);
@@ -742,6 +839,116 @@ public class FreeMarkerFeedTransformer
         }
     }
 
+    /**
+     * Render each channel through the template's channel macro, using a
+     * pool of threads, and store the result in the channel's "fragment"
+     * variable. Called by doTransform().
+     *
+     * @param template the main template, which defines the channel macro
+     * @param threads  the number of threads to use
+     *
+     * @throws CurnException on error
+     */
+    private void renderChannelFragments(final Template template,
+                                        int            threads)
+        throws CurnException
+    {
+        final Template fragmentTemplate;
+
+        try
+        {
+            fragmentTemplate = new Template("curnChannelFragment",
+                                            new StringReader
+                                                (FRAGMENT_TEMPLATE_SOURCE),
+                                            freemarkerConfig);
+        }
+
+        catch (IOException ex)
+        {
+            throw new CurnException(ex);
+        }
+
+        // Each fragment gets its own root, containing everything in the
+        // main data model except the channel list. Importing the main
+        // template runs its top level, so leaving out the channels keeps
+        // the import cheap. The roots are built here, rather than in the
+        // rendering threads, because SimpleHash isn't thread-safe; the
+        // values they share are all pre-wrapped template models, which
+        // FreeMarker only reads.
+
+        Map<?,?> rootMap;
+        try
+        {
+            rootMap = freemarkerDataModel.toMap();
+        }
+
+        catch (TemplateModelException ex)
+        {
+            throw new CurnException(ex);
+        }
+
+        SimpleSequence noChannels = new SimpleSequence();
+
+        log.debug("Rendering " + totalChannels + " channel fragments with " +
+                  threads + " threads.");
+
+        ExecutorService threadPool = Executors.newFixedThreadPool(threads);
+        List<Future<String>> results =
+            new ArrayList<Future<String>>(channelHashes.size());
+
+        try
+        {
+            for (SimpleHash channelData : channelHashes)
+            {
+                final SimpleHash model = new SimpleHash(rootMap);
+                model.put("channels", noChannels);
+                model.put("channel", channelData);
+
+                results.add(threadPool.submit(new Callable<String>()
+                {
+                    public String call() throws Exception
+                    {
+                        StringWriter buf = new StringWriter();
+                        Environment env =
+                            fragmentTemplate.createProcessingEnvironment(model,
+                                                                         buf);
+                        env.importLib(template, FRAGMENT_NAMESPACE);
+                        env.process();
+                        return buf.toString();
+                    }
+                }));
+            }
+
+            // Join the fragments in feed order.
+
+            for (int i = 0; i < results.size(); i++)
+                channelHashes.get(i).put("fragment", results.get(i).get());
+        }
+
+        catch (InterruptedException ex)
+        {
+            throw new CurnException(ex);
+        }
+
+        catch (ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            log.error("Error rendering channel fragment", cause);
+            throw new CurnException
+                          (Constants.BUNDLE_NAME,
+                           "FreeMarkerOutputHandler.cantProcessTemplate",
+                           "Error while processing FreeMarker template " +
+                           "\"{0}\"",
+                           new Object[] {templateLocation.getLocation()},
+                           cause);
+        }
+
+        finally
+        {
+            threadPool.shutdownNow();
+        }
+    }
+
     /**
      * Parse and validate the template file configuration parameter. Sets
      * the templateFile instance variable.
@@ -77,6 +77,16 @@ import java.io.PrintWriter;
  *   </tr>
  *
  *   <tr>
+ *     <td><tt>RenderThreads</tt></td>
+ *     <td>The number of threads to use when rendering individual channels.
+ *         A value greater than 1 only takes effect if the template defines
+ *         a <tt>renderChannel</tt> macro, as the built-in "html" and "text"
+ *         templates do. See {@link FreeMarkerFeedTransformer} for
+ *         details.</td>
+ *     <td>1 (i.e., render serially)</td>
+ *   </tr>
+ *
+ *   <tr>
  *     <td><tt>TOCItemThreshold</tt></td>
  *     <td>The total number of items (not feeds, but individual items) that
  *         must be displayed before curn will generate a table of contents
@@ -197,6 +207,11 @@ public class FreeMarkerOutputHandler extends FileOutputHandler
      */
     public static final String CFG_TOC_ITEM_THRESHOLD = "TOCItemThreshold";
 
+    /**
+     * Configuration variable: number of channel rendering threads
+     */
+    public static final String CFG_RENDER_THREADS = "RenderThreads";
+
     /**
      * Configuration variable: template file
      */
@@ -217,6 +232,11 @@ public class FreeMarkerOutputHandler extends FileOutputHandler
      */
     private static final String DEFAULT_TITLE = "RSS Feeds";
 
+    /**
+     * Default number of channel rendering threads
+     */
+    private static final int DEFAULT_RENDER_THREADS = 1;
+
     /*----------------------------------------------------------------------*\
                             Private Data Items
     \*----------------------------------------------------------------------*/
@@ -224,6 +244,7 @@ public class FreeMarkerOutputHandler extends FileOutputHandler
     private PrintWriter       out                 = null;
     private boolean           allowEmbeddedHTML   = false;
     private int               tocThreshold        = DEFAULT_TOC_THRESHOLD;
+    private int               renderThreads       = DEFAULT_RENDER_THREADS;
 
     private FreeMarkerFeedTransformer feedTransformer = null;
 
@@ -303,6 +324,13 @@ public class FreeMarkerOutputHandler extends FileOutputHandler
                                                 CFG_TOC_ITEM_THRESHOLD,
                                                 DEFAULT_TOC_THRESHOLD);
 
+                // Get the number of rendering threads
+
+                renderThreads = config.getOptionalIntegerValue
+                                               (section,
+                                                CFG_RENDER_THREADS,
+                                                DEFAULT_RENDER_THREADS);
+
                 // Warn about the deprecated MIME type parameter
 
                 if (config.getOptionalStringValue(section,
@@ -329,6 +357,7 @@ public class FreeMarkerOutputHandler extends FileOutputHandler
         feedTransformer.setTitle(title);
         feedTransformer.setEncoding(super.getOutputEncoding());
         feedTransformer.setExtraText(extraText);
+        feedTransformer.setRenderThreads(renderThreads);
 
         // Open the output file.
 
@@ -37,7 +37,7 @@ package org.clapper.curn.output.freemarker;
 
 import java.util.List;
 
-import org.clapper.util.html.HTMLUtil;
+import org.clapper.curn.parser.HTMLText;
 
 import freemarker.template.SimpleScalar;
 import freemarker.template.TemplateModel;
@@ -88,6 +88,6 @@ class StripHTMLMethod implements TemplateMethodModel
         if (args.size() != 1)
             throw new TemplateModelException ("Wrong number of arguments");
 
-        return new SimpleScalar (HTMLUtil.textFromHTML ((String) args.get(0)));
+        return new SimpleScalar (HTMLText.textFromHTML ((String) args.get(0)));
     }
 }
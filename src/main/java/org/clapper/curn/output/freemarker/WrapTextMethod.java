@@ -48,19 +48,14 @@ import freemarker.template.TemplateModelException;
 
 /**
  * FreeMarker method (put in the FreeMarker data model) that permits a
- * template to wrap plain text via the <tt>WordWrapWriter</tt> class.
+ * template to wrap plain text via the <tt>WordWrapWriter</tt> class. The
+ * method keeps no state between invocations, so a single instance can be
+ * shared by templates that are being processed concurrently.
  *
  * @version <tt>$Revision$</tt>
  */
 class WrapTextMethod implements TemplateMethodModel
 {
-    /*----------------------------------------------------------------------*\
-                            Private Data Items
-    \*----------------------------------------------------------------------*/
-
-    private StringWriter   stringWriter = new StringWriter();
-    private WordWrapWriter wrapWriter   = new WordWrapWriter (stringWriter);
-
     /*----------------------------------------------------------------------*\
                                 Constructor
     \*----------------------------------------------------------------------*/
@@ -90,9 +85,13 @@ class WrapTextMethod implements TemplateMethodModel
     public TemplateModel exec (List args) throws TemplateModelException
     {
         int totalArgs = args.size();
-        StringBuffer buf = stringWriter.getBuffer();
 
-        buf.setLength (0);
+        // The writers are cheap to create, and allocating them per call
+        // keeps this method safe for concurrent use.
+
+        StringWriter   stringWriter = new StringWriter();
+        WordWrapWriter wrapWriter   = new WordWrapWriter (stringWriter);
+        StringBuffer   buf          = stringWriter.getBuffer();
 
         switch (totalArgs)
         {
@@ -57,9 +57,16 @@ import java.io.Reader;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.Invocable;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
 
 import org.clapper.curn.CurnUtil;
 
@@ -132,12 +139,38 @@ import org.clapper.curn.CurnUtil;
  *         in your configuration file.
  *     </td>
  *   </tr>
+ *
+ *   <tr>
+ *     <td><tt>StreamChannels</tt></td>
+ *     <td>If <tt>true</tt>, use the streaming contract described below,
+ *         rather than passing all the channels to the script at once.
+ *         Defaults to <tt>false</tt>.
+ *     </td>
+ *   </tr>
  * </table>
  *
- * <p>This handler's {@link #displayChannel displayChannel()} method does
- * not invoke the script; instead, it buffers up all the channels so that
- * the {@link #flush} method can invoke the script. That way, the overhead
- * of invoking the script only occurs once. Via the BSF engine, this
+ * <p>The script is loaded and, if the scripting engine implements
+ * <tt>javax.script.Compilable</tt>, compiled once. The compiled script is
+ * cached (by language and script path) and reused by subsequent handler
+ * instances and subsequent runs within the same JVM, until the script file
+ * changes. Each handler instance evaluates the script in its own script
+ * context, so handlers sharing a script don't share variables.</p>
+ *
+ * <p>By default, this handler's {@link #displayChannel displayChannel()}
+ * method does not invoke the script; instead, it buffers up all the
+ * channels so that the {@link #flush} method can invoke the script. That
+ * way, the overhead of invoking the script only occurs once.</p>
+ *
+ * <p>If <tt>StreamChannels</tt> is set, the script is evaluated once,
+ * when the handler is initialized, and is expected to define two
+ * functions: <tt>processChannel(channel, feedInfo)</tt>, which
+ * {@link #displayChannel displayChannel()} calls for each channel as it
+ * arrives, and <tt>finish()</tt>, which {@link #flush} calls once all
+ * channels have been passed along. The scripting engine must implement
+ * <tt>javax.script.Invocable</tt>. In this mode, <tt>curn.channels</tt>
+ * is always empty.</p>
+ *
+ * <p>Via the scripting engine, this
  * handler makes available an iterator of special objects that wrap both
  * the {@link RSSChannel} and {@link FeedInfo} objects for a given channel.
  * See below for a more complete description.</p>
@@ -299,9 +332,24 @@ import org.clapper.curn.CurnUtil;
 public class ScriptOutputHandler extends FileOutputHandler
 {
     /*----------------------------------------------------------------------*\
-                             Private Constants
+                             Public Constants
     \*----------------------------------------------------------------------*/
 
+    /**
+     * Configuration variable: whether to use the streaming contract
+     */
+    public static final String CFG_STREAM_CHANNELS = "StreamChannels";
+
+    /**
+     * Name of the per-channel function a streaming script must define
+     */
+    public static final String STREAM_CHANNEL_FUNCTION = "processChannel";
+
+    /**
+     * Name of the function a streaming script must define to finish up
+     */
+    public static final String STREAM_FINISH_FUNCTION = "finish";
+
     /*----------------------------------------------------------------------*\
                                Inner Classes
     \*----------------------------------------------------------------------*/
@@ -342,6 +390,57 @@ public class ScriptOutputHandler extends FileOutputHandler
         }
     }
 
+    /**
+     * A loaded (and, if possible, compiled) script, along with the engine
+     * that runs it. Instances are cached across handler instances. The
+     * engine's current context is swapped in and out by each handler, so
+     * all use of the engine must synchronize on this object.
+     */
+    private static class LoadedScript
+    {
+        final ScriptEngine   engine;
+        final CompiledScript compiled;
+        final String         source;
+        final long           lastModified;
+        final long           length;
+
+        LoadedScript(ScriptEngine   engine,
+                     CompiledScript compiled,
+                     String         source,
+                     File           scriptFile)
+        {
+            this.engine       = engine;
+            this.compiled     = compiled;
+            this.source       = source;
+            this.lastModified = scriptFile.lastModified();
+            this.length       = scriptFile.length();
+        }
+
+        boolean isCurrent(File scriptFile)
+        {
+            return (scriptFile.lastModified() == lastModified) &&
+                   (scriptFile.length() == length);
+        }
+
+        Object eval(ScriptContext context)
+            throws ScriptException
+        {
+            engine.setContext(context);
+            if (compiled != null)
+                return compiled.eval(context);
+            else
+                return engine.eval(source, context);
+        }
+
+        Object invoke(ScriptContext context, String function, Object... args)
+            throws ScriptException,
+                   NoSuchMethodException
+        {
+            engine.setContext(context);
+            return ((Invocable) engine).invokeFunction(function, args);
+        }
+    }
+
     /**
      * Container for the objects exported to the script.
      */
@@ -375,16 +474,22 @@ public class ScriptOutputHandler extends FileOutputHandler
                             Private Data Items
     \*----------------------------------------------------------------------*/
 
-    private ScriptEngineManager        scriptManager      = null;
-    private ScriptEngine               scriptEngine       = null;
+    private LoadedScript               loadedScript       = null;
+    private ScriptContext              scriptContext      = null;
     private Collection<ChannelWrapper> channels           = new ChannelList();
     private String                     scriptPath         = null;
-    private String                     scriptString       = null;
     private String                     mimeType           = null;
     private String                     language           = null;
     private Logger                     scriptLogger       = null; // NOPMD
     private CurnScriptObjects          scriptObjects      = null;
     private boolean                    allowEmbeddedHTML  = false;
+    private boolean                    streamChannels     = false;
+
+    /**
+     * Loaded scripts, keyed by language and canonical script path.
+     */
+    private static final Map<String, LoadedScript> scriptCache =
+        new HashMap<String, LoadedScript>();
 
     /**
      * For logging
@@ -439,6 +544,10 @@ public class ScriptOutputHandler extends FileOutputHandler
                         (section,
                          CurnConfig.CFG_ALLOW_EMBEDDED_HTML,
                          false);
+                streamChannels =
+                    config.getOptionalBooleanValue(section,
+                                                   CFG_STREAM_CHANNELS,
+                                                   false);
             }
         }
 
@@ -468,31 +577,9 @@ public class ScriptOutputHandler extends FileOutputHandler
                                              "\" is not a regular file.");
         }
 
-        // Allocate the script engine manager.
-
-        try
-        {
-            scriptManager = new ScriptEngineManager();
-        }
-
-        catch (Throwable ex)
-        {
-            throw new CurnException(ex);
-        }
-
-        // Next, get the scripting engine itself.
-
-        try
-        {
-            scriptEngine = scriptManager.getEngineByName(language);
-        }
+        // Get the (possibly cached) script and its engine.
 
-        catch (Throwable ex)
-        {
-            throw new CurnException("Unable to load scripting engine for \"" +
-                                    language + "\" language",
-                                    ex);
-        }
+        loadedScript = getLoadedScript(scriptFile);
 
         // Set up a logger for the script. The logger name can't have dots
         // in it, because the underlying logging API strips them out,
@@ -509,13 +596,25 @@ public class ScriptOutputHandler extends FileOutputHandler
         scriptLogger = new Logger(scriptLoggerName.toString());
 
         // Declare the script object. We'll fill it partially now; the rest
-        // will be filled later. Also, for backward compatibility, register
-        // individual BSF beans.
+        // will be filled later. The object goes into a script context
+        // private to this handler, since the engine itself may be shared.
 
         this.scriptObjects = new CurnScriptObjects();
+        ScriptEngine engine = loadedScript.engine;
+        scriptContext = new SimpleScriptContext();
         try
         {
-            scriptEngine.put("curn", scriptObjects);
+            synchronized (loadedScript)
+            {
+                scriptContext.setBindings(engine.createBindings(),
+                                          ScriptContext.ENGINE_SCOPE);
+                scriptContext.setBindings
+                    (engine.getBindings(ScriptContext.GLOBAL_SCOPE),
+                     ScriptContext.GLOBAL_SCOPE);
+            }
+
+            scriptContext.setAttribute("curn", scriptObjects,
+                                       ScriptContext.ENGINE_SCOPE);
         }
 
         catch (Throwable ex)
@@ -528,11 +627,39 @@ public class ScriptOutputHandler extends FileOutputHandler
         scriptObjects.configSection = section;
         scriptObjects.logger = scriptLogger;
 
-        // Load the contents of the script into an in-memory buffer.
+        channels.clear();
 
-        scriptString = loadScript(scriptFile);
+        // A streaming script is evaluated now, so that it can define its
+        // callbacks; they're invoked as the channels arrive.
 
-        channels.clear();
+        if (streamChannels)
+        {
+            if (! (engine instanceof Invocable))
+            {
+                throw new ConfigurationException(section,
+                                                 "The \"" + language +
+                                                 "\" scripting engine does " +
+                                                 "not support " +
+                                                 CFG_STREAM_CHANNELS);
+            }
+
+            scriptObjects.channels = channels;
+            scriptObjects.outputPath = getOutputFile().getPath();
+
+            try
+            {
+                log.debug ("Initializing streaming script " + scriptPath);
+                synchronized (loadedScript)
+                {
+                    loadedScript.eval(scriptContext);
+                }
+            }
+
+            catch (ScriptException ex)
+            {
+                throw scriptError(ex);
+            }
+        }
     }
 
     /**
@@ -553,12 +680,41 @@ public class ScriptOutputHandler extends FileOutputHandler
                                      FeedInfo    feedInfo)
         throws CurnException
     {
-        // Save the channel.
-
         if (! allowEmbeddedHTML)
             channel.stripHTML();
 
-        channels.add (new ChannelWrapper (channel, feedInfo));
+        if (! streamChannels)
+        {
+            // Save the channel.
+
+            channels.add (new ChannelWrapper (channel, feedInfo));
+        }
+
+        else
+        {
+            // Hand the channel to the script right away.
+
+            try
+            {
+                synchronized (loadedScript)
+                {
+                    loadedScript.invoke(scriptContext,
+                                        STREAM_CHANNEL_FUNCTION,
+                                        channel,
+                                        feedInfo);
+                }
+            }
+
+            catch (ScriptException ex)
+            {
+                throw scriptError(ex);
+            }
+
+            catch (NoSuchMethodException ex)
+            {
+                throw missingFunction(STREAM_CHANNEL_FUNCTION, ex);
+            }
+        }
     }
 
     /**
@@ -570,15 +726,33 @@ public class ScriptOutputHandler extends FileOutputHandler
     {
         try
         {
-            // Put the channels and output path in the global object.
+            if (streamChannels)
+            {
+                // Tell the script we're done.
+
+                log.debug ("Finishing " + scriptPath);
+                synchronized (loadedScript)
+                {
+                    loadedScript.invoke(scriptContext,
+                                        STREAM_FINISH_FUNCTION);
+                }
+            }
 
-            scriptObjects.channels = channels;
-            scriptObjects.outputPath = getOutputFile().getPath();
+            else
+            {
+                // Put the channels and output path in the global object.
+
+                scriptObjects.channels = channels;
+                scriptObjects.outputPath = getOutputFile().getPath();
 
-            // Run the script
+                // Run the script
 
-            log.debug ("Invoking " + scriptPath);
-            scriptEngine.eval(scriptString);
+                log.debug ("Invoking " + scriptPath);
+                synchronized (loadedScript)
+                {
+                    loadedScript.eval(scriptContext);
+                }
+            }
 
             // Handle the MIME type.
 
@@ -587,17 +761,12 @@ public class ScriptOutputHandler extends FileOutputHandler
 
         catch (ScriptException ex)
         {
-            Throwable realException = ex.getCause();
-            if (ex == null)
-                realException = ex;
-            log.error ("Error interacting with scripting framework",
-                       realException);
-            throw new CurnException (Constants.BUNDLE_NAME,
-                                     "ScriptOutputHandler.bsfError",
-                                     "Error interacting with scripting " +
-                                     "framework: {0}",
-                                     new Object[] {ex.getMessage()},
-                                     realException);
+            throw scriptError(ex);
+        }
+
+        catch (NoSuchMethodException ex)
+        {
+            throw missingFunction(STREAM_FINISH_FUNCTION, ex);
         }
     }
 
@@ -634,6 +803,133 @@ public class ScriptOutputHandler extends FileOutputHandler
                               Private Methods
     \*----------------------------------------------------------------------*/
 
+    /**
+     * Get the loaded script for a script file, loading and compiling it
+     * if it isn't in the cache or if the file has changed since it was
+     * cached.
+     *
+     * @param scriptFile the script file
+     *
+     * @return the loaded script
+     *
+     * @throws CurnException on error
+     */
+    private LoadedScript getLoadedScript(File scriptFile)
+        throws CurnException
+    {
+        String key;
+        try
+        {
+            key = language + ":" + scriptFile.getCanonicalPath();
+        }
+
+        catch (IOException ex)
+        {
+            key = language + ":" + scriptFile.getAbsolutePath();
+        }
+
+        synchronized (scriptCache)
+        {
+            LoadedScript loaded = scriptCache.get(key);
+            if ((loaded != null) && loaded.isCurrent(scriptFile))
+            {
+                log.debug("Reusing loaded script " + scriptFile.getPath());
+                return loaded;
+            }
+
+            // Get the scripting engine.
+
+            ScriptEngine engine;
+            try
+            {
+                engine = new ScriptEngineManager().getEngineByName(language);
+            }
+
+            catch (Throwable ex)
+            {
+                throw new CurnException("Unable to load scripting engine " +
+                                        "for \"" + language + "\" language",
+                                        ex);
+            }
+
+            if (engine == null)
+            {
+                throw new CurnException("No scripting engine for \"" +
+                                        language + "\" language");
+            }
+
+            // Load the contents of the script into an in-memory buffer,
+            // and compile it, if the engine supports that.
+
+            String source = loadScript(scriptFile);
+            CompiledScript compiled = null;
+            if (engine instanceof Compilable)
+            {
+                log.debug("Compiling " + scriptFile.getPath());
+                try
+                {
+                    compiled = ((Compilable) engine).compile(source);
+                }
+
+                catch (ScriptException ex)
+                {
+                    throw scriptError(ex);
+                }
+            }
+
+            loaded = new LoadedScript(engine, compiled, source, scriptFile);
+            scriptCache.put(key, loaded);
+            return loaded;
+        }
+    }
+
+    /**
+     * Convert a script exception into a <tt>CurnException</tt>, logging it.
+     *
+     * @param ex the script exception
+     *
+     * @return the <tt>CurnException</tt> to throw
+     */
+    private CurnException scriptError(ScriptException ex)
+    {
+        Throwable realException = ex.getCause();
+        if (realException == null)
+            realException = ex;
+        log.error ("Error interacting with scripting framework",
+                   realException);
+        return new CurnException (Constants.BUNDLE_NAME,
+                                  "ScriptOutputHandler.bsfError",
+                                  "Error interacting with scripting " +
+                                  "framework: {0}",
+                                  new Object[] {ex.getMessage()},
+                                  realException);
+    }
+
+    /**
+     * Create the exception to throw when a streaming script doesn't
+     * define one of the required functions.
+     *
+     * @param function the function name
+     * @param ex       the underlying exception
+     *
+     * @return the <tt>CurnException</tt> to throw
+     */
+    private CurnException missingFunction(String                function,
+                                          NoSuchMethodException ex)
+    {
+        return new CurnException (Constants.BUNDLE_NAME,
+                                  "ScriptOutputHandler.missingFunction",
+                                  "Script \"{0}\" does not define the " +
+                                  "\"{1}\" function required by {2}.",
+                                  new Object[]
+                                  {
+                                      scriptPath,
+                                      function,
+                                      CFG_STREAM_CHANNELS
+                                  },
+                                  ex);
+    }
+
     /**
      * Load the contents of the external script (any file, really) into an
      * in-memory buffer.
@@ -0,0 +1,519 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Hand-written parser for the common forms of RFC 822 and W3C (ISO 8601)
+ * dates. It allocates almost nothing, throws nothing and holds no locks,
+ * so it can be used freely by concurrent download threads. It's meant to
+ * be tried first; anything it doesn't recognize causes it to return
+ * <tt>null</tt>, and the caller falls back to the <tt>SimpleDateFormat</tt>
+ * patterns in {@link ParserUtil}.
+ *
+ * <p>For the inputs it accepts, this class produces the same results as
+ * the pattern-based parsers, with these deliberate exceptions:</p>
+ *
+ * <ul>
+ *   <li>In RFC 822 dates, the day of the week and the seconds are
+ *       optional, as the RFC says they are.
+ *   <li>The RFC 822 zone names "UT" and "Z" mean UTC. (SimpleDateFormat
+ *       doesn't know them, so the pattern-based parser ignored them and
+ *       used local time.)
+ *   <li>In W3C dates, "+hh:mm" offsets are honored. (The pattern-based
+ *       parser's time zone guessing only found "-hh:mm" and "Z".) Offsets
+ *       without a colon ("+hhmm") are accepted, too.
+ * </ul>
+ *
+ * <p>Like the pattern-based W3C parser, this class ignores fractional
+ * seconds.</p>
+ *
+ * @see ParserUtil#parseRFC822Date
+ * @see ParserUtil#parseW3CDate
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class FastDateParser
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final long MILLIS_PER_MINUTE = 60L * 1000L;
+    private static final long MILLIS_PER_HOUR   = 60L * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY    = 24L * MILLIS_PER_HOUR;
+
+    /**
+     * Returned by the internal parsing methods when the input isn't
+     * recognized.
+     */
+    private static final long NO_MATCH = Long.MIN_VALUE;
+
+    /**
+     * Offset value meaning "no time zone given; use the default".
+     */
+    private static final int NO_ZONE = Integer.MIN_VALUE;
+
+    /**
+     * Month names, in order. Matched case-insensitively, either in full or
+     * by their first three letters.
+     */
+    private static final String[] MONTHS =
+    {
+        "january", "february", "march", "april", "may", "june", "july",
+        "august", "september", "october", "november", "december"
+    };
+
+    /**
+     * The zone names RFC 822 defines, and their offsets in minutes.
+     */
+    private static final String[] ZONE_NAMES =
+    {
+        "GMT", "UT", "UTC", "Z",
+        "EST", "EDT", "CST", "CDT", "MST", "MDT", "PST", "PDT"
+    };
+
+    private static final int[] ZONE_OFFSETS =
+    {
+        0, 0, 0, 0,
+        -5 * 60, -4 * 60, -6 * 60, -5 * 60, -7 * 60, -6 * 60, -8 * 60, -7 * 60
+    };
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final String s;
+    private final int    len;
+    private int          pos = 0;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private FastDateParser(String s)
+    {
+        this.s   = s;
+        this.len = s.length();
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Parse an RFC 822 date of the form
+     * <tt>[EEE[,]] d MMM yyyy HH:mm[:ss] [zone]</tt>.
+     *
+     * @param sDate the (non-null) date string
+     *
+     * @return the date, or null if the string isn't in a recognized form
+     */
+    static Date parseRFC822(String sDate)
+    {
+        long millis = new FastDateParser(sDate).rfc822();
+        return (millis == NO_MATCH) ? null : new Date(millis);
+    }
+
+    /**
+     * Parse a W3C date of the form
+     * <tt>yyyy[-MM[-dd[Thh:mm[:ss[.s+]]]]][zone]</tt>.
+     *
+     * @param sDate the (non-null) date string
+     *
+     * @return the date, or null if the string isn't in a recognized form
+     */
+    static Date parseW3C(String sDate)
+    {
+        long millis = new FastDateParser(sDate).w3c();
+        return (millis == NO_MATCH) ? null : new Date(millis);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private long rfc822()
+    {
+        skipSpaces();
+
+        // Optional day of the week. Its value is ignored, as it is by
+        // SimpleDateFormat.
+
+        if ((pos < len) && isLetter(s.charAt(pos)))
+        {
+            while ((pos < len) && isLetter(s.charAt(pos)))
+                pos++;
+            if ((pos < len) && (s.charAt(pos) == ','))
+                pos++;
+            if (skipSpaces() == 0)
+                return NO_MATCH;
+        }
+
+        int day = digits(1, 2);
+        if ((day < 0) || (skipSpaces() == 0))
+            return NO_MATCH;
+
+        int month = monthName();
+        if ((month < 0) || (skipSpaces() == 0))
+            return NO_MATCH;
+
+        int year = digits(4, 4);
+        if ((year < 0) || (skipSpaces() == 0))
+            return NO_MATCH;
+
+        int hour = digits(2, 2);
+        if ((hour < 0) || (! expect(':')))
+            return NO_MATCH;
+        int minute = digits(2, 2);
+        if (minute < 0)
+            return NO_MATCH;
+        int second = 0;
+        if (expect(':'))
+        {
+            second = digits(2, 2);
+            if (second < 0)
+                return NO_MATCH;
+        }
+
+        int offset = NO_ZONE;
+        if (skipSpaces() > 0)
+        {
+            if (pos < len)
+            {
+                offset = rfc822Zone();
+                if (offset == NO_ZONE)
+                    return NO_MATCH;
+            }
+        }
+
+        skipSpaces();
+        if (pos != len)
+            return NO_MATCH;
+
+        return toMillis(year, month, day, hour, minute, second, offset);
+    }
+
+    private long w3c()
+    {
+        skipSpaces();
+
+        int year = digits(4, 4);
+        if (year < 0)
+            return NO_MATCH;
+
+        int month = 1;
+        int day = 1;
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        boolean hasTime = false;
+
+        if (expect('-'))
+        {
+            month = digits(2, 2);
+            if (month < 0)
+                return NO_MATCH;
+
+            if (expect('-'))
+            {
+                day = digits(2, 2);
+                if (day < 0)
+                    return NO_MATCH;
+
+                if (expect('T'))
+                {
+                    hasTime = true;
+                    hour = digits(2, 2);
+                    if ((hour < 0) || (! expect(':')))
+                        return NO_MATCH;
+                    minute = digits(2, 2);
+                    if (minute < 0)
+                        return NO_MATCH;
+
+                    if (expect(':'))
+                    {
+                        second = digits(2, 2);
+                        if (second < 0)
+                            return NO_MATCH;
+
+                        // Fractional seconds are ignored.
+
+                        if (expect('.'))
+                        {
+                            if (digits(1, Integer.MAX_VALUE) < 0)
+                                return NO_MATCH;
+                        }
+                    }
+                }
+            }
+        }
+
+        // A zone is only meaningful after a time. A bare date is local
+        // time, as it is for the pattern-based parser.
+
+        int offset = NO_ZONE;
+        if (hasTime && (pos < len))
+        {
+            char c = s.charAt(pos);
+            if (c == 'Z')
+            {
+                pos++;
+                offset = 0;
+            }
+
+            else if ((c == '+') || (c == '-'))
+            {
+                offset = numericZone(true);
+                if (offset == NO_ZONE)
+                    return NO_MATCH;
+            }
+        }
+
+        skipSpaces();
+        if (pos != len)
+            return NO_MATCH;
+
+        // Leave a zero month (which rolls back into the previous year) to
+        // the pattern-based parser.
+
+        if (month < 1)
+            return NO_MATCH;
+
+        return toMillis(year, month, day, hour, minute, second, offset);
+    }
+
+    /**
+     * Parse an RFC 822 zone: a name or a numeric offset.
+     *
+     * @return the offset in minutes, or NO_ZONE if not recognized
+     */
+    private int rfc822Zone()
+    {
+        char c = s.charAt(pos);
+        if ((c == '+') || (c == '-'))
+            return numericZone(false);
+
+        int start = pos;
+        while ((pos < len) && isLetter(s.charAt(pos)))
+            pos++;
+
+        int nameLen = pos - start;
+        for (int i = 0; i < ZONE_NAMES.length; i++)
+        {
+            String name = ZONE_NAMES[i];
+            if ((name.length() == nameLen) &&
+                s.regionMatches(true, start, name, 0, nameLen))
+            {
+                return ZONE_OFFSETS[i];
+            }
+        }
+
+        return NO_ZONE;
+    }
+
+    /**
+     * Parse a numeric zone offset of the form "+hhmm" or (if permitted)
+     * "+hh:mm", with either sign.
+     *
+     * @param allowColon whether a colon may separate hours and minutes
+     *
+     * @return the offset in minutes, or NO_ZONE if not recognized
+     */
+    private int numericZone(boolean allowColon)
+    {
+        int sign = (s.charAt(pos++) == '-') ? -1 : 1;
+        int hours = digits(2, 2);
+        if (hours < 0)
+            return NO_ZONE;
+        if (allowColon)
+            expect(':');
+        int minutes = digits(2, 2);
+        if (minutes < 0)
+            return NO_ZONE;
+
+        return sign * ((hours * 60) + minutes);
+    }
+
+    /**
+     * Parse a month name, either in full or abbreviated to three letters.
+     *
+     * @return the month (1-12), or -1 if not recognized
+     */
+    private int monthName()
+    {
+        int start = pos;
+        while ((pos < len) && isLetter(s.charAt(pos)))
+            pos++;
+
+        int nameLen = pos - start;
+        if (nameLen >= 3)
+        {
+            for (int i = 0; i < MONTHS.length; i++)
+            {
+                String name = MONTHS[i];
+                if (((nameLen == 3) || (nameLen == name.length())) &&
+                    s.regionMatches(true, start, name, 0, nameLen))
+                {
+                    return i + 1;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Parse an unsigned decimal number.
+     *
+     * @param min minimum number of digits
+     * @param max maximum number of digits
+     *
+     * @return the value, or -1 if the digit count is out of range
+     */
+    private int digits(int min, int max)
+    {
+        int start = pos;
+        int value = 0;
+
+        while ((pos < len) && ((pos - start) < max))
+        {
+            char c = s.charAt(pos);
+            if ((c < '0') || (c > '9'))
+                break;
+
+            // Only the first nine digits matter; fractional seconds are
+            // the only place that many can appear, and they're ignored.
+
+            if ((pos - start) < 9)
+                value = (value * 10) + (c - '0');
+            pos++;
+        }
+
+        return ((pos - start) < min) ? -1 : value;
+    }
+
+    private boolean expect(char c)
+    {
+        if ((pos < len) && (s.charAt(pos) == c))
+        {
+            pos++;
+            return true;
+        }
+
+        return false;
+    }
+
+    private int skipSpaces()
+    {
+        int start = pos;
+        while ((pos < len) && Character.isWhitespace(s.charAt(pos)))
+            pos++;
+        return pos - start;
+    }
+
+    private static boolean isLetter(char c)
+    {
+        return ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z'));
+    }
+
+    /**
+     * Convert broken-down date fields to milliseconds since the epoch.
+     * Out-of-range days, hours, etc., roll over, as they do with a
+     * lenient <tt>SimpleDateFormat</tt>.
+     *
+     * @param offset offset from UTC, in minutes, or NO_ZONE to use the
+     *               default time zone
+     *
+     * @return the time, or NO_MATCH if the year is outside the range this
+     *         class handles
+     */
+    private static long toMillis(int year,
+                                 int month,
+                                 int day,
+                                 int hour,
+                                 int minute,
+                                 int second,
+                                 int offset)
+    {
+        // Stay clear of the Julian/Gregorian cutover, which the
+        // pattern-based parsers handle.
+
+        if (year <= 1582)
+            return NO_MATCH;
+
+        long millis = (daysFromCivil(year, month, 1) + day - 1) * MILLIS_PER_DAY
+                    + hour * MILLIS_PER_HOUR
+                    + minute * MILLIS_PER_MINUTE
+                    + second * 1000L;
+
+        if (offset != NO_ZONE)
+            return millis - (offset * MILLIS_PER_MINUTE);
+
+        // Local time in the default zone. Guess with the raw offset, then
+        // correct for daylight saving time.
+
+        TimeZone tz = TimeZone.getDefault();
+        long utc = millis - tz.getRawOffset();
+        int tzOffset = tz.getOffset(utc);
+        utc = millis - tzOffset;
+        int check = tz.getOffset(utc);
+        if (check != tzOffset)
+            utc = millis - check;
+
+        return utc;
+    }
+
+    /**
+     * Number of days from 1970-01-01 to the given date in the proleptic
+     * Gregorian calendar. The month may be out of range; it rolls over
+     * into the year.
+     */
+    private static long daysFromCivil(int year, int month, int day)
+    {
+        year += (month - 1) / 12;
+        month = ((month - 1) % 12) + 1;
+
+        long y = (month <= 2) ? year - 1 : year;
+        long era = ((y >= 0) ? y : y - 399) / 400;
+        long yoe = y - (era * 400);
+        long doy = ((153 * (month + ((month > 2) ? -3 : 9))) + 2) / 5 + day - 1;
+        long doe = (yoe * 365) + (yoe / 4) - (yoe / 100) + doy;
+        return (era * 146097) + doe - 719468;
+    }
+}
@@ -0,0 +1,528 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Conversion of HTML fragments to plain text, and escaping of plain
+ * text for inclusion in HTML. These methods work without regular
+ * expressions or locks, and operate on any <tt>CharSequence</tt>. Input
+ * that contains nothing to convert is returned as is, without
+ * copying.</p>
+ *
+ * <p>{@link #textFromHTML textFromHTML()} and {@link #escapeHTML
+ * escapeHTML()} produce the same results as the methods of the same names
+ * in <tt>org.clapper.util.html.HTMLUtil</tt>, quirks included: tags are
+ * stripped, character entities converted, and "smart" quotes, dashes,
+ * special spaces and the trademark sign mapped to plain ASCII
+ * equivalents. They are used by {@link RSSChannel#stripHTML}, by the
+ * FreeMarker template methods and by the plug-ins that need plain
+ * text.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public final class HTMLText
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final char NO_BREAK_SPACE        = '\u00a0';
+    private static final char EN_SPACE              = '\u2002';
+    private static final char EM_SPACE              = '\u2003';
+    private static final char THIN_SPACE            = '\u2009';
+    private static final char HAIR_SPACE            = '\u200a';
+    private static final char ZERO_WIDTH_NON_JOINER = '\u200c';
+    private static final char ZERO_WIDTH_JOINER     = '\u200d';
+    private static final char NON_BREAKING_HYPHEN   = '\u2011';
+    private static final char LEFT_SINGLE_QUOTE     = '\u2018';
+    private static final char RIGHT_SINGLE_QUOTE    = '\u2019';
+    private static final char LEFT_DOUBLE_QUOTE     = '\u201c';
+    private static final char RIGHT_DOUBLE_QUOTE    = '\u201d';
+    private static final char EN_DASH               = '\u2013';
+    private static final char EM_DASH               = '\u2014';
+    private static final char TRADEMARK             = '\u2122';
+
+    /**
+     * The character entities HTMLUtil knows, as name/code point pairs.
+     * This follows its table, oddities included: "shy" is a hyphen,
+     * "yuml" and "dagger" are the capital letter and the double dagger,
+     * and "Yuml", "Dagger", "OElig" and "Scaron" aren't there.
+     */
+    private static final String[] ENTITIES =
+    {
+        "quot", "34", "amp", "38", "semi", "59", "lt", "60", "gt", "62",
+        "nbsp", "160", "iexcl", "161", "cent", "162", "pound", "163",
+        "curren", "164", "yen", "165", "brvbar", "166", "sect", "167",
+        "uml", "168", "copy", "169", "ordf", "170", "laquo", "171",
+        "not", "172", "shy", "45", "reg", "174", "macr", "175", "deg", "176",
+        "plusmn", "177", "sup2", "178", "sup3", "179", "acute", "180",
+        "micro", "181", "para", "182", "middot", "183", "cedil", "184",
+        "sup1", "185", "ordm", "186", "raquo", "187", "frac14", "188",
+        "frac12", "189", "frac34", "190", "iquest", "191", "Agrave", "192",
+        "Aacute", "193", "Acirc", "194", "Atilde", "195", "Auml", "196",
+        "Aring", "197", "AElig", "198", "Ccedil", "199", "Egrave", "200",
+        "Eacute", "201", "Ecirc", "202", "Euml", "203", "Igrave", "204",
+        "Iacute", "205", "Icirc", "206", "Iuml", "207", "ETH", "208",
+        "Ntilde", "209", "Ograve", "210", "Oacute", "211", "Ocirc", "212",
+        "Otilde", "213", "Ouml", "214", "times", "215", "Oslash", "216",
+        "Ugrave", "217", "Uacute", "218", "Ucirc", "219", "Uuml", "220",
+        "Yacute", "221", "THORN", "222", "szlig", "223", "agrave", "224",
+        "aacute", "225", "acirc", "226", "atilde", "227", "auml", "228",
+        "aring", "229", "aelig", "230", "ccedil", "231", "egrave", "232",
+        "eacute", "233", "ecirc", "234", "euml", "235", "igrave", "236",
+        "iacute", "237", "icirc", "238", "iuml", "239", "eth", "240",
+        "ntilde", "241", "ograve", "242", "oacute", "243", "ocirc", "244",
+        "otilde", "245", "ouml", "246", "divide", "247", "oslash", "248",
+        "ugrave", "249", "uacute", "250", "ucirc", "251", "uuml", "252",
+        "yacute", "253", "thorn", "254", "yuml", "376", "oelig", "339",
+        "scaron", "353", "fnof", "402", "circ", "710", "tilde", "732",
+        "Alpha", "913", "Beta", "914", "Gamma", "915", "Delta", "916",
+        "Epsilon", "917", "Zeta", "918", "Eta", "919", "Theta", "920",
+        "Iota", "921", "Kappa", "922", "Lambda", "923", "Mu", "924",
+        "Nu", "925", "Xi", "926", "Omicron", "927", "Pi", "928", "Rho", "929",
+        "Sigma", "931", "Tau", "932", "Upsilon", "933", "Phi", "934",
+        "Chi", "935", "Psi", "936", "Omega", "937", "alpha", "945",
+        "beta", "946", "gamma", "947", "delta", "948", "epsilon", "949",
+        "zeta", "950", "eta", "951", "theta", "952", "iota", "953",
+        "kappa", "954", "lambda", "955", "mu", "956", "nu", "957", "xi", "958",
+        "omicron", "959", "pi", "960", "rho", "961", "sigmaf", "962",
+        "sigma", "963", "tau", "964", "upsilon", "965", "phi", "966",
+        "chi", "967", "psi", "968", "omega", "969", "thetasym", "977",
+        "upsih", "978", "piv", "982", "ensp", "8194", "emsp", "8195",
+        "thinsp", "8201", "zwnj", "8204", "zwj", "8205", "lrm", "8206",
+        "rlm", "8207", "ndash", "8211", "mdash", "8212", "lsquo", "8216",
+        "rsquo", "8217", "sbquo", "8218", "ldquo", "8220", "rdquo", "8221",
+        "bdquo", "8222", "dagger", "8225", "bull", "8226", "hellip", "8230",
+        "permil", "8240", "prime", "8242", "Prime", "8243", "lsaquo", "8249",
+        "rsaquo", "8250", "oline", "8254", "frasl", "8260", "euro", "8364",
+        "image", "8465", "weierp", "8472", "real", "8476", "trade", "8482",
+        "alefsym", "1488", "larr", "8592", "uarr", "8593", "rarr", "8594",
+        "darr", "8595", "harr", "8596", "crarr", "8629", "lArr", "8656",
+        "uArr", "8657", "rArr", "8658", "dArr", "8659", "hArr", "8660",
+        "forall", "8704", "part", "8706", "exist", "8707", "empty", "8709",
+        "nabla", "8711", "isin", "8712", "notin", "8713", "ni", "8715",
+        "prod", "8719", "sum", "8721", "minus", "8722", "lowast", "8727",
+        "radic", "8730", "prop", "8733", "infin", "8734", "ang", "8736",
+        "and", "8743", "or", "8744", "cap", "8745", "cup", "8746",
+        "int", "8747", "there4", "8756", "sim", "8764", "cong", "8773",
+        "asymp", "8776", "ne", "8800", "equiv", "8801", "le", "8804",
+        "ge", "8805", "sub", "8834", "sup", "8835", "nsub", "8836",
+        "sube", "8838", "supe", "8839", "oplus", "8853", "otimes", "8855",
+        "perp", "8869", "sdot", "8901", "lceil", "8968", "rceil", "8969",
+        "lfloor", "8970", "rfloor", "8971", "lang", "9001", "rang", "9002",
+        "loz", "9674", "spades", "9824", "clubs", "9827", "hearts", "9829",
+        "diams", "9830"
+    };
+
+    /**
+     * Maps entity names to code points. Read-only once initialized.
+     */
+    private static final Map<String, Integer> ENTITY_MAP =
+        new HashMap<String, Integer>(ENTITIES.length);
+
+    static
+    {
+        for (int i = 0; i < ENTITIES.length; i += 2)
+            ENTITY_MAP.put(ENTITIES[i], Integer.valueOf(ENTITIES[i + 1]));
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private HTMLText()
+    {
+        // Cannot be instantiated.
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Convert an HTML fragment to plain text. Elements are removed, then
+     * character entities are converted to the characters they represent
+     * (entities without the closing semicolon, and unknown entities, are
+     * left alone). Finally, typographic quotes and dashes and the
+     * trademark sign are mapped to ASCII, the non-breaking and other
+     * fixed-width spaces become plain spaces, and the zero-width joiner
+     * and non-joiner are dropped.
+     *
+     * @param html the HTML fragment
+     *
+     * @return the plain text, or null if <tt>html</tt> is null
+     */
+    public static String textFromHTML(CharSequence html)
+    {
+        if (html == null)
+            return null;
+
+        int len = html.length();
+        int first = 0;
+        while ((first < len) && (! needsTextConversion(html.charAt(first))))
+            first++;
+
+        if (first == len)
+            return html.toString();
+
+        // Like HTMLUtil, strip the tags before converting the entities,
+        // so a tag in the middle of an entity doesn't stop it from being
+        // converted. Neither step changes anything before "first".
+
+        CharSequence text = stripTags(html, first);
+        StringBuilder buf = new StringBuilder(len);
+        buf.append(html, 0, first);
+
+        int textLen = text.length();
+        int i = first;
+        while (i < textLen)
+        {
+            char c = text.charAt(i++);
+            if (c == '&')
+                i = appendEntity(text, i, buf);
+            else
+                appendPlain(c, buf);
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Escape the characters that are special in HTML text (<tt>&amp;</tt>,
+     * <tt>&lt;</tt> and <tt>&gt;</tt>), so that the text can safely be
+     * included in an HTML document. Like HTMLUtil, this method leaves
+     * quotes alone, so its result isn't safe to use in an attribute
+     * value.
+     *
+     * @param text the text to escape
+     *
+     * @return the escaped text, or null if <tt>text</tt> is null
+     */
+    public static String escapeHTML(CharSequence text)
+    {
+        if (text == null)
+            return null;
+
+        int len = text.length();
+        int first = 0;
+        while ((first < len) && (! needsEscaping(text.charAt(first))))
+            first++;
+
+        if (first == len)
+            return text.toString();
+
+        StringBuilder buf = new StringBuilder(len + 16);
+        buf.append(text, 0, first);
+
+        for (int i = first; i < len; i++)
+        {
+            char c = text.charAt(i);
+            switch (c)
+            {
+                case '&':
+                    buf.append("&amp;");
+                    break;
+
+                case '<':
+                    buf.append("&lt;");
+                    break;
+
+                case '>':
+                    buf.append("&gt;");
+                    break;
+
+                default:
+                    buf.append(c);
+                    break;
+            }
+        }
+
+        return buf.toString();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static boolean needsTextConversion(char c)
+    {
+        switch (c)
+        {
+            case '<':
+            case '&':
+            case NO_BREAK_SPACE:
+            case EN_SPACE:
+            case EM_SPACE:
+            case THIN_SPACE:
+            case HAIR_SPACE:
+            case ZERO_WIDTH_NON_JOINER:
+            case ZERO_WIDTH_JOINER:
+            case NON_BREAKING_HYPHEN:
+            case LEFT_SINGLE_QUOTE:
+            case RIGHT_SINGLE_QUOTE:
+            case LEFT_DOUBLE_QUOTE:
+            case RIGHT_DOUBLE_QUOTE:
+            case EN_DASH:
+            case EM_DASH:
+            case TRADEMARK:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    private static boolean needsEscaping(char c)
+    {
+        return (c == '&') || (c == '<') || (c == '>');
+    }
+
+    /**
+     * Determine whether a character can be part of an entity name. This
+     * is the "[^;\s&amp;]" of the regular expression HTMLUtil uses, so
+     * white space means only the ASCII white space characters.
+     */
+    private static boolean isEntityNameChar(char c)
+    {
+        switch (c)
+        {
+            case ';':
+            case '&':
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\u000b':
+            case '\f':
+            case '\r':
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Remove the elements from an HTML fragment. Everything from a "&lt;"
+     * to the next "&gt;" goes; a "&gt;" outside an element stays.
+     *
+     * @param html the HTML fragment
+     * @param from where to start looking for elements
+     *
+     * @return the fragment without the elements; <tt>html</tt> itself if
+     *         it has none
+     */
+    private static CharSequence stripTags(CharSequence html, int from)
+    {
+        int len = html.length();
+        int first = from;
+        while ((first < len) && (html.charAt(first) != '<'))
+            first++;
+
+        if (first == len)
+            return html;
+
+        StringBuilder buf = new StringBuilder(len);
+        buf.append(html, 0, first);
+
+        boolean inElement = false;
+        for (int i = first; i < len; i++)
+        {
+            char c = html.charAt(i);
+            if (c == '<')
+                inElement = true;
+
+            else if (inElement)
+            {
+                if (c == '>')
+                    inElement = false;
+            }
+
+            else
+            {
+                buf.append(c);
+            }
+        }
+
+        return buf;
+    }
+
+    /**
+     * Append a character of plain text, mapping the typographic
+     * characters to ASCII.
+     */
+    private static void appendPlain(char c, StringBuilder buf)
+    {
+        switch (c)
+        {
+            case NO_BREAK_SPACE:
+            case EN_SPACE:
+            case EM_SPACE:
+            case THIN_SPACE:
+            case HAIR_SPACE:
+                buf.append(' ');
+                break;
+
+            case ZERO_WIDTH_NON_JOINER:
+            case ZERO_WIDTH_JOINER:
+                break;
+
+            case LEFT_SINGLE_QUOTE:
+            case RIGHT_SINGLE_QUOTE:
+                buf.append('\'');
+                break;
+
+            case LEFT_DOUBLE_QUOTE:
+            case RIGHT_DOUBLE_QUOTE:
+                buf.append('"');
+                break;
+
+            case EM_DASH:
+                buf.append("--");
+                break;
+
+            case EN_DASH:
+            case NON_BREAKING_HYPHEN:
+                buf.append('-');
+                break;
+
+            case TRADEMARK:
+                buf.append("[TM]");
+                break;
+
+            default:
+                buf.append(c);
+                break;
+        }
+    }
+
+    private static void appendPlain(CharSequence s, StringBuilder buf)
+    {
+        for (int i = 0; i < s.length(); i++)
+            appendPlain(s.charAt(i), buf);
+    }
+
+    /**
+     * Decode the character entity that starts just after an ampersand.
+     * The entity name runs up to a semicolon, ASCII white space, another
+     * ampersand or the end of the input, and must be followed by the
+     * semicolon. Anything that isn't an entity, or is an entity that
+     * isn't recognized, is copied through.
+     *
+     * @param s     the input
+     * @param start index just past the ampersand
+     * @param buf   where to append the result
+     *
+     * @return the index at which to resume scanning
+     */
+    private static int appendEntity(CharSequence s, int start, StringBuilder buf)
+    {
+        int len = s.length();
+        int end = start;
+        while ((end < len) && isEntityNameChar(s.charAt(end)))
+            end++;
+
+        if ((end == start) || (end == len) || (s.charAt(end) != ';'))
+        {
+            // No semicolon, so not an entity. The name is copied by the
+            // caller.
+
+            buf.append('&');
+            return start;
+        }
+
+        if (s.charAt(start) == '#')
+        {
+            appendPlain(convertNumericEntity(s.subSequence(start, end)
+                                              .toString()),
+                        buf);
+        }
+
+        else
+        {
+            Integer cp = ENTITY_MAP.get(s.subSequence(start, end).toString());
+            if (cp != null)
+            {
+                appendPlain((char) cp.intValue(), buf);
+            }
+
+            else
+            {
+                buf.append('&');
+                appendPlain(s.subSequence(start, end), buf);
+                buf.append(';');
+            }
+        }
+
+        return end + 1;
+    }
+
+    /**
+     * Convert a numeric entity the way HTMLUtil does: decimal, or
+     * hexadecimal with a leading lower-case "x", parsed by
+     * <tt>Integer.parseInt()</tt> and truncated to a <tt>char</tt>. If
+     * the result isn't a defined character, the entity is returned with
+     * HTMLUtil's mangling (an extra "#").
+     *
+     * @param name the entity name, starting with "#"
+     *
+     * @return the converted text
+     */
+    private static String convertNumericEntity(String name)
+    {
+        if (name.length() == 1)
+            return name;
+
+        boolean hex = (name.length() > 2) && (name.charAt(1) == 'x');
+        try
+        {
+            int value = hex ? Integer.parseInt(name.substring(2), 16)
+                            : Integer.parseInt(name.substring(1));
+            char c = (char) value;
+            if (Character.isDefined(c))
+                return String.valueOf(c);
+        }
+
+        catch (NumberFormatException ex)
+        {
+            // Fall through.
+        }
+
+        return "&#" + (hex ? "x" : "") + name + ";";
+    }
+}
@@ -52,7 +52,6 @@ import java.text.SimpleDateFormat;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 /**
  * Common utility routines that can be used by all parser implementations.
@@ -75,40 +74,59 @@ public final class ParserUtil
     \*----------------------------------------------------------------------*/
 
     /**
-     * A date format for parsing RFC 822-style dates.
+     * Date formats for parsing RFC 822-style dates. These are only used
+     * for dates the FastDateParser class doesn't recognize. DateFormat
+     * objects are not thread-safe, so each thread gets its own set, rather
+     * than having all threads contend for one lock.
      */
-    private static DateFormat[] RFC822_DATE_FORMATS;
+    private static final ThreadLocal<DateFormat[]> RFC822_DATE_FORMATS =
+        new ThreadLocal<DateFormat[]>()
+        {
+            protected DateFormat[] initialValue()
+            {
+                return new DateFormat[]
+                {
+                    // RFC822 dates are US-centric
+                    new SimpleDateFormat ("EEE, d MMM yyyy HH:mm:ss z",
+                                          Locale.US),
+                    new SimpleDateFormat ("EEE, d MMM yyyy HH:mm:ss",
+                                          Locale.US),
+                    new SimpleDateFormat ("EEE d MMM yyyy HH:mm:ss",
+                                          Locale.US)
+                };
+            }
+        };
 
     /**
-     * Patterns for the more common W3C date/time formats.
+     * Patterns for the more common W3C date/time formats. Like the RFC 822
+     * formats, these are per-thread, and only used as a fallback.
      */
-    private static DateFormat[] W3C_DATE_FORMATS;
-
-    static
-    {
-        W3C_DATE_FORMATS = new SimpleDateFormat[]
+    private static final ThreadLocal<DateFormat[]> W3C_DATE_FORMATS =
+        new ThreadLocal<DateFormat[]>()
         {
-            new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss"),
-            new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm"),
-            new SimpleDateFormat ("yyyy-MM-dd"),
-            new SimpleDateFormat ("yyyy-MM"),
-            new SimpleDateFormat ("yyyy")
+            protected DateFormat[] initialValue()
+            {
+                return new DateFormat[]
+                {
+                    new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm:ss"),
+                    new SimpleDateFormat ("yyyy-MM-dd'T'HH:mm"),
+                    new SimpleDateFormat ("yyyy-MM-dd"),
+                    new SimpleDateFormat ("yyyy-MM"),
+                    new SimpleDateFormat ("yyyy")
+                };
+            }
         };
 
-        RFC822_DATE_FORMATS = new SimpleDateFormat[]
-        {
-            // RFC822 dates are US-centric
-            new SimpleDateFormat ("EEE, d MMM yyyy HH:mm:ss z", Locale.US),
-            new SimpleDateFormat ("EEE, d MMM yyyy HH:mm:ss", Locale.US),
-            new SimpleDateFormat ("EEE d MMM yyyy HH:mm:ss", Locale.US)
-        };
-    };
+    /**
+     * Pattern for a W3C time zone offset.
+     */
+    private static final Pattern W3C_TZ_PATTERN =
+        Pattern.compile ("^[+-][0-9][0-9]:[0-9][0-9]$");
 
     /*----------------------------------------------------------------------*\
                             Private Data Items
     \*----------------------------------------------------------------------*/
 
-    private static Pattern w3cTZPattern = null;
     private static final Logger log = new Logger (ParserUtil.class);
 
     /*----------------------------------------------------------------------*\
@@ -129,7 +147,7 @@ public final class ParserUtil
 
     /**
      * Try to parse a date using as many methods as possible, until one
-     * works.
+     * works. This method is thread-safe and takes no locks.
      *
      * @param sDate  the date string
      *
@@ -140,14 +158,27 @@ public final class ParserUtil
     {
         Date result = null;
 
-        if ((result = parseRFC822Date (sDate)) == null)
-            result = parseW3CDate (sDate);
+        if ((sDate != null) && (sDate.length() > 0))
+        {
+            // Try the fast parsers for both formats before resorting to
+            // the slower pattern-based parsers.
+
+            if ((result = FastDateParser.parseRFC822 (sDate)) == null)
+            {
+                if ((result = FastDateParser.parseW3C (sDate)) == null)
+                {
+                    if ((result = parseRFC822DateWithFormats (sDate)) == null)
+                        result = parseW3CDateWithFormats (sDate);
+                }
+            }
+        }
 
         return result;
     }
 
     /**
-     * Parse an RFC 822-style date string.
+     * Parse an RFC 822-style date string. This method is thread-safe and
+     * takes no locks.
      *
      * @param sDate  the date string
      *
@@ -160,21 +191,16 @@ public final class ParserUtil
 
         if ((sDate != null) && (sDate.length() > 0))
         {
-            // DateFormat objects are not synchronized.
-
-            synchronized (RFC822_DATE_FORMATS)
-            {
-                result = parseDate(sDate,
-                                   RFC822_DATE_FORMATS,
-                                   TimeZone.getDefault());
-            }
+            if ((result = FastDateParser.parseRFC822 (sDate)) == null)
+                result = parseRFC822DateWithFormats (sDate);
         }
 
         return result;
     }
 
     /**
-     * Parse a W3C date string. Not comprehensive.
+     * Parse a W3C date string. Not comprehensive. This method is
+     * thread-safe and takes no locks.
      *
      * @param sDate  the date string
      *
@@ -187,25 +213,8 @@ public final class ParserUtil
 
         if ((sDate != null) && (sDate.length() > 0))
         {
-            TimeZone       timeZone = TimeZone.getDefault();
-            int            tzIndex;
-
-            // First, extract the time zone, if present.
-
-            if (((tzIndex = sDate.lastIndexOf ('Z')) != -1) ||
-                ((tzIndex = sDate.lastIndexOf ('-')) != -1) ||
-                ((tzIndex = sDate.lastIndexOf ('+')) != -1))
-            {
-                timeZone = parseW3CTimeZone (sDate.substring (tzIndex));
-            }
-
-            // Now, parse the date. NOTE: DateFormat objects are not
-            // synchronized.
-
-            synchronized (W3C_DATE_FORMATS)
-            {
-                result = parseDate(sDate, W3C_DATE_FORMATS, timeZone);
-            }
+            if ((result = FastDateParser.parseW3C (sDate)) == null)
+                result = parseW3CDateWithFormats (sDate);
         }
 
         return result;
@@ -416,6 +425,53 @@ public final class ParserUtil
         return mimeType;
     }
 
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Parse an RFC 822-style date string using only the pattern-based
+     * parsers. Package-visible so that the tests can compare them with
+     * {@link FastDateParser}.
+     *
+     * @param sDate  the (non-empty) date string
+     *
+     * @return the corresponding date, or null if not parseable
+     */
+    static Date parseRFC822DateWithFormats (String sDate)
+    {
+        return parseDate(sDate,
+                         RFC822_DATE_FORMATS.get(),
+                         TimeZone.getDefault());
+    }
+
+    /**
+     * Parse a W3C date string using only the pattern-based parsers.
+     * Package-visible for the same reason.
+     *
+     * @param sDate  the (non-empty) date string
+     *
+     * @return the corresponding date, or null if not parseable
+     */
+    static Date parseW3CDateWithFormats (String sDate)
+    {
+        TimeZone       timeZone = TimeZone.getDefault();
+        int            tzIndex;
+
+        // First, extract the time zone, if present.
+
+        if (((tzIndex = sDate.lastIndexOf ('Z')) != -1) ||
+            ((tzIndex = sDate.lastIndexOf ('-')) != -1) ||
+            ((tzIndex = sDate.lastIndexOf ('+')) != -1))
+        {
+            timeZone = parseW3CTimeZone (sDate.substring (tzIndex));
+        }
+
+        // Now, parse the date.
+
+        return parseDate(sDate, W3C_DATE_FORMATS.get(), timeZone);
+    }
+
     /*----------------------------------------------------------------------*\
                               Private Methods
     \*----------------------------------------------------------------------*/
@@ -475,21 +531,6 @@ public final class ParserUtil
     {
         TimeZone timeZone = null;
 
-        synchronized (ParserUtil.class)
-        {
-            try
-            {
-                w3cTZPattern = Pattern.compile ("^[+-][0-9][0-9]:[0-9][0-9]$");
-            }
-
-            catch (PatternSyntaxException ex)
-            {
-                // Should not happen.
-
-                assert (false);
-            }
-        }
-
         // Do we have a time zone?
 
         switch (tz.charAt (0))
@@ -502,7 +543,7 @@ public final class ParserUtil
             case '+':
                 // +hh:mm -hh:mm
 
-                Matcher matcher = w3cTZPattern.matcher (tz);
+                Matcher matcher = W3C_TZ_PATTERN.matcher (tz);
                 if (matcher.matches())
                     timeZone = TimeZone.getTimeZone ("GMT" + tz);
 
@@ -35,8 +35,6 @@
 
 package org.clapper.curn.parser;
 
-import org.clapper.util.html.HTMLUtil;
-
 import org.jdom.Document;
 
 import java.util.ArrayList;
@@ -118,6 +116,7 @@ public abstract class RSSChannel extends RSSElement implements Cloneable
         newChannel.setPublicationDate(this.getPublicationDate());
         newChannel.setCopyright(this.getCopyright());
         newChannel.setNativeRSSFormat(this.getNativeRSSFormat());
+        shareTextMemo(newChannel);
 
         Collection<String> authors = this.getAuthors();
         if (authors != null)
@@ -139,7 +138,9 @@ public abstract class RSSChannel extends RSSElement implements Cloneable
      * Strip all HTML and weird plain text from the channel and its items.
      * Intended primarily for output handlers and plug-ins that produce
      * plain text. This method edits the channel data directly; it does not
-     * produce a copy.
+     * produce a copy. The converted text is shared with the channel
+     * this one was copied from (and its other copies), so stripping
+     * several copies of the same channel only converts each field once.
      */
     public synchronized void stripHTML()
     {
@@ -149,10 +150,12 @@ public abstract class RSSChannel extends RSSElement implements Cloneable
             if (authors != null)
             {
                 Collection<String> newAuthors = new ArrayList<String>();
+                int i = 0;
                 for (String author : authors)
                 {
                     if (author != null)
-                        newAuthors.add(HTMLUtil.textFromHTML(author));
+                        newAuthors.add(textFromHTML("author" + i, author));
+                    i++;
                 }
 
                 setAuthors(newAuthors);
@@ -160,15 +163,15 @@ public abstract class RSSChannel extends RSSElement implements Cloneable
 
             String title = getTitle();
             if (title != null)
-                setTitle(HTMLUtil.textFromHTML(title));
+                setTitle(textFromHTML("title", title));
 
             String desc = getDescription();
             if (desc != null)
-                setDescription(HTMLUtil.textFromHTML(desc));
+                setDescription(textFromHTML("description", desc));
 
             String copyright = getCopyright();
             if (copyright != null)
-                setCopyright(HTMLUtil.textFromHTML(copyright));
+                setCopyright(textFromHTML("copyright", copyright));
 
             Collection<RSSItem> items = getItems();
             if ((items != null) && (items.size() > 0))
@@ -495,21 +498,26 @@ public abstract class RSSChannel extends RSSElement implements Cloneable
     {
         String title = item.getTitle();
         if (title != null)
-            item.setTitle (HTMLUtil.textFromHTML (title));
+            item.setTitle (item.textFromHTML ("title", title));
 
         Collection<String> authors = item.getAuthors();
         if (authors != null)
         {
             Collection<String> newAuthors =
                 new ArrayList<String>();
+            int i = 0;
             for (String author : authors)
-                newAuthors.add(HTMLUtil.textFromHTML(author));
+            {
+                if (author != null)
+                    newAuthors.add(item.textFromHTML("author" + i, author));
+                i++;
+            }
 
-            setAuthors(newAuthors);
+            item.setAuthors(newAuthors);
         }
 
         String summary = item.getSummary();
         if (summary != null)
-            item.setSummary(HTMLUtil.textFromHTML(summary));
+            item.setSummary(item.textFromHTML("summary", summary));
     }
 }
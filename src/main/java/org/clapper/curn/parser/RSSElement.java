@@ -39,6 +39,8 @@ import java.net.URL;
 import org.clapper.util.text.TextUtil;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Abstract parent class of {@link RSSItem} and {@link RSSChannel},
@@ -52,6 +54,39 @@ import java.util.Collection;
  */
 public abstract class RSSElement
 {
+    /*----------------------------------------------------------------------*\
+                               Inner Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Remembers the plain text version of each field's most recent HTML
+     * value. Shared between an element and its copies, which may be used
+     * by different threads.
+     */
+    private static final class TextMemo
+    {
+        private final Map<String,String[]> entries =
+            new HashMap<String,String[]>();
+
+        synchronized String textFromHTML(String fieldName, String html)
+        {
+            String[] entry = entries.get(fieldName);
+            if ((entry == null) || (! entry[0].equals(html)))
+            {
+                entry = new String[] {html, HTMLText.textFromHTML(html)};
+                entries.put(fieldName, entry);
+            }
+
+            return entry[1];
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                           Private Instance Data
+    \*----------------------------------------------------------------------*/
+
+    private TextMemo textMemo = null;
+
     /*----------------------------------------------------------------------*\
                                Constructor
     \*----------------------------------------------------------------------*/
@@ -262,7 +297,52 @@ public abstract class RSSElement
      */
     public abstract void clearAuthors();
 
+    /*----------------------------------------------------------------------*\
+                             Protected Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Convert the value of one of this element's fields from HTML to
+     * plain text, via {@link HTMLText#textFromHTML}. The result is
+     * remembered under the field name and shared with copies of this
+     * element, so when several copies of the same item (e.g., one per
+     * output handler) are converted, the work is only done once.
+     *
+     * @param fieldName  a name that uniquely identifies the field within
+     *                   this element
+     * @param html       the field's current value
+     *
+     * @return the plain text, or null if <tt>html</tt> is null
+     */
+    protected final String textFromHTML(String fieldName, String html)
+    {
+        if (html == null)
+            return null;
+
+        return getTextMemo().textFromHTML(fieldName, html);
+    }
+
+    /**
+     * Arrange for a copy of this element to share this element's
+     * remembered plain text conversions. Called by the copy methods of
+     * subclasses.
+     *
+     * @param copy the copy
+     */
+    protected final void shareTextMemo(RSSElement copy)
+    {
+        copy.textMemo = getTextMemo();
+    }
+
     /*----------------------------------------------------------------------*\
                               Private Methods
     \*----------------------------------------------------------------------*/
+
+    private synchronized TextMemo getTextMemo()
+    {
+        if (textMemo == null)
+            textMemo = new TextMemo();
+
+        return textMemo;
+    }
 }
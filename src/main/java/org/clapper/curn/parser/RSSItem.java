@@ -138,6 +138,7 @@ public abstract class RSSItem
             copy.contentMap.put(key, this.contentMap.get(key));
 
         copyPrivateFields(copy);
+        shareTextMemo(copy);
         copy.setTitle(this.getTitle());
         copy.setSummary(this.getSummary());
         copy.setLinks(this.getLinks());
@@ -263,17 +264,19 @@ public abstract class RSSItem
     {
         RSSItem otherItem = (RSSItem) other;
 
+        // Compare times as longs, and only consult the clock if one of
+        // the items has no date.
+
         Date otherDate = otherItem.getPublicationDate();
         Date thisDate  = this.getPublicationDate();
-        Date now       = new Date();
-
-        if (otherDate == null)
-            otherDate = now;
-
-        if (thisDate == null)
-            thisDate = now;
-
-        int cmp = thisDate.compareTo (otherDate);
+        long now       = ((otherDate == null) || (thisDate == null))
+                             ? System.currentTimeMillis()
+                             : 0;
+        long otherTime = (otherDate == null) ? now : otherDate.getTime();
+        long thisTime  = (thisDate == null) ? now : thisDate.getTime();
+
+        int cmp = (thisTime < otherTime) ? -1
+                                         : ((thisTime == otherTime) ? 0 : 1);
         if (cmp == 0)
         {
             String otherTitle = otherItem.getTitle();
@@ -292,8 +295,19 @@ public abstract class RSSItem
                 RSSLink otherURL = otherItem.getURL();
                 String otherID = (otherURL == null) ? "" : otherURL.toString();
 
-                if ((cmp = thisID.compareTo (otherID)) == 0)
-                    cmp = this.hashCode() - other.hashCode();
+                // Items with the same URL have the same hash code, so
+                // only items without URLs need the hash codes. (Compare
+                // them; subtracting them can overflow.)
+
+                if (((cmp = thisID.compareTo (otherID)) == 0) &&
+                    ((thisURL == null) || (otherURL == null)))
+                {
+                    int thisHash  = this.hashCode();
+                    int otherHash = other.hashCode();
+                    cmp = (thisHash < otherHash) ? -1
+                                                 : ((thisHash == otherHash)
+                                                        ? 0 : 1);
+                }
             }
         }
 
@@ -0,0 +1,93 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.plugins;
+
+import org.clapper.curn.AbstractPersistentDataClient;
+import org.clapper.curn.FeedCacheEntry;
+
+/**
+ * Common base class for plug-ins whose persistent data is all "extra"
+ * metadata, not associated with any feed or item (see
+ * {@link #getExtraFeedMetadata} and {@link #parseExtraMetadata}). It
+ * tells the persister that there's no feed or item metadata, so the
+ * plug-in isn't consulted for every item in the cache.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public abstract class AbstractExtraMetadataClient
+    extends AbstractPersistentDataClient
+{
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Default constructor (required).
+     */
+    protected AbstractExtraMetadataClient()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether this object has any metadata to save with a feed.
+     *
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     *
+     * @return <tt>false</tt>
+     */
+    public final boolean hasMetadataForFeed(FeedCacheEntry feedData)
+    {
+        return false;
+    }
+
+    /**
+     * Determine whether this object has any metadata to save with any of a
+     * feed's items.
+     *
+     * @param feedData the {@link FeedCacheEntry} record for the feed
+     *
+     * @return <tt>false</tt>
+     */
+    public final boolean hasMetadataForItems(FeedCacheEntry feedData)
+    {
+        return false;
+    }
+}
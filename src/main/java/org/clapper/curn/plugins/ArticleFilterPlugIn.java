@@ -40,13 +40,13 @@ import org.clapper.curn.CurnConfig;
 import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
 import org.clapper.curn.FeedConfigItemPlugIn;
-import org.clapper.curn.PostFeedProcessPlugIn;
+import org.clapper.curn.PostFeedProcessItemPlugIn;
+import org.clapper.curn.parser.HTMLText;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
 
 import org.clapper.util.classutil.ClassUtil;
 import org.clapper.util.config.ConfigurationException;
-import org.clapper.util.html.HTMLUtil;
 import org.clapper.util.text.TextUtil;
 import org.clapper.util.logging.Logger;
 
@@ -54,13 +54,14 @@ import java.io.IOException;
 import java.io.StringReader;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import org.clapper.curn.FeedCache;
@@ -173,11 +174,26 @@ import org.clapper.util.misc.MultiValueMap;
  * </pre>
  * </blockquote>
  *
+ * <h3>Implementation</h3>
+ *
+ * <p>A feed's filters are compiled, when the configuration is read, into
+ * a single matching program. Each distinct (field, regular expression)
+ * pair becomes one test, which is evaluated at most once per article.
+ * Expressions that are really just keywords (no regular expression
+ * metacharacters) are looked for all at once, in a single pass over each
+ * field, with a {@link KeywordAutomaton}; the remaining expressions are
+ * run only when a rule needs them. Each field's text is extracted (and
+ * stripped of HTML) once per article. Since the last matching command
+ * wins, the commands are tried from last to first, stopping at the first
+ * one that matches, and a command's tests stop at the first one that
+ * fails. When several fields are searched at once (<tt>any</tt>), they
+ * are searched in the order author, title, summary, text, category.</p>
+ *
  * @version <tt>$Revision$</tt>
  */
 public class ArticleFilterPlugIn
     implements FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessItemPlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -195,6 +211,21 @@ public class ArticleFilterPlugIn
             FIELD_NAME_MAP.put(field.toString().toLowerCase(), field);
     }
 
+    /**
+     * Regular expression metacharacters. An expression that contains none
+     * of these (other than backslash-escaped punctuation) is a keyword.
+     */
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    /**
+     * The fields searched by an "any" match, in the order their contents
+     * are concatenated.
+     */
+    private static final Field[] ALL_FIELDS =
+    {
+        Field.AUTHOR, Field.TITLE, Field.SUMMARY, Field.TEXT, Field.CATEGORY
+    };
+
     private static Map<String,Command> COMMAND_MAP =             // NOPMD
         new HashMap<String,Command>();
     static
@@ -336,6 +367,252 @@ public class ArticleFilterPlugIn
         }
     }
 
+    /**
+     * The compiled form of all of a feed's filter rulesets. See the class
+     * documentation for how it works. Immutable once constructed.
+     */
+    private static class CompiledFilter
+    {
+        private static final byte UNKNOWN = 0;
+        private static final byte MATCH   = 1;
+        private static final byte NO_MATCH = 2;
+
+        /**
+         * The tests, indexed by test number: the field to search (ANY
+         * meaning all fields), and either the regular expression to run
+         * or, for keywords, null.
+         */
+        private final Field[]   testFields;
+        private final Pattern[] testRegexes;
+
+        /**
+         * Per field (by ordinal): the keyword automaton, if any, and the
+         * test number for each of its keyword ids.
+         */
+        private final KeywordAutomaton[] automatons =
+            new KeywordAutomaton[Field.values().length];
+        private final int[][] keywordTests = new int[Field.values().length][];
+
+        /**
+         * Per ruleset, per command: the tests that must all match, and
+         * whether the command hides the item.
+         */
+        private final int[][][]   ruleTests;
+        private final boolean[][] ruleHides;
+
+        private final String description;
+
+        CompiledFilter(Collection<FeedFilterRuleset> rulesets)
+        {
+            List<Field> fields = new ArrayList<Field>();
+            List<Pattern> regexes = new ArrayList<Pattern>();
+            Map<String,Integer> testNumbers = new HashMap<String,Integer>();
+            List<List<String>> keywords = new ArrayList<List<String>>();
+            List<List<Integer>> keywordTestNumbers =
+                new ArrayList<List<Integer>>();
+
+            for (int i = 0; i < automatons.length; i++)
+            {
+                keywords.add(new ArrayList<String>());
+                keywordTestNumbers.add(new ArrayList<Integer>());
+            }
+
+            ruleTests = new int[rulesets.size()][][];
+            ruleHides = new boolean[rulesets.size()][];
+            int iSet = 0;
+            for (FeedFilterRuleset ruleset : rulesets)
+            {
+                List<MatchRule> rules = new ArrayList<MatchRule>();
+                for (MatchRule rule : ruleset)
+                    rules.add(rule);
+
+                ruleTests[iSet] = new int[rules.size()][];
+                ruleHides[iSet] = new boolean[rules.size()];
+                for (int iRule = 0; iRule < rules.size(); iRule++)
+                {
+                    MatchRule rule = rules.get(iRule);
+                    List<Integer> tests = new ArrayList<Integer>();
+                    for (FieldMatchRule fieldRule : rule.getFieldRules())
+                    {
+                        String regex = fieldRule.getRegex().pattern();
+
+                        // ".*" and "" match anything, so they're not worth
+                        // testing. (That's what a wildcard rule is.)
+
+                        if (regex.equals(".*") || (regex.length() == 0))
+                            continue;
+
+                        Collection<Field> ruleFields = fieldRule.getFields();
+                        Field field = (ruleFields.size() == 1)
+                                          ? ruleFields.iterator().next()
+                                          : Field.ANY;
+                        String key = field + ":" + regex;
+                        Integer testNumber = testNumbers.get(key);
+                        if (testNumber == null)
+                        {
+                            testNumber = fields.size();
+                            testNumbers.put(key, testNumber);
+                            fields.add(field);
+
+                            String keyword = keywordFor(regex);
+                            if (keyword == null)
+                            {
+                                regexes.add(fieldRule.getRegex());
+                            }
+
+                            else
+                            {
+                                regexes.add(null);
+                                keywords.get(field.ordinal()).add(keyword);
+                                keywordTestNumbers.get(field.ordinal())
+                                                  .add(testNumber);
+                            }
+                        }
+
+                        if (! tests.contains(testNumber))
+                            tests.add(testNumber);
+                    }
+
+                    ruleTests[iSet][iRule] = toIntArray(tests);
+                    ruleHides[iSet][iRule] =
+                        (rule.getCommand() == Command.HIDE);
+                }
+
+                iSet++;
+            }
+
+            testFields = fields.toArray(new Field[fields.size()]);
+            testRegexes = regexes.toArray(new Pattern[regexes.size()]);
+            for (int i = 0; i < automatons.length; i++)
+            {
+                if (keywords.get(i).size() > 0)
+                {
+                    automatons[i] = new KeywordAutomaton(keywords.get(i));
+                    keywordTests[i] = toIntArray(keywordTestNumbers.get(i));
+                }
+            }
+
+            description = rulesets.toString();
+        }
+
+        /**
+         * Determine whether an item should be hidden.
+         *
+         * @param item  the item
+         *
+         * @return <tt>true</tt> to hide the item, <tt>false</tt> to keep it
+         */
+        boolean hides(RSSItem item)
+        {
+            ItemState state = new ItemState(item);
+
+            for (int iSet = 0; iSet < ruleTests.length; iSet++)
+            {
+                int[][] tests = ruleTests[iSet];
+                for (int iRule = tests.length - 1; iRule >= 0; iRule--)
+                {
+                    if (state.allMatch(tests[iRule]))
+                    {
+                        if (ruleHides[iSet][iRule])
+                            return true;
+                        break;
+                    }
+                }
+            }
+
+            return false;
+        }
+
+        @Override
+        public String toString()
+        {
+            return description;
+        }
+
+        /**
+         * What's known so far about the item being filtered: the text of
+         * the fields extracted so far, and the results of the tests run
+         * so far.
+         */
+        private class ItemState
+        {
+            private final RSSItem  item;
+            private final String[] fieldText = new String[Field.values().length];
+            private final byte[]   results = new byte[testFields.length];
+
+            ItemState(RSSItem item)
+            {
+                this.item = item;
+            }
+
+            boolean allMatch(int[] tests)
+            {
+                for (int test : tests)
+                {
+                    if (! matches(test))
+                        return false;
+                }
+
+                return true;
+            }
+
+            private boolean matches(int test)
+            {
+                if (results[test] == UNKNOWN)
+                {
+                    Field field = testFields[test];
+                    Pattern regex = testRegexes[test];
+                    if (regex != null)
+                    {
+                        boolean found = regex.matcher(text(field)).find();
+                        results[test] = found ? MATCH : NO_MATCH;
+                    }
+
+                    else
+                    {
+                        // Look for all the field's keywords at once.
+
+                        int i = field.ordinal();
+                        BitSet found = new BitSet();
+                        automatons[i].findAll(text(field), found);
+                        int[] keywordTest = keywordTests[i];
+                        for (int id = 0; id < keywordTest.length; id++)
+                        {
+                            results[keywordTest[id]] = found.get(id)
+                                                           ? MATCH
+                                                           : NO_MATCH;
+                        }
+                    }
+                }
+
+                return results[test] == MATCH;
+            }
+
+            private String text(Field field)
+            {
+                int i = field.ordinal();
+                if (fieldText[i] == null)
+                {
+                    StringBuilder buf = new StringBuilder();
+                    if (field == Field.ANY)
+                    {
+                        for (Field f : ALL_FIELDS)
+                            appendField(item, f, buf);
+                    }
+
+                    else
+                    {
+                        appendField(item, field, buf);
+                    }
+
+                    fieldText[i] = HTMLText.textFromHTML(buf);
+                }
+
+                return fieldText[i];
+            }
+        }
+    }
+
     /*----------------------------------------------------------------------*\
                             Private Data Items
     \*----------------------------------------------------------------------*/
@@ -351,6 +628,18 @@ public class ArticleFilterPlugIn
     private MultiValueMap<FeedInfo, FeedFilterRuleset> perFeedMatchRules =
         new MultiValueMap<FeedInfo,FeedFilterRuleset>();
 
+    /**
+     * Per-feed compiled filters, rebuilt whenever a feed gets another
+     * ruleset.
+     */
+    private Map<FeedInfo,CompiledFilter> perFeedFilters =
+        new HashMap<FeedInfo,CompiledFilter>();
+
+    /**
+     * The filter for the feed whose items are being processed.
+     */
+    private CompiledFilter currentFilter = null;
+
     /*----------------------------------------------------------------------*\
                                 Constructor
     \*----------------------------------------------------------------------*/
@@ -440,6 +729,10 @@ public class ArticleFilterPlugIn
                                       parseFilterSpec(sectionName,
                                                       paramName,
                                                       rawValue));
+                perFeedFilters.put(feedInfo,
+                                   new CompiledFilter
+                                       (perFeedMatchRules.getCollection
+                                           (feedInfo)));
             }
 
             return true;
@@ -452,61 +745,68 @@ public class ArticleFilterPlugIn
     }
 
     /**
-     * Called immediately after a feed is parsed, but before it is
-     * otherwise processed. This method can return <tt>false</tt> to signal
-     * <i>curn</i> that the feed should be skipped. For instance, a plug-in
-     * that filters on the parsed feed data could use this method to weed
-     * out non-matching feeds before they are downloaded. Similarly, a
-     * plug-in that edits the parsed data (removing or editing individual
-     * items, for instance) could use method to do so.
+     * Called once for each feed, after the feed has been parsed and
+     * processed, and before its items are passed to
+     * {@link #runPostFeedProcessItemPlugIn runPostFeedProcessItemPlugIn()}.
      *
      * @param feedInfo  the {@link FeedInfo} object for the feed that
      *                  has been downloaded and parsed.
      * @param feedCache the feed cache
      * @param channel   the parsed channel data
      *
-     * @return <tt>true</tt> if <i>curn</i> should continue to process the
-     *         feed, <tt>false</tt> to skip the feed. A return value of
-     *         <tt>false</tt> aborts all further processing on the feed.
-     *         In particular, <i>curn</i> will not pass the feed along to
-     *         other plug-ins that have yet to be notified of this event.
+     * @return <tt>true</tt> if this plug-in has work to do on the feed's
+     *         items, <tt>false</tt> if not
      *
      * @throws CurnException on error
      *
      * @see RSSChannel
      * @see FeedInfo
      */
-    public boolean runPostFeedProcessPlugIn(FeedInfo   feedInfo,
-                                          FeedCache  feedCache,
-                                          RSSChannel channel)
+    public boolean startPostFeedItemProcessing(FeedInfo   feedInfo,
+                                               FeedCache  feedCache,
+                                               RSSChannel channel)
         throws CurnException
     {
-        Collection<FeedFilterRuleset> rules =
-            perFeedMatchRules.getCollection(feedInfo);
-
-        if ((rules != null) && (rules.size() > 0))
-        {
-            for (RSSItem item : channel.getItems())
-            {
-                if (nukeItem(item, rules, feedInfo))
-                {
-                    // Since getItems() returns a copy of the list of
-                    // items, this call will not cause a
-                    // ConcurrentModificationException to be thrown.
-
-                    log.debug("Feed \"" +
-                              feedInfo.getURL() +
-                              "\": Filtering out item \"" +
-                              item.getTitle() +
-                              "\"");
-                    channel.removeItem(item);
-                }
-            }
-        }
+        currentFilter = perFeedFilters.get(feedInfo);
+        if (currentFilter == null)
+            return false;
 
+        log.debug("Feed \"" + feedInfo.getURL() + "\": filtering with " +
+                  currentFilter.toString());
         return true;
     }
 
+    /**
+     * Called for each of a feed's items, after the feed has been parsed
+     * and processed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     * @param channel   the parsed channel data
+     * @param item      the item
+     * @param itemIndex the number of the feed's items already passed to
+     *                  this method
+     *
+     * @return <tt>true</tt> to keep the item, <tt>false</tt> to drop it
+     *
+     * @throws CurnException on error
+     */
+    public boolean runPostFeedProcessItemPlugIn(FeedInfo   feedInfo,
+                                                RSSChannel channel,
+                                                RSSItem    item,
+                                                int        itemIndex)
+        throws CurnException
+    {
+        if (! currentFilter.hides(item))
+            return true;
+
+        log.debug("Feed \"" +
+                  feedInfo.getURL() +
+                  "\": Filtering out item \"" +
+                  item.getTitle() +
+                  "\"");
+        return false;
+    }
+
     /*----------------------------------------------------------------------*\
                               Private Methods
     \*----------------------------------------------------------------------*/
@@ -627,98 +927,92 @@ public class ArticleFilterPlugIn
         return result;
     }
 
-    private boolean nukeItem(RSSItem                       item,
-                             Collection<FeedFilterRuleset> rulesets,
-                             FeedInfo                      feedInfo)
+    /**
+     * Append the contents of one of an item's fields to a buffer, the
+     * way the filter has always seen them (a missing title, summary or
+     * text shows up as "null").
+     */
+    private static void appendField(RSSItem       item,
+                                    Field         field,
+                                    StringBuilder buf)
     {
-        boolean match = false;
-
-        for (FeedFilterRuleset ruleset : rulesets)
+        switch (field)
         {
-            match = nukeItem(item, ruleset, feedInfo);
-            if (match)
+            case AUTHOR:
+                Collection<String> authors = item.getAuthors();
+                if ((authors != null) && (authors.size() > 0))
+                    buf.append (TextUtil.join (authors, " "));
                 break;
-        }
 
-        return match;
+            case CATEGORY:
+                Collection<String> cats = item.getCategories();
+                if ((cats != null) && (cats.size() > 0))
+                    buf.append (TextUtil.join (cats, " "));
+                break;
+
+            case TITLE:
+                buf.append (item.getTitle());
+                break;
+
+            case SUMMARY:
+                buf.append (item.getSummary());
+                break;
+
+            case TEXT:
+                buf.append
+                    (item.getFirstContentOfType ("text/plain",
+                                                 "text/html"));
+                break;
+
+            default:
+                assert (false);
+                break;
+        }
     }
 
-    private boolean nukeItem(RSSItem           item,
-                             FeedFilterRuleset ruleset,
-                             FeedInfo          feedInfo)
+    /**
+     * If a regular expression only matches a fixed string, get the string.
+     *
+     * @param regex  the regular expression
+     *
+     * @return the string it matches, or null if it uses any regular
+     *         expression features other than escaped punctuation
+     */
+    private static String keywordFor(String regex)
     {
-        boolean killItem = false;
-        String  itemId = feedInfo.getURL()
-                       + ", "
-                       + item.getTitle();
-
-        log.debug ("item " + itemId + ": checking filter: " +
-                   ruleset.toString());
-        for (MatchRule rule : ruleset)
+        StringBuilder buf = new StringBuilder();
+        int len = regex.length();
+        for (int i = 0; i < len; i++)
         {
-            boolean match = true;
-            boolean hide = (rule.getCommand() == Command.HIDE);
-
-            for (FieldMatchRule fieldRule : rule.getFieldRules())
+            char c = regex.charAt(i);
+            if (c == '\\')
             {
-                log.debug ("item=" + item.getTitle() + ", command=" +
-                           rule.getCommand() + ", " + fieldRule.toString());
+                if (++i == len)
+                    return null;
 
-                StringBuilder buf = new StringBuilder();
-
-                for (Field field : fieldRule.getFields())
-                {
-                    switch (field)
-                    {
-                        case AUTHOR:
-                            Collection<String> authors = item.getAuthors();
-                            if ((authors != null) && (authors.size() > 0))
-                                buf.append (TextUtil.join (authors, " "));
-                            break;
-
-                        case CATEGORY:
-                            Collection<String> cats = item.getCategories();
-                            if ((cats != null) && (cats.size() > 0))
-                                buf.append (TextUtil.join (cats, " "));
-                            break;
-
-                        case TITLE:
-                            buf.append (item.getTitle());
-                            break;
-
-                        case SUMMARY:
-                            buf.append (item.getSummary());
-                            break;
-
-                        case TEXT:
-                            buf.append
-                                (item.getFirstContentOfType ("text/plain",
-                                                             "text/html"));
-                            break;
-
-                        default:
-                            assert (false);
-                            break;
-                    }
-                }
+                c = regex.charAt(i);
+                if (Character.isLetterOrDigit(c) || (c > 127))
+                    return null;
+            }
 
-                String toMatch = HTMLUtil.textFromHTML (buf.toString());
-                Pattern regex = fieldRule.getRegex();
-                Matcher matcher = regex.matcher (toMatch);
-                boolean regexMatches = matcher.find();
-                log.debug ("regex '" + regex.toString() + "' " +
-                           (regexMatches ? "matches: " : "doesn't match: ") +
-                           toMatch);
-                if (! regexMatches)
-                    match = false;
+            else if (REGEX_METACHARACTERS.indexOf(c) >= 0)
+            {
+                return null;
             }
 
-            if (match)
-                killItem = hide;
+            buf.append(c);
         }
 
-        log.debug ("item: " + itemId + ", kill=" + killItem);
-        return killItem;
+        return buf.toString();
+    }
+
+    private static int[] toIntArray(List<Integer> list)
+    {
+        int[] result = new int[list.size()];
+        int i = 0;
+        for (int n : list)
+            result[i++] = n;
+        return result;
     }
 
     private String[] parseFilterTokens (String rawValue)
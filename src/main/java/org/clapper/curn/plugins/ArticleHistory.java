@@ -0,0 +1,233 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.plugins;
+
+import org.clapper.curn.CurnConfig;
+import org.clapper.curn.CurnException;
+
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+import org.clapper.util.text.Duration;
+
+import java.text.ParseException;
+
+/**
+ * The bookkeeping shared by the plug-ins that remember articles across
+ * feeds and runs ({@link IgnoreDuplicateArticlesPlugIn} and
+ * {@link IgnoreSimilarArticlesPlugIn}): the configured history interval,
+ * the time stamp recorded with each article, the "owner" hash that
+ * identifies an article, and the expiration of entries that haven't been
+ * seen within the history interval. Not thread-safe; each plug-in calls
+ * it while holding the lock on its own store.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class ArticleHistory
+{
+    /*----------------------------------------------------------------------*\
+                             Public Interfaces
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * A store of time-stamped article entries that can be expired.
+     */
+    interface Store
+    {
+        /**
+         * Remove all entries last seen before a specified time.
+         *
+         * @param stamp  the cutoff, in minutes since the epoch
+         *
+         * @return the number of entries removed
+         */
+        int removeOlderThan(int stamp);
+    }
+
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final long MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * What the store's entries are called, for log messages
+     */
+    private final String entryName;
+
+    /**
+     * How long to remember entries
+     */
+    private long historyMillis;
+
+    /**
+     * The time stamp for the feed being processed, and whether the store
+     * has been pruned in this run.
+     */
+    private int     currentStamp = 0;
+    private boolean pruned = false;
+
+    /**
+     * For log messages
+     */
+    private static final Logger log = new Logger (ArticleHistory.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new <tt>ArticleHistory</tt>.
+     *
+     * @param entryName    what the store's entries are called, for log
+     *                     messages (e.g., "article fingerprints")
+     * @param defaultDays  the default history interval, in days
+     */
+    ArticleHistory(String entryName, int defaultDays)
+    {
+        this.entryName = entryName;
+        this.historyMillis = defaultDays * MILLIS_PER_DAY;
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Compute the owner of an article: a hash that identifies this
+     * particular article, so that an article that's seen again in the same
+     * feed (e.g., because it's being retained) isn't mistaken for a copy
+     * of itself.
+     *
+     * @param feedURL  the URL of the feed containing the article
+     * @param itemURL  the article's URL
+     *
+     * @return the owner
+     */
+    static int owner(String feedURL, String itemURL)
+    {
+        return (int) FingerprintSet.fingerprint
+            (itemURL, FingerprintSet.fingerprint (feedURL, 0));
+    }
+
+    /**
+     * Set the history interval from a configuration parameter whose
+     * value is a {@link Duration} string.
+     *
+     * @param config       the configuration
+     * @param sectionName  the section containing the parameter
+     * @param paramName    the name of the parameter
+     *
+     * @throws ConfigurationException on configuration error
+     * @throws CurnException          if the value isn't a valid duration
+     */
+    void configure(CurnConfig config, String sectionName, String paramName)
+        throws ConfigurationException,
+               CurnException
+    {
+        try
+        {
+            String sDuration = config.getConfigurationValue(sectionName,
+                                                            paramName);
+            historyMillis = new Duration(sDuration).getDuration();
+            log.debug ("[" + sectionName + "]: " + paramName +
+                       "=" + sDuration);
+        }
+
+        catch (ParseException ex)
+        {
+            throw new CurnException("Bad value for configuration " +
+                                    "variable \"" + paramName + "\" " +
+                                    "in section [" + sectionName + "]",
+                                    ex);
+        }
+    }
+
+    /**
+     * Prepare to check a feed's articles: take the time stamp to record
+     * with them and, the first time through in a run, expire the store's
+     * old entries.
+     *
+     * @param store  the store
+     */
+    void startFeed(Store store)
+    {
+        currentStamp = currentStamp();
+        if (! pruned)
+        {
+            prune (store);
+            pruned = true;
+        }
+    }
+
+    /**
+     * Get the time stamp to record with the current feed's articles.
+     *
+     * @return the time stamp, in minutes since the epoch
+     */
+    int getStamp()
+    {
+        return currentStamp;
+    }
+
+    /**
+     * Remove entries that haven't been seen within the history interval.
+     *
+     * @param store  the store
+     */
+    void prune(Store store)
+    {
+        int cutoff = currentStamp() -
+                     (int) Math.min (historyMillis / MILLIS_PER_MINUTE,
+                                     Integer.MAX_VALUE / 2);
+        int removed = store.removeOlderThan (cutoff);
+        if (removed > 0)
+            log.debug ("Expired " + removed + " " + entryName);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static int currentStamp()
+    {
+        return (int) (System.currentTimeMillis() / MILLIS_PER_MINUTE);
+    }
+}
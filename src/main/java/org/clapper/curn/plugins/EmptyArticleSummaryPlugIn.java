@@ -39,7 +39,7 @@ import org.clapper.curn.CurnConfig;
 import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
 import org.clapper.curn.FeedConfigItemPlugIn;
-import org.clapper.curn.PostFeedProcessPlugIn;
+import org.clapper.curn.PostFeedProcessItemPlugIn;
 import org.clapper.curn.MainConfigItemPlugIn;
 import org.clapper.curn.CurnUtil;
 import org.clapper.curn.parser.RSSChannel;
@@ -100,7 +100,7 @@ import org.clapper.curn.FeedCache;
 public class EmptyArticleSummaryPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessItemPlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -144,6 +144,11 @@ public class EmptyArticleSummaryPlugIn
      */
     private static final Logger log = new Logger(EmptyArticleSummaryPlugIn.class);
 
+    /**
+     * The setting for the feed whose items are being processed.
+     */
+    private ReplacementType currentType = ReplacementType.NOTHING;
+
     /*----------------------------------------------------------------------*\
                                 Constructor
     \*----------------------------------------------------------------------*/
@@ -335,33 +340,26 @@ public class EmptyArticleSummaryPlugIn
     }
 
     /**
-     * Called immediately after a feed is parsed, but before it is
-     * otherwise processed. This method can return <tt>false</tt> to signal
-     * <i>curn</i> that the feed should be skipped. For instance, a plug-in
-     * that filters on the parsed feed data could use this method to weed
-     * out non-matching feeds before they are downloaded. Similarly, a
-     * plug-in that edits the parsed data (removing or editing individual
-     * items, for instance) could use method to do so.
+     * Called once for each feed, after the feed has been parsed and
+     * processed, and before its items are passed to
+     * {@link #runPostFeedProcessItemPlugIn runPostFeedProcessItemPlugIn()}.
      *
      * @param feedInfo  the {@link FeedInfo} object for the feed that
      *                  has been downloaded and parsed.
      * @param feedCache the feed cache
      * @param channel   the parsed channel data
      *
-     * @return <tt>true</tt> if <i>curn</i> should continue to process the
-     *         feed, <tt>false</tt> to skip the feed. A return value of
-     *         <tt>false</tt> aborts all further processing on the feed.
-     *         In particular, <i>curn</i> will not pass the feed along to
-     *         other plug-ins that have yet to be notified of this event.
+     * @return <tt>true</tt> if this plug-in has work to do on the feed's
+     *         items, <tt>false</tt> if not
      *
      * @throws CurnException on error
      *
      * @see RSSChannel
      * @see FeedInfo
      */
-    public boolean runPostFeedProcessPlugIn(FeedInfo   feedInfo,
-                                          FeedCache  feedCache,
-                                          RSSChannel channel)
+    public boolean startPostFeedItemProcessing(FeedInfo   feedInfo,
+                                               FeedCache  feedCache,
+                                               RSSChannel channel)
         throws CurnException
     {
         ReplacementType type = perFeedSetting.get(feedInfo);
@@ -377,34 +375,62 @@ public class EmptyArticleSummaryPlugIn
                 log.debug("Replacing empty summaries with content in " +
                           "feed \"" + feedInfo.getURL().toString() +
                           "\"");
-                String s;
-                for (RSSItem item : channel.getItems())
-                {
-                    if (item.getSummary() == null)
-                    {
-                        s = item.getFirstContentOfType("text/html",
-                                                       "text/plain");
-                        if (s != null)
-                            item.setSummary(s);
-                    }
-                }
                 break;
 
             case TITLE:
                 log.debug("Replacing empty summaries with title in " +
                          "feed \"" + feedInfo.getURL().toString() +
                          "\"");
-                for (RSSItem item : channel.getItems())
-                {
-                    if (item.getSummary() == null)
-                        item.setSummary(item.getTitle());
-                }
                 break;
 
             default:
                 assert (false);
         }
 
+        currentType = type;
+        return (type != ReplacementType.NOTHING);
+    }
+
+    /**
+     * Called for each of a feed's items, after the feed has been parsed
+     * and processed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     * @param channel   the parsed channel data
+     * @param item      the item
+     * @param itemIndex the number of the feed's items already passed to
+     *                  this method
+     *
+     * @return <tt>true</tt> to keep the item, <tt>false</tt> to drop it
+     *
+     * @throws CurnException on error
+     */
+    public boolean runPostFeedProcessItemPlugIn(FeedInfo   feedInfo,
+                                                RSSChannel channel,
+                                                RSSItem    item,
+                                                int        itemIndex)
+        throws CurnException
+    {
+        if (item.getSummary() == null)
+        {
+            switch (currentType)
+            {
+                case CONTENT:
+                    String s = item.getFirstContentOfType("text/html",
+                                                          "text/plain");
+                    if (s != null)
+                        item.setSummary(s);
+                    break;
+
+                case TITLE:
+                    item.setSummary(item.getTitle());
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
         return true;
     }
 }
@@ -40,14 +40,14 @@ import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
 import org.clapper.curn.FeedConfigItemPlugIn;
 import org.clapper.curn.MainConfigItemPlugIn;
-import org.clapper.curn.PostFeedProcessPlugIn;
+import org.clapper.curn.PostFeedProcessItemPlugIn;
+import org.clapper.curn.parser.HTMLText;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
 
 import org.clapper.util.classutil.ClassUtil;
 import org.clapper.util.config.ConfigurationException;
 import org.clapper.util.logging.Logger;
-import org.clapper.util.html.HTMLUtil;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -86,7 +86,7 @@ import org.clapper.curn.FeedCache;
 public class FeedMaxSummarySizePlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessItemPlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -115,6 +115,12 @@ public class FeedMaxSummarySizePlugIn
      */
     private static final Logger log = new Logger (FeedMaxSummarySizePlugIn.class);
 
+    /**
+     * The maximum summary size for the feed whose items are being
+     * processed.
+     */
+    private int currentMax = NO_MAX;
+
     /*----------------------------------------------------------------------*\
                                 Constructor
     \*----------------------------------------------------------------------*/
@@ -260,33 +266,26 @@ public class FeedMaxSummarySizePlugIn
     }
 
     /**
-     * Called immediately after a feed is parsed, but before it is
-     * otherwise processed. This method can return <tt>false</tt> to signal
-     * <i>curn</i> that the feed should be skipped. For instance, a plug-in
-     * that filters on the parsed feed data could use this method to weed
-     * out non-matching feeds before they are downloaded. Similarly, a
-     * plug-in that edits the parsed data (removing or editing individual
-     * items, for instance) could use method to do so.
+     * Called once for each feed, after the feed has been parsed and
+     * processed, and before its items are passed to
+     * {@link #runPostFeedProcessItemPlugIn runPostFeedProcessItemPlugIn()}.
      *
      * @param feedInfo  the {@link FeedInfo} object for the feed that
      *                  has been downloaded and parsed.
      * @param feedCache the feed cache
      * @param channel   the parsed channel data
      *
-     * @return <tt>true</tt> if <i>curn</i> should continue to process the
-     *         feed, <tt>false</tt> to skip the feed. A return value of
-     *         <tt>false</tt> aborts all further processing on the feed.
-     *         In particular, <i>curn</i> will not pass the feed along to
-     *         other plug-ins that have yet to be notified of this event.
+     * @return <tt>true</tt> if this plug-in has work to do on the feed's
+     *         items, <tt>false</tt> if not
      *
      * @throws CurnException on error
      *
      * @see RSSChannel
      * @see FeedInfo
      */
-    public boolean runPostFeedProcessPlugIn(FeedInfo   feedInfo,
-                                          FeedCache  feedCache,
-                                          RSSChannel channel)
+    public boolean startPostFeedItemProcessing(FeedInfo   feedInfo,
+                                               FeedCache  feedCache,
+                                               RSSChannel channel)
         throws CurnException
     {
         Integer maxBoxed = perFeedMaxSummarySize.get (feedInfo);
@@ -295,19 +294,40 @@ public class FeedMaxSummarySizePlugIn
         if (maxBoxed != null)
             max = maxBoxed;
 
-        if (max != NO_MAX)
-        {
-            log.debug("Truncating all item summaries to " + max +
-                      " characters for feed \"" +
-                      feedInfo.getURL().toString() +
-                      "\"");
-            for (RSSItem item : channel.getItems())
-            {
-                String summary = item.getSummary();
-                if (summary != null)
-                    item.setSummary(truncateSummary(summary, max));
-            }
-        }
+        currentMax = max;
+        if (max == NO_MAX)
+            return false;
+
+        log.debug("Truncating all item summaries to " + max +
+                  " characters for feed \"" +
+                  feedInfo.getURL().toString() +
+                  "\"");
+        return true;
+    }
+
+    /**
+     * Called for each of a feed's items, after the feed has been parsed
+     * and processed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     * @param channel   the parsed channel data
+     * @param item      the item
+     * @param itemIndex the number of the feed's items already passed to
+     *                  this method
+     *
+     * @return <tt>true</tt> to keep the item, <tt>false</tt> to drop it
+     *
+     * @throws CurnException on error
+     */
+    public boolean runPostFeedProcessItemPlugIn(FeedInfo   feedInfo,
+                                                RSSChannel channel,
+                                                RSSItem    item,
+                                                int        itemIndex)
+        throws CurnException
+    {
+        String summary = item.getSummary();
+        if (summary != null)
+            item.setSummary(truncateSummary(summary, currentMax));
 
         return true;
     }
@@ -328,7 +348,7 @@ public class FeedMaxSummarySizePlugIn
     private String truncateSummary (String summary, int maxSize)
     {
         // Can't truncate HTML right now...
-        summary = HTMLUtil.textFromHTML (summary.trim());
+        summary = HTMLText.textFromHTML (summary.trim());
 
         if (summary.length() > maxSize)
         {
@@ -0,0 +1,372 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.curn.plugins;
+
+import java.util.Map;
+
+/**
+ * A compact set of 64-bit article fingerprints, for
+ * {@link IgnoreDuplicateArticlesPlugIn}. Each fingerprint carries a 32-bit
+ * "owner" (a hash identifying the article that first produced it) and a
+ * time stamp (minutes since the epoch) recording when it was last seen.
+ * Entries live in parallel primitive arrays, using open addressing, so
+ * a membership test is a few array probes, with no per-entry objects.
+ * Not thread-safe.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class FingerprintSet implements ArticleHistory.Store
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int MIN_CAPACITY = 64;
+
+    /**
+     * Marks an empty slot. A real fingerprint of 0 is stored as 1.
+     */
+    private static final long EMPTY = 0;
+
+    /**
+     * Hex digits per encoded entry: fingerprint, owner and time stamp.
+     */
+    private static final int ENCODED_ENTRY_LENGTH = 16 + 8 + 8;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME        = 0x100000001b3L;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private long[] fingerprints;
+    private int[]  owners;
+    private int[]  stamps;
+    private int    size = 0;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new, empty set.
+     */
+    FingerprintSet()
+    {
+        allocate(MIN_CAPACITY);
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Compute the 64-bit FNV-1a hash of a string, after normalizing it:
+     * letters are converted to lower case, and runs of white space are
+     * collapsed to a single space, ignoring leading and trailing white
+     * space. Successive calls can be chained by passing the result of
+     * one as the <tt>hash</tt> argument of the next.
+     *
+     * @param s     the string; null is treated as empty
+     * @param hash  the starting hash, or 0 to start a new one
+     *
+     * @return the hash
+     */
+    static long fingerprint(CharSequence s, long hash)
+    {
+        long h = (hash == 0) ? FNV_OFFSET_BASIS : hash;
+
+        if (s != null)
+        {
+            boolean pendingSpace = false;
+            boolean any = false;
+            int len = s.length();
+            for (int i = 0; i < len; i++)
+            {
+                char c = s.charAt(i);
+                if (Character.isWhitespace(c))
+                {
+                    pendingSpace = any;
+                    continue;
+                }
+
+                if (pendingSpace)
+                {
+                    h = (h ^ ' ') * FNV_PRIME;
+                    pendingSpace = false;
+                }
+
+                h = (h ^ Character.toLowerCase(c)) * FNV_PRIME;
+                any = true;
+            }
+        }
+
+        // Separator, so that ("ab", "c") and ("a", "bc") differ.
+
+        return (h ^ 0xff) * FNV_PRIME;
+    }
+
+    /**
+     * Get the number of fingerprints in the set.
+     *
+     * @return the size
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Determine whether a fingerprint is in the set, with a different
+     * owner. A fingerprint that's present with the same owner was produced
+     * by the same article, seen again (e.g., one that's being retained).
+     *
+     * @param fingerprint  the fingerprint
+     * @param owner        the owner of the article being tested
+     *
+     * @return <tt>true</tt> if another article produced the fingerprint
+     */
+    boolean isDuplicate(long fingerprint, int owner)
+    {
+        int i = find(normalize(fingerprint));
+        return (fingerprints[i] != EMPTY) && (owners[i] != owner);
+    }
+
+    /**
+     * Add a fingerprint to the set. If it's already present, only its
+     * time stamp is updated; the original owner is kept.
+     *
+     * @param fingerprint  the fingerprint
+     * @param owner        the owner
+     * @param stamp        the time stamp, in minutes since the epoch
+     */
+    void add(long fingerprint, int owner, int stamp)
+    {
+        long fp = normalize(fingerprint);
+        int i = find(fp);
+        if (fingerprints[i] != EMPTY)
+        {
+            if (stamp > stamps[i])
+                stamps[i] = stamp;
+        }
+
+        else
+        {
+            fingerprints[i] = fp;
+            owners[i] = owner;
+            stamps[i] = stamp;
+            if (++size * 2 > fingerprints.length)
+                rehash(fingerprints.length * 2);
+        }
+    }
+
+    /**
+     * Remove all fingerprints last seen before a specified time.
+     *
+     * @param stamp  the cutoff, in minutes since the epoch
+     *
+     * @return the number of fingerprints removed
+     */
+    public int removeOlderThan(int stamp)
+    {
+        long[] oldFingerprints = fingerprints;
+        int[]  oldOwners = owners;
+        int[]  oldStamps = stamps;
+        int    oldSize = size;
+        int    capacity = MIN_CAPACITY;
+
+        while (capacity < oldSize * 2)
+            capacity *= 2;
+
+        allocate(capacity);
+        for (int i = 0; i < oldFingerprints.length; i++)
+        {
+            if ((oldFingerprints[i] != EMPTY) && (oldStamps[i] >= stamp))
+                add(oldFingerprints[i], oldOwners[i], oldStamps[i]);
+        }
+
+        return oldSize - size;
+    }
+
+    /**
+     * Encode the set as a series of strings of hex digits, storing them
+     * in a map under the names <i>prefix</i>0, <i>prefix</i>1, etc.
+     *
+     * @param map              where to store the strings
+     * @param prefix           the name prefix
+     * @param entriesPerString the maximum number of entries per string
+     */
+    void encode(Map<String,String> map, String prefix, int entriesPerString)
+    {
+        StringBuilder buf = new StringBuilder
+            (Math.min(size, entriesPerString) * ENCODED_ENTRY_LENGTH);
+        int chunk = 0;
+        int inChunk = 0;
+
+        for (int i = 0; i < fingerprints.length; i++)
+        {
+            if (fingerprints[i] == EMPTY)
+                continue;
+
+            appendHex(buf, fingerprints[i] >>> 32, 8);
+            appendHex(buf, fingerprints[i], 8);
+            appendHex(buf, owners[i], 8);
+            appendHex(buf, stamps[i], 8);
+
+            if (++inChunk == entriesPerString)
+            {
+                map.put(prefix + chunk++, buf.toString());
+                buf.setLength(0);
+                inChunk = 0;
+            }
+        }
+
+        if (inChunk > 0)
+            map.put(prefix + chunk, buf.toString());
+    }
+
+    /**
+     * Add the entries in a string produced by {@link #encode}.
+     *
+     * @param encoded the encoded entries
+     *
+     * @return the number of entries decoded
+     *
+     * @throws NumberFormatException malformed string
+     */
+    int decode(String encoded)
+    {
+        int len = encoded.length();
+        if ((len % ENCODED_ENTRY_LENGTH) != 0)
+            throw new NumberFormatException("Bad fingerprint data length");
+
+        int total = 0;
+        for (int i = 0; i < len; i += ENCODED_ENTRY_LENGTH)
+        {
+            long fp = (parseHex(encoded, i) << 32) |
+                      parseHex(encoded, i + 8);
+            int owner = (int) parseHex(encoded, i + 16);
+            int stamp = (int) parseHex(encoded, i + 24);
+            add(fp, owner, stamp);
+            total++;
+        }
+
+        return total;
+    }
+
+    /**
+     * Append the low-order <tt>digits</tt> hex digits of a value. Also used
+     * by {@link MinHashIndex}.
+     */
+    static void appendHex(StringBuilder buf, long value, int digits)
+    {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4)
+            buf.append(HEX_DIGITS[(int) (value >>> shift) & 0xf]);
+    }
+
+    /**
+     * Parse the eight hex digits starting at an index. Also used by
+     * {@link MinHashIndex}.
+     */
+    static long parseHex(String s, int start)
+    {
+        long value = 0;
+        for (int i = start; i < start + 8; i++)
+        {
+            int digit = Character.digit(s.charAt(i), 16);
+            if (digit < 0)
+                throw new NumberFormatException("Bad hex digit in \"" +
+                                                s.substring(start, start + 8) +
+                                                "\"");
+            value = (value << 4) | digit;
+        }
+
+        return value;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private void allocate(int capacity)
+    {
+        fingerprints = new long[capacity];
+        owners = new int[capacity];
+        stamps = new int[capacity];
+        size = 0;
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] oldFingerprints = fingerprints;
+        int[]  oldOwners = owners;
+        int[]  oldStamps = stamps;
+
+        allocate(capacity);
+        for (int i = 0; i < oldFingerprints.length; i++)
+        {
+            if (oldFingerprints[i] != EMPTY)
+            {
+                int j = find(oldFingerprints[i]);
+                fingerprints[j] = oldFingerprints[i];
+                owners[j] = oldOwners[i];
+                stamps[j] = oldStamps[i];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Find the slot holding a fingerprint, or the empty slot where it
+     * belongs, using linear probing.
+     */
+    private int find(long fp)
+    {
+        int mask = fingerprints.length - 1;
+        int i = (int) (fp ^ (fp >>> 32)) & mask;
+        while ((fingerprints[i] != EMPTY) && (fingerprints[i] != fp))
+            i = (i + 1) & mask;
+
+        return i;
+    }
+
+    private static long normalize(long fingerprint)
+    {
+        return (fingerprint == EMPTY) ? 1 : fingerprint;
+    }
+}
@@ -35,6 +35,7 @@
 
 package org.clapper.curn.plugins;
 
+import org.clapper.curn.ContentEncoding;
 import org.clapper.curn.CurnConfig;
 import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
@@ -53,8 +54,9 @@ import java.util.HashMap;
 
 /**
  * The <tt>GzipDownloadPlugIn</tt> handles setting the global and
- * per-feed HTTP header that requests gzipped (compressed) feed data
- * (assuming the remote server honors that header). It intercepts the
+ * per-feed HTTP <tt>Accept-Encoding</tt> header that requests compressed
+ * feed data (assuming the remote server honors that header). The
+ * response is decoded by {@link ContentEncoding}. It intercepts the
  * following configuration parameters:
  *
  * <table border="1">
@@ -70,9 +72,22 @@ import java.util.HashMap;
  *         sections. Defaults to true.</td>
  *   </tr>
  *   <tr valign="top">
+ *     <td><tt>[curn]</tt></td>
+ *     <td><tt>AcceptEncoding</tt></td>
+ *     <td>The global default <tt>Accept-Encoding</tt> value, used when
+ *         compressed data is requested. Defaults to
+ *         {@link ContentEncoding#DEFAULT_ACCEPT_ENCODING}.</td>
+ *   </tr>
+ *   <tr valign="top">
  *     <td><tt>[Feed<i>xxx</i>]</tt></td>
  *     <td><tt>GzipDownload</tt></td>
- *     <td>Whether or not to ask for gzipped data for a particular feed.
+ *     <td>Whether or not to ask for compressed data for a particular feed.
+ *         Defaults to the global setting if not specified.</td>
+ *   </tr>
+ *   <tr valign="top">
+ *     <td><tt>[Feed<i>xxx</i>]</tt></td>
+ *     <td><tt>AcceptEncoding</tt></td>
+ *     <td>The <tt>Accept-Encoding</tt> value for a particular feed.
  *         Defaults to the global setting if not specified.</td>
  *   </tr>
  * </table>
@@ -90,6 +105,7 @@ public class GzipDownloadPlugIn
 
     private static final String VAR_OLD_GET_GZIPPED_FEEDS = "GetGzippedFeeds";
     private static final String VAR_GZIP_DOWNLOAD         = "GzipDownload";
+    private static final String VAR_ACCEPT_ENCODING       = "AcceptEncoding";
 
     /*----------------------------------------------------------------------*\
                             Private Data Items
@@ -106,6 +122,18 @@ public class GzipDownloadPlugIn
      */
     private boolean requestGzipDefault = true;
 
+    /**
+     * Accept-Encoding values, by feed
+     */
+    private Map<FeedInfo,String> perFeedAcceptEncoding =
+        new HashMap<FeedInfo,String>();
+
+    /**
+     * Default Accept-Encoding value
+     */
+    private String acceptEncodingDefault =
+        ContentEncoding.DEFAULT_ACCEPT_ENCODING;
+
     /**
      * For log messages
      */
@@ -202,6 +230,14 @@ public class GzipDownloadPlugIn
                 requestGzipDefault =
                     config.getRequiredBooleanValue (sectionName, paramName);
             }
+
+            else if (paramName.equals (VAR_ACCEPT_ENCODING))
+            {
+                acceptEncodingDefault =
+                    ContentEncoding.normalizeAcceptEncoding
+                        (config.getConfigurationValue (sectionName,
+                                                       paramName));
+            }
         }
 
         catch (ConfigurationException ex)
@@ -269,6 +305,17 @@ public class GzipDownloadPlugIn
                            flag);
             }
 
+            else if (paramName.equals (VAR_ACCEPT_ENCODING))
+            {
+                String value =
+                    ContentEncoding.normalizeAcceptEncoding
+                        (config.getConfigurationValue (sectionName,
+                                                       paramName));
+                perFeedAcceptEncoding.put (feedInfo, value);
+                log.debug ("[" + sectionName + "]: " + paramName + "=" +
+                           value);
+            }
+
             return true;
         }
 
@@ -320,10 +367,15 @@ public class GzipDownloadPlugIn
 
         if (gzip)
         {
-            log.debug ("Setting header \"Accept-Encoding\" to \"gzip\" " +
-                       "for feed \"" + feedInfo.getURL() + "\"");
+            String acceptEncoding = perFeedAcceptEncoding.get (feedInfo);
+            if (acceptEncoding == null)
+                acceptEncoding = acceptEncodingDefault;
+
+            log.debug ("Setting header \"Accept-Encoding\" to \"" +
+                       acceptEncoding + "\" for feed \"" +
+                       feedInfo.getURL() + "\"");
 
-            urlConn.setRequestProperty ("Accept-Encoding", "gzip");
+            urlConn.setRequestProperty ("Accept-Encoding", acceptEncoding);
         }
 
         return true;
@@ -39,7 +39,9 @@ import org.clapper.curn.CurnConfig;
 import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
 import org.clapper.curn.FeedConfigItemPlugIn;
-import org.clapper.curn.PostFeedProcessPlugIn;
+import org.clapper.curn.MainConfigItemPlugIn;
+import org.clapper.curn.PostFeedProcessItemPlugIn;
+import org.clapper.curn.parser.HTMLText;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
 import org.clapper.curn.parser.RSSLink;
@@ -47,33 +49,75 @@ import org.clapper.curn.parser.RSSLink;
 import org.clapper.util.classutil.ClassUtil;
 import org.clapper.util.config.ConfigurationException;
 import org.clapper.util.logging.Logger;
+import org.clapper.util.text.Duration;
 
 import java.util.HashMap;
 import java.util.Map;
 import org.clapper.curn.FeedCache;
 
 /**
- * The <tt>IgnoreDuplicateArticlesPlugIn</tt> handles removing duplicate
- * items from downloaded feeds, where "duplicate" means "has the same
- * title". It intercepts the following per-feed configuration parameters:
+ * <p>The <tt>IgnoreDuplicateArticlesPlugIn</tt> handles removing duplicate
+ * items from downloaded feeds. It supports two kinds of "duplicate":</p>
+ *
+ * <ul>
+ *   <li>Within one feed, an item that has the same title as an earlier
+ *       item.
+ *   <li>Across all feeds and runs, an item that has the same link, or the
+ *       same title and summary, as an item already seen in another feed
+ *       (or as another item in the same feed). This catches syndicated
+ *       stories that appear in many feeds. Each item is reduced to two
+ *       64-bit fingerprints, of its normalized link and of its normalized
+ *       title and summary; the fingerprints are kept in a compact hash set
+ *       that's saved with <i>curn</i>'s persistent data, and fingerprints
+ *       that haven't been seen for a while are expired.
+ * </ul>
+ *
+ * <p>It intercepts the following configuration parameters:</p>
  *
  * <table border="1">
  *   <tr valign="top" align="left">
+ *     <th>Section</th>
  *     <th>Parameter</th>
  *     <th>Meaning</th>
+ *     <th>Default</th>
+ *   </tr>
+ *   <tr valign="top">
+ *     <td><tt>[curn]</tt></td>
+ *     <td><tt>IgnoreDuplicateArticles</tt></td>
+ *     <td>Set to "true" to strip articles already seen in any feed, in
+ *         this run or a previous one. Applies to all feeds that don't
+ *         override it.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr valign="top">
+ *     <td><tt>[curn]</tt></td>
+ *     <td><tt>DuplicateArticleHistory</tt></td>
+ *     <td>How long to remember an article's fingerprints, after it was
+ *         last seen, expressed as a {@link Duration} string.</td>
+ *     <td>30 days</td>
+ *   </tr>
+ *   <tr valign="top">
+ *     <td><tt>[Feed<i>xxx</i>]</tt></td>
+ *     <td><tt>IgnoreDuplicateArticles</tt></td>
+ *     <td>Per-feed override of the global setting.</td>
+ *     <td>The global setting</td>
  *   </tr>
  *   <tr valign="top">
+ *     <td><tt>[Feed<i>xxx</i>]</tt></td>
  *     <td><tt>IgnoreDuplicateTitles</tt></td>
- *     <td>Set to "true" to strip duplicate titles, "false" to pass them
- *         along. Defaults to "false".</td>
+ *     <td>Set to "true" to strip duplicate titles within the feed, "false"
+ *         to pass them along.</td>
+ *     <td>false</td>
  *   </tr>
  * </table>
  *
  * @version <tt>$Revision$</tt>
  */
 public class IgnoreDuplicateArticlesPlugIn
-    implements FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+    extends AbstractExtraMetadataClient
+    implements MainConfigItemPlugIn,
+               FeedConfigItemPlugIn,
+               PostFeedProcessItemPlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -81,6 +125,22 @@ public class IgnoreDuplicateArticlesPlugIn
 
     private static final String VAR_IGNORE_DUP_TITLES =
         "IgnoreDuplicateTitles";
+    private static final String VAR_IGNORE_DUP_ARTICLES =
+        "IgnoreDuplicateArticles";
+    private static final String VAR_DUP_ARTICLE_HISTORY =
+        "DuplicateArticleHistory";
+
+    /**
+     * Default value for DuplicateArticleHistory, in days.
+     */
+    private static final int DEFAULT_HISTORY_DAYS = 30;
+
+    /**
+     * Prefix for the names of the persisted fingerprint data, and the
+     * number of fingerprints stored in each value.
+     */
+    private static final String FINGERPRINT_DATA_PREFIX = "fingerprints.";
+    private static final int FINGERPRINTS_PER_VALUE = 1024;
 
     /*----------------------------------------------------------------------*\
                             Private Data Items
@@ -92,6 +152,28 @@ public class IgnoreDuplicateArticlesPlugIn
     private Map<FeedInfo,Boolean> perFeedIgnoreFlagMap =
         new HashMap<FeedInfo,Boolean>();
 
+    /**
+     * Feed "ignore duplicate articles" flags, by feed, and the default
+     */
+    private Map<FeedInfo,Boolean> perFeedIgnoreArticlesMap =
+        new HashMap<FeedInfo,Boolean>();
+    private boolean ignoreArticlesDefault = false;
+
+    /**
+     * Fingerprints of the articles seen, in this run and previous ones,
+     * and how long to remember them.
+     */
+    private final FingerprintSet fingerprints = new FingerprintSet();
+    private final ArticleHistory history =
+        new ArticleHistory ("article fingerprints", DEFAULT_HISTORY_DAYS);
+
+    /**
+     * State for the feed whose items are being processed.
+     */
+    private String              currentFeedURL = null;
+    private Map<String,RSSItem> currentTitlesSeen = null;
+    private boolean             currentCheckArticles = false;
+
     /**
      * For log messages
      */
@@ -145,6 +227,52 @@ public class IgnoreDuplicateArticlesPlugIn
     {
     }
 
+    /**
+     * Called immediately after <i>curn</i> has read and processed a
+     * configuration item in the main [curn] configuration section. All
+     * configuration items are passed, one by one, to each loaded plug-in.
+     * If a plug-in class is not interested in a particular configuration
+     * item, this method should simply return without doing anything. Note
+     * that some configuration items may simply be variable assignment;
+     * there's no real way to distinguish a variable assignment from a
+     * blessed configuration item.
+     *
+     * @param sectionName  the name of the configuration section where
+     *                     the item was found
+     * @param paramName    the name of the parameter
+     * @param config       the {@link CurnConfig} object
+     *
+     * @throws CurnException on error
+     *
+     * @see CurnConfig
+     */
+    public void runMainConfigItemPlugIn(String     sectionName,
+                                        String     paramName,
+                                        CurnConfig config)
+        throws CurnException
+    {
+        try
+        {
+            if (paramName.equals (VAR_IGNORE_DUP_ARTICLES))
+            {
+                ignoreArticlesDefault =
+                    config.getRequiredBooleanValue (sectionName, paramName);
+                log.debug ("[" + sectionName + "]: " + paramName +
+                           "=" + ignoreArticlesDefault);
+            }
+
+            else if (paramName.equals (VAR_DUP_ARTICLE_HISTORY))
+            {
+                history.configure (config, sectionName, paramName);
+            }
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException (ex);
+        }
+    }
+
     /**
      * Called immediately after <i>curn</i> has read and processed a
      * configuration item in a "feed" configuration section. All
@@ -189,6 +317,15 @@ public class IgnoreDuplicateArticlesPlugIn
                            "=" + flag);
             }
 
+            else if (paramName.equals (VAR_IGNORE_DUP_ARTICLES))
+            {
+                boolean flag = config.getRequiredBooleanValue (sectionName,
+                                                               paramName);
+                perFeedIgnoreArticlesMap.put (feedInfo, flag);
+                log.debug ("[" + sectionName + "]: " + paramName +
+                           "=" + flag);
+            }
+
             return true;
         }
 
@@ -199,95 +336,250 @@ public class IgnoreDuplicateArticlesPlugIn
     }
 
     /**
-     * Called immediately after a feed is parsed, but before it is
-     * otherwise processed. This method can return <tt>false</tt> to signal
-     * <i>curn</i> that the feed should be skipped. For instance, a plug-in
-     * that filters on the parsed feed data could use this method to weed
-     * out non-matching feeds before they are downloaded. Similarly, a
-     * plug-in that edits the parsed data (removing or editing individual
-     * items, for instance) could use method to do so.
+     * Called once for each feed, after the feed has been parsed and
+     * processed, and before its items are passed to
+     * {@link #runPostFeedProcessItemPlugIn runPostFeedProcessItemPlugIn()}.
      *
      * @param feedInfo  the {@link FeedInfo} object for the feed that
      *                  has been downloaded and parsed.
      * @param feedCache the feed cache
      * @param channel   the parsed channel data
      *
-     * @return <tt>true</tt> if <i>curn</i> should continue to process the
-     *         feed, <tt>false</tt> to skip the feed. A return value of
-     *         <tt>false</tt> aborts all further processing on the feed.
-     *         In particular, <i>curn</i> will not pass the feed along to
-     *         other plug-ins that have yet to be notified of this event.
+     * @return <tt>true</tt> if this plug-in has work to do on the feed's
+     *         items, <tt>false</tt> if not
      *
      * @throws CurnException on error
      *
      * @see RSSChannel
      * @see FeedInfo
      */
-    public boolean runPostFeedProcessPlugIn(FeedInfo   feedInfo,
-                                          FeedCache  feedCache,
-                                          RSSChannel channel)
+    public boolean startPostFeedItemProcessing(FeedInfo   feedInfo,
+                                               FeedCache  feedCache,
+                                               RSSChannel channel)
         throws CurnException
     {
-        Boolean ignore = perFeedIgnoreFlagMap.get (feedInfo);
-        if ((ignore != null) && (ignore))
+        Boolean ignoreTitles = perFeedIgnoreFlagMap.get (feedInfo);
+        Boolean ignoreArticles = perFeedIgnoreArticlesMap.get (feedInfo);
+
+        currentFeedURL = feedInfo.getURL().toString();
+        currentTitlesSeen = null;
+        currentCheckArticles = (ignoreArticles == null) ? ignoreArticlesDefault
+                                                        : ignoreArticles;
+
+        if ((ignoreTitles != null) && (ignoreTitles))
         {
-            String feedURL = feedInfo.getURL().toString();
-            log.debug ("Stripping duplicate titles from " + feedURL);
-            Map<String,RSSItem> titlesSeen = new HashMap<String,RSSItem>();
+            log.debug ("Stripping duplicate titles from " + currentFeedURL);
+            currentTitlesSeen = new HashMap<String,RSSItem>();
+        }
 
-            for (RSSItem item : channel.getItems())
+        if (currentCheckArticles)
+        {
+            log.debug ("Stripping articles already seen from " +
+                       currentFeedURL);
+            synchronized (fingerprints)
             {
-                RSSLink itemLink   = item.getURL();
-                String  strItemURL = itemLink.getURL().toString();
-                String  title      = item.getTitle();
-                String  titleKey;
+                history.startFeed (fingerprints);
+            }
+        }
 
-                if (title == null)
-                    titleKey = strItemURL;
+        return (currentTitlesSeen != null) || currentCheckArticles;
+    }
 
-                else
-                {
-                    // Convert to lower case and consolidate multiple
-                    // adjacent white space characters.
+    /**
+     * Called for each of a feed's items, after the feed has been parsed
+     * and processed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     * @param channel   the parsed channel data
+     * @param item      the item
+     * @param itemIndex the number of the feed's items already passed to
+     *                  this method
+     *
+     * @return <tt>true</tt> to keep the item, <tt>false</tt> to drop it
+     *
+     * @throws CurnException on error
+     */
+    public boolean runPostFeedProcessItemPlugIn(FeedInfo   feedInfo,
+                                                RSSChannel channel,
+                                                RSSItem    item,
+                                                int        itemIndex)
+        throws CurnException
+    {
+        if ((currentTitlesSeen != null) && isDuplicateTitle (item))
+            return false;
 
-                    titleKey = title.toLowerCase().replaceAll ("\\s+", " ");
-                }
+        if (currentCheckArticles && isDuplicateArticle (item))
+            return false;
 
-                RSSItem firstOne = titlesSeen.get (titleKey);
-                if (firstOne != null)
-                {
-                    String  strFirstOneURL = firstOne.getURL().toString();
-                    String  firstTitle     = firstOne.getTitle();
-
-                    if (firstTitle == null)
-                        firstTitle = strFirstOneURL;
-
-                    log.debug ("Feed " +
-                               feedURL +
-                               ": Ignoring item with URL \"" +
-                               strItemURL +
-                               "\" and title \"" +
-                               title +
-                               "\": It matches already seen item with URL \"" +
-                               strFirstOneURL +
-                               "\" and title \"" +
-                               firstTitle +
-                               "\"");
-
-                    // Since getItems() returns a copy of the list of
-                    // items, this call will not cause a
-                    // ConcurrentModificationException to be thrown.
-
-                    channel.removeItem (item);
-                }
+        return true;
+    }
 
-                else
+    /*----------------------------------------------------------------------*\
+          Public Methods Required by PersistentDataClient Interface
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Process an "extra" data item that is not associated with a feed
+     * or an item. This plug-in stores its fingerprints that way.
+     *
+     * @param name  the name of the data item
+     * @param value its value
+     *
+     * @throws CurnException on error
+     */
+    public void parseExtraMetadata(String name, String value)
+        throws CurnException
+    {
+        if (name.startsWith (FINGERPRINT_DATA_PREFIX))
+        {
+            try
+            {
+                synchronized (fingerprints)
                 {
-                    titlesSeen.put (titleKey, item);
+                    int total = fingerprints.decode (value);
+                    log.debug ("Loaded " + total + " article fingerprints " +
+                               "from \"" + name + "\"");
                 }
             }
+
+            catch (NumberFormatException ex)
+            {
+                log.error ("Ignoring malformed article fingerprint data " +
+                           "\"" + name + "\"", ex);
+            }
+        }
+    }
+
+    /**
+     * Get the extra metadata to be saved: the unexpired fingerprints.
+     *
+     * @return a <tt>Map</tt> of all the name/value pairs to be saved
+     *
+     * @throws CurnException on error
+     */
+    public Map<String,String> getExtraFeedMetadata()
+        throws CurnException
+    {
+        Map<String,String> result = new HashMap<String,String>();
+
+        synchronized (fingerprints)
+        {
+            history.prune (fingerprints);
+            fingerprints.encode (result,
+                                 FINGERPRINT_DATA_PREFIX,
+                                 FINGERPRINTS_PER_VALUE);
+            log.debug ("Saving " + fingerprints.size() +
+                       " article fingerprints");
         }
 
+        return result;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Determine whether an item's title matches that of an earlier item
+     * in the current feed.
+     *
+     * @param item  the item
+     *
+     * @return <tt>true</tt> if it's a duplicate, <tt>false</tt> if not
+     */
+    private boolean isDuplicateTitle (RSSItem item)
+    {
+        RSSLink itemLink   = item.getURL();
+        String  strItemURL = itemLink.getURL().toString();
+        String  title      = item.getTitle();
+        String  titleKey;
+
+        if (title == null)
+            titleKey = strItemURL;
+
+        else
+        {
+            // Convert to lower case and consolidate multiple adjacent
+            // white space characters.
+
+            titleKey = title.toLowerCase().replaceAll ("\\s+", " ");
+        }
+
+        RSSItem firstOne = currentTitlesSeen.get (titleKey);
+        if (firstOne == null)
+        {
+            currentTitlesSeen.put (titleKey, item);
+            return false;
+        }
+
+        String  strFirstOneURL = firstOne.getURL().toString();
+        String  firstTitle     = firstOne.getTitle();
+
+        if (firstTitle == null)
+            firstTitle = strFirstOneURL;
+
+        log.debug ("Feed " +
+                   currentFeedURL +
+                   ": Ignoring item with URL \"" +
+                   strItemURL +
+                   "\" and title \"" +
+                   title +
+                   "\": It matches already seen item with URL \"" +
+                   strFirstOneURL +
+                   "\" and title \"" +
+                   firstTitle +
+                   "\"");
         return true;
     }
+
+    /**
+     * Determine whether an item has already been seen in another feed
+     * (or as a different item in this feed), in this run or a previous
+     * one, and record its fingerprints.
+     *
+     * @param item  the item
+     *
+     * @return <tt>true</tt> if it's a duplicate, <tt>false</tt> if not
+     */
+    private boolean isDuplicateArticle (RSSItem item)
+    {
+        String strItemURL = item.getURL().getURL().toString();
+        String title = item.getTitle();
+
+        int owner = ArticleHistory.owner (currentFeedURL, strItemURL);
+        long linkPrint = FingerprintSet.fingerprint (strItemURL, 0);
+        long contentPrint = 0;
+        if (title != null)
+        {
+            contentPrint = FingerprintSet.fingerprint
+                (HTMLText.textFromHTML (item.getSummary()),
+                 FingerprintSet.fingerprint (HTMLText.textFromHTML (title),
+                                             0));
+        }
+
+        boolean duplicate;
+        synchronized (fingerprints)
+        {
+            duplicate = fingerprints.isDuplicate (linkPrint, owner) ||
+                        ((title != null) &&
+                         fingerprints.isDuplicate (contentPrint, owner));
+
+            // Record the fingerprints even for a duplicate, so that a
+            // story that's still circulating isn't expired.
+
+            int stamp = history.getStamp();
+            fingerprints.add (linkPrint, owner, stamp);
+            if (title != null)
+                fingerprints.add (contentPrint, owner, stamp);
+        }
+
+        if (duplicate)
+        {
+            log.debug ("Feed " + currentFeedURL + ": Ignoring item with " +
+                       "URL \"" + strItemURL + "\" and title \"" + title +
+                       "\": It has already been seen.");
+        }
+
+        return duplicate;
+    }
 }
@@ -41,7 +41,7 @@ import org.clapper.curn.CurnConfig;
 import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
 import org.clapper.curn.FeedConfigItemPlugIn;
-import org.clapper.curn.PostFeedProcessPlugIn;
+import org.clapper.curn.PostFeedProcessItemPlugIn;
 import org.clapper.curn.MainConfigItemPlugIn;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
@@ -133,7 +133,7 @@ import org.clapper.util.text.Duration;
 public class IgnoreOldArticlesPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessItemPlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -166,6 +166,14 @@ public class IgnoreOldArticlesPlugIn
      */
     private static final Logger log = new Logger (IgnoreOldArticlesPlugIn.class);
 
+    /**
+     * The settings for the feed whose items are being processed.
+     */
+    private String currentFeedURL = null;
+    private String currentDuration = null;
+    private long currentDurationMillis = 0;
+    private long currentNow = 0;
+
     /*----------------------------------------------------------------------*\
                                 Constructor
     \*----------------------------------------------------------------------*/
@@ -337,80 +345,92 @@ public class IgnoreOldArticlesPlugIn
     }
 
     /**
-     * Called immediately after a feed is parsed, but before it is
-     * otherwise processed. This method can return <tt>false</tt> to signal
-     * <i>curn</i> that the feed should be skipped. For instance, a plug-in
-     * that filters on the parsed feed data could use this method to weed
-     * out non-matching feeds before they are downloaded. Similarly, a
-     * plug-in that edits the parsed data (removing or editing individual
-     * items, for instance) could use method to do so.
+     * Called once for each feed, after the feed has been parsed and
+     * processed, and before its items are passed to
+     * {@link #runPostFeedProcessItemPlugIn runPostFeedProcessItemPlugIn()}.
      *
      * @param feedInfo  the {@link FeedInfo} object for the feed that
      *                  has been downloaded and parsed.
      * @param feedCache the feed cache
      * @param channel   the parsed channel data
      *
-     * @return <tt>true</tt> if <i>curn</i> should continue to process the
-     *         feed, <tt>false</tt> to skip the feed. A return value of
-     *         <tt>false</tt> aborts all further processing on the feed.
-     *         In particular, <i>curn</i> will not pass the feed along to
-     *         other plug-ins that have yet to be notified of this event.
+     * @return <tt>true</tt> if this plug-in has work to do on the feed's
+     *         items, <tt>false</tt> if not
      *
      * @throws CurnException on error
      *
      * @see RSSChannel
      * @see FeedInfo
      */
-    public boolean runPostFeedProcessPlugIn(FeedInfo   feedInfo,
-                                            FeedCache  feedCache,
-                                            RSSChannel channel)
+    public boolean startPostFeedItemProcessing(FeedInfo   feedInfo,
+                                               FeedCache  feedCache,
+                                               RSSChannel channel)
         throws CurnException
     {
         Duration duration = perFeedSetting.get(feedInfo);
         if (duration == null)
             duration = globalDefault;
 
-        if (duration != null)
-        {
-            String feedURL = feedInfo.getURL().toString();
-            String sDuration = duration.format();
-            long durationMillis = duration.getDuration();
+        if (duration == null)
+            return false;
 
-            log.debug("Ignoring all articles in " + feedURL + " older than " +
-                      sDuration);
+        currentFeedURL = feedInfo.getURL().toString();
+        currentDuration = duration.format();
+        currentDurationMillis = duration.getDuration();
+        currentNow = System.currentTimeMillis();
 
-            long now = System.currentTimeMillis();
-            for (RSSItem item : channel.getItems())
-            {
-                Date itemDate = item.getPublicationDate();
-                if (itemDate == null)
-                {
-                    log.debug("Item " + item.getURL() + " has no date. " +
-                              "Assuming it's current. NOT ignoring it.");
-                    continue;
-                }
+        log.debug("Ignoring all articles in " + currentFeedURL +
+                  " older than " + currentDuration);
+        return true;
+    }
+
+    /**
+     * Called for each of a feed's items, after the feed has been parsed
+     * and processed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     * @param channel   the parsed channel data
+     * @param item      the item
+     * @param itemIndex the number of the feed's items already passed to
+     *                  this method
+     *
+     * @return <tt>true</tt> to keep the item, <tt>false</tt> to drop it
+     *
+     * @throws CurnException on error
+     */
+    public boolean runPostFeedProcessItemPlugIn(FeedInfo   feedInfo,
+                                                RSSChannel channel,
+                                                RSSItem    item,
+                                                int        itemIndex)
+        throws CurnException
+    {
+        Date itemDate = item.getPublicationDate();
+        if (itemDate == null)
+        {
+            log.debug("Item " + item.getURL() + " has no date. " +
+                      "Assuming it's current. NOT ignoring it.");
+            return true;
+        }
 
-                long itemDateMillis = itemDate.getTime();
-                long itemDateAgeMillis = now - itemDateMillis;
+        long itemDateMillis = itemDate.getTime();
+        long itemDateAgeMillis = currentNow - itemDateMillis;
 
-                // Account for articles dated in the future. (There's no
-                // reason some doofus feed couldn't do that. And then there's
-                // always machine clock-skew.)
+        // Account for articles dated in the future. (There's no reason
+        // some doofus feed couldn't do that. And then there's always
+        // machine clock-skew.)
 
-                if (itemDateAgeMillis < 0)
-                    itemDateAgeMillis = 0;
+        if (itemDateAgeMillis < 0)
+            itemDateAgeMillis = 0;
 
-                // Is the feed older than permitted?
+        // Is the feed older than permitted?
 
-                if (itemDateAgeMillis > durationMillis)
-                {
-                    log.info("In feed " + feedURL + ", article " +
-                             item.getURL() + " is dated " + itemDate +
-                             ", which is older than " + sDuration + ". " +
-                             "Suppressing article.");
-                    channel.removeItem(item);
-                }
-            }
+        if (itemDateAgeMillis > currentDurationMillis)
+        {
+            log.info("In feed " + currentFeedURL + ", article " +
+                     item.getURL() + " is dated " + itemDate +
+                     ", which is older than " + currentDuration + ". " +
+                     "Suppressing article.");
+            return false;
         }
 
         return true;
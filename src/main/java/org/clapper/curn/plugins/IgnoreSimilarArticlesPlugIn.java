@@ -0,0 +1,509 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.curn.plugins;
+
+import org.clapper.curn.CurnConfig;
+import org.clapper.curn.CurnException;
+import org.clapper.curn.FeedCache;
+import org.clapper.curn.FeedConfigItemPlugIn;
+import org.clapper.curn.FeedInfo;
+import org.clapper.curn.MainConfigItemPlugIn;
+import org.clapper.curn.PostFeedProcessItemPlugIn;
+import org.clapper.curn.parser.HTMLText;
+import org.clapper.curn.parser.RSSChannel;
+import org.clapper.curn.parser.RSSItem;
+
+import org.clapper.util.classutil.ClassUtil;
+import org.clapper.util.config.ConfigurationException;
+import org.clapper.util.logging.Logger;
+import org.clapper.util.text.Duration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>The <tt>IgnoreSimilarArticlesPlugIn</tt> removes articles that are
+ * near duplicates of articles already seen, in any feed, in this run or
+ * within a configurable history window. It's intended for wire stories
+ * that are lightly reworded by each outlet that runs them, which the
+ * exact comparisons done by {@link IgnoreDuplicateArticlesPlugIn} miss.</p>
+ *
+ * <p>Each article's title and summary (stripped of HTML) are reduced to a
+ * MinHash signature, whose agreement with another signature estimates the
+ * overlap between the two articles' words. The signatures are kept in a
+ * banded locality-sensitive hash index ({@link MinHashIndex}), so each
+ * article is only compared with the few articles likely to be similar to
+ * it, and the index is saved with <i>curn</i>'s persistent data. Articles
+ * with fewer than a handful of words are left alone.</p>
+ *
+ * <p>It intercepts the following configuration parameters:</p>
+ *
+ * <table border="1">
+ *   <tr valign="top" align="left">
+ *     <th>Section</th>
+ *     <th>Parameter</th>
+ *     <th>Meaning</th>
+ *     <th>Default</th>
+ *   </tr>
+ *   <tr valign="top">
+ *     <td><tt>[curn]</tt></td>
+ *     <td><tt>IgnoreSimilarArticles</tt></td>
+ *     <td>Set to "true" to strip near duplicates. Applies to all feeds
+ *         that don't override it.</td>
+ *     <td>false</td>
+ *   </tr>
+ *   <tr valign="top">
+ *     <td><tt>[curn]</tt></td>
+ *     <td><tt>SimilarArticleThreshold</tt></td>
+ *     <td>How similar two articles must be (from 0.0 to 1.0, the estimated
+ *         fraction of words in common) to count as near duplicates.</td>
+ *     <td>0.7</td>
+ *   </tr>
+ *   <tr valign="top">
+ *     <td><tt>[curn]</tt></td>
+ *     <td><tt>SimilarArticleHistory</tt></td>
+ *     <td>How long to remember an article, after it was last seen,
+ *         expressed as a {@link Duration} string.</td>
+ *     <td>3 days</td>
+ *   </tr>
+ *   <tr valign="top">
+ *     <td><tt>[Feed<i>xxx</i>]</tt></td>
+ *     <td><tt>IgnoreSimilarArticles</tt></td>
+ *     <td>Per-feed override of the global setting.</td>
+ *     <td>The global setting</td>
+ *   </tr>
+ * </table>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class IgnoreSimilarArticlesPlugIn
+    extends AbstractExtraMetadataClient
+    implements MainConfigItemPlugIn,
+               FeedConfigItemPlugIn,
+               PostFeedProcessItemPlugIn
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String VAR_IGNORE_SIMILAR_ARTICLES =
+        "IgnoreSimilarArticles";
+    private static final String VAR_SIMILAR_ARTICLE_THRESHOLD =
+        "SimilarArticleThreshold";
+    private static final String VAR_SIMILAR_ARTICLE_HISTORY =
+        "SimilarArticleHistory";
+
+    private static final double DEFAULT_THRESHOLD = 0.7;
+
+    /**
+     * Default value for SimilarArticleHistory, in days.
+     */
+    private static final int DEFAULT_HISTORY_DAYS = 3;
+
+    /**
+     * Prefix for the names of the persisted signature data, and the
+     * number of signatures stored in each value.
+     */
+    private static final String SIGNATURE_DATA_PREFIX = "signatures.";
+    private static final int SIGNATURES_PER_VALUE = 256;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * "Ignore similar articles" flags, by feed, and the default
+     */
+    private Map<FeedInfo,Boolean> perFeedIgnoreMap =
+        new HashMap<FeedInfo,Boolean>();
+    private boolean ignoreDefault = false;
+
+    private double threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * The signature index, and how long to remember its signatures. The
+     * index is created on first use, once the configuration (and,
+     * therefore, the threshold) is known.
+     */
+    private MinHashIndex index = null;
+    private final ArticleHistory history =
+        new ArticleHistory ("article signatures", DEFAULT_HISTORY_DAYS);
+
+    /**
+     * The URL of the feed whose items are being processed.
+     */
+    private String currentFeedURL = null;
+
+    /**
+     * For log messages
+     */
+    private static final Logger log =
+        new Logger (IgnoreSimilarArticlesPlugIn.class);
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Default constructor (required).
+     */
+    public IgnoreSimilarArticlesPlugIn()
+    {
+        // Nothing to do
+    }
+
+    /*----------------------------------------------------------------------*\
+               Public Methods Required by *PlugIn Interfaces
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get a displayable name for the plug-in.
+     *
+     * @return the name
+     */
+    public String getPlugInName()
+    {
+        return "Ignore Similar Articles";
+    }
+
+    /**
+     * Get the sort key for this plug-in.
+     *
+     * @return the sort key string.
+     */
+    public String getPlugInSortKey()
+    {
+        return ClassUtil.getShortClassName (getClass().getName());
+    }
+
+    /**
+     * Initialize the plug-in. This method is called before any of the
+     * plug-in methods are called.
+     *
+     * @throws CurnException on error
+     */
+    public void initPlugIn()
+        throws CurnException
+    {
+    }
+
+    /**
+     * Called immediately after <i>curn</i> has read and processed a
+     * configuration item in the main [curn] configuration section. All
+     * configuration items are passed, one by one, to each loaded plug-in.
+     * If a plug-in class is not interested in a particular configuration
+     * item, this method should simply return without doing anything. Note
+     * that some configuration items may simply be variable assignment;
+     * there's no real way to distinguish a variable assignment from a
+     * blessed configuration item.
+     *
+     * @param sectionName  the name of the configuration section where
+     *                     the item was found
+     * @param paramName    the name of the parameter
+     * @param config       the {@link CurnConfig} object
+     *
+     * @throws CurnException on error
+     *
+     * @see CurnConfig
+     */
+    public void runMainConfigItemPlugIn(String     sectionName,
+                                        String     paramName,
+                                        CurnConfig config)
+        throws CurnException
+    {
+        try
+        {
+            if (paramName.equals (VAR_IGNORE_SIMILAR_ARTICLES))
+            {
+                ignoreDefault = config.getRequiredBooleanValue (sectionName,
+                                                                paramName);
+                log.debug ("[" + sectionName + "]: " + paramName +
+                           "=" + ignoreDefault);
+            }
+
+            else if (paramName.equals (VAR_SIMILAR_ARTICLE_THRESHOLD))
+            {
+                String value = config.getConfigurationValue (sectionName,
+                                                             paramName);
+                try
+                {
+                    threshold = Double.parseDouble (value.trim());
+                }
+
+                catch (NumberFormatException ex)
+                {
+                    threshold = -1;
+                }
+
+                if ((threshold <= 0) || (threshold > 1))
+                {
+                    throw new CurnException ("Bad value \"" + value + "\" " +
+                                             "for configuration variable \"" +
+                                             paramName + "\" in section [" +
+                                             sectionName + "]: Must be a " +
+                                             "number greater than 0 and no " +
+                                             "greater than 1.");
+                }
+
+                log.debug ("[" + sectionName + "]: " + paramName +
+                           "=" + threshold);
+            }
+
+            else if (paramName.equals (VAR_SIMILAR_ARTICLE_HISTORY))
+            {
+                history.configure (config, sectionName, paramName);
+            }
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException (ex);
+        }
+    }
+
+    /**
+     * Called immediately after <i>curn</i> has read and processed a
+     * configuration item in a "feed" configuration section. All
+     * configuration items are passed, one by one, to each loaded plug-in.
+     * If a plug-in class is not interested in a particular configuration
+     * item, this method should simply return without doing anything. Note
+     * that some configuration items may simply be variable assignment;
+     * there's no real way to distinguish a variable assignment from a
+     * blessed configuration item.
+     *
+     * @param sectionName  the name of the configuration section where
+     *                     the item was found
+     * @param paramName    the name of the parameter
+     * @param config       the active configuration
+     * @param feedInfo     partially complete <tt>FeedInfo</tt> object
+     *                     for the feed. The URL is guaranteed to be
+     *                     present, but no other fields are.
+     *
+     * @return <tt>true</tt> to continue processing the feed,
+     *         <tt>false</tt> to skip it
+     *
+     * @throws CurnException on error
+     *
+     * @see CurnConfig
+     * @see FeedInfo
+     * @see FeedInfo#getURL
+     */
+    public boolean runFeedConfigItemPlugIn(String     sectionName,
+                                           String     paramName,
+                                           CurnConfig config,
+                                           FeedInfo   feedInfo)
+        throws CurnException
+    {
+        try
+        {
+            if (paramName.equals (VAR_IGNORE_SIMILAR_ARTICLES))
+            {
+                boolean flag = config.getRequiredBooleanValue (sectionName,
+                                                               paramName);
+                perFeedIgnoreMap.put (feedInfo, flag);
+                log.debug ("[" + sectionName + "]: " + paramName +
+                           "=" + flag);
+            }
+
+            return true;
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException (ex);
+        }
+    }
+
+    /**
+     * Called once for each feed, after the feed has been parsed and
+     * processed, and before its items are passed to
+     * {@link #runPostFeedProcessItemPlugIn runPostFeedProcessItemPlugIn()}.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed that
+     *                  has been downloaded and parsed.
+     * @param feedCache the feed cache
+     * @param channel   the parsed channel data
+     *
+     * @return <tt>true</tt> if this plug-in has work to do on the feed's
+     *         items, <tt>false</tt> if not
+     *
+     * @throws CurnException on error
+     *
+     * @see RSSChannel
+     * @see FeedInfo
+     */
+    public boolean startPostFeedItemProcessing(FeedInfo   feedInfo,
+                                               FeedCache  feedCache,
+                                               RSSChannel channel)
+        throws CurnException
+    {
+        Boolean ignoreBoxed = perFeedIgnoreMap.get (feedInfo);
+        boolean ignore = (ignoreBoxed == null) ? ignoreDefault : ignoreBoxed;
+
+        if (ignore)
+        {
+            currentFeedURL = feedInfo.getURL().toString();
+            log.debug ("Stripping articles similar to ones already seen " +
+                       "from " + currentFeedURL);
+
+            synchronized (this)
+            {
+                history.startFeed (getIndex());
+            }
+        }
+
+        return ignore;
+    }
+
+    /**
+     * Called for each of a feed's items, after the feed has been parsed
+     * and processed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     * @param channel   the parsed channel data
+     * @param item      the item
+     * @param itemIndex the number of the feed's items already passed to
+     *                  this method
+     *
+     * @return <tt>true</tt> to keep the item, <tt>false</tt> to drop it
+     *
+     * @throws CurnException on error
+     */
+    public boolean runPostFeedProcessItemPlugIn(FeedInfo   feedInfo,
+                                                RSSChannel channel,
+                                                RSSItem    item,
+                                                int        itemIndex)
+        throws CurnException
+    {
+        StringBuilder text = new StringBuilder();
+        String title = item.getTitle();
+        String summary = item.getSummary();
+
+        if (title != null)
+            text.append (HTMLText.textFromHTML (title));
+        if (summary != null)
+        {
+            text.append (' ');
+            text.append (HTMLText.textFromHTML (summary));
+        }
+
+        char[] signature = MinHashIndex.minHash (text);
+        if (signature == null)
+            return true;
+
+        String strItemURL = item.getURL().getURL().toString();
+        int owner = ArticleHistory.owner (currentFeedURL, strItemURL);
+
+        double similarity;
+        synchronized (this)
+        {
+            similarity = getIndex().checkAndAdd (signature, owner,
+                                                 history.getStamp());
+        }
+
+        if (similarity < 0)
+            return true;
+
+        log.debug ("Feed " + currentFeedURL + ": Ignoring item with URL \"" +
+                   strItemURL + "\" and title \"" + title + "\": It is " +
+                   "about " + Math.round (similarity * 100) + "% similar " +
+                   "to an article already seen.");
+        return false;
+    }
+
+    /*----------------------------------------------------------------------*\
+          Public Methods Required by PersistentDataClient Interface
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Process an "extra" data item that is not associated with a feed
+     * or an item. This plug-in stores its signatures that way.
+     *
+     * @param name  the name of the data item
+     * @param value its value
+     *
+     * @throws CurnException on error
+     */
+    public synchronized void parseExtraMetadata(String name, String value)
+        throws CurnException
+    {
+        if (name.startsWith (SIGNATURE_DATA_PREFIX))
+        {
+            try
+            {
+                int total = getIndex().decode (value);
+                log.debug ("Loaded " + total + " article signatures from \"" +
+                           name + "\"");
+            }
+
+            catch (NumberFormatException ex)
+            {
+                log.error ("Ignoring malformed article signature data \"" +
+                           name + "\"", ex);
+            }
+        }
+    }
+
+    /**
+     * Get the extra metadata to be saved: the unexpired signatures.
+     *
+     * @return a <tt>Map</tt> of all the name/value pairs to be saved
+     *
+     * @throws CurnException on error
+     */
+    public synchronized Map<String,String> getExtraFeedMetadata()
+        throws CurnException
+    {
+        Map<String,String> result = new HashMap<String,String>();
+
+        history.prune (getIndex());
+        getIndex().encode (result, SIGNATURE_DATA_PREFIX, SIGNATURES_PER_VALUE);
+        log.debug ("Saving " + getIndex().size() + " article signatures");
+
+        return result;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private MinHashIndex getIndex()
+    {
+        if (index == null)
+            index = new MinHashIndex (threshold);
+
+        return index;
+    }
+}
@@ -0,0 +1,309 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.curn.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A multi-pattern keyword matcher (an Aho-Corasick automaton), used by
+ * {@link ArticleFilterPlugIn} to look for all of a feed's literal filter
+ * keywords in one pass over each field, instead of running one regular
+ * expression per keyword.</p>
+ *
+ * <p>Matching is case-blind in exactly the way a regular expression
+ * compiled with <tt>Pattern.CASE_INSENSITIVE</tt> (and without
+ * <tt>UNICODE_CASE</tt>) is: only US-ASCII letters are folded. The
+ * automaton is compiled to a full transition table over the characters
+ * that actually appear in the keywords; every other character sends the
+ * automaton back to its start state. Instances are immutable once
+ * constructed, and may be shared between threads.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class KeywordAutomaton
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int   ROOT = 0;
+    private static final int[] NO_OUTPUT = new int[0];
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Character classes: US-ASCII characters are looked up directly;
+     * other keyword characters are kept sorted, for a binary search.
+     * Class 0 is "not in any keyword".
+     */
+    private final int[]  asciiClasses = new int[128];
+    private final char[] otherChars;
+    private final int[]  otherClasses;
+    private final int    totalClasses;
+
+    /**
+     * The transition table (totalClasses entries per state), and the ids
+     * of the keywords that end at each state.
+     */
+    private final int[]   transitions;
+    private final int[][] outputs;
+
+    /**
+     * Ids of empty keywords, which match any text.
+     */
+    private final int[] emptyKeywords;
+
+    private final int keywordCount;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Build an automaton for a list of keywords. Each keyword's id is its
+     * index in the list.
+     *
+     * @param keywords  the keywords
+     */
+    KeywordAutomaton(List<String> keywords)
+    {
+        this.keywordCount = keywords.size();
+
+        // Assign character classes.
+
+        Map<Character,Integer> otherMap = new HashMap<Character,Integer>();
+        int classes = 1;
+        for (String keyword : keywords)
+        {
+            for (int i = 0; i < keyword.length(); i++)
+            {
+                char c = fold(keyword.charAt(i));
+                if (c < 128)
+                {
+                    if (asciiClasses[c] == 0)
+                        asciiClasses[c] = classes++;
+                }
+
+                else if (! otherMap.containsKey(c))
+                {
+                    otherMap.put(c, classes++);
+                }
+            }
+        }
+
+        totalClasses = classes;
+        otherChars = new char[otherMap.size()];
+        otherClasses = new int[otherMap.size()];
+        int n = 0;
+        for (Character c : otherMap.keySet())
+            otherChars[n++] = c;
+        Arrays.sort(otherChars);
+        for (int i = 0; i < otherChars.length; i++)
+            otherClasses[i] = otherMap.get(otherChars[i]);
+
+        // Build the trie. A transition of 0 means "none" here; nothing
+        // ever goes back to the root while the trie is being built.
+
+        int maxStates = 1;
+        for (String keyword : keywords)
+            maxStates += keyword.length();
+
+        int[] trie = new int[maxStates * totalClasses];
+        List<List<Integer>> outputLists = new ArrayList<List<Integer>>();
+        outputLists.add(null);
+        List<Integer> empties = new ArrayList<Integer>();
+        int states = 1;
+
+        for (int id = 0; id < keywords.size(); id++)
+        {
+            String keyword = keywords.get(id);
+            if (keyword.length() == 0)
+            {
+                empties.add(id);
+                continue;
+            }
+
+            int state = ROOT;
+            for (int i = 0; i < keyword.length(); i++)
+            {
+                int slot = (state * totalClasses) +
+                           classOf(fold(keyword.charAt(i)));
+                if (trie[slot] == 0)
+                {
+                    trie[slot] = states++;
+                    outputLists.add(null);
+                }
+
+                state = trie[slot];
+            }
+
+            List<Integer> out = outputLists.get(state);
+            if (out == null)
+            {
+                out = new ArrayList<Integer>();
+                outputLists.set(state, out);
+            }
+
+            out.add(id);
+        }
+
+        // Breadth-first, compute failure links and turn the trie into a
+        // complete transition table, merging each state's output with
+        // that of its failure state.
+
+        transitions = new int[states * totalClasses];
+        outputs = new int[states][];
+        outputs[ROOT] = NO_OUTPUT;
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+
+        for (int c = 0; c < totalClasses; c++)
+        {
+            int next = trie[c];
+            transitions[c] = next;
+            if (next != 0)
+            {
+                failure[next] = ROOT;
+                queue[tail++] = next;
+            }
+        }
+
+        while (head < tail)
+        {
+            int state = queue[head++];
+            outputs[state] = merge(outputLists.get(state),
+                                   outputs[failure[state]]);
+
+            int base = state * totalClasses;
+            int failBase = failure[state] * totalClasses;
+            for (int c = 0; c < totalClasses; c++)
+            {
+                int next = trie[base + c];
+                if (next != 0)
+                {
+                    failure[next] = transitions[failBase + c];
+                    transitions[base + c] = next;
+                    queue[tail++] = next;
+                }
+
+                else
+                {
+                    transitions[base + c] = transitions[failBase + c];
+                }
+            }
+        }
+
+        emptyKeywords = new int[empties.size()];
+        for (int i = 0; i < emptyKeywords.length; i++)
+            emptyKeywords[i] = empties.get(i);
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the number of keywords.
+     *
+     * @return the number of keywords
+     */
+    int size()
+    {
+        return keywordCount;
+    }
+
+    /**
+     * Find all the keywords that occur in a piece of text.
+     *
+     * @param text   the text to search
+     * @param found  on return, has the bit set for the id of each keyword
+     *               that was found. Other bits are left alone.
+     */
+    void findAll(CharSequence text, BitSet found)
+    {
+        for (int id : emptyKeywords)
+            found.set(id);
+
+        int state = ROOT;
+        int len = text.length();
+        for (int i = 0; i < len; i++)
+        {
+            state = transitions[(state * totalClasses) +
+                                classOf(fold(text.charAt(i)))];
+            for (int id : outputs[state])
+                found.set(id);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private int classOf(char c)
+    {
+        if (c < 128)
+            return asciiClasses[c];
+
+        int i = Arrays.binarySearch(otherChars, c);
+        return (i < 0) ? 0 : otherClasses[i];
+    }
+
+    private static char fold(char c)
+    {
+        return ((c >= 'A') && (c <= 'Z')) ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private static int[] merge(List<Integer> own, int[] inherited)
+    {
+        if (own == null)
+            return inherited;
+
+        int[] result = new int[own.size() + inherited.length];
+        int i = 0;
+        for (int id : own)
+            result[i++] = id;
+        System.arraycopy(inherited, 0, result, i, inherited.length);
+        return result;
+    }
+}
@@ -41,7 +41,7 @@ import org.clapper.curn.CurnException;
 import org.clapper.curn.FeedInfo;
 import org.clapper.curn.FeedConfigItemPlugIn;
 import org.clapper.curn.MainConfigItemPlugIn;
-import org.clapper.curn.PostFeedProcessPlugIn;
+import org.clapper.curn.PostFeedProcessItemPlugIn;
 import org.clapper.curn.parser.RSSChannel;
 import org.clapper.curn.parser.RSSItem;
 
@@ -51,8 +51,6 @@ import org.clapper.util.logging.Logger;
 
 import java.net.URL;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Map;
 import java.util.HashMap;
 import org.clapper.curn.FeedCache;
@@ -110,7 +108,7 @@ import org.clapper.curn.FeedCache;
 public class MaxArticlesPlugIn
     implements MainConfigItemPlugIn,
                FeedConfigItemPlugIn,
-               PostFeedProcessPlugIn
+               PostFeedProcessItemPlugIn
 {
     /*----------------------------------------------------------------------*\
                              Private Constants
@@ -138,6 +136,12 @@ public class MaxArticlesPlugIn
      */
     private static final Logger log = new Logger(MaxArticlesPlugIn.class);
 
+    /**
+     * The maximum number of articles for the feed whose items are being
+     * processed.
+     */
+    private int currentMax = 0;
+
     /*----------------------------------------------------------------------*\
                                 Constructor
     \*----------------------------------------------------------------------*/
@@ -314,33 +318,26 @@ public class MaxArticlesPlugIn
     }
 
     /**
-     * Called immediately after a feed is parsed, but before it is
-     * otherwise processed. This method can return <tt>false</tt> to signal
-     * <i>curn</i> that the feed should be skipped. For instance, a plug-in
-     * that filters on the parsed feed data could use this method to weed
-     * out non-matching feeds before they are downloaded. Similarly, a
-     * plug-in that edits the parsed data (removing or editing individual
-     * items, for instance) could use method to do so.
+     * Called once for each feed, after the feed has been parsed and
+     * processed, and before its items are passed to
+     * {@link #runPostFeedProcessItemPlugIn runPostFeedProcessItemPlugIn()}.
      *
      * @param feedInfo  the {@link FeedInfo} object for the feed that
      *                  has been downloaded and parsed.
      * @param feedCache the feed cache
      * @param channel   the parsed channel data
      *
-     * @return <tt>true</tt> if <i>curn</i> should continue to process the
-     *         feed, <tt>false</tt> to skip the feed. A return value of
-     *         <tt>false</tt> aborts all further processing on the feed.
-     *         In particular, <i>curn</i> will not pass the feed along to
-     *         other plug-ins that have yet to be notified of this event.
+     * @return <tt>true</tt> if this plug-in has work to do on the feed's
+     *         items, <tt>false</tt> if not
      *
      * @throws CurnException on error
      *
      * @see RSSChannel
      * @see FeedInfo
      */
-    public boolean runPostFeedProcessPlugIn(FeedInfo   feedInfo,
-                                          FeedCache  feedCache,
-                                          RSSChannel channel)
+    public boolean startPostFeedItemProcessing(FeedInfo   feedInfo,
+                                               FeedCache  feedCache,
+                                               RSSChannel channel)
         throws CurnException
     {
         URL feedURL = feedInfo.getURL();
@@ -350,32 +347,37 @@ public class MaxArticlesPlugIn
         if (max == null)
             max = defaultMaxArticlesToShow;
 
-        if (max != null)
-        {
-            Collection<RSSItem> items  = channel.getItems();
-            int totalItems = items.size();
-            log.debug("Feed \"" + feedURL + "\": Max articles for feed=" + max);
-            log.debug("Feed \"" + feedURL + "\": Total articles=" + totalItems);
-            if (totalItems > max)
-            {
-                log.debug("Feed \"" + feedURL + "\": Trimming articles.");
-                int i = 0;
-                Collection<RSSItem> trimmedItems = new ArrayList<RSSItem>();
-                for (RSSItem item : items)
-                {
-                    if (i++ >= max)
-                        break;
-
-                    trimmedItems.add(item);
-                }
-
-                channel.setItems(trimmedItems);
-            }
-        }
+        if (max == null)
+            return false;
 
+        log.debug("Feed \"" + feedURL + "\": Max articles for feed=" + max);
+        currentMax = max;
         return true;
     }
 
+    /**
+     * Called for each of a feed's items, after the feed has been parsed
+     * and processed.
+     *
+     * @param feedInfo  the {@link FeedInfo} object for the feed
+     * @param channel   the parsed channel data
+     * @param item      the item
+     * @param itemIndex the number of the feed's items already passed to
+     *                  this method
+     *
+     * @return <tt>true</tt> to keep the item, <tt>false</tt> to drop it
+     *
+     * @throws CurnException on error
+     */
+    public boolean runPostFeedProcessItemPlugIn(FeedInfo   feedInfo,
+                                                RSSChannel channel,
+                                                RSSItem    item,
+                                                int        itemIndex)
+        throws CurnException
+    {
+        return (itemIndex < currentMax);
+    }
+
     /*----------------------------------------------------------------------*\
                               Private Methods
     \*----------------------------------------------------------------------*/
@@ -0,0 +1,527 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.curn.plugins;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * <p>An index of MinHash signatures, for {@link IgnoreSimilarArticlesPlugIn}.
+ * A text's signature is the minimum, over the text's words, of each of
+ * {@link #SIGNATURE_LENGTH} independent hash functions. The fraction of
+ * positions at which two signatures agree estimates the Jaccard
+ * similarity of the two texts' word sets, so articles that have been
+ * lightly reworded still come out similar.</p>
+ *
+ * <p>To avoid comparing a signature against every entry, the signature is
+ * cut into bands of several positions each, and each band is indexed
+ * (a banded locality-sensitive hash). Only entries that agree with the
+ * signature on a whole band are compared; the band width is chosen from
+ * the similarity threshold, so that pairs above the threshold very
+ * likely share a band, while dissimilar pairs rarely do.</p>
+ *
+ * <p>Signature values are truncated to 16 bits, and entries live in
+ * parallel primitive arrays, chained per band through an open-addressing
+ * table; there are no per-entry objects. Like {@link FingerprintSet},
+ * each entry carries an owner and a time stamp (minutes since the
+ * epoch). Not thread-safe.</p>
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class MinHashIndex implements ArticleHistory.Store
+{
+    /*----------------------------------------------------------------------*\
+                             Public Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The number of hash values in a signature.
+     */
+    static final int SIGNATURE_LENGTH = 32;
+
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int MIN_CAPACITY = 64;
+
+    /**
+     * Texts with fewer words than this don't get a signature; there's
+     * too little to go on.
+     */
+    private static final int MIN_WORDS = 6;
+
+    /**
+     * Hex digits per encoded entry: signature, owner and time stamp.
+     */
+    private static final int ENCODED_ENTRY_LENGTH =
+        (SIGNATURE_LENGTH * 4) + 8 + 8;
+
+    private static final int NONE = -1;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME        = 0x100000001b3L;
+
+    /**
+     * The hash functions: h(x) = (MULTIPLIERS[i] * x) + ADDENDS[i], applied
+     * to a well-mixed word hash, keeping the high-order bits. That's one
+     * multiply and add per function, per word.
+     */
+    private static final long[] MULTIPLIERS = new long[SIGNATURE_LENGTH];
+    private static final long[] ADDENDS = new long[SIGNATURE_LENGTH];
+    static
+    {
+        long seed = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < SIGNATURE_LENGTH; i++)
+        {
+            seed = mix(seed + 0x9e3779b97f4a7c15L);
+            MULTIPLIERS[i] = seed | 1;
+            seed = mix(seed + 0x9e3779b97f4a7c15L);
+            ADDENDS[i] = seed;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private final int threshold;
+    private final int bands;
+    private final int rows;
+
+    /**
+     * Entries: the signatures (SIGNATURE_LENGTH values apiece), owners and
+     * time stamps.
+     */
+    private char[] signatures;
+    private int[]  owners;
+    private int[]  stamps;
+    private int    size = 0;
+
+    /**
+     * The band table, mapping (band, band hash) to the most recently added
+     * entry in that bucket, and the next entry in each bucket's chain, by
+     * band and entry.
+     */
+    private long[]  bucketKeys;
+    private int[]   bucketHeads;
+    private int     buckets = 0;
+    private int[][] next;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a new, empty index.
+     *
+     * @param threshold the minimum estimated similarity (0.0 to 1.0) for
+     *                  two articles to be considered near duplicates
+     */
+    MinHashIndex(double threshold)
+    {
+        // Number of signature positions that must agree.
+
+        this.threshold = (int) Math.ceil(threshold * SIGNATURE_LENGTH);
+
+        // The probability that a pair with similarity s shares a band is
+        // 1 - (1 - s^rows)^bands, an S-curve whose steepest point is near
+        // (1/bands)^(1/rows): about 0.25 for 2 rows, and 0.6 for 4. Pick
+        // the band width that puts that point below the threshold, so that
+        // pairs above the threshold are almost certain to share a band.
+
+        rows = (threshold < 0.6) ? 2 : 4;
+
+        bands = SIGNATURE_LENGTH / rows;
+        next = new int[bands][];
+        allocate(MIN_CAPACITY);
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Compute the MinHash signature of some text. The features are the
+     * text's words, converted to lower case.
+     *
+     * @param text the text
+     *
+     * @return the signature, or null if the text has too few words to
+     *         produce a meaningful one
+     */
+    static char[] minHash(CharSequence text)
+    {
+        long[] minimums = new long[SIGNATURE_LENGTH];
+        Arrays.fill(minimums, Long.MAX_VALUE);
+        int words = 0;
+        int len = text.length();
+        int i = 0;
+
+        while (i < len)
+        {
+            while ((i < len) && (! Character.isLetterOrDigit(text.charAt(i))))
+                i++;
+
+            if (i == len)
+                break;
+
+            long h = FNV_OFFSET_BASIS;
+            while ((i < len) && Character.isLetterOrDigit(text.charAt(i)))
+            {
+                h = (h ^ Character.toLowerCase(text.charAt(i))) * FNV_PRIME;
+                i++;
+            }
+
+            h = mix(h);
+            for (int j = 0; j < SIGNATURE_LENGTH; j++)
+            {
+                long v = ((h * MULTIPLIERS[j]) + ADDENDS[j]) >>> 1;
+                if (v < minimums[j])
+                    minimums[j] = v;
+            }
+
+            words++;
+        }
+
+        if (words < MIN_WORDS)
+            return null;
+
+        char[] signature = new char[SIGNATURE_LENGTH];
+        for (int j = 0; j < SIGNATURE_LENGTH; j++)
+            signature[j] = (char) (minimums[j] >>> 47);
+
+        return signature;
+    }
+
+    /**
+     * Get the number of entries in the index.
+     *
+     * @return the size
+     */
+    int size()
+    {
+        return size;
+    }
+
+    /**
+     * Look for an entry from a different owner that is at least as
+     * similar as the threshold. If there is one, its time stamp is
+     * refreshed, so that a story that's still circulating isn't expired.
+     * Otherwise, the signature is added to the index (unless the owner
+     * already has an entry with the same signature, in which case that
+     * entry's time stamp is refreshed).
+     *
+     * @param signature the signature, from {@link #minHash}
+     * @param owner     the owner of the article being tested
+     * @param stamp     the current time, in minutes since the epoch
+     *
+     * @return the estimated similarity of the near duplicate, or -1 if
+     *         there isn't one
+     */
+    double checkAndAdd(char[] signature, int owner, int stamp)
+    {
+        boolean known = false;
+
+        for (int b = 0; b < bands; b++)
+        {
+            int[] chain = next[b];
+            int slot = findBucket(bandKey(signature, 0, b));
+            for (int e = (bucketKeys[slot] == 0) ? NONE : bucketHeads[slot];
+                 e != NONE;
+                 e = chain[e])
+            {
+                int agree = agreement(signature, e);
+                if (agree < threshold)
+                    continue;
+
+                if (owners[e] != owner)
+                {
+                    stamps[e] = Math.max(stamps[e], stamp);
+                    return (double) agree / SIGNATURE_LENGTH;
+                }
+
+                if (agree == SIGNATURE_LENGTH)
+                {
+                    stamps[e] = Math.max(stamps[e], stamp);
+                    known = true;
+                }
+            }
+        }
+
+        if (! known)
+            add(signature, 0, owner, stamp);
+
+        return -1;
+    }
+
+    /**
+     * Remove all entries last seen before a specified time.
+     *
+     * @param stamp  the cutoff, in minutes since the epoch
+     *
+     * @return the number of entries removed
+     */
+    public int removeOlderThan(int stamp)
+    {
+        char[] oldSignatures = signatures;
+        int[]  oldOwners = owners;
+        int[]  oldStamps = stamps;
+        int    oldSize = size;
+
+        allocate(Math.max(MIN_CAPACITY, oldSize));
+        for (int i = 0; i < oldSize; i++)
+        {
+            if (oldStamps[i] >= stamp)
+            {
+                add(oldSignatures, i * SIGNATURE_LENGTH,
+                    oldOwners[i], oldStamps[i]);
+            }
+        }
+
+        return oldSize - size;
+    }
+
+    /**
+     * Encode the index as a series of strings of hex digits, storing them
+     * in a map under the names <i>prefix</i>0, <i>prefix</i>1, etc.
+     *
+     * @param map              where to store the strings
+     * @param prefix           the name prefix
+     * @param entriesPerString the maximum number of entries per string
+     */
+    void encode(Map<String,String> map, String prefix, int entriesPerString)
+    {
+        int chunk = 0;
+        for (int start = 0; start < size; start += entriesPerString)
+        {
+            int end = Math.min(size, start + entriesPerString);
+            StringBuilder buf =
+                new StringBuilder((end - start) * ENCODED_ENTRY_LENGTH);
+            for (int i = start; i < end; i++)
+            {
+                int offset = i * SIGNATURE_LENGTH;
+                for (int j = 0; j < SIGNATURE_LENGTH; j++)
+                    FingerprintSet.appendHex(buf, signatures[offset + j], 4);
+                FingerprintSet.appendHex(buf, owners[i], 8);
+                FingerprintSet.appendHex(buf, stamps[i], 8);
+            }
+
+            map.put(prefix + chunk++, buf.toString());
+        }
+    }
+
+    /**
+     * Add the entries in a string produced by {@link #encode}.
+     *
+     * @param encoded the encoded entries
+     *
+     * @return the number of entries decoded
+     *
+     * @throws NumberFormatException malformed string
+     */
+    int decode(String encoded)
+    {
+        int len = encoded.length();
+        if ((len % ENCODED_ENTRY_LENGTH) != 0)
+            throw new NumberFormatException("Bad signature data length");
+
+        char[] signature = new char[SIGNATURE_LENGTH];
+        int total = 0;
+        for (int i = 0; i < len; i += ENCODED_ENTRY_LENGTH)
+        {
+            // Signature values are four hex digits apiece; parseHex()
+            // takes eight, so read them in pairs.
+
+            for (int j = 0; j < SIGNATURE_LENGTH; j += 2)
+            {
+                long pair = FingerprintSet.parseHex(encoded, i + (j * 4));
+                signature[j] = (char) (pair >>> 16);
+                signature[j + 1] = (char) pair;
+            }
+
+            int base = i + (SIGNATURE_LENGTH * 4);
+            int owner = (int) FingerprintSet.parseHex(encoded, base);
+            int stamp = (int) FingerprintSet.parseHex(encoded, base + 8);
+            add(signature, 0, owner, stamp);
+            total++;
+        }
+
+        return total;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private void allocate(int capacity)
+    {
+        signatures = new char[capacity * SIGNATURE_LENGTH];
+        owners = new int[capacity];
+        stamps = new int[capacity];
+        for (int b = 0; b < bands; b++)
+            next[b] = new int[capacity];
+        size = 0;
+
+        int tableSize = MIN_CAPACITY;
+        while (tableSize < capacity * bands * 2)
+            tableSize *= 2;
+
+        bucketKeys = new long[tableSize];
+        bucketHeads = new int[tableSize];
+        buckets = 0;
+    }
+
+    private void add(char[] signature, int offset, int owner, int stamp)
+    {
+        if (size == owners.length)
+            grow(size * 2);
+
+        int e = size++;
+        System.arraycopy(signature, offset,
+                         signatures, e * SIGNATURE_LENGTH,
+                         SIGNATURE_LENGTH);
+        owners[e] = owner;
+        stamps[e] = stamp;
+
+        for (int b = 0; b < bands; b++)
+        {
+            long key = bandKey(signature, offset, b);
+            int slot = findBucket(key);
+            if (bucketKeys[slot] == 0)
+            {
+                bucketKeys[slot] = key;
+                next[b][e] = NONE;
+                buckets++;
+            }
+
+            else
+            {
+                next[b][e] = bucketHeads[slot];
+            }
+
+            bucketHeads[slot] = e;
+        }
+
+        if (buckets * 2 > bucketKeys.length)
+            rehashBuckets(bucketKeys.length * 2);
+    }
+
+    private void grow(int capacity)
+    {
+        signatures = Arrays.copyOf(signatures, capacity * SIGNATURE_LENGTH);
+        owners = Arrays.copyOf(owners, capacity);
+        stamps = Arrays.copyOf(stamps, capacity);
+        for (int b = 0; b < bands; b++)
+            next[b] = Arrays.copyOf(next[b], capacity);
+    }
+
+    private void rehashBuckets(int tableSize)
+    {
+        long[] oldKeys = bucketKeys;
+        int[]  oldHeads = bucketHeads;
+
+        bucketKeys = new long[tableSize];
+        bucketHeads = new int[tableSize];
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (oldKeys[i] != 0)
+            {
+                int slot = findBucket(oldKeys[i]);
+                bucketKeys[slot] = oldKeys[i];
+                bucketHeads[slot] = oldHeads[i];
+            }
+        }
+    }
+
+    /**
+     * Find the bucket table slot for a key, or the empty slot where it
+     * belongs, using linear probing.
+     */
+    private int findBucket(long key)
+    {
+        int mask = bucketKeys.length - 1;
+        int i = (int) (key ^ (key >>> 32)) & mask;
+        while ((bucketKeys[i] != 0) && (bucketKeys[i] != key))
+            i = (i + 1) & mask;
+
+        return i;
+    }
+
+    /**
+     * Hash one band of a signature, together with the band number, to a
+     * non-zero key.
+     */
+    private long bandKey(char[] signature, int offset, int band)
+    {
+        long h = FNV_OFFSET_BASIS ^ band;
+        int start = offset + (band * rows);
+        for (int j = start; j < start + rows; j++)
+            h = (h ^ signature[j]) * FNV_PRIME;
+
+        h = mix(h);
+        return (h == 0) ? 1 : h;
+    }
+
+    /**
+     * Count the signature positions at which a signature agrees with an
+     * entry.
+     */
+    private int agreement(char[] signature, int entry)
+    {
+        int offset = entry * SIGNATURE_LENGTH;
+        int agree = 0;
+        for (int j = 0; j < SIGNATURE_LENGTH; j++)
+        {
+            if (signature[j] == signatures[offset + j])
+                agree++;
+        }
+
+        return agree;
+    }
+
+    /**
+     * Spread the bits of a hash (the MurmurHash3 finalizer).
+     */
+    private static long mix(long h)
+    {
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h;
+    }
+}
@@ -53,8 +53,6 @@ import java.net.URL;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -79,6 +77,12 @@ import org.clapper.curn.FeedCache;
  *   </tr>
  * </table>
  *
+ * <p>This plug-in also notes the "MaxArticlesToShow" settings. When a
+ * feed's articles will be cut down to the first <i>n</i> by
+ * {@link MaxArticlesPlugIn} (which runs after this plug-in), only the
+ * first <i>n</i> articles are put in order; the rest follow in their
+ * original order.</p>
+ *
  * @version <tt>$Revision$</tt>
  */
 public class SortArticlesPlugIn
@@ -91,6 +95,7 @@ public class SortArticlesPlugIn
     \*----------------------------------------------------------------------*/
 
     private static final String VAR_SORT_BY = "SortBy";
+    private static final String VAR_MAX_ARTICLES = "MaxArticlesToShow";
     private static final SortBy DEF_SORT_BY = SortBy.NONE;
 
     private enum SortBy
@@ -116,64 +121,143 @@ public class SortArticlesPlugIn
                               Private Classes
     \*----------------------------------------------------------------------*/
 
-    private class ItemComparator implements Comparator<RSSItem>
+    /**
+     * Sorts a feed's items. Each item's sort key is extracted once, up
+     * front, into an array; the sort itself then only shuffles indexes
+     * into the arrays. Ties are broken by the items' original positions,
+     * so the sort is stable. When only the first few items are wanted,
+     * only those are selected and sorted.
+     */
+    private static class ItemSorter
     {
-        private Date   now = new Date();
-        private SortBy sortBy;
+        private final SortBy   sortBy;
+        private final long[]   times;
+        private final String[] titles;
 
-        ItemComparator(SortBy sortBy)
+        ItemSorter(RSSItem[] items, SortBy sortBy)
         {
+            int total = items.length;
+
             this.sortBy = sortBy;
+            if (sortBy == SortBy.TIME)
+            {
+                long now = System.currentTimeMillis();
+
+                times  = new long[total];
+                titles = null;
+                for (int i = 0; i < total; i++)
+                {
+                    Date date = items[i].getPublicationDate();
+                    times[i] = (date == null) ? now : date.getTime();
+                }
+            }
+
+            else
+            {
+                times  = null;
+                titles = new String[total];
+                for (int i = 0; i < total; i++)
+                {
+                    String title = items[i].getTitle();
+                    titles[i] = (title == null) ? "" : title;
+                }
+            }
         }
 
-        public int compare(RSSItem i1, RSSItem i2)
+        /**
+         * Sort the items.
+         *
+         * @param max  the maximum number of items wanted
+         *
+         * @return the indexes of the first <tt>max</tt> items (or all of
+         *         them, if there are fewer), in sorted order
+         */
+        int[] sort(int max)
         {
-            int      cmp = 0;
+            int total = (times != null) ? times.length : titles.length;
+            int size = Math.min(max, total);
+            int[] heap = new int[size];
 
-            switch (sortBy)
+            // Keep the "size" lowest items seen so far in a heap with
+            // the highest of them on top. Then take the heap apart,
+            // highest first, filling the array from the end.
+
+            for (int i = 0; i < size; i++)
             {
-                case TITLE:
-                    String title1 = i1.getTitle();
-                    if (title1 == null)
-                        title1 = "";
+                heap[i] = i;
+                siftUp(heap, i);
+            }
 
-                    String title2 = i2.getTitle();
-                    if (title2 == null)
-                        title2 = "";
+            for (int i = size; i < total; i++)
+            {
+                if ((size > 0) && less(i, heap[0]))
+                {
+                    heap[0] = i;
+                    siftDown(heap, 0, size);
+                }
+            }
 
-                    cmp = title1.compareToIgnoreCase (title2);
-                    break;
+            for (int n = size - 1; n > 0; n--)
+            {
+                int top = heap[0];
+                heap[0] = heap[n];
+                heap[n] = top;
+                siftDown(heap, 0, n);
+            }
 
-                case TIME:
-                    Date time1 = i1.getPublicationDate();
-                    if (time1 == null)
-                        time1 = now;
+            return heap;
+        }
 
-                    Date time2 = i2.getPublicationDate();
-                    if (time2 == null)
-                        time2 = now;
+        private boolean less(int i, int j)
+        {
+            int cmp;
 
-                    cmp = time1.compareTo (time2);
-                    break;
+            if (sortBy == SortBy.TIME)
+                cmp = (times[i] < times[j]) ? -1
+                                            : ((times[i] == times[j]) ? 0 : 1);
+            else
+                cmp = titles[i].compareToIgnoreCase(titles[j]);
 
-                default:
-                    cmp = -1;
+            return (cmp < 0) || ((cmp == 0) && (i < j));
+        }
+
+        private void siftUp(int[] heap, int n)
+        {
+            while (n > 0)
+            {
+                int parent = (n - 1) / 2;
+                if (! less(heap[parent], heap[n]))
                     break;
-            }
 
-            return cmp;
+                swap(heap, parent, n);
+                n = parent;
+            }
         }
 
-        @Override
-        public int hashCode()
+        private void siftDown(int[] heap, int n, int size)
         {
-            return super.hashCode();
+            for (;;)
+            {
+                int child = (2 * n) + 1;
+                if (child >= size)
+                    break;
+
+                if (((child + 1) < size) && less(heap[child], heap[child + 1]))
+                    child++;
+
+                if (! less(heap[n], heap[child]))
+                    break;
+
+                swap(heap, n, child);
+                n = child;
+            }
         }
 
-        @Override
-        public boolean equals(Object o)
+        private static void swap(int[] heap, int i, int j)
         {
-            return (o instanceof ItemComparator);
+            int tmp = heap[i];
+            heap[i] = heap[j];
+            heap[j] = tmp;
         }
     }
 
@@ -191,6 +275,16 @@ public class SortArticlesPlugIn
      * Default sort-by value
      */
     private SortBy defaultSortBy = DEF_SORT_BY;
+
+    /**
+     * The MaxArticlesToShow settings, by feed, and the default (0 for
+     * none). Only this many items need to be sorted; see
+     * {@link MaxArticlesPlugIn}.
+     */
+    private Map<URL,Integer> perFeedMaxArticlesMap =
+        new HashMap<URL,Integer>();
+    private int defaultMaxArticles = 0;
+
     /**
      * For log messages
      */
@@ -278,6 +372,14 @@ public class SortArticlesPlugIn
                                               : parseSortByValue(sectionName,
                                                                  val);
             }
+
+            else if (paramName.equals(VAR_MAX_ARTICLES))
+            {
+                // MaxArticlesPlugIn validates the value.
+
+                defaultMaxArticles =
+                    config.getRequiredCardinalValue(sectionName, paramName);
+            }
         }
 
         catch (ConfigurationException ex)
@@ -331,6 +433,13 @@ public class SortArticlesPlugIn
                 log.debug(feedURL + ": SortBy=" + sortBy);
             }
 
+            else if (paramName.equals(VAR_MAX_ARTICLES))
+            {
+                perFeedMaxArticlesMap.put
+                    (feedInfo.getURL(),
+                     config.getRequiredCardinalValue(sectionName, paramName));
+            }
+
             return true;
         }
 
@@ -438,13 +547,7 @@ public class SortArticlesPlugIn
 
                 case TITLE:
                 case TIME:
-
-                    // Can't just use a TreeSet, with a Comparator, because
-                    // then items with the same title will be weeded out.
-
-                    List<RSSItem> newItems = new ArrayList<RSSItem> (items);
-                    Collections.sort(newItems, new ItemComparator(sortBy));
-                    result = newItems;
+                    result = sortItems(items, sortBy, getMaxArticles(feedURL));
                     break;
 
               default:
@@ -455,4 +558,52 @@ public class SortArticlesPlugIn
         return result;
     }
 
+    /**
+     * Sort items. If only the first <tt>max</tt> items will be shown
+     * (because MaxArticlesPlugIn, which runs after this plug-in, will drop
+     * the rest), only those are sorted; the rest follow, in their original
+     * order.
+     *
+     * @param items   the items
+     * @param sortBy  the sort criteria
+     * @param max     the maximum number of items to be shown, or 0
+     *
+     * @return the sorted items
+     */
+    private List<RSSItem> sortItems(Collection<RSSItem> items,
+                                    SortBy              sortBy,
+                                    int                 max)
+    {
+        RSSItem[] itemArray = items.toArray(new RSSItem[items.size()]);
+        int total = itemArray.length;
+
+        if ((max <= 0) || (max > total))
+            max = total;
+
+        int[] sorted = new ItemSorter(itemArray, sortBy).sort(max);
+        List<RSSItem> result = new ArrayList<RSSItem>(total);
+        for (int i : sorted)
+            result.add(itemArray[i]);
+
+        if (max < total)
+        {
+            boolean[] taken = new boolean[total];
+            for (int i : sorted)
+                taken[i] = true;
+
+            for (int i = 0; i < total; i++)
+            {
+                if (! taken[i])
+                    result.add(itemArray[i]);
+            }
+        }
+
+        return result;
+    }
+
+    private int getMaxArticles(URL feedURL)
+    {
+        Integer max = perFeedMaxArticlesMap.get(feedURL);
+        return (max == null) ? defaultMaxArticles : max;
+    }
 }
@@ -42,6 +42,44 @@
   NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 -->
+<#macro renderChannel channel>
+  <#list channel.items as item>
+  <#local row = channel.itemOffset + item.index>
+
+  <tr valign="top">
+    <#if (row % 2) = 0>
+      <#local evenOdd = "even">
+    <#else>
+      <#local evenOdd = "odd">
+    </#if>
+
+    <#if (item.index = 1)>
+
+    <td class="${evenOdd}Channel" align="left" rowspan="${channel.totalItems}">
+        <a name="${channel.anchorName}"></a>
+        <a href="${channel.url}">${channel.title}</a>&nbsp;&nbsp;<br>
+        <#if channel.date?exists>${channel.date?string("E, dd MMM, yyyy 'at' HH:mm:ss")}</#if>
+        <#if (channel.rssFormat?exists)>{channel.rssFormat}</#if>
+    </td>
+
+    </#if>
+
+    <td class="${evenOdd}ItemRow" align="left">
+      <table border="0" align="left" valign="top" summary="" cellpadding="0" cellspacing="0">
+
+	<tr><td align="left"><a href="${item.url}">${item.title}</a></td></tr>
+	<tr><td align="left"><#if item.date?exists>${item.date?string("E, dd MMM, yyyy 'at' HH:mm:ss")}</#if></td></tr>
+        <#if item.author?exists>
+	<tr><td>${item.author}</td></tr>
+	</#if>
+      </table>
+    </td>
+    <td align="left" class="${evenOdd}ItemRow">${item.description}</td>
+  </tr>
+  </#list>
+  <tr><td colspan="3"><hr></td></tr>
+
+</#macro>
 <title>${title}</title>
 
 <style type="text/css">
@@ -92,44 +130,12 @@
   </tr>
   <tr><td colspan="3"><hr></td></tr>
 
-  <#assign row = 0>
   <#list channels as channel>
-  <#list channel.items as item>
-  <#assign row = row + 1>
-
-  <tr valign="top">
-    <#if (row % 2) = 0>
-      <#assign evenOdd = "even">
-    <#else>
-      <#assign evenOdd = "odd">
-    </#if>
-
-    <#if (item.index = 1)>
-
-    <td class="${evenOdd}Channel" align="left" rowspan="${channel.totalItems}">
-        <a name="${channel.anchorName}"></a>
-        <a href="${channel.url}">${channel.title}</a>&nbsp;&nbsp;<br>
-        <#if channel.date?exists>${channel.date?string("E, dd MMM, yyyy 'at' HH:mm:ss")}</#if>
-        <#if (channel.rssFormat?exists)>{channel.rssFormat}</#if>
-    </td>
-
-    </#if>
-
-    <td class="${evenOdd}ItemRow" align="left">
-      <table border="0" align="left" valign="top" summary="" cellpadding="0" cellspacing="0">
-
-	<tr><td align="left"><a href="${item.url}">${item.title}</a></td></tr>
-	<tr><td align="left"><#if item.date?exists>${item.date?string("E, dd MMM, yyyy 'at' HH:mm:ss")}</#if></td></tr>
-        <#if item.author?exists>
-	<tr><td>${item.author}</td></tr>
-	</#if>
-      </table>
-    </td>
-    <td align="left" class="${evenOdd}ItemRow">${item.description}</td>
-  </tr>
-  </#list>
-  <tr><td colspan="3"><hr></td></tr>
-
+  <#if channel.fragment?exists>
+${channel.fragment}<#t>
+  <#else>
+  <@renderChannel channel/>
+  </#if>
   </#list>
 
 </table>
@@ -42,7 +42,7 @@ ${title}
 ${wrapText (extraText)}
 </#if>
 
-<#list channels as channel>
+<#macro renderChannel channel>
 ---------------------------------------------------------------------------
 ${wrapText (channel.title, 0)}
 ${channel.url}
@@ -60,13 +60,20 @@ ${indentText (item.author, 4)}
 </#if>
 
 ${indentText (item.url, 4)}
-<#assign desc = stripHTML(item.description)>
+<#local desc = stripHTML(item.description)>
 <#if desc != "">
 
 ${wrapText (desc, 8)}
 </#if>
 
 </#list>
+</#macro>
+<#list channels as channel>
+<#if channel.fragment?exists>
+${channel.fragment}<#t>
+<#else>
+<@renderChannel channel/>
+</#if>
 </#list>
 
 ---------------------------------------------------------------------------
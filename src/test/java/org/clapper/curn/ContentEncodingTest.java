@@ -0,0 +1,284 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link ContentEncoding}: decoding each supported coding,
+ * stacked codings and empty bodies, and checking
+ * <tt>Accept-Encoding</tt> values.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class ContentEncodingTest
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String[] BAD_ACCEPT_ENCODINGS =
+    {
+        "",
+        " , ",
+        "br",
+        "gzip, compress",
+        "gzip;q=",
+        "gzip;q=2",
+        "gzip;q=1.1",
+        "gzip;q=1.0001",
+        "gzip;q=0.1234",
+        "gzip;q=-1",
+        "gzip;q=.5",
+        "gzip;q=high",
+        "gzip;level=9",
+        "gzip;q=0.5;q=0.6"
+    };
+
+    /*----------------------------------------------------------------------*\
+                                  Tests
+    \*----------------------------------------------------------------------*/
+
+    @Test
+    public void testNoCoding()
+        throws IOException
+    {
+        byte[] body = body();
+        assertArrayEquals(body, decode(body, null));
+        assertArrayEquals(body, decode(body, ""));
+        assertArrayEquals(body, decode(body, "identity"));
+    }
+
+    @Test
+    public void testGzip()
+        throws IOException
+    {
+        byte[] body = body();
+        assertArrayEquals(body, decode(gzip(body), "gzip"));
+        assertArrayEquals(body, decode(gzip(body), "X-GZIP"));
+    }
+
+    @Test
+    public void testZlibDeflate()
+        throws IOException
+    {
+        byte[] body = body();
+        assertArrayEquals(body, decode(deflate(body, false), "deflate"));
+    }
+
+    @Test
+    public void testRawDeflate()
+        throws IOException
+    {
+        byte[] body = body();
+        assertArrayEquals(body, decode(deflate(body, true), "deflate"));
+    }
+
+    @Test
+    public void testStackedCodings()
+        throws IOException
+    {
+        // The codings are listed in the order they were applied.
+
+        byte[] body = body();
+        assertArrayEquals(body,
+                          decode(deflate(gzip(body), false), "gzip, deflate"));
+        assertArrayEquals(body,
+                          decode(gzip(deflate(body, true)), "deflate, gzip"));
+        assertArrayEquals(body,
+                          decode(gzip(body), "identity, gzip, identity"));
+    }
+
+    @Test
+    public void testWrongOrder()
+    {
+        byte[] body = body();
+        try
+        {
+            decode(deflate(gzip(body), false), "deflate, gzip");
+            fail("Decoded codings in the wrong order");
+        }
+
+        catch (IOException ex)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testEmptyBody()
+        throws IOException
+    {
+        byte[] empty = new byte[0];
+        assertArrayEquals(empty, decode(empty, "gzip"));
+        assertArrayEquals(empty, decode(empty, "deflate"));
+        assertArrayEquals(empty, decode(empty, "gzip, deflate"));
+    }
+
+    @Test(expected=IOException.class)
+    public void testUnsupportedCoding()
+        throws IOException
+    {
+        decode(gzip(body()), "gzip, br");
+    }
+
+    @Test
+    public void testNormalizeAcceptEncoding()
+        throws CurnException
+    {
+        assertEquals(ContentEncoding.DEFAULT_ACCEPT_ENCODING,
+                     ContentEncoding.normalizeAcceptEncoding
+                         (ContentEncoding.DEFAULT_ACCEPT_ENCODING));
+        assertEquals("gzip, deflate;q=0.5",
+                     ContentEncoding.normalizeAcceptEncoding
+                         (" GZIP;q=1.0 , Deflate; Q = 0.5 "));
+        assertEquals("x-gzip, identity;q=0, *;q=0.001",
+                     ContentEncoding.normalizeAcceptEncoding
+                         ("x-gzip;q=1., identity;q=0, *;q=0.001"));
+        assertEquals("gzip",
+                     ContentEncoding.normalizeAcceptEncoding("gzip,,"));
+    }
+
+    @Test
+    public void testBadAcceptEncoding()
+    {
+        for (String value : BAD_ACCEPT_ENCODINGS)
+        {
+            try
+            {
+                ContentEncoding.normalizeAcceptEncoding(value);
+                fail("Accepted \"" + value + "\"");
+            }
+
+            catch (CurnException ex)
+            {
+                // expected
+            }
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get a body big enough to take several reads to decode.
+     */
+    private static byte[] body()
+    {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            buf.append("<item><title>Item ").append(i).append("</title>\n");
+        return buf.toString().getBytes();
+    }
+
+    private static byte[] decode(byte[] data, String contentEncoding)
+        throws IOException
+    {
+        InputStream in =
+            ContentEncoding.decode(new ByteArrayInputStream(data),
+                                   contentEncoding);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try
+        {
+            byte[] buf = new byte[1000];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+        }
+
+        finally
+        {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+
+    private static byte[] gzip(byte[] data)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        write(new GZIPOutputStream(out), data);
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] data, boolean raw)
+        throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+        try
+        {
+            write(new DeflaterOutputStream(out, deflater), data);
+        }
+
+        finally
+        {
+            deflater.end();
+        }
+
+        return out.toByteArray();
+    }
+
+    private static void write(OutputStream out, byte[] data)
+        throws IOException
+    {
+        try
+        {
+            out.write(data);
+        }
+
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs <i>curn</i> end to end, with a file feed and a
+ * {@link TestOutputHandler} that can be told to fail, to check that the
+ * cache is only replaced once output has succeeded.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class CurnTest
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private File directory;
+    private File feedFile;
+    private File cacheFile;
+    private File configFile;
+
+    /*----------------------------------------------------------------------*\
+                             Set-up and Tear-down
+    \*----------------------------------------------------------------------*/
+
+    @Before
+    public void setUp()
+        throws CurnException, IOException
+    {
+        // The data persister is created once, from the first
+        // configuration that's loaded, and kept; so is its cache file.
+        // Every run here uses the same one.
+
+        directory = new File(System.getProperty("java.io.tmpdir"),
+                             "curn-test-run");
+        deleteDirectory();
+        assertTrue(directory.mkdirs());
+
+        feedFile = new File(directory, "feed.xml");
+        cacheFile = new File(directory, "cache.xml");
+        configFile = new File(directory, "curn.cfg");
+
+        write(configFile,
+              "[" + CurnConfig.MAIN_SECTION + "]\n" +
+              "CacheFile: " + cacheFile.getPath() + "\n" +
+              CurnConfig.VAR_DAYS_TO_CACHE + ": 365\n" +
+              "\n" +
+              "[Feed0]\n" +
+              CurnConfig.VAR_FEED_URL + ": " + feedFile.toURI().toURL() +
+              "\n" +
+              "\n" +
+              "[OutputHandlerTest]\n" +
+              CurnConfig.VAR_CLASS + ": " +
+              TestOutputHandler.class.getName() + "\n");
+
+        MetaPlugIn metaPlugIn = TestSupport.getMetaPlugIn();
+        metaPlugIn.addPlugIn(new DataPersisterFactory());
+        TestOutputHandler.fail = false;
+        TestOutputHandler.channelsShown = 0;
+    }
+
+    @After
+    public void tearDown()
+    {
+        deleteDirectory();
+    }
+
+    /*----------------------------------------------------------------------*\
+                                  Tests
+    \*----------------------------------------------------------------------*/
+
+    @Test
+    public void testOutputFailureKeepsCache()
+        throws CurnException, IOException
+    {
+        writeFeed(2);
+        run();
+        assertEquals(1, TestOutputHandler.channelsShown);
+        byte[] saved = read(cacheFile);
+        assertTrue(new String(saved, "UTF-8").contains("/items/1.html"));
+
+        // A new item, and the output fails: the cache must be left as it
+        // was, so the new item is shown next time.
+
+        writeFeed(3);
+        TestOutputHandler.fail = true;
+        try
+        {
+            run();
+            fail("Expected the output failure to be thrown");
+        }
+
+        catch (CurnException ex)
+        {
+            assertEquals("Output failed", rootCause(ex).getMessage());
+        }
+
+        assertArrayEquals(saved, read(cacheFile));
+        assertFalse(new File(cacheFile.getPath() + ".tmp").exists());
+
+        // Once output works again, the new item is shown and cached.
+
+        TestOutputHandler.fail = false;
+        TestOutputHandler.channelsShown = 0;
+        run();
+        assertEquals(1, TestOutputHandler.channelsShown);
+        assertFalse(Arrays.equals(saved, read(cacheFile)));
+        assertTrue(new String(read(cacheFile), "UTF-8")
+                       .contains("/items/2.html"));
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private void run()
+        throws CurnException, IOException
+    {
+        Curn curn = new Curn(new PrintWriter(new StringWriter()));
+        curn.run(configFile.toURI().toURL(), "UTF-8", true);
+    }
+
+    private void writeFeed(int totalItems)
+        throws IOException
+    {
+        StringBuilder buf = new StringBuilder();
+        buf.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        buf.append("<rss version=\"2.0\"><channel>\n");
+        buf.append("<title>Test</title>\n");
+        buf.append("<link>" + TestSupport.feedURL(0) + "</link>\n");
+        buf.append("<description>Test feed</description>\n");
+        for (int i = 0; i < totalItems; i++)
+        {
+            buf.append("<item><title>Item " + i + "</title>");
+            buf.append("<link>" + TestSupport.itemURL(0, i) + "</link>");
+            buf.append("<description>Item " + i + "</description></item>\n");
+        }
+        buf.append("</channel></rss>\n");
+        write(feedFile, buf.toString());
+    }
+
+    private static void write(File file, String s)
+        throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            out.write(s.getBytes("UTF-8"));
+        }
+
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static byte[] read(File file)
+        throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try
+        {
+            byte[] result = new byte[(int) in.length()];
+            in.readFully(result);
+            return result;
+        }
+
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static Throwable rootCause(Throwable ex)
+    {
+        while (ex.getCause() != null)
+            ex = ex.getCause();
+        return ex;
+    }
+
+    private void deleteDirectory()
+    {
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+                file.delete();
+        }
+
+        directory.delete();
+    }
+}
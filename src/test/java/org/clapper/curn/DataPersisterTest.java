@@ -0,0 +1,278 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests how the {@link DataPersister} decides whether there's anything to
+ * save.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class DataPersisterTest
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String NAMESPACE = "org.clapper.curn.test";
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Keeps the saved data in memory, and counts the saves.
+     */
+    private static class MemoryDataPersister extends DataPersister
+    {
+        List<PersistentFeedData> feeds = new ArrayList<PersistentFeedData>();
+        Collection<PersistentMetadataGroup> extra =
+            new ArrayList<PersistentMetadataGroup>();
+        int saves = 0;
+
+        public void init(CurnConfig curnConfig)
+        {
+        }
+
+        protected boolean isEnabled()
+        {
+            return true;
+        }
+
+        protected void startLoadOperation()
+        {
+        }
+
+        protected void endLoadOperation()
+        {
+        }
+
+        protected void doLoad(LoadedDataHandler loadedDataHandler)
+            throws CurnException
+        {
+            for (PersistentFeedData feedData : feeds)
+                loadedDataHandler.feedLoaded(feedData);
+            for (PersistentMetadataGroup group : extra)
+                loadedDataHandler.extraMetadataLoaded(group);
+        }
+
+        protected void startSaveOperation()
+        {
+            feeds = new ArrayList<PersistentFeedData>();
+            saves++;
+        }
+
+        protected void endSaveOperation()
+        {
+        }
+
+        protected void saveFeedData(PersistentFeedData feedData)
+        {
+            feeds.add(feedData);
+        }
+
+        protected void
+        saveExtraMetadata(Collection<PersistentMetadataGroup> metadata)
+        {
+            extra = metadata;
+        }
+    }
+
+    /**
+     * Keeps one name/value pair for one item, and any extra ones.
+     */
+    private static class TestClient extends AbstractPersistentDataClient
+    {
+        String itemValue = null;
+        final Map<String,String> extra = new HashMap<String,String>();
+
+        public void parseItemMetadata(String         name,
+                                      String         value,
+                                      FeedCacheEntry itemData)
+        {
+            itemValue = value;
+        }
+
+        public void parseExtraMetadata(String name, String value)
+        {
+            extra.put(name, value);
+        }
+
+        public Map<String,String> getMetadataForItem(FeedCacheEntry itemData,
+                                                     FeedCacheEntry feedData)
+        {
+            Map<String,String> result = new HashMap<String,String>();
+            if ((itemValue != null) &&
+                itemData.getEntryURL().equals(TestSupport.itemURL(0, 0)))
+            {
+                result.put("value", itemValue);
+            }
+
+            return result;
+        }
+
+        public Map<String,String> getExtraFeedMetadata()
+        {
+            return extra;
+        }
+
+        public String getMetatdataNamespace()
+        {
+            return NAMESPACE;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private CurnConfig config;
+    private MemoryDataPersister store;
+
+    /*----------------------------------------------------------------------*\
+                                 Set-up
+    \*----------------------------------------------------------------------*/
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        config = TestSupport.loadConfig(1, null);
+
+        // Save a cache with one feed, one item with metadata, and some
+        // extra metadata.
+
+        FeedCache cache = new FeedCache(config);
+        FeedInfo feedInfo = TestSupport.feedInfo(config, 0);
+        cache.addToCache(feedInfo.getURL(), null, feedInfo);
+        cache.addToCache(TestSupport.itemURL(0, 0), null, feedInfo);
+
+        TestClient client = new TestClient();
+        client.itemValue = "Aa";
+        client.extra.put("answer", "42");
+
+        store = new MemoryDataPersister();
+        store.addPersistentDataClient(client);
+        store.saveData(cache);
+        assertEquals(1, store.saves);
+    }
+
+    /*----------------------------------------------------------------------*\
+                                  Tests
+    \*----------------------------------------------------------------------*/
+
+    @Test
+    public void testNothingChanged()
+        throws CurnException
+    {
+        FeedCache cache = load(new TestClient());
+        store.saveData(cache);
+        assertEquals(1, store.saves);
+    }
+
+    @Test
+    public void testItemMetadataChanged()
+        throws CurnException
+    {
+        // "Aa" and "BB" have the same hash code.
+
+        TestClient client = new TestClient();
+        FeedCache cache = load(client);
+        assertEquals("Aa", client.itemValue);
+        client.itemValue = "BB";
+        store.saveData(cache);
+        assertEquals(2, store.saves);
+
+        client = new TestClient();
+        load(client);
+        assertEquals("BB", client.itemValue);
+    }
+
+    @Test
+    public void testItemMetadataRemoved()
+        throws CurnException
+    {
+        TestClient client = new TestClient();
+        FeedCache cache = load(client);
+        client.itemValue = null;
+        store.saveData(cache);
+        assertEquals(2, store.saves);
+    }
+
+    @Test
+    public void testExtraMetadataChanged()
+        throws CurnException
+    {
+        TestClient client = new TestClient();
+        FeedCache cache = load(client);
+        client.extra.put("question", "unknown");
+        store.saveData(cache);
+        assertEquals(2, store.saves);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private FeedCache load(TestClient client)
+        throws CurnException
+    {
+        // A fresh persister, as in a new run, reading what was saved.
+
+        MemoryDataPersister persister = new MemoryDataPersister();
+        persister.feeds = store.feeds;
+        persister.extra = store.extra;
+        persister.saves = store.saves;
+        persister.addPersistentDataClient(client);
+
+        FeedCache cache = new FeedCache(config);
+        persister.loadData(cache);
+        store = persister;
+        return cache;
+    }
+}
@@ -0,0 +1,227 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests recording fetches to a {@link FetchArchive} and replaying them.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class FetchArchiveTest
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private File archive;
+    private File feed;
+
+    /*----------------------------------------------------------------------*\
+                                 Set-up
+    \*----------------------------------------------------------------------*/
+
+    @Before
+    public void setUp()
+        throws IOException
+    {
+        archive = File.createTempFile("curn-test", ".archive");
+        feed = File.createTempFile("curn-test", ".xml");
+    }
+
+    @After
+    public void tearDown()
+    {
+        archive.delete();
+        feed.delete();
+    }
+
+    /*----------------------------------------------------------------------*\
+                                  Tests
+    \*----------------------------------------------------------------------*/
+
+    @Test
+    public void testRecordAndReplay()
+        throws Exception
+    {
+        // A "file:" connection stands in for the HTTP one.
+
+        URL url = feed.toURI().toURL();
+        URL deadURL = new URL("http://localhost/dead.xml");
+        byte[] first = body(1000);
+        byte[] second = body(200000);
+
+        FetchArchive recorder = open("RecordFetches");
+        record(recorder, url, first);
+        record(recorder, url, second);
+        recorder.save(recorder.recordFailure(deadURL,
+                                             new ConnectException("refused"),
+                                             0));
+        recorder.close();
+
+        FetchArchive player = open("ReplayFetches");
+        assertArrayEquals(first, replay(player, url));
+        assertArrayEquals(second, replay(player, url));
+
+        // Once the recordings run out, the last one is used again.
+
+        assertArrayEquals(second, replay(player, url));
+
+        try
+        {
+            replay(player, deadURL);
+            fail("Replayed a failed fetch");
+        }
+
+        catch (ConnectException ex)
+        {
+            assertEquals("refused", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testUnreadBody()
+        throws Exception
+    {
+        // A body that's only partly read is recorded as far as it was
+        // read.
+
+        URL url = feed.toURI().toURL();
+        write(body(100000));
+
+        FetchArchive recorder = open("RecordFetches");
+        URLConnection conn = url.openConnection();
+        FetchArchive.Recording recording = recorder.startRecording(conn, 0);
+        InputStream in = recording.capture(conn.getInputStream());
+        byte[] part = new byte[10];
+        IOUtils.readFully(in, part);
+        recorder.save(recording);
+        in.close();
+        recorder.close();
+
+        assertArrayEquals(part, replay(open("ReplayFetches"), url));
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private FetchArchive open(String variable)
+        throws Exception
+    {
+        Map<String,String> params = new HashMap<String,String>();
+        params.put(variable, archive.getPath());
+        params.put("ReplayTiming", "none");
+        return FetchArchive.open(TestSupport.loadConfig(0, params));
+    }
+
+    private void record(FetchArchive recorder, URL url, byte[] data)
+        throws IOException
+    {
+        write(data);
+        URLConnection conn = url.openConnection();
+        FetchArchive.Recording recording = recorder.startRecording(conn, 0);
+        InputStream in = recording.capture(conn.getInputStream());
+        try
+        {
+            assertArrayEquals(data, IOUtils.toByteArray(in));
+        }
+
+        finally
+        {
+            in.close();
+        }
+
+        recorder.save(recording);
+    }
+
+    private byte[] replay(FetchArchive player, URL url)
+        throws IOException
+    {
+        InputStream in = player.openConnection(url).getInputStream();
+        try
+        {
+            return IOUtils.toByteArray(in);
+        }
+
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private void write(byte[] data)
+        throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(feed);
+        try
+        {
+            out.write(data);
+        }
+
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static byte[] body(int size)
+    {
+        byte[] result = new byte[size];
+        for (int i = 0; i < size; i++)
+            result[i] = (byte) ("<item>" + i).charAt(i % 6);
+        return result;
+    }
+}
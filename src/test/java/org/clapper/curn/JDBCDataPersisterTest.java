@@ -0,0 +1,387 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn;
+
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the {@link JDBCDataPersister} against an in-memory H2 database.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class JDBCDataPersisterTest
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final int TOTAL_FEEDS = 2;
+    private static final int ITEMS_PER_FEED = 3;
+    private static final String NAMESPACE = "org.clapper.curn.test";
+
+    /*----------------------------------------------------------------------*\
+                              Private Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Keeps one name/value pair per item, and one extra one.
+     */
+    private static class TestClient extends AbstractPersistentDataClient
+    {
+        final Map<String,String> itemValues = new HashMap<String,String>();
+        final Map<String,String> extra = new HashMap<String,String>();
+
+        public void parseItemMetadata(String         name,
+                                      String         value,
+                                      FeedCacheEntry itemData)
+        {
+            itemValues.put(itemData.getEntryURL().toExternalForm(), value);
+        }
+
+        public void parseExtraMetadata(String name, String value)
+        {
+            extra.put(name, value);
+        }
+
+        public Map<String,String> getMetadataForItem(FeedCacheEntry itemData,
+                                                     FeedCacheEntry feedData)
+        {
+            Map<String,String> result = new HashMap<String,String>();
+            String value =
+                itemValues.get(itemData.getEntryURL().toExternalForm());
+            if (value != null)
+                result.put("value", value);
+            return result;
+        }
+
+        public Map<String,String> getExtraFeedMetadata()
+        {
+            return extra;
+        }
+
+        public String getMetatdataNamespace()
+        {
+            return NAMESPACE;
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private static int databases = 0;
+
+    private String jdbcURL;
+    private Connection connection;
+    private CurnConfig config;
+    private Date pubDate = new Date(1000000000000L);
+
+    /*----------------------------------------------------------------------*\
+                                 Set-up
+    \*----------------------------------------------------------------------*/
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        // The persister closes its connection after each load and save;
+        // this one keeps the in-memory database around between them.
+
+        jdbcURL = "jdbc:h2:mem:curn" + (++databases);
+        connection = DriverManager.getConnection(jdbcURL);
+
+        Map<String,String> params = new HashMap<String,String>();
+        params.put("CacheJDBCURL", jdbcURL);
+        config = TestSupport.loadConfig(TOTAL_FEEDS, params);
+    }
+
+    @After
+    public void tearDown()
+        throws SQLException
+    {
+        connection.close();
+    }
+
+    /*----------------------------------------------------------------------*\
+                                  Tests
+    \*----------------------------------------------------------------------*/
+
+    @Test
+    public void testRoundTrip()
+        throws Exception
+    {
+        FeedCache cache = newCache();
+        TestClient client = new TestClient();
+        client.itemValues.put(TestSupport.itemURL(0, 1).toExternalForm(),
+                              "one");
+        client.extra.put("answer", "42");
+        newPersister(client).saveData(cache);
+
+        assertEquals(TOTAL_FEEDS, count("curn_feed"));
+        assertEquals(TOTAL_FEEDS * ITEMS_PER_FEED, count("curn_item"));
+        assertEquals(1, count("curn_item_metadata"));
+        assertEquals(1, count("curn_extra_metadata"));
+
+        FeedCache loaded = new FeedCache(config);
+        TestClient loadedClient = new TestClient();
+        newPersister(loadedClient).loadData(loaded);
+
+        assertEquals(cache.getAllEntries().size(),
+                     loaded.getAllEntries().size());
+        for (FeedCacheEntry entry : cache.getAllEntries())
+        {
+            FeedCacheEntry copy = loaded.getEntryByURL(entry.getEntryURL());
+            assertNotNull(entry.getEntryURL().toString(), copy);
+            assertEquals(entry.getChannelURL(), copy.getChannelURL());
+            assertEquals(entry.getTimestamp(), copy.getTimestamp());
+            assertEquals(entry.getPublicationDate(),
+                         copy.getPublicationDate());
+        }
+
+        assertEquals(client.itemValues, loadedClient.itemValues);
+        assertEquals(client.extra, loadedClient.extra);
+    }
+
+    @Test
+    public void testOnlyChangedRowsWritten()
+        throws Exception
+    {
+        newPersister(new TestClient()).saveData(newCache());
+
+        FeedCache cache = new FeedCache(config);
+        DataPersister persister = newPersister(new TestClient());
+        persister.loadData(cache);
+
+        // Mark an unchanged row, then change the cache elsewhere. The
+        // mark survives only if the unchanged row isn't written again.
+
+        URL unchanged = TestSupport.itemURL(0, 0);
+        execute("UPDATE curn_item SET last_seen = -1 WHERE item_url = '" +
+                unchanged + "'");
+
+        URL changed = TestSupport.itemURL(1, 1);
+        cache.addToCache(changed, null, TestSupport.feedInfo(config, 1));
+        URL added = TestSupport.itemURL(1, 99);
+        cache.addToCache(added, pubDate, TestSupport.feedInfo(config, 1));
+        persister.saveData(cache);
+
+        assertEquals(-1L, lastSeen(unchanged).longValue());
+        assertEquals(cache.getEntryByURL(changed).getTimestamp(),
+                     lastSeen(changed).longValue());
+        assertNull(select("SELECT pub_date FROM curn_item " +
+                          "WHERE item_url = '" + changed + "'"));
+        assertEquals(cache.getEntryByURL(added).getTimestamp(),
+                     lastSeen(added).longValue());
+    }
+
+    @Test
+    public void testDeletes()
+        throws Exception
+    {
+        TestClient client = new TestClient();
+        client.itemValues.put(TestSupport.itemURL(1, 0).toExternalForm(),
+                              "gone");
+        newPersister(client).saveData(newCache());
+
+        DataPersister persister = newPersister(new TestClient());
+        persister.loadData(new FeedCache(config));
+
+        // Save a cache that has lost one item of feed 0, and all of
+        // feed 1.
+
+        FeedCache smaller = new FeedCache(config);
+        FeedInfo feed = TestSupport.feedInfo(config, 0);
+        smaller.addToCache(feed.getURL(), null, feed);
+        smaller.addToCache(TestSupport.itemURL(0, 0), pubDate, feed);
+        smaller.addToCache(TestSupport.itemURL(0, 1), pubDate, feed);
+        persister.saveData(smaller);
+
+        assertEquals(1, count("curn_feed"));
+        assertEquals(2, count("curn_item"));
+        assertEquals(0, count("curn_item_metadata"));
+        assertNull(lastSeen(TestSupport.itemURL(0, 2)));
+        assertNull(lastSeen(TestSupport.itemURL(1, 0)));
+
+        FeedCache loaded = new FeedCache(config);
+        newPersister(new TestClient()).loadData(loaded);
+        assertEquals(3, loaded.getAllEntries().size());
+    }
+
+    @Test
+    public void testRowsAlreadyInDatabase()
+        throws Exception
+    {
+        // Load an empty database, then add rows behind the persister's
+        // back: the feed, and one of its items, with stale values.
+
+        DataPersister persister = newPersister(new TestClient());
+        persister.loadData(new FeedCache(config));
+
+        URL feedURL = TestSupport.feedURL(0);
+        URL itemURL = TestSupport.itemURL(0, 0);
+        execute("INSERT INTO curn_feed (feed_id, feed_url, last_seen) " +
+                "VALUES (7, '" + feedURL + "', 1)");
+        execute("INSERT INTO curn_item (item_url, feed_id, last_seen) " +
+                "VALUES ('" + itemURL + "', 7, 1)");
+
+        // The persister thinks both are new. Saving must update them,
+        // not fail on the primary keys.
+
+        FeedCache cache = newCache();
+        persister.saveData(cache);
+
+        assertEquals(TOTAL_FEEDS, count("curn_feed"));
+        assertEquals(7L, select("SELECT feed_id FROM curn_feed " +
+                                "WHERE feed_url = '" + feedURL + "'"));
+        assertEquals(TOTAL_FEEDS * ITEMS_PER_FEED, count("curn_item"));
+        assertEquals(cache.getEntryByURL(itemURL).getTimestamp(),
+                     lastSeen(itemURL).longValue());
+        assertEquals(pubDate.getTime(),
+                     select("SELECT pub_date FROM curn_item " +
+                            "WHERE item_url = '" + itemURL + "'"));
+
+        // And the next load sees what was saved.
+
+        FeedCache loaded = new FeedCache(config);
+        newPersister(new TestClient()).loadData(loaded);
+        assertEquals(cache.getAllEntries().size(),
+                     loaded.getAllEntries().size());
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private DataPersister newPersister(PersistentDataClient client)
+        throws CurnException
+    {
+        DataPersister persister = new JDBCDataPersister();
+        persister.init(config);
+        persister.addPersistentDataClient(client);
+        return persister;
+    }
+
+    /**
+     * Make a cache with every feed and its items.
+     */
+    private FeedCache newCache()
+    {
+        FeedCache cache = new FeedCache(config);
+        for (int feed = 0; feed < TOTAL_FEEDS; feed++)
+        {
+            FeedInfo feedInfo = TestSupport.feedInfo(config, feed);
+            cache.addToCache(feedInfo.getURL(), null, feedInfo);
+            for (int item = 0; item < ITEMS_PER_FEED; item++)
+            {
+                cache.addToCache(TestSupport.itemURL(feed, item),
+                                 (item == 2) ? null : pubDate,
+                                 feedInfo);
+            }
+        }
+
+        return cache;
+    }
+
+    private int count(String table)
+        throws SQLException
+    {
+        return ((Number) select("SELECT COUNT(*) FROM " + table)).intValue();
+    }
+
+    private Long lastSeen(URL itemURL)
+        throws SQLException
+    {
+        return (Long) select("SELECT last_seen FROM curn_item " +
+                             "WHERE item_url = '" + itemURL + "'");
+    }
+
+    /**
+     * Run a query, and return the first column of the first row, or null.
+     */
+    private Object select(String sql)
+        throws SQLException
+    {
+        Statement statement = connection.createStatement();
+        try
+        {
+            ResultSet rs = statement.executeQuery(sql);
+            if (! rs.next())
+                return null;
+
+            Object result = rs.getObject(1);
+            return (result instanceof Integer)
+                       ? Long.valueOf(((Integer) result).longValue())
+                       : result;
+        }
+
+        finally
+        {
+            statement.close();
+        }
+    }
+
+    private void execute(String sql)
+        throws SQLException
+    {
+        Statement statement = connection.createStatement();
+        try
+        {
+            statement.executeUpdate(sql);
+        }
+
+        finally
+        {
+            statement.close();
+        }
+    }
+}
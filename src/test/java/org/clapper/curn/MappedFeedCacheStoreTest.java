@@ -0,0 +1,253 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link MappedFeedCacheStore} keeps its entries' URLs across
+ * reopens and rebuilds.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class MappedFeedCacheStoreTest
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Enough items to make the smallest table rebuild.
+     */
+    private static final int REBUILD_ITEMS = 1000;
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private File dir;
+    private File file;
+    private MappedFeedCacheStore store = null;
+
+    /*----------------------------------------------------------------------*\
+                              Set-up, Tear-down
+    \*----------------------------------------------------------------------*/
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        dir = File.createTempFile("curn", ".test");
+        dir.delete();
+        dir.mkdir();
+        file = new File(dir, "cache");
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (store != null)
+            store.close();
+
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    /*----------------------------------------------------------------------*\
+                                  Tests
+    \*----------------------------------------------------------------------*/
+
+    @Test
+    public void testURLsSurviveReopen()
+        throws Exception
+    {
+        store = open(true);
+        put(3);
+        reopen(true);
+
+        assertEquals(urls(3), entryURLs());
+        long key = store.find(TestSupport.itemURL(0, 1));
+        assertEquals(TestSupport.itemURL(0, 1), store.getEntryURL(key));
+    }
+
+    @Test
+    public void testURLsSurviveRebuild()
+        throws Exception
+    {
+        store = open(true);
+        put(REBUILD_ITEMS);
+        assertEquals(urls(REBUILD_ITEMS), entryURLs());
+
+        reopen(true);
+        assertEquals(urls(REBUILD_ITEMS), entryURLs());
+
+        // Only the current generation's URL file is left.
+
+        assertFalse(new File(dir, "cache.urls.0").exists());
+        assertTrue(new File(dir, "cache.urls.1").exists());
+    }
+
+    @Test
+    public void testReadOnly()
+        throws Exception
+    {
+        store = open(true);
+        put(3);
+        store.close();
+        long length = new File(dir, "cache.urls.0").length();
+
+        store = open(false);
+        URL itemURL = TestSupport.itemURL(0, 3);
+        store.put(TestSupport.feedURL(0), itemURL, null, 1);
+        assertEquals(itemURL, store.getEntryURL(store.find(itemURL)));
+        assertEquals(urls(4), entryURLs());
+        store.close();
+
+        assertEquals(length, new File(dir, "cache.urls.0").length());
+        store = open(true);
+        assertEquals(urls(3), entryURLs());
+    }
+
+    @Test
+    public void testLostURLs()
+        throws Exception
+    {
+        store = open(true);
+        put(3);
+        store.force();
+        store.close();
+
+        RandomAccessFile raf =
+            new RandomAccessFile(new File(dir, "cache.urls.0"), "rw");
+        try
+        {
+            raf.setLength(0);
+        }
+
+        finally
+        {
+            raf.close();
+        }
+
+        // The items can still be found, but they aren't listed.
+
+        store = open(true);
+        long key = store.find(TestSupport.itemURL(0, 0));
+        assertTrue(key != FeedCacheStore.NOT_FOUND);
+        assertNull(store.getEntryURL(key));
+
+        Set<URL> expected = new HashSet<URL>();
+        expected.add(TestSupport.feedURL(0));
+        assertEquals(expected, entryURLs());
+    }
+
+    @Test
+    public void testItemEntriesPut()
+        throws Exception
+    {
+        store = open(true);
+        put(3);
+        reopen(true);
+        assertEquals(0, store.getItemEntriesPut().size());
+
+        store.put(TestSupport.feedURL(0), TestSupport.itemURL(0, 1), null, 2);
+        assertEquals(1, store.getItemEntriesPut().size());
+        assertEquals(TestSupport.itemURL(0, 1),
+                     store.getItemEntriesPut().iterator().next()
+                                              .getEntryURL());
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private MappedFeedCacheStore open(boolean writable)
+        throws Exception
+    {
+        return new MappedFeedCacheStore(file, writable);
+    }
+
+    private void reopen(boolean writable)
+        throws Exception
+    {
+        store.force();
+        store.close();
+        store = open(writable);
+    }
+
+    /**
+     * Put a channel entry for feed 0, and items 0 through <i>n</i>-1.
+     */
+    private void put(int n)
+    {
+        URL feedURL = TestSupport.feedURL(0);
+        store.put(feedURL, feedURL, null, 1);
+        for (int i = 0; i < n; i++)
+            store.put(feedURL, TestSupport.itemURL(0, i), null, 1);
+    }
+
+    private Set<URL> urls(int n)
+    {
+        Set<URL> result = new HashSet<URL>();
+        result.add(TestSupport.feedURL(0));
+        for (int i = 0; i < n; i++)
+            result.add(TestSupport.itemURL(0, i));
+        return result;
+    }
+
+    private Set<URL> entryURLs()
+    {
+        Set<URL> result = new HashSet<URL>();
+        for (FeedCacheEntry entry : store.getEntries())
+            result.add(entry.getEntryURL());
+        return result;
+    }
+}
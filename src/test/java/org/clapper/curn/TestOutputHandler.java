@@ -0,0 +1,122 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn;
+
+import java.io.File;
+
+import org.clapper.curn.parser.RSSChannel;
+
+/**
+ * An output handler for tests. It throws away what it's given, or fails
+ * if {@link #fail} is set. It has to be a top-level class, since the
+ * configuration would take the "$" in a nested class's name for a
+ * variable reference.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class TestOutputHandler implements OutputHandler
+{
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Set to make {@link #displayChannel} fail.
+     */
+    static volatile boolean fail = false;
+
+    /**
+     * How many channels have been shown.
+     */
+    static volatile int channelsShown = 0;
+
+    private String name = null;
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    public void init(CurnConfig config, ConfiguredOutputHandler cfgHandler)
+    {
+    }
+
+    public OutputHandler makeCopy()
+    {
+        return new TestOutputHandler();
+    }
+
+    public void displayChannel(RSSChannel channel, FeedInfo feedInfo)
+        throws CurnException
+    {
+        if (fail)
+            throw new CurnException("Output failed");
+        channelsShown++;
+    }
+
+    public void flush()
+    {
+    }
+
+    public String getContentType()
+    {
+        return "text/plain";
+    }
+
+    public File getGeneratedOutput()
+    {
+        return null;
+    }
+
+    public String getOutputEncoding()
+    {
+        return null;
+    }
+
+    public boolean hasGeneratedOutput()
+    {
+        return false;
+    }
+}
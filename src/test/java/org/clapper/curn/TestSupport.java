@@ -0,0 +1,232 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+
+import org.clapper.util.config.ConfigurationException;
+
+/**
+ * Shared set-up code for the unit tests: building a configuration with a
+ * given number of feeds, and generating feed and item URLs.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+final class TestSupport
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * The host used in generated URLs. It has to be one that resolves
+     * without going to the network, since <tt>URL.hashCode()</tt>
+     * resolves the host.
+     */
+    private static final String HOST = "localhost";
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private TestSupport()
+    {
+        // Cannot be instantiated.
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-visible Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the URL of a generated feed.
+     *
+     * @param feed  the feed number
+     *
+     * @return the URL
+     */
+    static URL feedURL(int feed)
+    {
+        return makeURL("http://" + HOST + "/feeds/" + feed + ".xml");
+    }
+
+    /**
+     * Get the URL of an item in a generated feed.
+     *
+     * @param feed  the feed number
+     * @param item  the item number
+     *
+     * @return the URL
+     */
+    static URL itemURL(int feed, int item)
+    {
+        return makeURL("http://" + HOST + "/feeds/" + feed + "/items/" +
+                       item + ".html");
+    }
+
+    /**
+     * Load a configuration with a given number of feeds. The main section
+     * gets any extra parameters supplied; the feeds are named after
+     * {@link #feedURL}.
+     *
+     * @param totalFeeds  how many feeds to configure
+     * @param mainParams  extra parameters for the main section, or null
+     *
+     * @return the configuration
+     *
+     * @throws CurnException on error
+     * @throws IOException   on error
+     */
+    static CurnConfig loadConfig(int totalFeeds, Map<String,String> mainParams)
+        throws CurnException, IOException
+    {
+        getMetaPlugIn();
+
+        StringBuilder buf = new StringBuilder();
+        buf.append("[" + CurnConfig.MAIN_SECTION + "]\n");
+        buf.append(CurnConfig.VAR_DAYS_TO_CACHE + ": 365\n");
+        if (mainParams != null)
+        {
+            for (Map.Entry<String,String> param : mainParams.entrySet())
+                buf.append(param.getKey() + ": " + param.getValue() + "\n");
+        }
+
+        for (int i = 0; i < totalFeeds; i++)
+        {
+            buf.append("\n[Feed" + i + "]\n");
+            buf.append(CurnConfig.VAR_FEED_URL + ": " + feedURL(i) + "\n");
+        }
+
+        // The configuration parser needs a URL to resolve includes
+        // against, so it's loaded from a file.
+
+        CurnConfig config = new CurnConfig(new PrintWriter(new StringWriter()));
+        File file = File.createTempFile("curn-test", ".cfg");
+        try
+        {
+            FileOutputStream out = new FileOutputStream(file);
+            try
+            {
+                out.write(buf.toString().getBytes("UTF-8"));
+            }
+
+            finally
+            {
+                out.close();
+            }
+
+            config.load(file, "UTF-8");
+        }
+
+        catch (ConfigurationException ex)
+        {
+            throw new CurnException(ex);
+        }
+
+        finally
+        {
+            file.delete();
+        }
+
+        return config;
+    }
+
+    /**
+     * Get the feed information for a generated feed.
+     *
+     * @param config  the configuration
+     * @param feed    the feed number
+     *
+     * @return the feed information
+     */
+    static FeedInfo feedInfo(CurnConfig config, int feed)
+    {
+        return config.getFeedInfoMap().get(feedURL(feed));
+    }
+
+    /**
+     * Get the <tt>MetaPlugIn</tt>, creating it (with no plug-ins) if this
+     * is the first call. The configuration code can't run without it.
+     *
+     * @return the <tt>MetaPlugIn</tt>
+     *
+     * @throws CurnException on error
+     */
+    static synchronized MetaPlugIn getMetaPlugIn()
+        throws CurnException
+    {
+        MetaPlugIn metaPlugIn = null;
+        try
+        {
+            metaPlugIn = MetaPlugIn.getMetaPlugIn();
+        }
+
+        catch (AssertionError ex)
+        {
+            // Assertions are enabled, and it doesn't exist yet.
+        }
+
+        if (metaPlugIn == null)
+            metaPlugIn = MetaPlugIn.createMetaPlugIn();
+
+        return metaPlugIn;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static URL makeURL(String s)
+    {
+        try
+        {
+            return new URL(s);
+        }
+
+        catch (MalformedURLException ex)
+        {
+            throw new IllegalArgumentException(s, ex);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+
+package org.clapper.curn.parser;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Compares {@link FastDateParser} with the <tt>SimpleDateFormat</tt>
+ * patterns it replaced: it must agree with them on the dates they both
+ * parse, and differ only in the ways its class comment lists. The default
+ * time zone is set to one that isn't UTC, so that a date parsed as local
+ * time can't pass for one parsed as UTC.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class FastDateParserTest
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * RFC 822 dates both parsers handle. The first two are from the test
+     * feeds.
+     */
+    private static final String[] SAME_RFC822 =
+    {
+        "Thu, 10 Jun 2004 13:12:14 GMT",
+        "Thu, 10 Jun 2004 22:56:49 GMT",
+        "Wed, 28 Jul 2004 00:31:00 EDT",
+        "Mon, 31 Oct 2011 09:05:00 PST",
+        "Sat, 13 Dec 2003 18:30:02 -0500",
+        "Sat, 13 Dec 2003 18:30:02 +0100",
+        "Sat, 13 Dec 2003 18:30:02",
+        "Sat 13 Dec 2003 18:30:02",
+        "Sat, 13 December 2003 18:30:02 GMT"
+    };
+
+    /**
+     * W3C dates both parsers handle. The first two are from the test
+     * feeds.
+     */
+    private static final String[] SAME_W3C =
+    {
+        "2003-12-13T18:30:02Z",
+        "2003-12-13T08:29:29-04:00",
+        "2003-12-13T08:29:29.125Z",
+        "2003-12-13T08:29:29",
+        "2003-12-13T08:29",
+        "2003-12-13",
+        "2003-12",
+        "2003"
+    };
+
+    /*----------------------------------------------------------------------*\
+                            Private Data Items
+    \*----------------------------------------------------------------------*/
+
+    private TimeZone defaultTimeZone;
+
+    /*----------------------------------------------------------------------*\
+                              Set-up, Tear-down
+    \*----------------------------------------------------------------------*/
+
+    @Before
+    public void setUp()
+    {
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    /*----------------------------------------------------------------------*\
+                                  Tests
+    \*----------------------------------------------------------------------*/
+
+    @Test
+    public void testSameAsPatterns()
+    {
+        for (String s : SAME_RFC822)
+        {
+            Date expected = ParserUtil.parseRFC822DateWithFormats(s);
+            assertNotNull(s, expected);
+            assertEquals(s, expected, FastDateParser.parseRFC822(s));
+        }
+
+        for (String s : SAME_W3C)
+        {
+            Date expected = ParserUtil.parseW3CDateWithFormats(s);
+            assertNotNull(s, expected);
+            assertEquals(s, expected, FastDateParser.parseW3C(s));
+        }
+    }
+
+    /**
+     * "UT" and "Z" are RFC 822 zones, and mean UTC. The patterns don't
+     * know them, so they ignored them and used local time.
+     */
+    @Test
+    public void testUTZones()
+    {
+        Date utc = utc(2004, 6, 10, 13, 12, 14);
+        Date local = local(2004, 6, 10, 13, 12, 14);
+        for (String zone : new String[] {"UT", "Z"})
+        {
+            String s = "Thu, 10 Jun 2004 13:12:14 " + zone;
+            assertEquals(s, local, ParserUtil.parseRFC822DateWithFormats(s));
+            assertEquals(s, utc, FastDateParser.parseRFC822(s));
+            assertEquals(s, utc, ParserUtil.parseRFC822Date(s));
+        }
+    }
+
+    /**
+     * RFC 822 makes the day of the week and the seconds optional. The
+     * patterns required both.
+     */
+    @Test
+    public void testOptionalRFC822Fields()
+    {
+        String s = "10 Jun 2004 13:12:14 GMT";
+        assertNull(s, ParserUtil.parseRFC822DateWithFormats(s));
+        assertEquals(s, utc(2004, 6, 10, 13, 12, 14),
+                     FastDateParser.parseRFC822(s));
+
+        s = "Thu, 10 Jun 2004 13:12 GMT";
+        assertNull(s, ParserUtil.parseRFC822DateWithFormats(s));
+        assertEquals(s, utc(2004, 6, 10, 13, 12, 0),
+                     FastDateParser.parseRFC822(s));
+        assertEquals(s, utc(2004, 6, 10, 13, 12, 0),
+                     ParserUtil.parseRFC822Date(s));
+    }
+
+    /**
+     * The patterns' time zone guessing only found "-hh:mm" and "Z", and
+     * used local time for a "+hh:mm" offset.
+     */
+    @Test
+    public void testPositiveW3COffset()
+    {
+        String s = "2003-12-13T08:29:29+04:00";
+        assertEquals(s, local(2003, 12, 13, 8, 29, 29),
+                     ParserUtil.parseW3CDateWithFormats(s));
+        assertEquals(s, utc(2003, 12, 13, 4, 29, 29),
+                     FastDateParser.parseW3C(s));
+        assertEquals(s, utc(2003, 12, 13, 4, 29, 29),
+                     ParserUtil.parseW3CDate(s));
+
+        s = "2003-12-13T08:29:29+0400";
+        assertEquals(s, utc(2003, 12, 13, 4, 29, 29),
+                     FastDateParser.parseW3C(s));
+    }
+
+    /**
+     * What the fast parser doesn't recognize is left to the patterns.
+     */
+    @Test
+    public void testFallback()
+    {
+        String s = "Thu, 10 Jun 2004 13:12:14 Pacific Daylight Time";
+        assertNull(s, FastDateParser.parseRFC822(s));
+        assertEquals(s, ParserUtil.parseRFC822DateWithFormats(s),
+                     ParserUtil.parseRFC822Date(s));
+
+        s = "yesterday";
+        assertNull(s, FastDateParser.parseRFC822(s));
+        assertNull(s, FastDateParser.parseW3C(s));
+        assertNull(s, ParserUtil.parseDate(s));
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static Date utc(int year, int month, int day,
+                            int hour, int minute, int second)
+    {
+        return date(TimeZone.getTimeZone("UTC"),
+                    year, month, day, hour, minute, second);
+    }
+
+    private static Date local(int year, int month, int day,
+                              int hour, int minute, int second)
+    {
+        return date(TimeZone.getDefault(),
+                    year, month, day, hour, minute, second);
+    }
+
+    private static Date date(TimeZone zone, int year, int month, int day,
+                             int hour, int minute, int second)
+    {
+        Calendar cal = Calendar.getInstance(zone);
+        cal.clear();
+        cal.set(year, month - 1, day, hour, minute, second);
+        return cal.getTime();
+    }
+}
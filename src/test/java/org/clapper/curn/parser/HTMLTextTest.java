@@ -0,0 +1,158 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.parser;
+
+import java.util.Random;
+
+import org.clapper.util.html.HTMLUtil;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that {@link HTMLText} gives the same results as the
+ * <tt>HTMLUtil</tt> methods it replaced, on hand-picked fragments and on
+ * random ones built from pieces of markup, entities and the characters
+ * that get mapped.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class HTMLTextTest
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String[] FRAGMENTS =
+    {
+        "Mash-up of the week",
+        "a&nbsp;b",
+        "a\u00a0b",
+        "A &amp B",
+        "A &amp; B",
+        "Say \"hi\" &amp; 'bye'",
+        "<p>One <b>bold</b> word</p>",
+        "1 < 2 > 0",
+        "&lt;b&gt;not a tag&lt;/b&gt;",
+        "&am<b>p;",
+        "&#65;&#x41;&#X41;&#x;&#;&;&#-65;&#+65;&#65601;",
+        "&shy;&yuml;&dagger;&Dagger;&semi;&bogus;&quot;",
+        "\u2018quoted\u2019 \u201cquoted\u201d \u2013 \u2014 \u2011 \u2122",
+        "zero\u200cwidth\u200djoiners, \u2002en\u2003em\u2009thin\u200ahair",
+        "&ndash;&mdash;&lsquo;&rsquo;&ldquo;&rdquo;&trade;&thinsp;&zwj;",
+        "trailing &",
+        "trailing &amp",
+        "&amp&amp;&amp",
+        "&nbsp\t&nbsp\u000b&nbsp\u2028&nbsp;"
+    };
+
+    /**
+     * The pieces random fragments are built from.
+     */
+    private static final String[] PIECES =
+    {
+        "<", ">", "&", ";", "#", "x", "X", "-", "+", " ", "\t", "\n",
+        "a", "b", "p", "Z", "0", "1", "9", "F",
+        "\u00a0", "\u2002", "\u200c", "\u2011", "\u2013", "\u2014",
+        "\u2019", "\u201c", "\u2122", "\u00e9", "\u2028",
+        "<b>", "</p>", "<a href=\"x\">", "\"", "'",
+        "&amp", "&amp;", "&nbsp;", "&nbsp", "&lt;", "&gt;", "&quot;",
+        "&shy;", "&yuml;", "&Yuml;", "&dagger;", "&Dagger;", "&semi;",
+        "&mdash;", "&trade;", "&zwnj;", "&bogus;", "&#", "&#x", "&#160;",
+        "&#x41;", "&#X41;", "&#65;", "&#8212;", "&#65601;", "&#-1;",
+        "&#xD83D;", "&#99999999999;"
+    };
+
+    private static final int RANDOM_FRAGMENTS = 100000;
+    private static final int MAX_PIECES = 12;
+
+    /*----------------------------------------------------------------------*\
+                                  Tests
+    \*----------------------------------------------------------------------*/
+
+    @Test
+    public void testFixedFragments()
+    {
+        for (String html : FRAGMENTS)
+            check(html);
+    }
+
+    @Test
+    public void testReviewedDifferences()
+    {
+        assertEquals("a b", HTMLText.textFromHTML("a&nbsp;b"));
+        assertEquals("a b", HTMLText.textFromHTML("a\u00a0b"));
+        assertEquals("A &amp B", HTMLText.textFromHTML("A &amp B"));
+        assertEquals("\"", HTMLText.escapeHTML("\""));
+    }
+
+    @Test
+    public void testNull()
+    {
+        assertNull(HTMLText.textFromHTML(null));
+        assertNull(HTMLText.escapeHTML(null));
+    }
+
+    @Test
+    public void testRandomFragments()
+    {
+        Random random = new Random(29);
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < RANDOM_FRAGMENTS; i++)
+        {
+            buf.setLength(0);
+            int total = random.nextInt(MAX_PIECES + 1);
+            for (int j = 0; j < total; j++)
+                buf.append(PIECES[random.nextInt(PIECES.length)]);
+            check(buf.toString());
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static void check(String html)
+    {
+        assertEquals("textFromHTML(\"" + html + "\")",
+                     HTMLUtil.textFromHTML(html),
+                     HTMLText.textFromHTML(html));
+        assertEquals("escapeHTML(\"" + html + "\")",
+                     HTMLUtil.escapeHTML(html),
+                     HTMLText.escapeHTML(html));
+    }
+}
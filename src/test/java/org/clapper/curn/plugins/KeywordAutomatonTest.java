@@ -0,0 +1,156 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  <http://opensource.org/licenses/bsd-license.php>
+
+  Copyright &copy; 2004-2012 Brian M. Clapper.
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the name "clapper.org", "curn", nor the names of the project's
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+  IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+  THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+  PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+  CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+  EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+  PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+  PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+  SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.curn.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link KeywordAutomaton} against what {@link ArticleFilterPlugIn}
+ * used to do for each keyword: find it with a quoted regular expression,
+ * compiled with <tt>Pattern.CASE_INSENSITIVE</tt>. The random cases use a
+ * small alphabet, so that keywords overlap, share prefixes and suffixes,
+ * and are found often; it includes non-ASCII letters, which neither side
+ * folds.
+ *
+ * @version <tt>$Revision$</tt>
+ */
+public class KeywordAutomatonTest
+{
+    /*----------------------------------------------------------------------*\
+                             Private Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String ALPHABET = "aAbBcC -.\u00e9\u00c9\u0130";
+
+    private static final int RANDOM_CASES = 2000;
+    private static final int TEXTS_PER_CASE = 20;
+
+    /*----------------------------------------------------------------------*\
+                                  Tests
+    \*----------------------------------------------------------------------*/
+
+    @Test
+    public void testFixedCases()
+    {
+        check(Arrays.asList("he", "she", "his", "hers"),
+              "Ushers and HIS sheep");
+        check(Arrays.asList("mash-up", "mash up", "MASH.UP"),
+              "A Mash-Up of mash ups: mash.up");
+        check(Arrays.asList("abcd", "bc", "c", "bcx"),
+              "xabcx");
+        check(Arrays.asList("aaa", "aa", "a"),
+              "aAaA");
+        check(Arrays.asList("caf\u00e9", "CAF\u00c9", "na\u00efve"),
+              "Caf\u00e9 society, NA\u00cfVE");
+        check(Arrays.asList("longer than the text", "text"),
+              "text");
+        check(Arrays.asList("dup", "dup", "DUP"),
+              "a dup");
+        check(Arrays.asList("anything", "nothing"),
+              "");
+    }
+
+    @Test
+    public void testEmptyKeywords()
+    {
+        check(Arrays.asList("", "x"), "");
+        check(Arrays.asList("", "x"), "abc");
+        check(Arrays.asList("x", ""), "x");
+    }
+
+    @Test
+    public void testNoKeywords()
+    {
+        check(new ArrayList<String>(), "some text");
+    }
+
+    @Test
+    public void testRandomCases()
+    {
+        Random random = new Random(33);
+        for (int i = 0; i < RANDOM_CASES; i++)
+        {
+            List<String> keywords = new ArrayList<String>();
+            int total = 1 + random.nextInt(12);
+            for (int j = 0; j < total; j++)
+                keywords.add(randomString(random, 1 + random.nextInt(5)));
+
+            for (int j = 0; j < TEXTS_PER_CASE; j++)
+                check(keywords, randomString(random, random.nextInt(40)));
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static void check(List<String> keywords, String text)
+    {
+        BitSet expected = new BitSet();
+        for (int id = 0; id < keywords.size(); id++)
+        {
+            Pattern regex = Pattern.compile(Pattern.quote(keywords.get(id)),
+                                            Pattern.CASE_INSENSITIVE);
+            if (regex.matcher(text).find())
+                expected.set(id);
+        }
+
+        KeywordAutomaton automaton = new KeywordAutomaton(keywords);
+        assertEquals(keywords.size(), automaton.size());
+
+        BitSet found = new BitSet();
+        automaton.findAll(text, found);
+        assertEquals("Keywords " + keywords + " in \"" + text + "\"",
+                     expected, found);
+    }
+
+    private static String randomString(Random random, int length)
+    {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        return new String(chars);
+    }
+}